@@ -1,3 +1,5 @@
+import chunkserver.Chunk;
+import chunkserver.ChunkMigrator;
 import chunkserver.ChunkServer;
 import client.FileClient;
 import controller.Controller;
@@ -29,24 +31,38 @@ public class Main {
         sb.append("\t along with the output path of the file.\n\n");
         sb.append("--client-report <controller hostname>\n");
         sb.append("\t get controller's system report on all tracked files\n\n");
+        sb.append("--migrate-chunks <chunk directory>\n");
+        sb.append("\t rewrite chunks stored in <chunk directory> in an older chunk format in the current one,\n");
+        sb.append("\t while no chunk server is running on it.\n\n");
         System.out.println(sb);
     }
 
     public static LongOpt[] generateValidOptions() {
-        LongOpt[] longopts = new LongOpt[5];
+        LongOpt[] longopts = new LongOpt[6];
         longopts[0] = new LongOpt("chunkserver", LongOpt.REQUIRED_ARGUMENT, null, 's');
         longopts[1] = new LongOpt("client-read", LongOpt.REQUIRED_ARGUMENT, null, 'r');
         longopts[2] = new LongOpt("client-write", LongOpt.REQUIRED_ARGUMENT, null, 'w');
         longopts[3] = new LongOpt("client-report", LongOpt.REQUIRED_ARGUMENT, null, 'p');
         longopts[4] = new LongOpt("controller", LongOpt.NO_ARGUMENT, null, 'c');
+        longopts[5] = new LongOpt("migrate-chunks", LongOpt.REQUIRED_ARGUMENT, null, 'm');
         return longopts;
     }
 
     public static void startChunkServer(String controllerHostname) {
         ChunkServer chunkServer = new ChunkServer(controllerHostname, Constants.CONTROLLER_PORT);
+        chunkServer.loadCatalog();
         chunkServer.startServer();
         chunkServer.startHeartbeatMinorTask();
         chunkServer.startHeartbeatMajorTask();
+        chunkServer.startScrubber();
+        chunkServer.startMigration();
+    }
+
+    public static void migrateChunks(String chunkDir) {
+        Chunk.setChunkDir(chunkDir);
+        ChunkMigrator migrator = new ChunkMigrator();
+        migrator.migrateAll();
+        System.out.println(migrator);
     }
 
     public static void startController() {
@@ -120,6 +136,9 @@ public class Main {
                 case 'c':
                     startController();
                     break;
+                case 'm':
+                    migrateChunks(g.getOptarg());
+                    break;
                 default:
                     printUsage();
                     System.exit(1);
@@ -0,0 +1,141 @@
+package chunkserver;
+
+import org.apache.commons.codec.binary.Hex;
+import util.Constants;
+import util.XXHash64;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Algorithms slice checksums can be calculated with, see ChunkIntegrity. Each chunk records the algorithm its
+ * checksums were calculated with in its header, so chunks checksummed with any of them stay readable; new chunks are
+ * checksummed with the cluster's Constants.CHECKSUM_ALGORITHM.
+ * SHA-1 and SHA-256 guard against deliberate tampering as well as bit rot; CRC32C, hardware-accelerated by the JVM
+ * on most CPUs, and xxHash64 only guard against bit rot, at a small fraction of the cost.
+ */
+public enum ChecksumAlgorithm {
+
+    SHA1(1, "sha1", 20),
+    SHA256(2, "sha256", 32),
+    CRC32C(3, "crc32c", 4),
+    XXHASH64(4, "xxhash64", 8);
+
+    // Identifier of the algorithm in a chunk's header
+    public final int id;
+
+    // Name of the algorithm, as given to Constants.CHECKSUM_ALGORITHM
+    public final String algorithmName;
+
+    // Length of one checksum, in bytes
+    public final int checksumLength;
+
+    // Reusable MessageDigests for the SHA algorithms, one per Thread
+    private final ThreadLocal<MessageDigest> messageDigests;
+
+    ChecksumAlgorithm(int id, String algorithmName, int checksumLength) {
+        this.id = id;
+        this.algorithmName = algorithmName;
+        this.checksumLength = checksumLength;
+        this.messageDigests = ThreadLocal.withInitial(() -> {
+            try {
+                return this.algorithmName.startsWith("sha") ?
+                        MessageDigest.getInstance(this.algorithmName.equals("sha1") ? "SHA-1" : "SHA-256") : null;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Unable to find MessageDigest algorithm " + this.algorithmName);
+            }
+        });
+    }
+
+    /**
+     * @return True if slices with equal checksums can be taken to hold equal bytes, i.e. collisions cannot be found
+     * by chance; false for the checksums which only guard against bit rot
+     */
+    public boolean isCryptographic() {
+        return this == SHA1 || this == SHA256;
+    }
+
+    /**
+     * Calculates the checksum of a slice, in place within its buffer.
+     * @param slice Raw bytes of the slice, between the buffer's position and limit; neither is moved
+     * @return Checksum of checksumLength bytes
+     */
+    public byte[] checksum(ByteBuffer slice) {
+        byte[] checksum = new byte[this.checksumLength];
+        checksum(slice, checksum, 0);
+        return checksum;
+    }
+
+    /**
+     * Calculates the checksum of a slice, in place within its buffer, straight into an array of checksums.
+     * @param slice Raw bytes of the slice, between the buffer's position and limit; neither is moved
+     * @param checksums Array to write the checksumLength bytes of the checksum into
+     * @param offset Offset within checksums to write the checksum at
+     */
+    public void checksum(ByteBuffer slice, byte[] checksums, int offset) {
+        switch (this) {
+            case CRC32C:
+                java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+                crc.update(slice.duplicate());
+                ByteBuffer.wrap(checksums, offset, Integer.BYTES).putInt((int) crc.getValue());
+                break;
+            case XXHASH64:
+                ByteBuffer.wrap(checksums, offset, Long.BYTES).putLong(XXHash64.hash(slice, 0));
+                break;
+            default:
+                MessageDigest messageDigest = this.messageDigests.get();
+                messageDigest.update(slice.duplicate());
+                try {
+                    messageDigest.digest(checksums, offset, this.checksumLength);
+                } catch (DigestException e) {
+                    throw new IllegalStateException("Unable to calculate " + this.algorithmName + " checksum", e);
+                }
+        }
+    }
+
+    /**
+     * Calculates the checksum of a slice as hexadecimal text, for display.
+     * @param slice Raw bytes of the slice, between the buffer's position and limit; neither is moved
+     * @return Checksum text of 2 * checksumLength lowercase hex characters
+     */
+    public String checksumText(ByteBuffer slice) {
+        return Hex.encodeHexString(checksum(slice));
+    }
+
+    /**
+     * @param id Identifier of an algorithm in a chunk's header
+     * @return The ChecksumAlgorithm
+     * @throws IllegalArgumentException If no algorithm has the identifier
+     */
+    public static ChecksumAlgorithm fromId(int id) {
+        for (ChecksumAlgorithm algorithm: values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum algorithm " + id);
+    }
+
+    /**
+     * @param algorithmName Name of an algorithm, i.e. "crc32c"
+     * @return The ChecksumAlgorithm
+     * @throws IllegalArgumentException If no algorithm has the name
+     */
+    public static ChecksumAlgorithm fromName(String algorithmName) {
+        for (ChecksumAlgorithm algorithm: values()) {
+            if (algorithm.algorithmName.equalsIgnoreCase(algorithmName)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum algorithm " + algorithmName);
+    }
+
+    /**
+     * @return The algorithm new chunks are checksummed with, Constants.CHECKSUM_ALGORITHM
+     */
+    public static ChecksumAlgorithm getDefault() {
+        return fromName(Constants.CHECKSUM_ALGORITHM);
+    }
+}
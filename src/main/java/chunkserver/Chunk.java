@@ -1,16 +1,20 @@
 package chunkserver;
 
+import messaging.FileRegion;
 import messaging.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Constants;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import static util.Constants.KB;
 
@@ -18,6 +22,7 @@ public class Chunk {
 
     public static Logger log = LoggerFactory.getLogger(Chunk.class);
     private static String CHUNK_DIR; // Not visible for external use on purpose
+    private static ChunkStore STORE;
 
     // Chunk metadata
     public ChunkMetadata metadata;
@@ -50,31 +55,15 @@ public class Chunk {
     public static Chunk load(ChunkFilename filename) throws IOException {
         String chunkPath = filename.getChunkFilename();
 
+        // Map the stored chunk, parsing its metadata and integrity information in place, then copy out just its data
         log.info("Loading chunk from file \"{}\"", chunkPath);
-        Path path = Paths.get(chunkPath);
-        int storedChunkSize = (int) Files.size(path); // size of chunk in bytes including metadata/integrity information
-        log.info("Stored chunk size: {}", storedChunkSize);
-
-        // Read all stored chunk bytes into memory (shouldn't be too expensive, since only a chunk)
-        FileInputStream fileInputStream = new FileInputStream(chunkPath);
-        BufferedInputStream reader = new BufferedInputStream(fileInputStream, 8 * KB);
-        byte[] storedChunk = reader.readNBytes(storedChunkSize);
-        reader.close();
-        fileInputStream.close();
-
-        log.info("Stored chunk byte array size: {}", storedChunk.length);
-
-        // Initialize buffered streams for reading bytes into meaningful data types
-        ByteArrayInputStream byteInputStream = new ByteArrayInputStream(storedChunk);
-        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(byteInputStream));
-
-        // Read Chunk
-        Chunk chunk = Message.readChunk(dataInputStream);
-
-        // Clean up buffered streams and return Chunk
-        dataInputStream.close();
-        byteInputStream.close();
-        return chunk;
+        StoredChunk storedChunk = StoredChunk.read(filename);
+        try {
+            log.info("Stored chunk size: {}", storedChunk.getFileSize());
+            return storedChunk.toChunk();
+        } finally {
+            storedChunk.close();
+        }
     }
 
     /**
@@ -84,25 +73,42 @@ public class Chunk {
      * @throws IOException If unable to write to file.
      */
     public static void save(Chunk chunk, ChunkFilename filename) throws IOException {
-        log.info("Writing chunk to {}", filename);
+        save(chunk.metadata, chunk.integrity, ByteBuffer.wrap(chunk.data), filename);
+    }
+
+    /**
+     * Saves a chunk to disk, with its metadata and integrity information, writing the raw data straight out of a
+     * buffer rather than from an in-memory Chunk.
+     * @param metadata ChunkMetadata of the chunk we are saving
+     * @param integrity ChunkIntegrity of the chunk we are saving
+     * @param data Raw chunk data, between the buffer's position and limit
+     * @param filename ChunkFilename of the chunk file we are saving.
+     * @throws IOException If unable to write to file.
+     */
+    public static void save(ChunkMetadata metadata, ChunkIntegrity integrity, ByteBuffer data, ChunkFilename filename)
+            throws IOException {
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
         try {
-            makeParentDirsIfNotExist(filename);
-        } catch (IOException e) {
-            log.error(e.getMessage());
+            log.info("Writing chunk to {}", filename);
+            getStore().write(filename, metadata, integrity, data);
+            invalidateCached(filename);
+            ChunkCatalog.getInstance().record(filename, metadata, integrity);
+            log.info("Successfully saved chunk {}", filename);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // Initialize output streams for writing to file
-        FileOutputStream fileOutputStream = new FileOutputStream(filename.getChunkFilename());
-        DataOutputStream dataOutStream = new DataOutputStream(fileOutputStream);
-
-        // Write chunk metadata, integrity information, and raw data to disk
-        Message.writeChunk(dataOutStream, chunk);
-
-        // Clean up output streams
-        dataOutStream.flush();
-        dataOutStream.close();
-        fileOutputStream.close();
-        log.info("Successfully saved chunk {}", filename);
+    /**
+     * Drops a chunk from the MappedChunkCache and VerifiedChunkCache, and forgets its verification, because it has
+     * been saved anew or found corrupted.
+     * @param filename ChunkFilename of the chunk
+     */
+    public static void invalidateCached(ChunkFilename filename) {
+        MappedChunkCache.getInstance().invalidate(filename);
+        VerifiedChunkCache.getInstance().invalidate(filename);
+        ChunkVerificationState.getInstance().invalidate(filename);
     }
 
     /**
@@ -112,20 +118,82 @@ public class Chunk {
      * @throws IOException If file not found or could not read/write
      */
     public static void update(Chunk chunk, ChunkFilename filename) throws IOException {
-        String chunkPath = filename.getChunkFilename();
+        update(chunk.metadata, chunk.integrity, ByteBuffer.wrap(chunk.data), filename);
+    }
 
-        // Read chunk version
-        FileInputStream fileInputStream = new FileInputStream(chunkPath);
-        DataInputStream dataInputStream = new DataInputStream(fileInputStream);
-        int chunkVersion = dataInputStream.readInt();
-        dataInputStream.close();
-        fileInputStream.close();
-        chunk.metadata.version = chunkVersion + 1; // set metadata version to read version + 1
-        log.info("Updating chunk version from {} to {}", chunkVersion, chunk.metadata.version);
+    /**
+     * Updates a chunk file, overwriting its data/integrity information/metadata, and increments the version,
+     * writing the raw data straight out of a buffer rather than from an in-memory Chunk. With
+     * Constants.CHUNK_UPDATE_MODE "slices", only the slices which changed are overwritten in place, if the chunk can
+     * be patched; see ChunkPatcher.
+     * @param metadata ChunkMetadata of the new chunk; its version is set to the stored version + 1
+     * @param integrity ChunkIntegrity of the new chunk
+     * @param data Raw chunk data, between the buffer's position and limit
+     * @param filename ChunkFilename components telling us where to read/write to
+     * @throws IOException If file not found or could not read/write
+     */
+    public static void update(ChunkMetadata metadata, ChunkIntegrity integrity, ByteBuffer data,
+                              ChunkFilename filename) throws IOException {
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
+        try {
+            if (ChunkPatcher.isEnabled() && ChunkPatcher.getInstance().patch(filename, metadata, integrity, data)) {
+                log.info("Successfully updated chunk {} in place", filename);
+                return;
+            }
+
+            // Read chunk version
+            int chunkVersion = readChunkVersion(filename);
+            metadata.version = chunkVersion + 1; // set metadata version to read version + 1
+            log.info("Updating chunk version from {} to {}", chunkVersion, metadata.version);
 
-        // Overwrite the old chunk file with the new chunk, metadata, and integrity info
-        save(chunk, filename);
-        log.info("Successfully updated chunk {}", filename);
+            // Overwrite the old chunk file with the new chunk, metadata, and integrity info
+            save(metadata, integrity, data, filename);
+            log.info("Successfully updated chunk {}", filename);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Increments the version of a stored chunk without any new data, as when a client overwrites a file and the chunk
+     * has not changed, so that it stays the same version as the rest of the file. The chunk is left be unless it is
+     * still the expected version and still has exactly the expected slice checksums, so a chunk changed since the
+     * client compared checksums is never passed off as unchanged. With Constants.CHUNK_UPDATE_MODE "slices", only
+     * the header is rewritten, in place, if the chunk can be patched; otherwise the chunk is rewritten from disk.
+     * @param filename ChunkFilename of the stored chunk
+     * @param expectedVersion Version the chunk must be stored at
+     * @param integrity ChunkIntegrity the chunk must be stored with
+     * @return The chunk's new ChunkMetadata, or null if it was not the expected version or checksums
+     * @throws IOException If the chunk is not stored, or unable to rewrite it
+     */
+    public static ChunkMetadata updateVersion(ChunkFilename filename, int expectedVersion, ChunkIntegrity integrity)
+            throws IOException {
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
+        StoredChunk storedChunk = null;
+        try {
+            storedChunk = StoredChunk.open(filename);
+            ChunkMetadata storedMetadata = storedChunk.metadata;
+            if (storedMetadata.getVersion() != expectedVersion || !storedChunk.integrity.equals(integrity)) {
+                log.info("Not updating version of chunk {}: it changed since its checksums were compared", filename);
+                return null;
+            }
+            ChunkMetadata metadata = new ChunkMetadata(storedMetadata.getAbsoluteFilePath(), expectedVersion + 1,
+                    storedMetadata.getSequence(), Timestamp.from(Instant.now()), storedMetadata.getSizeBytes());
+            if (!(ChunkPatcher.isEnabled() &&
+                    ChunkPatcher.getInstance().patchHeader(filename, storedChunk, metadata))) {
+                save(metadata, storedChunk.integrity, storedChunk.getData(), filename);
+            }
+            log.info("Updated version of unchanged chunk {} from {} to {}", filename, expectedVersion,
+                    metadata.getVersion());
+            return metadata;
+        } finally {
+            if (storedChunk != null) {
+                storedChunk.close();
+            }
+            lock.unlock();
+        }
     }
 
     /**
@@ -138,15 +206,50 @@ public class Chunk {
         String chunkPath = filename.getChunkFilename();
 
         log.info("Loading chunk metadata from file \"{}\"", chunkPath);
-        FileInputStream fileInputStream = new FileInputStream(chunkPath);
-        DataInputStream dataInputStream = new DataInputStream(fileInputStream);
-        ChunkMetadata metadata = Message.readChunkMetadata(dataInputStream);
+        DataInputStream dataInputStream = openStoredChunk(filename);
+        ChunkMetadata metadata = Message.readChunkHeader(dataInputStream).getMetadata();
         dataInputStream.close();
-        fileInputStream.close();
 
         return metadata;
     }
 
+    /**
+     * Reads just the version of a stored chunk: out of the fixed-length part of its header, in the current chunk
+     * format, without parsing the rest of it; or out of its metadata, in older formats.
+     * @param filename ChunkFilename of the chunk
+     * @return Version of the stored chunk
+     * @throws IOException If unable to read from file
+     */
+    public static int readChunkVersion(ChunkFilename filename) throws IOException {
+        FileRegion storedRegion = getStore().locate(filename);
+        ByteBuffer fixedHeader = ByteBuffer.allocate(Message.CHUNK_HEADER_LENGTH);
+        try (FileChannel fileChannel = storedRegion.fileChannel) {
+            while (fixedHeader.hasRemaining() && fixedHeader.position() < storedRegion.getCount()) {
+                if (fileChannel.read(fixedHeader, storedRegion.position + fixedHeader.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        if (!fixedHeader.hasRemaining() && fixedHeader.getInt(0) == Message.CHUNK_HEADER_MAGIC &&
+                fixedHeader.getInt(Integer.BYTES) == Message.CHUNK_FORMAT_VERSION) {
+            return fixedHeader.getInt(Message.CHUNK_HEADER_VERSION_OFFSET);
+        }
+        return readChunkMetadata(filename).getVersion();
+    }
+
+    /**
+     * Opens a stream of a stored chunk's bytes, starting with its metadata and integrity information, wherever the
+     * ChunkStore keeps it.
+     * @param filename ChunkFilename of the chunk
+     * @return Buffered stream of the stored chunk, which must be closed
+     * @throws IOException If the chunk is not stored, or unable to open it
+     */
+    public static DataInputStream openStoredChunk(ChunkFilename filename) throws IOException {
+        FileRegion storedRegion = getStore().locate(filename);
+        storedRegion.fileChannel.position(storedRegion.position);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(storedRegion.fileChannel), 8 * KB));
+    }
+
     /**
      * Creates all the parent directories for a chunk file, if they don't already exist or only partially exist
      * @param filename The ChunkFilename object containing all the parts of the chunk's filename
@@ -172,8 +275,7 @@ public class Chunk {
      * @throws IOException If unable to read
      */
     public static Boolean alreadyExists(ChunkFilename filename) throws IOException {
-        File chunkFile = new File(filename.getChunkFilename());
-        return chunkFile.exists();
+        return getStore().exists(filename);
     }
 
     /**
@@ -189,11 +291,34 @@ public class Chunk {
     }
 
     /**
-     * Sets the directory on the Chunk Server's filesystem where chunks are stored.
+     * Sets the directory on the Chunk Server's filesystem where chunks are stored. The ChunkStore is reopened in it
+     * when next used.
      * @param dir Directory as a String
      */
-    public static void setChunkDir(String dir) {
+    public static synchronized void setChunkDir(String dir) {
         CHUNK_DIR = dir;
+        STORE = null;
+    }
+
+    /**
+     * Gets the ChunkStore chunks are saved to and loaded from, opening the one given by Constants.CHUNK_STORE_MODE
+     * in the chunk directory if none is set.
+     * @return ChunkStore in use
+     * @throws IOException If unable to open the ChunkStore
+     */
+    public static synchronized ChunkStore getStore() throws IOException {
+        if (STORE == null) {
+            STORE = ChunkStore.create(getChunkDir());
+        }
+        return STORE;
+    }
+
+    /**
+     * Sets the ChunkStore chunks are saved to and loaded from.
+     * @param store ChunkStore to use
+     */
+    public static synchronized void setStore(ChunkStore store) {
+        STORE = store;
     }
 
 
@@ -0,0 +1,277 @@
+package chunkserver;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton in-memory catalog of the chunks stored on this Chunk Server, keyed by chunk file path.
+ * Kept up to date as chunks are saved, so heartbeats are built from memory rather than by walking the chunk
+ * directory. Changes are appended to a ChunkJournal, which is replayed when the Chunk Server restarts; the directory
+ * is then walked only in the background, to validate the replayed catalog, or to build it from scratch on first start.
+ */
+public class ChunkCatalog {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkCatalog.class);
+
+    private static ChunkCatalog singletonInstance = null;
+
+    /**
+     * What the catalog knows about one stored chunk: its metadata, and a summary of its integrity information.
+     */
+    public static class Entry {
+
+        // Metadata of the stored chunk
+        public ChunkMetadata metadata;
+
+        // Number of slice checksums stored with the chunk
+        public int sliceCount;
+
+        // Raw SHA-1 checksum of all the raw slice checksums together, to compare replicas without their full
+        // checksums; always SHA-1, whatever the chunk's own algorithm, so every Chunk Server's digests compare
+        public byte[] checksumDigest;
+
+        public Entry(ChunkMetadata metadata, ChunkIntegrity integrity) {
+            this.metadata = metadata;
+            this.sliceCount = integrity.getSliceCount();
+            this.checksumDigest = ChecksumAlgorithm.SHA1.checksum(ByteBuffer.wrap(integrity.getSliceChecksums()));
+        }
+
+        public Entry(ChunkMetadata metadata, int sliceCount, byte[] checksumDigest) {
+            this.metadata = metadata;
+            this.sliceCount = sliceCount;
+            this.checksumDigest = checksumDigest;
+        }
+
+        public ChunkMetadata getMetadata() {
+            return metadata;
+        }
+
+        public int getSliceCount() {
+            return sliceCount;
+        }
+
+        public byte[] getChecksumDigest() {
+            return checksumDigest;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, %d slices, checksum digest %s", this.metadata.getAbsoluteFilePath(),
+                    this.sliceCount, ChunkIntegrity.bytesToHexString(this.checksumDigest));
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    // Journal every change to the catalog is appended to, once attached
+    private volatile ChunkJournal journal;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private ChunkCatalog() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton ChunkCatalog instance.
+     */
+    public static synchronized ChunkCatalog getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new ChunkCatalog();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * Attaches a journal, to which every subsequent change to the catalog is appended.
+     * @param journal ChunkJournal, open for appending
+     */
+    public void attachJournal(ChunkJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Records a chunk which has just been saved, replacing anything recorded for the same chunk file.
+     * @param filename ChunkFilename of the saved chunk file
+     * @param metadata ChunkMetadata the chunk was saved with
+     * @param integrity ChunkIntegrity the chunk was saved with
+     */
+    public void record(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity) {
+        record(filename.getChunkFilename(), new Entry(metadata, integrity));
+    }
+
+    private void record(String chunkFile, Entry entry) {
+        this.entries.compute(chunkFile, (key, recorded) -> journalPut(key, entry));
+    }
+
+    /**
+     * Records an Entry read from a chunk file, unless the catalog already holds a later version of the chunk, recorded
+     * by a save made after the file was read.
+     * @return True if the entry was recorded
+     */
+    private boolean recordIfNewer(String chunkFile, Entry entry) {
+        Entry recorded = this.entries.compute(chunkFile, (key, current) ->
+                current != null && current.getMetadata().getVersion() > entry.getMetadata().getVersion() ?
+                        current : journalPut(key, entry));
+        return recorded == entry;
+    }
+
+    /**
+     * Journals a put while the catalog holds the chunk file's mapping locked, so the journal records changes to the
+     * same chunk file in the order the catalog made them.
+     */
+    private Entry journalPut(String chunkFile, Entry entry) {
+        ChunkJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendPut(chunkFile, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Forgets a chunk file, if recorded.
+     * @param filename ChunkFilename of the chunk file
+     */
+    public void remove(ChunkFilename filename) {
+        remove(filename.getChunkFilename());
+    }
+
+    private void remove(String chunkFile) {
+        this.entries.computeIfPresent(chunkFile, (key, recorded) -> {
+            ChunkJournal journal = this.journal;
+            if (journal != null) {
+                journal.appendRemove(key);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk file
+     * @return The catalog's Entry for the chunk file, or null if it is not recorded
+     */
+    public Entry get(ChunkFilename filename) {
+        return this.entries.get(filename.getChunkFilename());
+    }
+
+    /**
+     * @return Number of chunks stored
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return Metadata of every chunk stored
+     */
+    public List<ChunkMetadata> getChunksMetadata() {
+        List<ChunkMetadata> chunksMetadata = new ArrayList<>(this.entries.size());
+        for (Entry entry: this.entries.values()) {
+            chunksMetadata.add(entry.getMetadata());
+        }
+        return chunksMetadata;
+    }
+
+    /**
+     * @return A copy of every entry, by chunk file path
+     */
+    public Map<String, Entry> getEntries() {
+        return new HashMap<>(this.entries);
+    }
+
+    /**
+     * Replaces the catalog's contents with entries replayed from a journal, without journaling them again.
+     * @param entries Catalog entries, by chunk file path
+     */
+    public void load(Map<String, Entry> entries) {
+        this.entries.clear();
+        this.entries.putAll(entries);
+    }
+
+    /**
+     * Reconciles the catalog with the chunk files actually stored: files the catalog is missing, or which were
+     * modified after the journal was last synced, are read into it, and entries whose files are gone are removed.
+     * Changes are journaled. Chunks may be saved meanwhile, so an entry read is never recorded over a later version.
+     * @param chunkFiles Absolute paths of all the chunk files stored, as found by ChunkServer.discoverChunks()
+     * @param journaledUntilMillis Time of the replayed journal's last sync marker, see ChunkJournal.replay(); later
+     * changes may be missing from it
+     */
+    public void validate(List<String> chunkFiles, long journaledUntilMillis) {
+        Set<String> stored = new HashSet<>(chunkFiles);
+        int added = 0, removed = 0;
+        for (String chunkFile: chunkFiles) {
+            try {
+                ChunkFilename filename = new ChunkFilename(chunkFile, Chunk.getChunkDir());
+                if ((!this.entries.containsKey(chunkFile) ||
+                        Chunk.getStore().lastModifiedMillis(filename) >= journaledUntilMillis) &&
+                        recordIfNewer(chunkFile, readEntry(filename))) {
+                    added++;
+                }
+            } catch (IOException e) {
+                log.error("Unable to read chunk file {} into catalog: {}", chunkFile, e.getMessage());
+            }
+        }
+        for (String chunkFile: this.entries.keySet()) {
+            if (!stored.contains(chunkFile) && !isStored(chunkFile)) { // not saved since the walk
+                remove(chunkFile);
+                removed++;
+            }
+        }
+        log.info("Validated chunk catalog against {} chunk files: {} read, {} removed", chunkFiles.size(), added,
+                removed);
+    }
+
+    private static boolean isStored(String chunkFile) {
+        try {
+            return Chunk.alreadyExists(new ChunkFilename(chunkFile, Chunk.getChunkDir()));
+        } catch (IOException e) {
+            return true; // unable to tell; leave the entry be
+        }
+    }
+
+    /**
+     * Replaces the catalog's contents with what is read from the given chunk files' metadata and integrity
+     * information. Files which cannot be read are left out, and logged.
+     * @param chunkFiles Absolute paths of all the chunk files stored, as found by ChunkServer.discoverChunks()
+     */
+    public void rebuild(List<String> chunkFiles) {
+        log.info("Rebuilding chunk catalog from {} chunk files", chunkFiles.size());
+        this.entries.clear();
+        for (String chunkFile: chunkFiles) {
+            ChunkFilename filename = new ChunkFilename(chunkFile, Chunk.getChunkDir());
+            try {
+                this.entries.put(chunkFile, readEntry(filename));
+            } catch (IOException e) {
+                log.error("Unable to read chunk file {} into catalog: {}", chunkFile, e.getMessage());
+            }
+        }
+        log.info("Chunk catalog holds {} chunks", this.entries.size());
+    }
+
+    /**
+     * Reads a catalog Entry from just the metadata and integrity information at the start of a stored chunk.
+     * @param filename ChunkFilename of the chunk file
+     * @return Catalog Entry for the chunk file
+     * @throws IOException If unable to read the chunk file
+     */
+    public static Entry readEntry(ChunkFilename filename) throws IOException {
+        try (DataInputStream dataInputStream = Chunk.openStoredChunk(filename)) {
+            ChunkHeader header = Message.readChunkHeader(dataInputStream);
+            return new Entry(header.getMetadata(), header.getIntegrity());
+        }
+    }
+}
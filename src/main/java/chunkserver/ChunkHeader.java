@@ -0,0 +1,33 @@
+package chunkserver;
+
+/**
+ * Everything stored ahead of a chunk's raw data, as read by Message.readChunkHeader(): the chunk's metadata and
+ * integrity information, and the version of the format they were stored in.
+ */
+public class ChunkHeader {
+
+    // Version of the chunk format, see Message.CHUNK_FORMAT_VERSION: 1 for chunks stored before the format was
+    // versioned
+    public int formatVersion;
+
+    public ChunkMetadata metadata;
+    public ChunkIntegrity integrity;
+
+    public ChunkHeader(int formatVersion, ChunkMetadata metadata, ChunkIntegrity integrity) {
+        this.formatVersion = formatVersion;
+        this.metadata = metadata;
+        this.integrity = integrity;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public ChunkMetadata getMetadata() {
+        return metadata;
+    }
+
+    public ChunkIntegrity getIntegrity() {
+        return integrity;
+    }
+}
@@ -6,50 +6,100 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Constants;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
- * Holds integrity information (SHA-1 hash checksums) for each of the slices of a chunk.
+ * Holds integrity information (hash checksums, by default SHA-1) for each of the slices of a chunk, along with the
+ * ChecksumAlgorithm they were calculated with. Checksums are kept raw, back to back in a single byte array, and are
+ * only rendered as hex text by toString().
  * Provides utility functions for calculating and manipulating above information.
  */
 public class ChunkIntegrity {
 
     public static Logger log = LoggerFactory.getLogger(ChunkIntegrity.class);
 
-    // A list of SHA-1 checksums, one for each slice of the chunk
-    public List<String> sliceChecksums;
+    // Algorithm the checksums were calculated with
+    public ChecksumAlgorithm algorithm;
+
+    // Raw checksums, one for each slice of the chunk, each algorithm.checksumLength bytes long, back to back
+    public byte[] sliceChecksums;
 
     /**
-     * Use this constructor when reading pre-computed slice checksums from a stored chunk file.
+     * Use this constructor when reading pre-computed SHA-1 slice checksums as hash text, from a chunk file stored in
+     * format 1, before the checksum algorithm was recorded.
      * @param sliceChecksums Read slice checksums from the file's integrity information
+     * @throws IllegalArgumentException If a checksum is not SHA-1 hash text
      */
     public ChunkIntegrity(List<String> sliceChecksums) {
+        this.algorithm = ChecksumAlgorithm.SHA1;
+        int checksumLength = this.algorithm.checksumLength;
+        this.sliceChecksums = new byte[sliceChecksums.size() * checksumLength];
+        for (int i = 0; i < sliceChecksums.size(); i++) {
+            byte[] checksum;
+            try {
+                checksum = hexStringToBytes(sliceChecksums.get(i));
+            } catch (DecoderException e) {
+                throw new IllegalArgumentException("Invalid slice checksum " + sliceChecksums.get(i));
+            }
+            if (checksum.length != checksumLength) {
+                throw new IllegalArgumentException(String.format("Expected %d-byte SHA-1 slice checksums, got %d bytes",
+                        checksumLength, checksum.length));
+            }
+            System.arraycopy(checksum, 0, this.sliceChecksums, i * checksumLength, checksumLength);
+        }
+    }
+
+    /**
+     * Use this constructor when reading pre-computed raw slice checksums from a stored chunk file, or from a message.
+     * @param algorithm ChecksumAlgorithm recorded in the file's header
+     * @param sliceChecksums Raw slice checksums, back to back; not copied
+     */
+    public ChunkIntegrity(ChecksumAlgorithm algorithm, byte[] sliceChecksums) {
+        this.algorithm = algorithm;
         this.sliceChecksums = sliceChecksums;
     }
 
     /**
-     * Use this constructor for calculating integrity information of a chunk for the first time.
+     * Use this constructor for calculating integrity information of a chunk for the first time, with the cluster's
+     * default ChecksumAlgorithm.
      * @param chunk Raw bytes of the chunk
      */
     public ChunkIntegrity(byte[] chunk) {
-        this.sliceChecksums = calculateSliceChecksums(chunk);
+        this(ByteBuffer.wrap(chunk));
     }
 
+    /**
+     * Use this constructor for calculating integrity information of a chunk for the first time, with the cluster's
+     * default ChecksumAlgorithm, hashing each slice in place within the buffer.
+     * @param chunk Raw bytes of the chunk, between the buffer's position and limit; neither is moved
+     */
+    public ChunkIntegrity(ByteBuffer chunk) {
+        this.algorithm = ChecksumAlgorithm.getDefault();
+        this.sliceChecksums = calculateSliceChecksums(this.algorithm, chunk);
+    }
 
-    public List<String> getSliceChecksums() {
+    /**
+     * @return True if Constants.CLIENT_CHECKSUM_MODE asks for Clients' slice checksums to be stored unverified; only
+     * ChunkSlices carry them, so this has no effect on chunks received whole in a ChunkStoreRequest
+     */
+    public static boolean trustsClientChecksums() {
+        return Constants.CLIENT_CHECKSUM_MODE.equalsIgnoreCase("trust");
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public byte[] getSliceChecksums() {
         return sliceChecksums;
     }
 
+    public int getSliceCount() {
+        return this.sliceChecksums.length / this.algorithm.checksumLength;
+    }
+
     /**
      * Validates the chunk data by comparing the checksums we read in with the checksums calculated on the actual
      * chunk data. If they don't match then one or the other has been altered.
@@ -57,99 +107,91 @@ public class ChunkIntegrity {
      * @return True if all the checksums match, false otherwise.
      */
     public boolean isChunkValid(byte[] chunk) {
-        List<String> actualChecksums = calculateSliceChecksums(chunk);
-        if (actualChecksums.size() != this.sliceChecksums.size()) {
-            log.error("Expected {} checksums, only calculated {}", this.sliceChecksums.size(), actualChecksums.size());
+        return isChunkValid(ByteBuffer.wrap(chunk));
+    }
+
+    /**
+     * Validates the chunk data by comparing the checksums we read in with the checksums calculated on the actual
+     * chunk data, hashing each slice in place within the buffer.
+     * @param chunk The actual chunk data, between the buffer's position and limit; neither is moved
+     * @return True if all the checksums match, false otherwise.
+     */
+    public boolean isChunkValid(ByteBuffer chunk) {
+        byte[] actualChecksums = calculateSliceChecksums(this.algorithm, chunk);
+        if (actualChecksums.length != this.sliceChecksums.length) {
+            log.error("Expected {} checksums, only calculated {}", getSliceCount(),
+                    actualChecksums.length / this.algorithm.checksumLength);
             return false;
         }
-        for (int i = 0; i < actualChecksums.size(); i++) {
-            String actualChecksum = actualChecksums.get(i);
-            String expectedChecksum = this.sliceChecksums.get(i);
-            if (!actualChecksum.equals(expectedChecksum)) {
-                log.error("Expected checksums[{}] to be {}, got {} instead", i, expectedChecksum, actualChecksum);
-                return false;
-            }
+        int mismatch = Arrays.mismatch(actualChecksums, this.sliceChecksums);
+        if (mismatch >= 0) {
+            int slice = mismatch / this.algorithm.checksumLength;
+            logMismatch(slice, Arrays.copyOfRange(actualChecksums, slice * this.algorithm.checksumLength,
+                    (slice + 1) * this.algorithm.checksumLength));
+            return false;
         }
         log.info("All checksums match; chunk is valid");
         return true;
     }
 
     /**
-     * Calculates the SHA-1 checksums for each of the slices in the chunk, and adds them to the in-memory
-     * sliceChecksums List.
-     * @param chunk The raw bytes of the entire chunk
-     * @return A SHA-1 hash text checksum for each of the slices within the chunk
+     * Validates just the slices of the chunk data which overlap a byte range, hashing each in place within the
+     * buffer, so a partial read need not hash the whole chunk.
+     * @param chunk The actual chunk data, between the buffer's position and limit; neither is moved
+     * @param offset Offset of the range within the chunk data
+     * @param length Length of the range, in bytes
+     * @return True if the checksums of all the overlapping slices match, false otherwise.
      */
-    public static List<String> calculateSliceChecksums(byte[] chunk) {
-        List<String> checksums = new ArrayList<>();
-
-        try {
-            // Init input stream from chunk
-            ByteArrayInputStream byteInputStream = new ByteArrayInputStream(chunk);
-            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(byteInputStream));
-
-            byte[] slice = new byte[Constants.SLICE_SIZE];
-            int bytesRead = dataInputStream.read(slice);
-            int sliceIndex = 0;
-            while (bytesRead != -1) {
-
-                // Resize slice if necessary (for last slice in chunk)
-                if (bytesRead < Constants.SLICE_SIZE) {
-                    byte[] resizedSlice = new byte[bytesRead];
-                    System.arraycopy(slice, 0, resizedSlice, 0, resizedSlice.length);
-                    slice = resizedSlice;
-                }
-
-                checksums.add(calculateSHA1(slice));
-                log.info("Slice {} of size {} bytes: hash={}", sliceIndex, bytesRead, checksums.get(checksums.size()-1));
-                bytesRead = dataInputStream.read(slice); // read the next slice
-                sliceIndex++;
+    public boolean isRangeValid(ByteBuffer chunk, int offset, int length) {
+        if (length <= 0) {
+            return true;
+        }
+        int firstSlice = offset / Constants.SLICE_SIZE;
+        int lastSlice = (offset + length - 1) / Constants.SLICE_SIZE;
+        if (offset < 0 || offset + length > chunk.remaining() || lastSlice >= getSliceCount()) {
+            log.error("Range of {} bytes at offset {} is outside the chunk's {} checksummed slices", length, offset,
+                    getSliceCount());
+            return false;
+        }
+        int checksumLength = this.algorithm.checksumLength;
+        byte[] actualChecksum = new byte[checksumLength];
+        for (int i = firstSlice; i <= lastSlice; i++) {
+            int sliceOffset = i * Constants.SLICE_SIZE;
+            int sliceSize = Math.min(Constants.SLICE_SIZE, chunk.remaining() - sliceOffset);
+            this.algorithm.checksum(chunk.slice(chunk.position() + sliceOffset, sliceSize), actualChecksum, 0);
+            if (Arrays.mismatch(actualChecksum, 0, checksumLength, this.sliceChecksums, i * checksumLength,
+                    (i + 1) * checksumLength) >= 0) {
+                logMismatch(i, actualChecksum);
+                return false;
             }
-            log.info("Finished reading final slice of chunk");
-
-            dataInputStream.close();
-            byteInputStream.close();
-        } catch (IOException e) {
-            log.error("ChunkIntegrity::calculateSliceChecksums(): Caught IOException while attempting to close() input streams!");
         }
+        return true;
+    }
 
-        return checksums;
+    private void logMismatch(int slice, byte[] actualChecksum) {
+        int offset = slice * this.algorithm.checksumLength;
+        log.error("Expected checksums[{}] to be {}, got {} instead", slice, bytesToHexString(
+                Arrays.copyOfRange(this.sliceChecksums, offset, offset + this.algorithm.checksumLength)),
+                bytesToHexString(actualChecksum));
     }
 
     /**
-     * Calculates the SHA-1 hash text of a slice byte array.
-     * Code structure taken from https://www.geeksforgeeks.org/sha-1-hash-in-java/ with modifications
-     * made to string building efficiency.
-     * @param slice Raw bytes of a slice, part of a chunk.
-     * @return Returns a String of length 40, representing the 20-byte (160-bit) hash code in hexadecimal.
-     *  Note: remember that each byte is represented with 2 hex characters, we get 40 characters for 20 bytes.
+     * Calculates the checksums for each of the slices in the chunk with the given algorithm, hashing each slice in
+     * place rather than copying it out of the buffer.
+     * @param algorithm ChecksumAlgorithm to calculate the checksums with
+     * @param chunk The raw bytes of the entire chunk, between the buffer's position and limit; neither is moved
+     * @return A raw checksum for each of the slices within the chunk, back to back
      */
-    public static String calculateSHA1(byte[] slice) {
-        try {
-            // getInstance() method is called with algorithm SHA-1
-            MessageDigest messageDigestInstance = MessageDigest.getInstance("SHA-1");
-
-            // digest() method is called to calculate message digest of the slice
-            byte[] messageDigest = messageDigestInstance.digest(slice);
-
-            // Convert byte array into signum representation
-            BigInteger bigNumber = new BigInteger(1, messageDigest);
-
-            // Convert message digest into hex value
-            StringBuilder hashText = new StringBuilder(bigNumber.toString(16));
-
-            // Add preceding 0s to make it 20 bytes (40 characters)
-            while (hashText.length() < 40) {
-                hashText.insert(0, "0");
-            }
-
-            // return the HashText
-            return hashText.toString();
-
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Unable to find SHA-1 MessageDigest algorithm!");
-            return "";
+    public static byte[] calculateSliceChecksums(ChecksumAlgorithm algorithm, ByteBuffer chunk) {
+        int sliceCount = (chunk.remaining() + Constants.SLICE_SIZE - 1) / Constants.SLICE_SIZE;
+        byte[] checksums = new byte[sliceCount * algorithm.checksumLength];
+        for (int i = 0; i < sliceCount; i++) {
+            int offset = chunk.position() + i * Constants.SLICE_SIZE;
+            int sliceSize = Math.min(Constants.SLICE_SIZE, chunk.limit() - offset);
+            algorithm.checksum(chunk.slice(offset, sliceSize), checksums, i * algorithm.checksumLength);
         }
+        log.debug("Calculated {} {} slice checksums", sliceCount, algorithm.algorithmName);
+        return checksums;
     }
 
     /**
@@ -174,9 +216,11 @@ public class ChunkIntegrity {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Chunk Integrity:\n");
-        sb.append(String.format("\tSlices: %d\n", this.sliceChecksums.size()));
-        for (String sliceChecksum: this.sliceChecksums) {
-            sb.append(String.format("\t\tChecksum: %s\n", sliceChecksum));
+        sb.append(String.format("\tAlgorithm: %s\n", this.algorithm.algorithmName));
+        sb.append(String.format("\tSlices: %d\n", getSliceCount()));
+        for (int offset = 0; offset < this.sliceChecksums.length; offset += this.algorithm.checksumLength) {
+            sb.append(String.format("\t\tChecksum: %s\n", bytesToHexString(
+                    Arrays.copyOfRange(this.sliceChecksums, offset, offset + this.algorithm.checksumLength))));
         }
         return sb.toString();
     }
@@ -187,7 +231,8 @@ public class ChunkIntegrity {
         if (other == this) return true;
         if (!(other instanceof ChunkIntegrity)) return false;
         ChunkIntegrity ciOther = (ChunkIntegrity) other;
-        return (this.sliceChecksums.equals(ciOther.getSliceChecksums()));
+        return (this.algorithm == ciOther.getAlgorithm() &&
+                Arrays.equals(this.sliceChecksums, ciOther.getSliceChecksums()));
     }
 
 }
@@ -0,0 +1,310 @@
+package chunkserver;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.ByteBufferInputStream;
+import util.Constants;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the ChunkCatalog, persisted in the chunk directory so a restarting Chunk Server can replay
+ * it instead of walking and reading every chunk file.
+ * Each record is framed as [int length][record][long CRC32 of record], where a record is either a chunk file put,
+ * with its catalog entry, a chunk file removal, or a sync marker. Records are appended as the catalog changes, and
+ * forced to disk together every Constants.CHUNK_JOURNAL_SYNC_INTERVAL; a torn record at the end of the journal, from
+ * a crash part way through an append, is discarded on replay. Each sync then appends a marker holding the time it
+ * began, which is forced to disk by the next sync: every change made before the last intact marker's time is in the
+ * journal, so replay() reports that time, see getSyncedUntilMillis(), rather than trusting the journal file's mtime.
+ * Once the journal holds many more records than the catalog has entries, it is compacted: rewritten from the
+ * catalog, and atomically moved over the old journal.
+ */
+public class ChunkJournal {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkJournal.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SYNC = 3;
+
+    public Path path;
+    private FileChannel fileChannel;
+    private DataOutputStream dataOutputStream;
+
+    // Records in the journal, and whether any have been appended since the last sync
+    private long recordCount;
+    private boolean dirty;
+
+    // Time of the last intact sync marker replayed, or 0 if there was none
+    private long syncedUntilMillis;
+
+    public ChunkJournal(Path path) {
+        this.path = path;
+    }
+
+    public boolean exists() {
+        return Files.exists(this.path);
+    }
+
+    /**
+     * Reads every intact record in the journal, truncating any torn record off its end.
+     * @return The catalog entries recorded, by chunk file path
+     * @throws IOException If unable to read the journal
+     */
+    public synchronized Map<String, ChunkCatalog.Entry> replay() throws IOException {
+        Map<String, ChunkCatalog.Entry> entries = new HashMap<>();
+        long records = 0;
+        long syncedUntil = 0;
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (journal.remaining() >= Integer.BYTES) {
+                int start = journal.position();
+                int length = journal.getInt();
+                if (length <= 0 || journal.remaining() < length + Long.BYTES) {
+                    journal.position(start);
+                    break;
+                }
+                ByteBuffer record = journal.slice(journal.position(), length);
+                journal.position(journal.position() + length);
+                CRC32 crc = new CRC32();
+                crc.update(record.duplicate());
+                if (crc.getValue() != journal.getLong()) {
+                    journal.position(start);
+                    break;
+                }
+
+                DataInputStream dataInputStream = new DataInputStream(new ByteBufferInputStream(record));
+                byte op = dataInputStream.readByte();
+                records++;
+                if (op == SYNC) {
+                    syncedUntil = dataInputStream.readLong();
+                    continue;
+                }
+                String chunkFile = Message.readString(dataInputStream);
+                if (op == PUT) {
+                    ChunkMetadata metadata = Message.readChunkMetadata(dataInputStream);
+                    int sliceCount = dataInputStream.readInt();
+                    byte[] checksumDigest = new byte[dataInputStream.readInt()];
+                    dataInputStream.readFully(checksumDigest);
+                    entries.put(chunkFile, new ChunkCatalog.Entry(metadata, sliceCount, checksumDigest));
+                } else {
+                    entries.remove(chunkFile);
+                }
+            }
+
+            if (journal.hasRemaining()) {
+                log.warn("Discarding {} bytes of torn records at the end of chunk journal {}", journal.remaining(),
+                        this.path);
+                channel.truncate(journal.position());
+                channel.force(true);
+            }
+        }
+        this.recordCount = records;
+        this.syncedUntilMillis = syncedUntil;
+        log.info("Replayed {} records of chunk journal {}: {} chunks", records, this.path, entries.size());
+        return entries;
+    }
+
+    /**
+     * @return Time, in milliseconds since the epoch, before which every catalog change made is in the replayed
+     * journal, from its last intact sync marker; 0 if it had none, or it has not been replayed
+     */
+    public synchronized long getSyncedUntilMillis() {
+        return syncedUntilMillis;
+    }
+
+    /**
+     * Opens the journal for appending, creating it if it does not exist.
+     * @throws IOException If unable to open the journal
+     */
+    public synchronized void open() throws IOException {
+        this.fileChannel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(this.fileChannel)));
+    }
+
+    /**
+     * Appends a record of a chunk file being put in the catalog. Not durable until the next sync().
+     * @param chunkFile Path of the chunk file
+     * @param entry The chunk file's catalog entry
+     */
+    public synchronized void appendPut(String chunkFile, ChunkCatalog.Entry entry) {
+        try {
+            appendRecord(this.dataOutputStream, PUT, chunkFile, entry);
+            this.recordCount++;
+            this.dirty = true;
+        } catch (IOException e) {
+            log.error("Unable to journal chunk {}: {}", chunkFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a record of a chunk file being removed from the catalog. Not durable until the next sync().
+     * @param chunkFile Path of the chunk file
+     */
+    public synchronized void appendRemove(String chunkFile) {
+        try {
+            appendRecord(this.dataOutputStream, REMOVE, chunkFile, null);
+            this.recordCount++;
+            this.dirty = true;
+        } catch (IOException e) {
+            log.error("Unable to journal removal of chunk {}: {}", chunkFile, e.getMessage());
+        }
+    }
+
+    private static void appendRecord(DataOutputStream out, byte op, String chunkFile, ChunkCatalog.Entry entry)
+            throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(byteOutStream);
+        record.writeByte(op);
+        Message.writeString(record, chunkFile);
+        if (op == PUT) {
+            Message.writeChunkMetadata(record, entry.getMetadata());
+            record.writeInt(entry.getSliceCount());
+            record.writeInt(entry.getChecksumDigest().length);
+            record.write(entry.getChecksumDigest());
+        }
+        record.flush();
+
+        frameRecord(out, byteOutStream.toByteArray());
+    }
+
+    /**
+     * Appends a sync marker: every catalog change made before syncedUntilMillis has been appended ahead of it.
+     */
+    private static void appendSyncMarker(DataOutputStream out, long syncedUntilMillis) throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(byteOutStream);
+        record.writeByte(SYNC);
+        record.writeLong(syncedUntilMillis);
+        record.flush();
+        frameRecord(out, byteOutStream.toByteArray());
+    }
+
+    private static void frameRecord(DataOutputStream out, byte[] recordBytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(recordBytes);
+        out.writeInt(recordBytes.length);
+        out.write(recordBytes);
+        out.writeLong(crc.getValue());
+    }
+
+    /**
+     * Forces every record appended since the last sync to disk, at once, then appends a sync marker for them, which
+     * is forced to disk along with the records of the next sync.
+     */
+    public synchronized void sync() {
+        if (!this.dirty || this.dataOutputStream == null) {
+            return;
+        }
+        long syncStartMillis = System.currentTimeMillis();
+        try {
+            this.dataOutputStream.flush();
+            this.fileChannel.force(false);
+            this.dirty = false;
+            appendSyncMarker(this.dataOutputStream, syncStartMillis);
+            this.recordCount++;
+        } catch (IOException e) {
+            log.error("Unable to sync chunk journal {}: {}", this.path, e.getMessage());
+        }
+    }
+
+    /**
+     * @param catalogSize Number of entries in the catalog
+     * @return True if the journal has grown well past what a compacted journal of the catalog would hold
+     */
+    public synchronized boolean needsCompaction(int catalogSize) {
+        return this.recordCount > Math.max(Constants.CHUNK_JOURNAL_COMPACTION_MIN_RECORDS, 2L * catalogSize);
+    }
+
+    /**
+     * Rewrites the journal as one put record per catalog entry, followed by a sync marker, in a temporary file which
+     * is synced and then atomically moved over the journal. The catalog is copied once appends are held off, so every
+     * change is either in the copy, or appended to the new journal afterwards.
+     * @param catalog The ChunkCatalog being journaled
+     * @throws IOException If unable to write or move the compacted journal
+     */
+    public synchronized void compact(ChunkCatalog catalog) throws IOException {
+        long copiedMillis = System.currentTimeMillis();
+        Map<String, ChunkCatalog.Entry> entries = catalog.getEntries();
+        Path compacted = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            for (Map.Entry<String, ChunkCatalog.Entry> entry: entries.entrySet()) {
+                appendRecord(out, PUT, entry.getKey(), entry.getValue());
+            }
+            appendSyncMarker(out, copiedMillis);
+            out.flush();
+            channel.force(true);
+        }
+
+        close();
+        Files.move(compacted, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        this.recordCount = entries.size() + 1;
+        log.info("Compacted chunk journal {} to {} records", this.path, this.recordCount);
+    }
+
+    /**
+     * Starts a daemon Timer syncing the journal every Constants.CHUNK_JOURNAL_SYNC_INTERVAL, and compacting it
+     * every Constants.CHUNK_JOURNAL_COMPACTION_INTERVAL if it has grown enough.
+     * @param catalog The ChunkCatalog being journaled
+     */
+    public void startSyncTask(ChunkCatalog catalog) {
+        Timer journalDaemon = new Timer("ChunkJournalSync", true);
+        journalDaemon.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, Constants.CHUNK_JOURNAL_SYNC_INTERVAL, Constants.CHUNK_JOURNAL_SYNC_INTERVAL);
+        journalDaemon.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (needsCompaction(catalog.size())) {
+                    try {
+                        compact(catalog);
+                    } catch (IOException e) {
+                        log.error("Unable to compact chunk journal {}: {}", path, e.getMessage());
+                    }
+                }
+            }
+        }, Constants.CHUNK_JOURNAL_COMPACTION_INTERVAL, Constants.CHUNK_JOURNAL_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Syncs and closes the journal.
+     */
+    public synchronized void close() {
+        if (this.dataOutputStream == null) {
+            return;
+        }
+        sync();
+        try {
+            this.dataOutputStream.close();
+        } catch (IOException e) {
+            log.error("Unable to close chunk journal {}: {}", this.path, e.getMessage());
+        }
+        this.dataOutputStream = null;
+        this.fileChannel = null;
+    }
+}
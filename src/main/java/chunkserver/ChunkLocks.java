@@ -0,0 +1,161 @@
+package chunkserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Singleton table of per-chunk read/write locks, striped by chunk file path over a fixed number of locks, so a chunk
+ * is never read or rewritten while another Thread is halfway through writing it.
+ * Writers, i.e. Chunk.save(), Chunk.update(), ChunkStream commits, the ChunkPatcher and the ChunkMigrator, hold a
+ * chunk's write lock from deciding what to write until it has been written. Readers that verify a chunk, i.e. the
+ * VerifiedChunkCache, range reads, the ChunkScrubber and the ChunkMigrator, hold its read lock until it has been
+ * verified. Locks are reentrant, but a Thread holding a chunk's read lock must release it before taking the write
+ * lock.
+ * A response sending a chunk straight from its stored file or mapping outlives the read lock, so it pins the chunk
+ * until it has been sent, see pin(); writers overwriting a chunk in place, i.e. the ChunkPatcher, wait for its pins
+ * to be released under the write lock, while writers replacing the chunk file by an atomic move need not.
+ */
+public class ChunkLocks {
+
+    // Number of locks chunks are striped over; chunks sharing a stripe merely contend with each other
+    public static final int STRIPES = 256;
+
+    private static ChunkLocks singletonInstance = null;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    // Responses still sending chunks of each stripe, guarded by the stripe's lock object
+    private final int[] pins;
+
+    /**
+     * A pin held on a chunk by a response sending it. Releasing a pin more than once does nothing.
+     */
+    public class Pin {
+
+        private final int stripe;
+        private boolean released;
+
+        private Pin(int stripe) {
+            this.stripe = stripe;
+        }
+
+        /**
+         * Releases the pin, once the chunk has been sent, or the response abandoned.
+         */
+        public void release() {
+            synchronized (stripes[this.stripe]) {
+                if (this.released) {
+                    return;
+                }
+                this.released = true;
+                if (--pins[this.stripe] == 0) {
+                    stripes[this.stripe].notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private ChunkLocks() {
+        this.stripes = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.pins = new int[STRIPES];
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton ChunkLocks instance.
+     */
+    public static synchronized ChunkLocks getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new ChunkLocks();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return Index of the stripe the chunk's lock belongs to
+     */
+    public static int stripeIndex(ChunkFilename filename) {
+        return Math.floorMod(filename.getChunkFilename().hashCode(), STRIPES);
+    }
+
+    private ReentrantReadWriteLock stripeOf(ChunkFilename filename) {
+        return this.stripes[stripeIndex(filename)];
+    }
+
+    /**
+     * @param filename ChunkFilename of the chunk
+     * @return Lock held while reading the chunk, shared with other readers
+     */
+    public Lock readLock(ChunkFilename filename) {
+        return stripeOf(filename).readLock();
+    }
+
+    /**
+     * @param filename ChunkFilename of the chunk
+     * @return Lock held while writing the chunk, excluding every other reader and writer
+     */
+    public Lock writeLock(ChunkFilename filename) {
+        return stripeOf(filename).writeLock();
+    }
+
+    /**
+     * Pins a chunk for a response which is about to send it straight from its stored file or mapping, so it is not
+     * overwritten in place until the response has been sent. The chunk's read lock must be held, so the pinned bytes
+     * are the ones read under it.
+     * @param filename ChunkFilename of the chunk
+     * @return Pin to release once the response has been sent or abandoned
+     */
+    public Pin pin(ChunkFilename filename) {
+        int stripe = stripeIndex(filename);
+        synchronized (this.stripes[stripe]) {
+            this.pins[stripe]++;
+        }
+        return new Pin(stripe);
+    }
+
+    /**
+     * Waits for every response sending the chunk to release its pin. The chunk's write lock must be held, so no new
+     * pins are taken meanwhile.
+     * @param filename ChunkFilename of the chunk
+     * @param timeoutMillis Longest time to wait, in milliseconds
+     * @return True if the chunk is no longer pinned, false if it still was after timeoutMillis, or if interrupted
+     */
+    public boolean awaitUnpinned(ChunkFilename filename, long timeoutMillis) {
+        int stripe = stripeIndex(filename);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this.stripes[stripe]) {
+            try {
+                while (this.pins[stripe] > 0) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMillis <= 0) {
+                        return false;
+                    }
+                    this.stripes[stripe].wait(remainingMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return Number of pins held on the chunk's stripe
+     */
+    public int getPins(ChunkFilename filename) {
+        int stripe = stripeIndex(filename);
+        synchronized (this.stripes[stripe]) {
+            return this.pins[stripe];
+        }
+    }
+}
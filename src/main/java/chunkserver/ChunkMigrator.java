@@ -0,0 +1,150 @@
+package chunkserver;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Rewrites chunks stored in an older chunk format in the current one, see Message.CHUNK_FORMAT_VERSION, keeping their
+ * metadata, version and checksums as they are. Only chunks which pass verification are migrated, so a corrupted chunk
+ * is never given a fresh header vouching for it; it is left to be found and repaired as before.
+ * Chunks are migrated lazily, by the ChunkScrubber as it verifies them, or in bulk, either in the background at
+ * startup or offline with Main --migrate-chunks; see Constants.CHUNK_MIGRATION_MODE.
+ */
+public class ChunkMigrator implements Runnable {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkMigrator.class);
+
+    // Totals since the migrator was created; the ChunkScrubber and a bulk migration may both be migrating chunks
+    private final AtomicLong chunksMigrated = new AtomicLong(0);
+    private final AtomicLong chunksSkipped = new AtomicLong(0);
+
+    /**
+     * Migrates every chunk, as a background Thread.
+     */
+    @Override
+    public void run() {
+        migrateAll();
+    }
+
+    /**
+     * Migrates every chunk in the ChunkStore, in order of chunk file path.
+     * @return Number of chunks migrated
+     */
+    public long migrateAll() {
+        List<String> chunkFiles;
+        try {
+            chunkFiles = new ArrayList<>(Chunk.getStore().list());
+        } catch (IOException e) {
+            log.error("Unable to list chunks to migrate: {}", e.getMessage());
+            return 0;
+        }
+        Collections.sort(chunkFiles);
+        log.info("Migrating up to {} chunks to chunk format {}", chunkFiles.size(), Message.CHUNK_FORMAT_VERSION);
+
+        long migratedBefore = this.chunksMigrated.get();
+        for (String chunkFile: chunkFiles) {
+            ChunkFilename filename = new ChunkFilename(chunkFile, Chunk.getChunkDir());
+            try {
+                migrate(filename);
+            } catch (IOException e) {
+                log.error("Unable to migrate chunk {}: {}", filename, e.getMessage());
+                this.chunksSkipped.incrementAndGet();
+            }
+        }
+        log.info("Completed chunk migration: {}", this);
+        return this.chunksMigrated.get() - migratedBefore;
+    }
+
+    /**
+     * Migrates a chunk, if it is stored in an older chunk format.
+     * @param filename ChunkFilename of the chunk
+     * @return True if the chunk was rewritten in the current format
+     * @throws IOException If unable to open or rewrite the chunk
+     */
+    public boolean migrate(ChunkFilename filename) throws IOException {
+        String identity = Chunk.getStore().identify(filename);
+        StoredChunk storedChunk;
+        boolean corrupted;
+        Lock lock = ChunkLocks.getInstance().readLock(filename); // let go before the rewrite takes the write lock
+        lock.lock();
+        try {
+            storedChunk = StoredChunk.open(filename);
+            corrupted = needsMigration(storedChunk) && !storedChunk.isValid();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (corrupted) {
+                log.warn("Not migrating chunk {}: it is corrupted", filename);
+                this.chunksSkipped.incrementAndGet();
+                return false;
+            }
+            return migrate(filename, identity, storedChunk);
+        } finally {
+            storedChunk.close();
+        }
+    }
+
+    /**
+     * Migrates a chunk which has just been opened and verified, if it is stored in an older chunk format. The chunk is
+     * checked for changes and rewritten under its write lock, see ChunkLocks, so no write can land in between.
+     * @param filename ChunkFilename of the chunk
+     * @param identity Identity of the stored chunk, see ChunkStore.identify(), taken before it was opened
+     * @param storedChunk The open StoredChunk, already found valid
+     * @return True if the chunk was rewritten in the current format
+     * @throws IOException If unable to rewrite the chunk
+     */
+    public boolean migrate(ChunkFilename filename, String identity, StoredChunk storedChunk) throws IOException {
+        if (!needsMigration(storedChunk)) {
+            return false;
+        }
+
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
+        try {
+            // Leave the chunk be if it was rewritten since it was opened, rather than put the old version back
+            if (!identity.equals(Chunk.getStore().identify(filename))
+                    || Chunk.readChunkVersion(filename) != storedChunk.metadata.getVersion()) {
+                log.info("Not migrating chunk {}: it changed while being migrated", filename);
+                this.chunksSkipped.incrementAndGet();
+                return false;
+            }
+            Chunk.save(storedChunk.metadata, storedChunk.integrity, storedChunk.getData(), filename);
+        } finally {
+            lock.unlock();
+        }
+        this.chunksMigrated.incrementAndGet();
+        log.info("Migrated chunk {} from chunk format {} to {}", filename, storedChunk.formatVersion,
+                Message.CHUNK_FORMAT_VERSION);
+        return true;
+    }
+
+    /**
+     * @param storedChunk An open StoredChunk
+     * @return True if the chunk is stored in an older chunk format
+     */
+    public static boolean needsMigration(StoredChunk storedChunk) {
+        return storedChunk.formatVersion < Message.CHUNK_FORMAT_VERSION;
+    }
+
+    public long getChunksMigrated() {
+        return chunksMigrated.get();
+    }
+
+    public long getChunksSkipped() {
+        return chunksSkipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d chunks migrated, %d skipped", this.chunksMigrated.get(), this.chunksSkipped.get());
+    }
+}
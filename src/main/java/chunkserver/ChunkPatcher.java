@@ -0,0 +1,394 @@
+package chunkserver;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.ByteBufferInputStream;
+import util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+
+/**
+ * Singleton applying updates to stored chunks in place, one slice at a time: the new chunk's slice checksums are
+ * diffed against the stored checksum table, and only the slices which changed are written over, along with the
+ * header, which holds the new checksums and version. For files rewritten with small edits, this writes a few slices
+ * rather than the whole chunk. A slice is only taken to be unchanged by its checksum if the checksum algorithm is
+ * cryptographic; otherwise its stored bytes are compared too, as a CRC32C or xxHash64 collision is not unlikely.
+ * Updates are made crash-safe by redo intent logs in the chunk directory, one per ChunkLocks stripe, so patches of
+ * chunks in different stripes are logged concurrently: the header and changed slices are written to the log of the
+ * chunk's stripe, framed as [int length][record][long CRC32 of record], and forced to disk before any of them are
+ * written to the chunk file; the log is emptied once the chunk file has been forced too. On startup, recover()
+ * redoes the updates left in the logs, and discards torn ones, which never reached their chunk files.
+ * Only chunks in the current chunk format, in a FileChunkStore, with the same size and checksum algorithm as the
+ * update, and at most Constants.CHUNK_PATCH_MAX_CHANGED of their slices changed, are patched; for anything else,
+ * patch() declines, and the chunk is rewritten whole as before.
+ * Patches are made under the chunk's write lock, see ChunkLocks, which readers verifying the chunk also take, so
+ * they never see the new header over old slices and take a chunk being patched for a corrupted one. Reads still
+ * sending the chunk from its file or mapping once verified hold a pin on it instead; patches wait for those to be
+ * sent, for up to Constants.CHUNK_PATCH_PIN_TIMEOUT, and otherwise decline, as the chunk's old file is then left
+ * intact by rewriting it whole.
+ */
+public class ChunkPatcher {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkPatcher.class);
+
+    private static ChunkPatcher singletonInstance = null;
+
+    /**
+     * Bytes to write at a position within a chunk file.
+     */
+    public static class Write {
+
+        public long position;
+        public byte[] bytes;
+
+        public Write(long position, byte[] bytes) {
+            this.position = position;
+            this.bytes = bytes;
+        }
+    }
+
+    // Totals since startup
+    private long chunksPatched;
+    private long slicesWritten;
+    private long slicesSkipped;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private ChunkPatcher() {}
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton ChunkPatcher instance.
+     */
+    public static synchronized ChunkPatcher getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new ChunkPatcher();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * @return True if Constants.CHUNK_UPDATE_MODE asks for chunks to be updated in place
+     */
+    public static boolean isEnabled() {
+        return Constants.CHUNK_UPDATE_MODE.equalsIgnoreCase("slices");
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return Path of the intent log for the chunk's ChunkLocks stripe, guarded by the chunk's write lock
+     */
+    public static Path getIntentLogPath(ChunkFilename filename) {
+        return Paths.get(Chunk.getChunkDir(),
+                Constants.CHUNK_INTENT_LOG_FILENAME + "." + ChunkLocks.stripeIndex(filename));
+    }
+
+    /**
+     * @return Paths of every intent log in the chunk directory
+     * @throws IOException If unable to list the chunk directory
+     */
+    public static List<Path> getIntentLogPaths() throws IOException {
+        List<Path> intentLogPaths = new ArrayList<>();
+        Path chunkDir = Paths.get(Chunk.getChunkDir());
+        if (Files.isDirectory(chunkDir)) {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(chunkDir,
+                    Constants.CHUNK_INTENT_LOG_FILENAME + ".*")) {
+                paths.forEach(intentLogPaths::add);
+            }
+        }
+        return intentLogPaths;
+    }
+
+    /**
+     * Updates a stored chunk in place, writing only the slices which changed, if it can be patched.
+     * On success, metadata's version is set to the stored version + 1.
+     * @param filename ChunkFilename of the stored chunk
+     * @param metadata ChunkMetadata of the new chunk
+     * @param integrity ChunkIntegrity of the new chunk
+     * @param data Raw data of the new chunk, between the buffer's position and limit
+     * @return True if the chunk was patched, false if it must be rewritten whole instead
+     * @throws IOException If unable to read the stored chunk, or to log or write the update
+     */
+    public boolean patch(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity, ByteBuffer data)
+            throws IOException {
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
+        try {
+            return awaitSends(filename) && patchSlices(filename, metadata, integrity, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean patchSlices(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity,
+                                ByteBuffer data) throws IOException {
+        if (!(Chunk.getStore() instanceof FileChunkStore)) {
+            return false;
+        }
+
+        List<Write> writes = new ArrayList<>();
+        int sliceCount = integrity.getSliceCount();
+        StoredChunk storedChunk = StoredChunk.open(filename);
+        try {
+            if (storedChunk.formatVersion != Message.CHUNK_FORMAT_VERSION ||
+                    storedChunk.metadata.getSizeBytes() != data.remaining() ||
+                    storedChunk.integrity.getAlgorithm() != integrity.getAlgorithm() ||
+                    storedChunk.integrity.getSliceCount() != sliceCount) {
+                return false;
+            }
+
+            // Diff the checksum tables, collecting the slices which changed
+            byte[] storedChecksums = storedChunk.integrity.getSliceChecksums();
+            byte[] newChecksums = integrity.getSliceChecksums();
+            ChecksumAlgorithm algorithm = integrity.getAlgorithm();
+            int checksumLength = algorithm.checksumLength;
+            for (int i = 0; i < sliceCount; i++) {
+                int from = i * checksumLength;
+                int sliceOffset = i * Constants.SLICE_SIZE;
+                int sliceLength = Math.min(Constants.SLICE_SIZE, data.remaining() - sliceOffset);
+                if (Arrays.mismatch(storedChecksums, from, from + checksumLength, newChecksums, from,
+                        from + checksumLength) < 0 && (algorithm.isCryptographic() ||
+                        storedChunk.getData(sliceOffset, sliceLength).equals(
+                                data.slice(data.position() + sliceOffset, sliceLength)))) {
+                    continue;
+                }
+                if (writes.size() + 1 > Constants.CHUNK_PATCH_MAX_CHANGED * sliceCount) {
+                    return false; // cheaper to rewrite the chunk sequentially
+                }
+                byte[] slice = new byte[sliceLength];
+                data.get(data.position() + sliceOffset, slice);
+                writes.add(new Write(storedChunk.dataOffset + sliceOffset, slice));
+            }
+
+            // Rewrite the header too, which is the same length: same size, algorithm, slice count and path
+            metadata.version = storedChunk.metadata.getVersion() + 1;
+            byte[] header = marshalHeader(metadata, integrity);
+            if (header.length != storedChunk.dataOffset ||
+                    !storedChunk.metadata.getAbsoluteFilePath().equals(metadata.getAbsoluteFilePath())) {
+                return false;
+            }
+            writes.add(0, new Write(0, header));
+        } finally {
+            storedChunk.close();
+        }
+
+        commit(filename, metadata, integrity, writes);
+        return true;
+    }
+
+    /**
+     * Rewrites just the header of a stored chunk in place, with new metadata, leaving its data and checksums as they
+     * are, if it can be patched; see Chunk.updateVersion().
+     * @param filename ChunkFilename of the stored chunk
+     * @param storedChunk The stored chunk, open
+     * @param metadata New ChunkMetadata of the chunk, of the same size and path
+     * @return True if the header was rewritten, false if the chunk must be rewritten whole instead
+     * @throws IOException If unable to log or write the update
+     */
+    public boolean patchHeader(ChunkFilename filename, StoredChunk storedChunk, ChunkMetadata metadata)
+            throws IOException {
+        if (!(Chunk.getStore() instanceof FileChunkStore) ||
+                storedChunk.formatVersion != Message.CHUNK_FORMAT_VERSION ||
+                !storedChunk.metadata.getAbsoluteFilePath().equals(metadata.getAbsoluteFilePath())) {
+            return false;
+        }
+        byte[] header = marshalHeader(metadata, storedChunk.integrity);
+        if (header.length != storedChunk.dataOffset) {
+            return false;
+        }
+        List<Write> writes = new ArrayList<>();
+        writes.add(new Write(0, header));
+        Lock lock = ChunkLocks.getInstance().writeLock(filename);
+        lock.lock();
+        try {
+            if (!awaitSends(filename)) {
+                return false;
+            }
+            commit(filename, metadata, storedChunk.integrity, writes);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Waits for reads still sending the chunk from its file or mapping to release their pins, see ChunkLocks.pin().
+     * The chunk's write lock must be held.
+     * @return True if none are left, false if the chunk must be rewritten whole instead
+     */
+    private static boolean awaitSends(ChunkFilename filename) {
+        if (ChunkLocks.getInstance().awaitUnpinned(filename, Constants.CHUNK_PATCH_PIN_TIMEOUT)) {
+            return true;
+        }
+        log.info("Chunk {} is still being sent; rewriting it whole instead of patching it in place", filename);
+        return false;
+    }
+
+    /**
+     * Logs and applies an update, the first write of which is the header, then records the chunk's new state. The
+     * chunk's write lock must be held, which also guards the intent log of its stripe.
+     */
+    private void commit(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity,
+                        List<Write> writes) throws IOException {
+        Path intentLogPath = getIntentLogPath(filename);
+        logIntent(intentLogPath, filename.getChunkFilename(), writes);
+        apply(filename.getChunkFilename(), writes);
+        clearIntent(intentLogPath);
+
+        Chunk.invalidateCached(filename);
+        ChunkCatalog.getInstance().record(filename, metadata, integrity);
+        int sliceCount = integrity.getSliceCount();
+        synchronized (this) {
+            this.chunksPatched++;
+            this.slicesWritten += writes.size() - 1;
+            this.slicesSkipped += sliceCount - (writes.size() - 1);
+        }
+        log.info("Patched {} of {} slices of chunk {} in place, as version {}", writes.size() - 1, sliceCount,
+                filename, metadata.getVersion());
+    }
+
+    private static byte[] marshalHeader(ChunkMetadata metadata, ChunkIntegrity integrity) throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+        Message.writeChunkHeader(dataOutStream, metadata, integrity);
+        dataOutStream.flush();
+        return byteOutStream.toByteArray();
+    }
+
+    /**
+     * Writes an update to an intent log, forcing it to disk.
+     */
+    static void logIntent(Path intentLogPath, String chunkFile, List<Write> writes) throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(byteOutStream);
+        Message.writeString(record, chunkFile);
+        record.writeInt(writes.size());
+        for (Write write: writes) {
+            record.writeLong(write.position);
+            record.writeInt(write.bytes.length);
+            record.write(write.bytes);
+        }
+        record.flush();
+
+        byte[] recordBytes = byteOutStream.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(recordBytes);
+        ByteBuffer framed = ByteBuffer.allocate(Integer.BYTES + recordBytes.length + Long.BYTES);
+        framed.putInt(recordBytes.length).put(recordBytes).putLong(crc.getValue()).flip();
+        try (FileChannel channel = FileChannel.open(intentLogPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (framed.hasRemaining()) {
+                channel.write(framed);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes an update's bytes into the chunk file, forcing them to disk.
+     */
+    private static void apply(String chunkFile, List<Write> writes) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(chunkFile), StandardOpenOption.WRITE)) {
+            for (Write write: writes) {
+                ByteBuffer bytes = ByteBuffer.wrap(write.bytes);
+                long position = write.position;
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Empties an intent log once its update has reached the chunk file, so it is never redone over a later version.
+     */
+    private static void clearIntent(Path intentLogPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(intentLogPath, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Redoes the updates left in the intent logs by a crash part way through applying them, then empties the logs. A
+     * torn update, from a crash part way through logging it, never reached the chunk file, and is discarded.
+     * @return True if any update was redone
+     * @throws IOException If unable to read an intent log, or redo its update
+     */
+    public synchronized boolean recover() throws IOException {
+        boolean redone = false;
+        for (Path intentLogPath: getIntentLogPaths()) {
+            redone |= recover(intentLogPath);
+        }
+        return redone;
+    }
+
+    private static boolean recover(Path intentLogPath) throws IOException {
+        ByteBuffer intentLog = ByteBuffer.wrap(Files.readAllBytes(intentLogPath));
+        boolean redone = false;
+        if (intentLog.remaining() >= Integer.BYTES) {
+            int length = intentLog.getInt();
+            if (length > 0 && intentLog.remaining() >= length + Long.BYTES) {
+                ByteBuffer record = intentLog.slice(intentLog.position(), length);
+                CRC32 crc = new CRC32();
+                crc.update(record.duplicate());
+                if (crc.getValue() == intentLog.getLong(intentLog.position() + length)) {
+                    DataInputStream dataInputStream = new DataInputStream(new ByteBufferInputStream(record));
+                    String chunkFile = Message.readString(dataInputStream);
+                    int count = dataInputStream.readInt();
+                    List<Write> writes = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        long position = dataInputStream.readLong();
+                        byte[] bytes = new byte[dataInputStream.readInt()];
+                        dataInputStream.readFully(bytes);
+                        writes.add(new Write(position, bytes));
+                    }
+                    log.warn("Redoing interrupted in-place update of chunk {}", chunkFile);
+                    apply(chunkFile, writes);
+                    redone = true;
+                }
+            }
+        }
+        if (!redone && intentLog.capacity() > 0) {
+            log.warn("Discarding torn in-place update in intent log {}", intentLogPath);
+        }
+        clearIntent(intentLogPath);
+        return redone;
+    }
+
+    public synchronized long getChunksPatched() {
+        return chunksPatched;
+    }
+
+    public synchronized long getSlicesWritten() {
+        return slicesWritten;
+    }
+
+    public synchronized long getSlicesSkipped() {
+        return slicesSkipped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d chunks patched in place: %d slices written, %d unchanged slices skipped",
+                this.chunksPatched, this.slicesWritten, this.slicesSkipped);
+    }
+}
@@ -0,0 +1,277 @@
+package chunkserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Background scrubber walking every chunk in the ChunkCatalog, verifying its ChunkIntegrity, so corruption is found
+ * and repaired before a client reads the chunk, rather than on the read path.
+ * Chunks are opened and hashed fresh from disk, regardless of any recent verification recorded in
+ * ChunkVerificationState, which the scrubber refreshes for each chunk found valid. A corrupted chunk is reported to the
+ * Controller in the corruptedChunks of a HeartbeatMinor, and replaced with a valid replica, see
+ * ChunkServer.repairChunk().
+ * Scrubbing is paced to stay within two budgets: Constants.CHUNK_SCRUB_RATE bytes read per second, and
+ * Constants.CHUNK_SCRUB_CPU_SHARE of one core's time spent verifying. Once a pass over every chunk completes, the next
+ * starts after Constants.CHUNK_SCRUB_INTERVAL.
+ * Unless Constants.CHUNK_MIGRATION_MODE says otherwise, valid chunks stored in an older chunk format are migrated to
+ * the current one as they are scrubbed, see ChunkMigrator.
+ */
+public class ChunkScrubber implements Runnable {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkScrubber.class);
+
+    // Chunk Server to repair corrupted chunks through; null to only detect them
+    public ChunkServer chunkServer;
+
+    // Budgets
+    public long bytesPerSecond;
+    public double cpuShare;
+
+    // Migrates valid chunks stored in an older chunk format; null to leave them be
+    public ChunkMigrator migrator;
+
+    // Totals since the scrubber started
+    private volatile long passesCompleted;
+    private volatile long chunksScrubbed;
+    private volatile long bytesScrubbed;
+    private volatile long corruptionsFound;
+    private volatile long chunksRepaired;
+
+    // Progress of the current pass
+    private volatile int passPosition;
+    private volatile int passTotal;
+    private volatile long passBytes;
+    private volatile long passStartMillis;
+
+    public ChunkScrubber(ChunkServer chunkServer, long bytesPerSecond, double cpuShare) {
+        this.chunkServer = chunkServer;
+        this.bytesPerSecond = bytesPerSecond;
+        this.cpuShare = cpuShare;
+        this.migrator = Constants.CHUNK_MIGRATION_MODE.equalsIgnoreCase("lazy") ? new ChunkMigrator() : null;
+    }
+
+    /**
+     * Starts scrubbing in a daemon Thread, unless Constants.CHUNK_SCRUB_RATE is 0.
+     */
+    public void start() {
+        if (this.bytesPerSecond <= 0) {
+            log.info("Chunk scrubbing is disabled");
+            return;
+        }
+        Thread scrubber = new Thread(this, "ChunkScrubber");
+        scrubber.setDaemon(true);
+        scrubber.setPriority(Thread.MIN_PRIORITY);
+        scrubber.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                scrubPass();
+                Thread.sleep(Constants.CHUNK_SCRUB_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            log.info("Chunk scrubber interrupted; stopping");
+        }
+    }
+
+    /**
+     * Scrubs every chunk in the ChunkCatalog once, in order of chunk file path, pausing between chunks to stay within
+     * budget.
+     * @throws InterruptedException If interrupted while pausing
+     */
+    public void scrubPass() throws InterruptedException {
+        List<String> chunkFiles = new ArrayList<>(ChunkCatalog.getInstance().getEntries().keySet());
+        Collections.sort(chunkFiles);
+        this.passTotal = chunkFiles.size();
+        this.passBytes = 0;
+        this.passStartMillis = System.currentTimeMillis();
+        log.info("Starting scrub pass {} over {} chunks", this.passesCompleted + 1, this.passTotal);
+
+        for (int i = 0; i < chunkFiles.size(); i++) {
+            this.passPosition = i;
+            long startNanos = System.nanoTime();
+            long bytes = scrubChunk(new ChunkFilename(chunkFiles.get(i), Chunk.getChunkDir()));
+            long busyNanos = System.nanoTime() - startNanos;
+            if ((i + 1) % Constants.CHUNK_SCRUB_PROGRESS_CHUNKS == 0) {
+                log.info("Scrub progress: {}", this);
+            }
+            Thread.sleep(getPauseMillis(bytes, busyNanos));
+        }
+
+        this.passPosition = this.passTotal;
+        this.passesCompleted++;
+        log.info("Completed scrub pass: {}", this);
+    }
+
+    /**
+     * Verifies one chunk from disk, repairing it if it is corrupted.
+     * @param filename ChunkFilename of the chunk
+     * @return Number of bytes read to verify it
+     */
+    public long scrubChunk(ChunkFilename filename) {
+        ChunkVerificationState verificationState = ChunkVerificationState.getInstance();
+        String identity = verificationState.identify(filename);
+        String storedIdentity = this.migrator != null ? identifyStored(filename) : null;
+
+        // Verified under the chunk's read lock, so a chunk being patched in place is not flagged; the lock is let go
+        // before migrating or repairing the chunk, which take its write lock
+        StoredChunk storedChunk = null;
+        boolean valid = false;
+        Lock lock = ChunkLocks.getInstance().readLock(filename);
+        lock.lock();
+        try {
+            storedChunk = StoredChunk.open(filename);
+            valid = storedChunk.isValid();
+        } catch (IOException e) {
+            if (!isStored(filename)) {
+                return 0; // removed since the pass started
+            }
+            log.error("Unable to open chunk {} for scrubbing: {}", filename, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        if (storedChunk == null) {
+            handleCorruption(filename);
+            return 0;
+        }
+
+        long bytes = storedChunk.getFileSize();
+        try {
+            if (valid) {
+                verificationState.recordVerified(filename, identity, storedChunk.metadata.getVersion());
+                migrate(filename, storedIdentity, storedChunk);
+            } else {
+                log.warn("Scrubber found chunk {} corrupted", filename);
+                handleCorruption(filename);
+            }
+        } finally {
+            storedChunk.close();
+        }
+        this.chunksScrubbed++;
+        this.bytesScrubbed += bytes;
+        this.passBytes += bytes;
+        return bytes;
+    }
+
+    private static String identifyStored(ChunkFilename filename) {
+        try {
+            return Chunk.getStore().identify(filename);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void migrate(ChunkFilename filename, String storedIdentity, StoredChunk storedChunk) {
+        if (this.migrator == null || storedIdentity == null || !ChunkMigrator.needsMigration(storedChunk)) {
+            return;
+        }
+        try {
+            if (this.migrator.migrate(filename, storedIdentity, storedChunk)) {
+                // Saving forgot the verification just recorded; the rewritten bytes are the ones just verified
+                ChunkVerificationState verificationState = ChunkVerificationState.getInstance();
+                verificationState.recordVerified(filename, verificationState.identify(filename),
+                        storedChunk.metadata.getVersion());
+            }
+        } catch (IOException e) {
+            log.error("Unable to migrate chunk {}: {}", filename, e.getMessage());
+        }
+    }
+
+    private static boolean isStored(ChunkFilename filename) {
+        try {
+            return Chunk.alreadyExists(filename);
+        } catch (IOException e) {
+            return true; // unable to tell; treat it as unreadable
+        }
+    }
+
+    private void handleCorruption(ChunkFilename filename) {
+        this.corruptionsFound++;
+        Chunk.invalidateCached(filename);
+        if (this.chunkServer == null) {
+            return;
+        }
+        ChunkMetadata metadata = ChunkCatalog.getInstance().get(filename) != null ?
+                ChunkCatalog.getInstance().get(filename).getMetadata() : null;
+        if (metadata == null) {
+            log.error("Unable to repair chunk {}: not in the chunk catalog", filename);
+            return;
+        }
+        try {
+            if (this.chunkServer.repairChunk(metadata.getAbsoluteFilePath(), metadata.getSequence()) != null) {
+                this.chunksRepaired++;
+                log.info("Scrubber repaired chunk {}", filename);
+            }
+        } catch (RuntimeException e) {
+            log.error("Unable to repair chunk {}: {}", filename, e.getMessage());
+        }
+    }
+
+    /**
+     * Works out how long to pause after verifying a chunk, to stay within both budgets: long enough that the bytes
+     * read average out to no more than bytesPerSecond, and that time spent verifying is no more than cpuShare of the
+     * time elapsed.
+     * @param bytes Bytes read to verify the chunk
+     * @param busyNanos Time taken to verify it
+     * @return Milliseconds to pause
+     */
+    public long getPauseMillis(long bytes, long busyNanos) {
+        double busyMillis = busyNanos / 1e6;
+        double ioPauseMillis = this.bytesPerSecond > 0 ? bytes * 1000.0 / this.bytesPerSecond - busyMillis : 0;
+        double cpuPauseMillis = this.cpuShare > 0 && this.cpuShare < 1 ?
+                busyMillis * (1 - this.cpuShare) / this.cpuShare : 0;
+        return (long) Math.ceil(Math.max(0, Math.max(ioPauseMillis, cpuPauseMillis)));
+    }
+
+    public long getPassesCompleted() {
+        return passesCompleted;
+    }
+
+    public long getChunksScrubbed() {
+        return chunksScrubbed;
+    }
+
+    public long getBytesScrubbed() {
+        return bytesScrubbed;
+    }
+
+    public long getCorruptionsFound() {
+        return corruptionsFound;
+    }
+
+    public long getChunksRepaired() {
+        return chunksRepaired;
+    }
+
+    /**
+     * @return Fraction of the current pass completed, or 1 if no pass is under way
+     */
+    public double getPassProgress() {
+        return this.passTotal == 0 ? 1 : (double) this.passPosition / this.passTotal;
+    }
+
+    /**
+     * @return Bytes scrubbed per second over the current or last pass
+     */
+    public double getThroughput() {
+        long elapsedMillis = System.currentTimeMillis() - this.passStartMillis;
+        return elapsedMillis <= 0 ? 0 : this.passBytes * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pass %d at %d/%d chunks (%.1f%%), %.1f KiB/s; %d chunks and %d bytes scrubbed, " +
+                        "%d corrupted, %d repaired", this.passesCompleted + 1, this.passPosition, this.passTotal,
+                100 * getPassProgress(), getThroughput() / Constants.KiB, this.chunksScrubbed, this.bytesScrubbed,
+                this.corruptionsFound, this.chunksRepaired);
+    }
+}
@@ -1,13 +1,19 @@
 package chunkserver;
 
+import messaging.ChunkCorrectionNotification;
+import messaging.ChunkReplacementRequest;
+import messaging.ChunkReplacementResponse;
+import messaging.ChunkReplicationInfo;
+import messaging.HeartbeatMinor;
+import networking.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Constants;
+import util.Host;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
@@ -21,6 +27,7 @@ public class ChunkServer {
     public LinkedBlockingQueue<ChunkMetadata> newlyAddedChunks;
     public String controllerHostname;
     public Integer controllerPort;
+    public ChunkScrubber scrubber;
 
     public ChunkServer(String controllerHostname, Integer controllerPort) {
         this.controllerHostname = controllerHostname;
@@ -41,56 +48,16 @@ public class ChunkServer {
     }
 
     /**
-     * Recursively walks the chunk storage directory and returns a list of absolute paths of chunk files
+     * Lists every chunk stored, whether as its own file or in a segment, see ChunkStore.list()
      * @return All chunk files' absolute paths
      */
-    public synchronized List<String> discoverChunks() {
-        List<String> chunkFilenames = new ArrayList<>();
-
-        // Apparently this is how you have to implement a walker that skips directories it can't read
+    public List<String> discoverChunks() {
         try {
-            Files.walkFileTree(Paths.get(Chunk.getChunkDir()), new SimpleFileVisitor<>() {
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (attrs.isRegularFile()) {
-                        String filename = file.toString();
-                        if (filename.contains("_chunk")) {
-                            chunkFilenames.add(file.toString());
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    if (attrs.isDirectory() && !Files.isReadable(dir)) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    } else {
-                        return FileVisitResult.CONTINUE;
-                    }
-                }
-
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
-                    if (e == null) {
-                        return FileVisitResult.CONTINUE;
-                    } else {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-                }
-
-                @Override
-                public FileVisitResult visitFileFailed(Path dir, IOException e) {
-                    return FileVisitResult.SKIP_SUBTREE;
-                }
-            });
-
+            return Chunk.getStore().list();
         } catch (IOException e) {
-            log.error("Caught IOException while walking directory tree! {}", e.getMessage());
-            e.printStackTrace();
+            log.error("Unable to open chunk store: {}", e.getMessage());
+            return new ArrayList<>();
         }
-        return chunkFilenames;
     }
 
     /**
@@ -102,11 +69,76 @@ public class ChunkServer {
         List<String> chunkFiles = discoverChunks();
         for (String filename: chunkFiles) {
             ChunkFilename chunkFilename = new ChunkFilename(filename, Chunk.getChunkDir());
-            chunkMetadataList.add(new ChunkMetadata(chunkFilename.getClientAbsolutePath(), chunkFilename.getChunkSequence()));
+            try {
+                chunkMetadataList.add(ChunkCatalog.readEntry(chunkFilename).getMetadata());
+            } catch (IOException e) {
+                log.error("Unable to read metadata of chunk file {}: {}", filename, e.getMessage());
+            }
         }
         return chunkMetadataList;
     }
 
+    /**
+     * Loads the in-memory ChunkCatalog on startup, and attaches its journal, once any in-place chunk update
+     * interrupted by a crash has been redone, see ChunkPatcher.recover(). If the chunk directory holds a journal,
+     * it is replayed, and validated against the chunk files in a background Thread; otherwise the catalog is rebuilt
+     * by walking the directory, and written out as a fresh journal.
+     */
+    public void loadCatalog() {
+        try {
+            ChunkPatcher.getInstance().recover();
+        } catch (IOException e) {
+            log.error("Unable to recover in-place chunk updates: {}", e.getMessage());
+        }
+
+        ChunkCatalog catalog = ChunkCatalog.getInstance();
+        ChunkJournal journal = new ChunkJournal(Paths.get(Chunk.getChunkDir(), Constants.CHUNK_JOURNAL_FILENAME));
+        try {
+            if (journal.exists()) {
+                catalog.load(journal.replay());
+                long journaledUntilMillis = journal.getSyncedUntilMillis();
+                journal.open();
+                catalog.attachJournal(journal);
+                Thread validator = new Thread(() -> catalog.validate(discoverChunks(), journaledUntilMillis),
+                        "ChunkCatalogValidation");
+                validator.setDaemon(true);
+                validator.start();
+            } else {
+                rebuildCatalog();
+                journal.open();
+                catalog.attachJournal(journal);
+                journal.compact(catalog);
+            }
+            journal.startSyncTask(catalog);
+        } catch (IOException e) {
+            log.error("Unable to use chunk journal {}, rebuilding catalog without it: {}", journal.path,
+                    e.getMessage());
+            rebuildCatalog();
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory ChunkCatalog by walking the chunk storage directory and reading each chunk file's
+     * metadata. Only needed on startup; from then on, the catalog is kept up to date as chunks are stored.
+     */
+    public void rebuildCatalog() {
+        ChunkCatalog.getInstance().rebuild(discoverChunks());
+    }
+
+    /**
+     * @return Number of chunks stored, from the ChunkCatalog
+     */
+    public int getTotalChunksMaintained() {
+        return ChunkCatalog.getInstance().size();
+    }
+
+    /**
+     * @return Metadata of all stored chunks, from the ChunkCatalog
+     */
+    public List<ChunkMetadata> getChunksMetadata() {
+        return ChunkCatalog.getInstance().getChunksMetadata();
+    }
+
     /**
      * Gets the free space, in bytes, available at the chunk storage directory.
      * @return Long free bytes available
@@ -123,6 +155,120 @@ public class ChunkServer {
         new ChunkServerServer(this).launchAsThread();
     }
 
+    /**
+     * Replaces a corrupted chunk with a valid replica: a HeartbeatMinor notifies the Controller of the corruption,
+     * and gets back the hostname of another Chunk Server holding a replica of the chunk, which is then sent a
+     * ChunkReplacementRequest for its valid copy. The copy is saved over ours, and the Controller notified with a
+     * ChunkCorrectionNotification that we can be used for the chunk once again.
+     * @param absolutePath Absolute path of the file the chunk belongs to
+     * @param sequence Sequence of the chunk within the file
+     * @return The ChunkReplacementResponse holding the valid replica, or null if the chunk could not be replaced
+     */
+    public ChunkReplacementResponse repairChunk(String absolutePath, Integer sequence) {
+        ChunkFilename chunkFilename = new ChunkFilename(absolutePath, Chunk.getChunkDir(), sequence);
+
+        // Send HeartbeatMinor Message to Controller, notifying it of chunk corruption and requesting a
+        // contact for replacement
+        HeartbeatMinor chunkCorruptionHeartbeat = new HeartbeatMinor(
+                Host.getHostname(),
+                Host.getIpAddress(),
+                Constants.CHUNK_SERVER_PORT,
+                getTotalChunksMaintained(),
+                discoverFreeSpaceAvailable(),
+                new ArrayList<>(), // newlyAddedChunks
+                new ArrayList<>(List.of(new ChunkMetadata(absolutePath, sequence))) // corruptedChunks
+        );
+        log.info("Getting replication information for chunk {} from Controller", chunkFilename);
+
+        ChunkReplicationInfo criResponse;
+        try {
+            criResponse = (ChunkReplicationInfo) Client.sendRequest(getControllerHostname(),
+                    getControllerPort(), chunkCorruptionHeartbeat);
+            log.info("Received replication information for chunk {} from Controller: {}", chunkFilename, criResponse);
+        } catch (IOException e) {
+            log.error("Unable to communicate with Controller for chunk replacement: {}", e.getMessage());
+            return null;
+        }
+
+        String contact = criResponse.getReplicationChunkServer();
+
+        // Send ChunkReplacementRequest Message to other Chunk Server, requesting a new valid chunk
+        ChunkReplacementRequest replacementRequest = new ChunkReplacementRequest(
+                Host.getHostname(),
+                Host.getIpAddress(),
+                Constants.CHUNK_SERVER_PORT,
+                absolutePath,
+                sequence
+        );
+        log.info("Requesting replacement for chunk {} from Chunk Server {}", chunkFilename, contact);
+
+        ChunkReplacementResponse crrResponse;
+        try {
+            crrResponse = (ChunkReplacementResponse) Client.sendRequest(contact, Constants.CHUNK_SERVER_PORT,
+                    replacementRequest);
+            log.info("Received replacement for chunk {} from Chunk Server {}: {}", chunkFilename, contact,
+                    crrResponse);
+        } catch (IOException e) {
+            log.error("Unable to retrieve replacement for chunk {} from Chunk Server{}: {}", chunkFilename, contact,
+                    e.getMessage());
+            return null;
+        }
+
+        // Replace our invalid stored chunk with valid Chunk from replacement Chunk Server
+        try {
+            Chunk.save(crrResponse.getChunk(), chunkFilename);
+            log.info("Successfully saved valid chunk replacement {} to storage", chunkFilename);
+        } catch (IOException e) {
+            log.error("Unable to replace invalid chunk {}: {}", chunkFilename, e.getMessage());
+            return null;
+        }
+
+        // Notify the Controller of the chunk correction; not fatal if try fails
+        try {
+            ChunkCorrectionNotification correctionNotification = new ChunkCorrectionNotification(
+                    Host.getHostname(),
+                    Host.getIpAddress(),
+                    Constants.CHUNK_SERVER_PORT,
+                    absolutePath,
+                    sequence
+            );
+            Client.sendMessage(getControllerHostname(), Constants.CONTROLLER_PORT,
+                    correctionNotification); // we are not expecting a response
+        } catch (IOException e) {
+            log.warn("Unable to notify Controller of chunk {} correction: {}", chunkFilename, e.getMessage());
+        }
+
+        return crrResponse;
+    }
+
+    /**
+     * Starts the background ChunkScrubber, verifying stored chunks within its budget and repairing corrupted ones
+     */
+    public void startScrubber() {
+        log.info("Starting Chunk Scrubber...");
+        this.scrubber = new ChunkScrubber(this, Constants.CHUNK_SCRUB_RATE, Constants.CHUNK_SCRUB_CPU_SHARE);
+        this.scrubber.start();
+    }
+
+    /**
+     * Starts migrating every chunk stored in an older chunk format to the current one in a background Thread, if
+     * Constants.CHUNK_MIGRATION_MODE is "bulk"
+     */
+    public void startMigration() {
+        if (!Constants.CHUNK_MIGRATION_MODE.equalsIgnoreCase("bulk")) {
+            return;
+        }
+        log.info("Starting Chunk Migration...");
+        Thread migration = new Thread(new ChunkMigrator(), "ChunkMigration");
+        migration.setDaemon(true);
+        migration.setPriority(Thread.MIN_PRIORITY);
+        migration.start();
+    }
+
+    public ChunkScrubber getScrubber() {
+        return scrubber;
+    }
+
     /**
      * Starts the timer-based thread for sending HeartbeatMinor messages at regular intervals
      */
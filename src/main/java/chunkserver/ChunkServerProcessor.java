@@ -2,6 +2,7 @@ package chunkserver;
 
 import messaging.*;
 import networking.Client;
+import networking.Connection;
 import networking.Processor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,10 +10,10 @@ import util.Constants;
 import util.Host;
 
 import java.io.*;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 public class ChunkServerProcessor extends Processor {
 
@@ -21,9 +22,9 @@ public class ChunkServerProcessor extends Processor {
     // Reference to ChunkServer
     public ChunkServer chunkServer;
 
-    public ChunkServerProcessor(Socket socket, ChunkServer chunkServer) {
+    public ChunkServerProcessor(Connection connection, ChunkServer chunkServer) {
         this.chunkServer = chunkServer;
-        this.socket = socket;
+        this.connection = connection;
     }
 
     public ChunkServer getChunkServer() {
@@ -38,12 +39,24 @@ public class ChunkServerProcessor extends Processor {
             case CHUNK_STORE_REQUEST:
                 processChunkStoreRequest((ChunkStoreRequest) message);
                 break;
+            case CHUNK_SLICE:
+                processChunkSlice((ChunkSlice) message);
+                break;
             case CHUNK_STORE_RESPONSE:
                 processChunkStoreResponse((ChunkStoreResponse) message);
                 break;
             case CHUNK_READ_REQUEST:
                 processChunkReadRequest((ChunkReadRequest) message);
                 break;
+            case CHUNK_RANGE_READ_REQUEST:
+                processChunkRangeReadRequest((ChunkRangeReadRequest) message);
+                break;
+            case CHUNK_CHECKSUM_REQUEST:
+                processChunkChecksumRequest((ChunkChecksumRequest) message);
+                break;
+            case CHUNK_VERSION_UPDATE_REQUEST:
+                processChunkVersionUpdateRequest((ChunkVersionUpdateRequest) message);
+                break;
             case CHUNK_REPLACEMENT_REQUEST:
                 processChunkReadRequest((ChunkReplacementRequest) message);
                 break;
@@ -60,66 +73,52 @@ public class ChunkServerProcessor extends Processor {
     /**
      * Processes a ChunkStoreRequest Message -- If the chunk already exists on disk, it is updated with the new chunk
      * data in the message and its version is incremented. Otherwise, the chunk data in the message is saved for the
-     * first time with a version of 1. Finally, if there are more chunk servers to replicate the chunk on, the message
-     * is forwarded to the next one and that chunk server is removed from the list of forward recipients.
+     * first time with a version of 1. The chunk is stored through a ChunkStream, in a single pass over the received
+     * data, each slice checksummed and written in turn, see ChunkStream.store(). Finally, if there are more chunk
+     * servers to replicate the chunk on, the message is forwarded to the next one and that chunk server is removed
+     * from the list of forward recipients.
      * @param message ChunkStoreRequest message.
      */
     public void processChunkStoreRequest(ChunkStoreRequest message) {
 
-        // Build in-memory Chunk from message
         ChunkFilename filename = new ChunkFilename(message.getAbsoluteFilePath(), Chunk.getChunkDir(), message.getSequence());
-        ChunkMetadata metadata = new ChunkMetadata(message.getAbsoluteFilePath(), message.getSequence(), message.getChunkData().length);
-        ChunkIntegrity integrity = new ChunkIntegrity(ChunkIntegrity.calculateSliceChecksums(message.getChunkData()));
-        Chunk chunk = new Chunk(metadata, integrity, message.getChunkData());
         ChunkStoreResponse response;
 
-        // Either save or update chunk file
+        // Either save or update chunk file, straight from the received chunk data
         try {
-            if (Chunk.alreadyExists(filename)) {
-                log.info("Chunk {} already exists, updating it", filename);
-                Chunk.update(chunk, filename);
-            } else {
-                log.info("Chunk {} does not already exist, saving it for the first time", filename);
-                Chunk.save(chunk, filename);
-            }
+            ChunkStream.store(message);
         } catch (IOException e) {
             log.error("Failed to save or update chunk {}: {}", filename, e.getMessage());
             response = new ChunkStoreResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
                     message.getAbsoluteFilePath(), message.getSequence(), false);
 
-            sendResponse(this.socket, response);
+            sendResponse(this.connection, response);
             return; // Fail fast, don't attempt to forward request
         }
 
         // Successfully saved/updated Chunk, attempt to forward request if there's more recipients
         if (!message.getReplicationChunkServers().isEmpty()) {
-            String nextRecipientHostname = message.popReplicationRecipient();
+            String nextRecipientHostname = message.popReplicationRecipient(); // only patches the hop index
             log.info("Forwarding ChunkStoreRequest Message to next Chunk Server: {}", nextRecipientHostname);
 
             try {
-                // Re-marshal message with one less recipient
-                message.marshal();
-
-                // Send message to next chunk server
-                Socket forwardSocket = Client.sendMessage(nextRecipientHostname, Constants.CHUNK_SERVER_PORT, message);
-
-                // Wait for ChunkStoreResponse from forward recipient
-                DataInputStream dataInputStream = new DataInputStream(forwardSocket.getInputStream());
-                response = (ChunkStoreResponse) MessageFactory.getInstance().createMessage(dataInputStream);
-                forwardSocket.close(); // done talking with upstream Chunk Server
+                // Send message to next chunk server, passing the received chunk data through as is, and wait for
+                // ChunkStoreResponse from forward recipient
+                response = (ChunkStoreResponse) Client.sendRequest(nextRecipientHostname,
+                        Constants.CHUNK_SERVER_PORT, message);
 
                 // Process the ChunkStoreResponse from upstream
                 if (!response.getSuccess()) { // Just forward the same failure message back, so we can locate the failure
                     log.error("Forwarding back ChunkStoreResponse for file {}, chunk {} failure from Chunk Server {}",
                             message.getAbsoluteFilePath(), message.getSequence(), message.getHostname());
-                    sendResponse(this.socket, message);
+                    sendResponse(this.connection, response);
 
                 } else { // Rebuild same success response message but with our hostname/IP
                     ChunkStoreResponse ourResponse = new ChunkStoreResponse(Host.getHostname(), Host.getIpAddress(),
                             Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence(),
                             response.getSuccess());
-                    log.info("Sending success back to {}: {}\"", this.socket.getInetAddress().getHostName(), message);
-                    sendResponse(this.socket, ourResponse);
+                    log.info("Sending success back to {}: {}\"", this.connection.getRemoteHostname(), message);
+                    sendResponse(this.connection, ourResponse);
                 }
 
             } catch (IOException e) {
@@ -127,7 +126,7 @@ public class ChunkServerProcessor extends Processor {
                 response = new ChunkStoreResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
                         message.getAbsoluteFilePath(), message.getSequence(), false);
 
-                sendResponse(this.socket, response);
+                sendResponse(this.connection, response);
             }
         } else {
             log.info("We are the last recipient of the ChunkStoreRequest, no need to forward");
@@ -136,7 +135,64 @@ public class ChunkServerProcessor extends Processor {
 
             // If we've made it here, success; send successful ChunkStoreResponse Message
             log.info("Sending ChunkStoreResponse success back to {}: {}", message.getHostname(), response);
-            sendResponse(this.socket, response);
+            sendResponse(this.connection, response);
+        }
+    }
+
+    /**
+     * Processes a ChunkSlice Message -- one slice of a chunk being streamed down the replication chain. The slice is
+     * forwarded to the next Chunk Server before it is written here, so every Chunk Server in the chain is writing the
+     * chunk at once rather than one after another. Slices are written into the chunk's ChunkStream at their final
+     * position, in whatever order they arrive. The last slice of the chunk is a request: it is answered with a
+     * ChunkStoreResponse once the whole chunk has been stored here and the rest of the chain has answered in turn.
+     * @param message ChunkSlice message.
+     */
+    public void processChunkSlice(ChunkSlice message) {
+        ChunkStream stream;
+        try {
+            stream = ChunkStream.forSlice(message);
+        } catch (IOException e) {
+            log.error("Unable to open stream for file {}, chunk {}: {}", message.getAbsoluteFilePath(),
+                    message.getSequence(), e.getMessage());
+            if (message.isLastSlice()) {
+                sendResponse(this.connection, new ChunkStoreResponse(Host.getHostname(), Host.getIpAddress(),
+                        Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence(), false));
+            }
+            return;
+        }
+
+        // Cut the slice through to the next Chunk Server first, passing the received frame through as is
+        if (!message.getReplicationChunkServers().isEmpty()) {
+            String nextRecipientHostname = message.popReplicationRecipient(); // only patches the hop index
+            try {
+                if (message.isLastSlice()) {
+                    stream.downstream = Client.sendRequestAsync(nextRecipientHostname, Constants.CHUNK_SERVER_PORT,
+                            message);
+                } else {
+                    Client.sendMessage(nextRecipientHostname, Constants.CHUNK_SERVER_PORT, message);
+                }
+            } catch (IOException e) {
+                log.error("Failed to forward ChunkSlice to Chunk Server {}: {}", nextRecipientHostname,
+                        e.getMessage());
+                stream.failDownstream();
+            }
+        }
+
+        stream.writeSlice(message.getSliceIndex(), message.getChunkDataBuffer(), message.algorithmId,
+                message.getSliceChecksum());
+
+        if (message.isLastSlice()) {
+
+            // Report the chunk in the next minor heartbeat, in case the Controller stopped using us for it while the
+            // write was lagging behind
+            if (getChunkServer() != null) {
+                stream.stored.thenRun(() -> getChunkServer().getNewlyAddedChunks().add(stream.metadata));
+            }
+            stream.acknowledgement(Host.getHostname(), Host.getIpAddress()).thenAccept(response -> {
+                log.info("Sending ChunkStoreResponse for streamed chunk back to {}: {}", message.getHostname(),
+                        response);
+                sendResponse(this.connection, response);
+            });
         }
     }
 
@@ -171,97 +227,36 @@ public class ChunkServerProcessor extends Processor {
         boolean requestIsFromClient = message.getType() == Message.MessageType.CHUNK_READ_REQUEST;
         List<String> chunkReplacements = new ArrayList<>();
 
-        // Load chunk from disk
-        Chunk requestedChunk = null;
+        // Open chunk file from disk, without reading it into the heap, and check its validity; hot chunks are
+        // served from the VerifiedChunkCache, already verified. A valid chunk is pinned under the read lock it was
+        // verified under, so it is not patched in place until it has been sent.
+        StoredChunk storedChunk = null;
+        ChunkLocks.Pin pin = null;
+        Lock lock = ChunkLocks.getInstance().readLock(chunkFilename);
+        lock.lock();
         try {
-            requestedChunk = Chunk.load(chunkFilename);
+            storedChunk = VerifiedChunkCache.getInstance().readVerified(chunkFilename);
+            if (storedChunk != null) {
+                pin = ChunkLocks.getInstance().pin(chunkFilename);
+            }
         } catch (IOException e) {
-            log.error("Unable to load requested Chunk {}: {}", chunkFilename, e.getMessage());
+            log.error("Unable to open requested Chunk {}: {}", chunkFilename, e.getMessage());
+        } finally {
+            lock.unlock();
         }
 
-        // Check validity of chunk
-        if (requestedChunk != null && requestedChunk.isValid()) {
-            log.info("Chunk {} is valid", chunkFilename); // nothing more to do, just send Chunk back
+        Chunk requestedChunk = null;
+        if (storedChunk != null) {
+            log.info("Chunk {} is valid", chunkFilename); // nothing more to do, just stream chunk file back
         } else { // chunk is invalid; get replacement
             log.info("Chunk {} found to be invalid; retrieving replacement...", chunkFilename);
+            Chunk.invalidateCached(chunkFilename);
 
-            // Send HeartbeatMinor Message to Controller, notifying it of chunk corruption and requesting a
-            // contact for replacement
-            HeartbeatMinor chunkCorruptionHeartbeat = new HeartbeatMinor(
-                    Host.getHostname(),
-                    Host.getIpAddress(),
-                    Constants.CHUNK_SERVER_PORT,
-                    getChunkServer().discoverChunks().size(),
-                    getChunkServer().discoverFreeSpaceAvailable(),
-                    new ArrayList<>(), // newlyAddedChunks
-                    new ArrayList<>(List.of(new ChunkMetadata(absolutePath, sequence))) // corruptedChunks
-            );
-            log.info("Getting replication information for chunk {} from Controller", chunkFilename);
-
-            ChunkReplicationInfo criResponse;
-            try {
-                Socket clientSocket = Client.sendMessage(getChunkServer().controllerHostname,
-                        getChunkServer().getControllerPort(), chunkCorruptionHeartbeat);
-                DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-                criResponse = (ChunkReplicationInfo) MessageFactory.getInstance().createMessage(dataInputStream);
-                clientSocket.close(); // done talking to Controller
-                log.info("Received replication information for chunk {} from Controller: {}", chunkFilename, criResponse);
-            } catch (IOException e) {
-                log.error("Unable to communicate with Controller for chunk replacement: {}", e.getMessage());
+            ChunkReplacementResponse crrResponse = getChunkServer().repairChunk(absolutePath, sequence);
+            if (crrResponse == null) {
                 return;
             }
 
-            String contact = criResponse.getReplicationChunkServer();
-
-            // Send ChunkReplacementRequest Message to other Chunk Server, requesting a new valid chunk
-            ChunkReplacementRequest replacementRequest = new ChunkReplacementRequest(
-                    Host.getHostname(),
-                    Host.getIpAddress(),
-                    Constants.CHUNK_SERVER_PORT,
-                    absolutePath,
-                    sequence
-            );
-            log.info("Requesting replacement for chunk {} from Chunk Server {}", chunkFilename, contact);
-
-            ChunkReplacementResponse crrResponse;
-            try {
-                Socket clientSocket = Client.sendMessage(contact, Constants.CHUNK_SERVER_PORT, replacementRequest);
-                DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-                crrResponse = (ChunkReplacementResponse) MessageFactory.getInstance().createMessage(dataInputStream);
-                clientSocket.close(); // done talking to replacement Chunk Server
-                log.info("Received replacement for chunk {} from Chunk Server {}: {}", chunkFilename, contact,
-                        crrResponse);
-            } catch (IOException e) {
-                log.error("Unable to retrieve replacement for chunk {} from Chunk Server{}: {}", chunkFilename, contact,
-                        e.getMessage());
-                return;
-            }
-
-            // Replace our invalid stored chunk with valid Chunk from replacement Chunk Server
-            try {
-                Chunk.save(crrResponse.getChunk(), chunkFilename);
-                log.info("Successfully saved valid chunk replacement {} to storage", chunkFilename);
-            } catch (IOException e) {
-                log.error("Unable to replace invalid chunk {}: {}", chunkFilename, e.getMessage());
-                return;
-            }
-
-            // Notify the Controller of the chunk correction; not fatal if try fails
-            try {
-                ChunkCorrectionNotification correctionNotification = new ChunkCorrectionNotification(
-                        Host.getHostname(),
-                        Host.getIpAddress(),
-                        Constants.CHUNK_SERVER_PORT,
-                        absolutePath,
-                        sequence
-                );
-                Socket clientSocket = Client.sendMessage(getChunkServer().getControllerHostname(),
-                        Constants.CONTROLLER_PORT, correctionNotification);
-                clientSocket.close(); // we are not expecting a response
-            } catch (IOException e) {
-                log.warn("Unable to notify Controller of chunk {} correction: {}", chunkFilename, e.getMessage());
-            }
-
             // Record ourselves as one of the Chunk Servers that had to invoke a replacement procedure,
             // along with all Chunk Servers who reported the same upstream
             chunkReplacements.add(Host.getHostname());
@@ -271,9 +266,17 @@ public class ChunkServerProcessor extends Processor {
             requestedChunk = crrResponse.getChunk();
         }
 
-        // Send response: ChunkReadResponse if responding to Client; ChunkReplacementResponse if responding to Chunk Server
+        // Send response: ChunkReadResponse if responding to Client; ChunkReplacementResponse if responding to Chunk Server.
+        // A valid stored chunk is streamed straight from its file; a replacement is sent from memory.
         ChunkReadResponse response;
-        if (requestIsFromClient) {
+        if (storedChunk != null) {
+            response = requestIsFromClient ?
+                    new ChunkReadResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
+                            absolutePath, sequence, storedChunk, chunkReplacements) :
+                    new ChunkReplacementResponse(Host.getHostname(), Host.getIpAddress(),
+                            Constants.CHUNK_SERVER_PORT, absolutePath, sequence, storedChunk, chunkReplacements);
+            response.pin = pin;
+        } else if (requestIsFromClient) {
             response = new ChunkReadResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
                     absolutePath, sequence, requestedChunk, chunkReplacements);
         } else {
@@ -281,7 +284,105 @@ public class ChunkServerProcessor extends Processor {
                     Constants.CHUNK_SERVER_PORT, absolutePath, sequence, requestedChunk, chunkReplacements);
         }
         log.info("Sending {} back to {}: {}", message.getType(), message.getHostname(), response);
-        sendResponse(this.socket, response);
+        sendResponse(this.connection, response);
+    }
+
+    /**
+     * Processes a ChunkRangeReadRequest from a Client, for just a byte range of a chunk. The range is clamped to the
+     * end of the chunk, and only the slices overlapping it are verified against their checksums, in place. A valid
+     * range is sent back without copying it, as with whole chunks; otherwise, the Client is told the range is not
+     * valid, and falls back to a ChunkReadRequest, which runs the whole-chunk replacement procedure.
+     * @param message ChunkRangeReadRequest of a byte range of a chunk
+     */
+    public void processChunkRangeReadRequest(ChunkRangeReadRequest message) {
+        ChunkFilename chunkFilename = new ChunkFilename(message.getAbsoluteFilePath(), Chunk.getChunkDir(),
+                message.getSequence());
+        ChunkRangeReadResponse response;
+        // Held until the range has been checked, so a range read half-way through a patch is not reported invalid;
+        // a valid range is pinned under it, so it is not patched in place until it has been sent
+        Lock lock = ChunkLocks.getInstance().readLock(chunkFilename);
+        lock.lock();
+        try {
+            StoredChunk storedChunk = VerifiedChunkCache.getInstance().get(chunkFilename);
+            boolean verified = storedChunk != null; // the whole of a cached chunk has been verified already
+            if (!verified) {
+                String identity = ChunkVerificationState.getInstance().identify(chunkFilename);
+                storedChunk = StoredChunk.read(chunkFilename);
+                verified = ChunkVerificationState.getInstance().isRecentlyVerified(chunkFilename, identity,
+                        storedChunk.metadata.getVersion());
+            }
+            int chunkSize = storedChunk.metadata.getSizeBytes();
+            int offset = Math.min(Math.max(0, message.getOffset()), chunkSize);
+            int length = Math.min(Math.max(0, message.getLength()), chunkSize - offset);
+            if (verified || storedChunk.isRangeValid(offset, length)) {
+                log.info("Range of {} bytes at offset {} of chunk {} is valid", length, offset, chunkFilename);
+                response = new ChunkRangeReadResponse(Host.getHostname(), Host.getIpAddress(),
+                        Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence(),
+                        storedChunk, offset, length);
+                response.pin = ChunkLocks.getInstance().pin(chunkFilename);
+            } else {
+                log.info("Range of {} bytes at offset {} of chunk {} found to be invalid", length, offset,
+                        chunkFilename);
+                storedChunk.close();
+                Chunk.invalidateCached(chunkFilename);
+                response = new ChunkRangeReadResponse(Host.getHostname(), Host.getIpAddress(),
+                        Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence());
+            }
+        } catch (IOException e) {
+            log.error("Unable to open requested Chunk {}: {}", chunkFilename, e.getMessage());
+            response = new ChunkRangeReadResponse(Host.getHostname(), Host.getIpAddress(),
+                    Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence());
+        } finally {
+            lock.unlock();
+        }
+        sendResponse(this.connection, response);
+    }
+
+    /**
+     * Processes a ChunkChecksumRequest from a Client, answering with the version, size and slice checksums of the
+     * chunk, read out of the stored chunk's header alone, without reading or verifying any of its data.
+     * @param message ChunkChecksumRequest of a chunk
+     */
+    public void processChunkChecksumRequest(ChunkChecksumRequest message) {
+        ChunkFilename chunkFilename = new ChunkFilename(message.getAbsoluteFilePath(), Chunk.getChunkDir(),
+                message.getSequence());
+        ChunkChecksumResponse response;
+        try (DataInputStream dataInputStream = Chunk.openStoredChunk(chunkFilename)) {
+            ChunkHeader header = Message.readChunkHeader(dataInputStream);
+            response = new ChunkChecksumResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
+                    message.getAbsoluteFilePath(), message.getSequence(), header.getMetadata().getVersion(),
+                    header.getMetadata().getSizeBytes(), header.getIntegrity());
+        } catch (IOException e) {
+            log.info("Unable to read checksums of chunk {}: {}", chunkFilename, e.getMessage());
+            response = new ChunkChecksumResponse(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
+                    message.getAbsoluteFilePath(), message.getSequence());
+        }
+        sendResponse(this.connection, response);
+    }
+
+    /**
+     * Processes a ChunkVersionUpdateRequest from a Client overwriting a file, which found the chunk unchanged:
+     * increments the stored chunk's version without receiving its data, as long as it is still the version and has
+     * the checksums the Client compared against, see Chunk.updateVersion(). Answers with a ChunkStoreResponse, as
+     * for a chunk which was sent whole.
+     * @param message ChunkVersionUpdateRequest of an unchanged chunk
+     */
+    public void processChunkVersionUpdateRequest(ChunkVersionUpdateRequest message) {
+        ChunkFilename chunkFilename = new ChunkFilename(message.getAbsoluteFilePath(), Chunk.getChunkDir(),
+                message.getSequence());
+        ChunkMetadata metadata = null;
+        try {
+            metadata = Chunk.updateVersion(chunkFilename, message.getExpectedVersion(), message.getIntegrity());
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Unable to update version of chunk {}: {}", chunkFilename, e.getMessage());
+        }
+
+        // Report the new version in the next minor heartbeat, as for a chunk which was sent whole
+        if (metadata != null && getChunkServer() != null) {
+            getChunkServer().getNewlyAddedChunks().add(metadata);
+        }
+        sendResponse(this.connection, new ChunkStoreResponse(Host.getHostname(), Host.getIpAddress(),
+                Constants.CHUNK_SERVER_PORT, message.getAbsoluteFilePath(), message.getSequence(), metadata != null));
     }
 
     /**
@@ -312,11 +413,10 @@ public class ChunkServerProcessor extends Processor {
                     message.getAbsoluteFilePath(),
                     message.getSequence());
 
-            Socket clientSocket = Client.sendMessage(
+            Client.sendMessage(
                     getChunkServer().getControllerHostname(),
                     getChunkServer().getControllerPort(),
                     notification);
-            clientSocket.close(); // done talking to Controller
             log.info("Successfully sent ChunkCorrectionNotification to Controller");
         } catch (IOException e) {
             log.error("Unable to send Controller ChunkCorrectionNotification! {}", e.getMessage());
@@ -356,9 +456,7 @@ public class ChunkServerProcessor extends Processor {
                     new ArrayList<>()
             );
 
-            Socket clientSocket = Client.sendMessage(message.getTargetChunkServer(), Constants.CHUNK_SERVER_PORT,
-                    request);
-            clientSocket.close(); // done talking to other Chunk Server
+            Client.sendMessage(message.getTargetChunkServer(), Constants.CHUNK_SERVER_PORT, request);
             log.info("Successfully sent ChunkReplacementResponse to {}", message.getTargetChunkServer());
         } catch (IOException e) {
             log.error("Unable to make ChunkReplacementResponse request to {}: {}", message.getTargetChunkServer(),
@@ -1,11 +1,10 @@
 package chunkserver;
 
+import networking.Connection;
 import networking.Processor;
 import networking.Server;
 import util.Constants;
 
-import java.net.Socket;
-
 public class ChunkServerServer extends Server {
 
     // Reference to the original ChunkServer instance, passed to Processor at connection acceptance time
@@ -21,8 +20,7 @@ public class ChunkServerServer extends Server {
     }
 
     @Override
-    public void processConnection(Socket clientSocket) {
-        Processor processor = new ChunkServerProcessor(clientSocket, getChunkServer());
-        processor.launchAsThread();
+    public Processor createProcessor(Connection connection) {
+        return new ChunkServerProcessor(connection, getChunkServer());
     }
 }
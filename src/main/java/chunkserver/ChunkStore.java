@@ -0,0 +1,94 @@
+package chunkserver;
+
+import messaging.FileRegion;
+import util.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Storage engine for the chunks on this Chunk Server, behind the static Chunk API. Whatever the engine, a stored
+ * chunk is the same bytes Message.writeChunk() puts on the wire, so it can always be served as a FileRegion.
+ * Abstracts over whether each chunk lives in its own file, mirroring the client's path under the chunk directory,
+ * or is appended to large segment files; chosen at startup by Constants.CHUNK_STORE_MODE.
+ */
+public abstract class ChunkStore {
+
+    /**
+     * Creates the storage engine given by Constants.CHUNK_STORE_MODE, in the given chunk directory.
+     * @param chunkDir Directory chunks are stored in
+     * @return FileChunkStore or SegmentChunkStore
+     * @throws IOException If unable to open the segment store
+     */
+    public static ChunkStore create(String chunkDir) throws IOException {
+        if (Constants.CHUNK_STORE_MODE.equalsIgnoreCase("segments")) {
+            return SegmentChunkStore.open(Paths.get(chunkDir, Constants.CHUNK_SEGMENT_DIRNAME),
+                    Constants.CHUNK_SEGMENT_SIZE);
+        }
+        return new FileChunkStore(chunkDir);
+    }
+
+    /**
+     * Writes a chunk, with its metadata and integrity information, replacing any chunk stored under the same name.
+     * @param filename ChunkFilename the chunk is stored under
+     * @param metadata ChunkMetadata of the chunk
+     * @param integrity ChunkIntegrity of the chunk
+     * @param data Raw chunk data, between the buffer's position and limit
+     * @throws IOException If unable to write the chunk
+     */
+    public abstract void write(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity,
+                               ByteBuffer data) throws IOException;
+
+    /**
+     * Creates an empty temporary file for a ChunkStream to assemble a chunk in, before committing it.
+     * @param filename ChunkFilename the chunk will be stored under
+     * @return Path of the temporary file
+     * @throws IOException If unable to create the file
+     */
+    public abstract Path createStreamFile(ChunkFilename filename) throws IOException;
+
+    /**
+     * Commits a chunk fully assembled in a temporary file from createStreamFile(), replacing any chunk stored under
+     * the same name. The temporary file is consumed.
+     * @param filename ChunkFilename the chunk is stored under
+     * @param streamFile Temporary file holding exactly the stored chunk's bytes
+     * @throws IOException If unable to commit the chunk
+     */
+    public abstract void commitStreamFile(ChunkFilename filename, Path streamFile) throws IOException;
+
+    /**
+     * Locates a stored chunk, opening a channel to the file holding it.
+     * @param filename ChunkFilename the chunk is stored under
+     * @return FileRegion spanning exactly the stored chunk's bytes, which owns its newly opened channel
+     * @throws IOException If the chunk is not stored, or unable to open the file holding it
+     */
+    public abstract FileRegion locate(ChunkFilename filename) throws IOException;
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return True if a chunk is stored under the name
+     */
+    public abstract boolean exists(ChunkFilename filename);
+
+    /**
+     * @param filename ChunkFilename of a stored chunk
+     * @return Time the file holding the chunk was last modified, no earlier than the chunk was written
+     * @throws IOException If the chunk is not stored
+     */
+    public abstract long lastModifiedMillis(ChunkFilename filename) throws IOException;
+
+    /**
+     * @param filename ChunkFilename of a stored chunk
+     * @return Text identifying the stored bytes of the chunk, which changes whenever they may have been rewritten
+     * @throws IOException If the chunk is not stored
+     */
+    public abstract String identify(ChunkFilename filename) throws IOException;
+
+    /**
+     * @return Chunk file paths, see ChunkFilename.getChunkFilename(), of every chunk stored
+     */
+    public abstract List<String> list();
+}
@@ -0,0 +1,393 @@
+package chunkserver;
+
+import messaging.ChunkSlice;
+import messaging.ChunkStoreRequest;
+import messaging.ChunkStoreResponse;
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A chunk being received on this Chunk Server as a stream of ChunkSlices, see ChunkSlice.
+ * Slices are written at their final position in a temporary file as they arrive, in whatever order, and checksummed
+ * individually, or verified against the checksum the Client sent along with each, or, with
+ * Constants.CLIENT_CHECKSUM_MODE "trust", take the Client's checksum as it is. Once every slice is in, the chunk's
+ * metadata and integrity information are written ahead of them, and the temporary file replaces the chunk file in
+ * one atomic move.
+ * A whole chunk received in one ChunkStoreRequest is stored through a ChunkStream too, see store(), so it is
+ * checksummed and written in a single pass over it, one slice at a time.
+ * Open streams are tracked by stream ID; streams which never complete are abandoned after
+ * Constants.CONNECTION_REQUEST_TIMEOUT, by which time the Client has given up on them.
+ */
+public class ChunkStream {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkStream.class);
+
+    private static final ConcurrentHashMap<Long, ChunkStream> openStreams = new ConcurrentHashMap<>();
+
+    static {
+        Timer abandonmentDaemon = new Timer("ChunkStreamAbandonment", true);
+        abandonmentDaemon.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                abandonExpiredStreams();
+            }
+        }, Constants.CONNECTION_REQUEST_TIMEOUT, Constants.CONNECTION_REQUEST_TIMEOUT);
+    }
+
+    public long streamId;
+    public ChunkFilename filename;
+    public ChunkMetadata metadata;
+    public ChecksumAlgorithm algorithm;
+
+    // Whether the chunk was already stored when the stream committed, so it may be patched in place
+    public boolean updating;
+    public long openedMillis;
+
+    // Temporary file the slices are written to, and the offset of the first slice within it
+    public Path tempPath;
+    public FileChannel tempChannel;
+    public int dataOffset;
+
+    // Raw checksum of each slice, back to back, filled in as slices are written; slices arrive on many worker
+    // Threads at once, so each is claimed, 0 to 1, before it is written
+    public byte[] sliceChecksums;
+    public AtomicIntegerArray slicesWritten;
+    public AtomicInteger slicesRemaining;
+
+    // Completes once the whole chunk has been stored on this Chunk Server
+    public CompletableFuture<Void> stored;
+
+    // Completes with the downstream Chunk Server's ChunkStoreResponse, or null if we are the last in the chain
+    public volatile CompletableFuture<Message> downstream;
+
+    // Set if any slice could not be forwarded downstream
+    public volatile boolean downstreamFailed;
+
+    private ChunkStream(long streamId, ChunkFilename filename, ChunkMetadata metadata, ChecksumAlgorithm algorithm,
+                        int sliceCount) {
+        this.streamId = streamId;
+        this.filename = filename;
+        this.metadata = metadata;
+        this.algorithm = algorithm;
+        this.openedMillis = System.currentTimeMillis();
+        // An empty chunk is streamed as one empty slice, but has no slices to checksum
+        int checksumCount = (metadata.getSizeBytes() + Constants.SLICE_SIZE - 1) / Constants.SLICE_SIZE;
+        this.sliceChecksums = new byte[checksumCount * this.algorithm.checksumLength];
+        this.slicesWritten = new AtomicIntegerArray(sliceCount);
+        this.slicesRemaining = new AtomicInteger(sliceCount);
+        this.stored = new CompletableFuture<>();
+        this.downstream = CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Gets the open stream a slice belongs to, opening it if this is the first of its slices to arrive.
+     * @param slice Any slice of the stream
+     * @return The open ChunkStream
+     * @throws IOException If unable to open the stream's temporary file
+     */
+    public static ChunkStream forSlice(ChunkSlice slice) throws IOException {
+        try {
+            return openStreams.computeIfAbsent(slice.getStreamId(), streamId -> {
+                try {
+                    return open(slice);
+                } catch (IOException e) {
+                    throw new StreamOpenException(e);
+                }
+            });
+        } catch (StreamOpenException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    private static class StreamOpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StreamOpenException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Stores a whole chunk received in one ChunkStoreRequest in a single pass over it: each slice is checksummed and
+     * written to the temporary file straight away, while it is still in cache, just as if it had been streamed as
+     * ChunkSlices, then the chunk is committed. ChunkStoreRequests carry no checksums from the Client, so every slice
+     * is checksummed here, whatever Constants.CLIENT_CHECKSUM_MODE.
+     * @param request ChunkStoreRequest holding the chunk
+     * @throws IOException If unable to store the chunk
+     */
+    public static void store(ChunkStoreRequest request) throws IOException {
+        ByteBuffer chunkData = request.getChunkDataBuffer();
+        int chunkSize = chunkData.remaining();
+        int sliceCount = ChunkSlice.getSliceCount(chunkSize);
+        ChunkStream stream = open(0, request.getAbsoluteFilePath(), request.getSequence(), chunkSize,
+                ChecksumAlgorithm.getDefault());
+        for (int sliceIndex = 0; sliceIndex < sliceCount && !stream.stored.isDone(); sliceIndex++) {
+            int sliceOffset = sliceIndex * Constants.SLICE_SIZE;
+            stream.writeSlice(sliceIndex, chunkData.slice(chunkData.position() + sliceOffset,
+                    Math.min(Constants.SLICE_SIZE, chunkSize - sliceOffset)));
+        }
+
+        try {
+            stream.stored.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static ChunkStream open(ChunkSlice slice) throws IOException {
+        // Checksum the chunk with the Client's algorithm, if it sent checksums
+        ChecksumAlgorithm algorithm;
+        try {
+            algorithm = slice.hasChecksum() ? slice.getChecksumAlgorithm() : ChecksumAlgorithm.getDefault();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        return open(slice.getStreamId(), slice.getAbsoluteFilePath(), slice.getSequence(), slice.getChunkSize(),
+                algorithm);
+    }
+
+    private static ChunkStream open(long streamId, String absoluteFilePath, int sequence, int chunkSize,
+                                    ChecksumAlgorithm algorithm) throws IOException {
+        ChunkFilename filename = new ChunkFilename(absoluteFilePath, Chunk.getChunkDir(), sequence);
+        ChunkMetadata metadata = new ChunkMetadata(absoluteFilePath, sequence, chunkSize);
+        ChunkStream stream = new ChunkStream(streamId, filename, metadata, algorithm,
+                ChunkSlice.getSliceCount(chunkSize));
+        stream.tempPath = Chunk.getStore().createStreamFile(filename);
+        stream.tempChannel = FileChannel.open(stream.tempPath, StandardOpenOption.WRITE);
+
+        // The data follows the metadata and one checksum per slice; checksums and the version are fixed-length, so
+        // the header's length is known before any of them are
+        stream.dataOffset = marshalHeader(metadata, new ChunkIntegrity(stream.algorithm,
+                stream.sliceChecksums)).length;
+        log.info("Opened stream {} for chunk {}", stream.streamId, filename);
+        return stream;
+    }
+
+    private static byte[] marshalHeader(ChunkMetadata metadata, ChunkIntegrity integrity) throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+        Message.writeChunkHeader(dataOutStream, metadata, integrity);
+        dataOutStream.flush();
+        return byteOutStream.toByteArray();
+    }
+
+    /**
+     * Records that a slice could not be forwarded downstream, so the write as a whole must be reported as failed.
+     */
+    public void failDownstream() {
+        this.downstreamFailed = true;
+    }
+
+    /**
+     * Writes and checksums one slice at its final position. Once the last outstanding slice has been written,
+     * commits the chunk, completing stored.
+     * @param sliceIndex Index of the slice within the chunk
+     * @param sliceData Raw bytes of the slice, between the buffer's position and limit
+     */
+    public void writeSlice(int sliceIndex, ByteBuffer sliceData) {
+        writeSlice(sliceIndex, sliceData, 0, new byte[0]);
+    }
+
+    /**
+     * Writes one slice at its final position, as above, along with the checksum the Client calculated for it, if
+     * any: the slice is verified against it, unless Constants.CLIENT_CHECKSUM_MODE asks for it to be trusted. A slice
+     * which fails verification fails the whole stream.
+     * @param sliceIndex Index of the slice within the chunk
+     * @param sliceData Raw bytes of the slice, between the buffer's position and limit
+     * @param clientAlgorithmId Identifier of the ChecksumAlgorithm of the Client's checksum, or 0 if it sent none
+     * @param clientChecksum Raw checksum of the slice calculated by the Client
+     */
+    public void writeSlice(int sliceIndex, ByteBuffer sliceData, int clientAlgorithmId, byte[] clientChecksum) {
+        if (this.stored.isDone()) {
+            return; // already failed, or a duplicate
+        }
+        try {
+            long sliceOffset = (long) sliceIndex * Constants.SLICE_SIZE;
+            int expectedSize = (int) Math.min(Constants.SLICE_SIZE, this.metadata.getSizeBytes() - sliceOffset);
+            if (sliceIndex < 0 || sliceIndex >= this.slicesWritten.length()
+                    || sliceData.remaining() != Math.max(0, expectedSize)
+                    || !this.slicesWritten.compareAndSet(sliceIndex, 0, 1)) {
+                throw new IOException(String.format("Unexpected slice %d of %d bytes", sliceIndex,
+                        sliceData.remaining()));
+            }
+
+            if (sliceData.hasRemaining()) {
+                checksumSlice(sliceIndex, sliceData, clientAlgorithmId, clientChecksum);
+            }
+            ByteBuffer remaining = sliceData.duplicate();
+            long position = this.dataOffset + sliceOffset;
+            while (remaining.hasRemaining()) {
+                position += this.tempChannel.write(remaining, position);
+            }
+        } catch (IOException e) {
+            log.error("Unable to write slice {} of stream {}: {}", sliceIndex, this.streamId, e.getMessage());
+            abandon(e);
+            return;
+        }
+
+        if (this.slicesRemaining.decrementAndGet() == 0) {
+            commit();
+        }
+    }
+
+    private void checksumSlice(int sliceIndex, ByteBuffer sliceData, int clientAlgorithmId, byte[] clientChecksum)
+            throws IOException {
+        int checksumLength = this.algorithm.checksumLength;
+        int checksumOffset = sliceIndex * checksumLength;
+        if (clientAlgorithmId == 0) {
+            this.algorithm.checksum(sliceData, this.sliceChecksums, checksumOffset);
+            return;
+        }
+        if (clientAlgorithmId != this.algorithm.id || clientChecksum.length != checksumLength) {
+            throw new IOException(String.format("Slice %d has no %s checksum", sliceIndex,
+                    this.algorithm.algorithmName));
+        }
+        if (ChunkIntegrity.trustsClientChecksums()) {
+            System.arraycopy(clientChecksum, 0, this.sliceChecksums, checksumOffset, checksumLength);
+            return;
+        }
+        this.algorithm.checksum(sliceData, this.sliceChecksums, checksumOffset);
+        if (Arrays.mismatch(this.sliceChecksums, checksumOffset, checksumOffset + checksumLength, clientChecksum, 0,
+                checksumLength) >= 0) {
+            throw new IOException(String.format("Slice %d does not match the checksum calculated by the Client",
+                    sliceIndex));
+        }
+    }
+
+    /**
+     * Writes the chunk's metadata and integrity information ahead of its slices, then commits the temporary file to
+     * the ChunkStore: moved over the chunk file, or appended to a segment. If the chunk was already stored, and
+     * Constants.CHUNK_UPDATE_MODE asks for it, just the slices which changed are written over it in place instead.
+     * The version is that of the chunk stored at commit, plus one, read under the chunk's write lock, so writes of
+     * the same chunk committed in between are never given the same version.
+     */
+    private void commit() {
+        Lock lock = ChunkLocks.getInstance().writeLock(this.filename);
+        lock.lock();
+        try {
+            this.updating = Chunk.alreadyExists(this.filename);
+            this.metadata.version = this.updating ? Chunk.readChunkVersion(this.filename) + 1 : 1;
+            if (this.updating) {
+                log.info("Chunk {} already exists, storing streamed version {} of it", this.filename,
+                        this.metadata.version);
+            }
+            ChunkIntegrity integrity = new ChunkIntegrity(this.algorithm, this.sliceChecksums);
+            if (this.updating && ChunkPatcher.isEnabled() && patchInPlace(integrity)) {
+                openStreams.remove(this.streamId, this);
+                log.info("Successfully stored streamed chunk {} in place", this.filename);
+                this.stored.complete(null);
+                return;
+            }
+            ByteBuffer header = ByteBuffer.wrap(marshalHeader(this.metadata, integrity));
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += this.tempChannel.write(header, position);
+            }
+            this.tempChannel.close();
+            Chunk.getStore().commitStreamFile(this.filename, this.tempPath);
+            Chunk.invalidateCached(this.filename);
+            openStreams.remove(this.streamId, this);
+            ChunkCatalog.getInstance().record(this.filename, this.metadata, integrity);
+            log.info("Successfully stored streamed chunk {}", this.filename);
+            this.stored.complete(null);
+        } catch (IOException e) {
+            log.error("Unable to commit streamed chunk {}: {}", this.filename, e.getMessage());
+            abandon(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Patches the stored chunk with the slices written to the temporary file, deleting it, if the chunk can be.
+     * @return True if the chunk was patched, false if the temporary file must be committed instead
+     */
+    private boolean patchInPlace(ChunkIntegrity integrity) throws IOException {
+        try (FileChannel tempReader = FileChannel.open(this.tempPath, StandardOpenOption.READ)) {
+            ByteBuffer data = tempReader.map(FileChannel.MapMode.READ_ONLY, this.dataOffset,
+                    this.metadata.getSizeBytes());
+            if (!ChunkPatcher.getInstance().patch(this.filename, this.metadata, integrity, data)) {
+                return false;
+            }
+        }
+        this.tempChannel.close();
+        Files.delete(this.tempPath);
+        return true;
+    }
+
+    /**
+     * Gives up on the stream, deleting its temporary file and failing stored.
+     * @param cause Reason the stream was abandoned
+     */
+    public void abandon(Exception cause) {
+        openStreams.remove(this.streamId, this);
+        try {
+            this.tempChannel.close();
+            Files.deleteIfExists(this.tempPath);
+        } catch (IOException e) {
+            log.error("Unable to clean up stream {}: {}", this.streamId, e.getMessage());
+        }
+        this.stored.completeExceptionally(cause);
+    }
+
+    /**
+     * Completes once this Chunk Server has stored the chunk and the downstream Chunk Server, if any, has answered.
+     * @param ourHostname Host name to put in our own response
+     * @param ourIpAddress IP address to put in our own response
+     * @return The ChunkStoreResponse to send back up the chain: a downstream failure is passed back as is, so the
+     * failure can be located; otherwise, success only if every slice was stored here and forwarded downstream
+     */
+    public CompletableFuture<ChunkStoreResponse> acknowledgement(String ourHostname, String ourIpAddress) {
+        CompletableFuture<Boolean> storedHere = this.stored.handle((ignored, error) -> error == null);
+        CompletableFuture<Message> downstreamResponse = this.downstream.handle((response, error) -> {
+            if (error != null) {
+                log.error("No response from downstream Chunk Server for {}: {}", this.filename, error.getMessage());
+                return new ChunkStoreResponse(ourHostname, ourIpAddress, Constants.CHUNK_SERVER_PORT,
+                        this.metadata.getAbsoluteFilePath(), this.metadata.getSequence(), false);
+            }
+            return response;
+        });
+        return storedHere.thenCombine(downstreamResponse, (success, response) -> {
+            if (response != null && !((ChunkStoreResponse) response).getSuccess()) {
+                return (ChunkStoreResponse) response;
+            }
+            return new ChunkStoreResponse(ourHostname, ourIpAddress, Constants.CHUNK_SERVER_PORT,
+                    this.metadata.getAbsoluteFilePath(), this.metadata.getSequence(),
+                    success && !this.downstreamFailed);
+        });
+    }
+
+    /**
+     * Abandons streams which have been open for longer than Constants.CONNECTION_REQUEST_TIMEOUT.
+     */
+    public static void abandonExpiredStreams() {
+        long now = System.currentTimeMillis();
+        for (ChunkStream stream: openStreams.values()) {
+            if (now - stream.openedMillis > Constants.CONNECTION_REQUEST_TIMEOUT) {
+                log.warn("Abandoning stream {} for chunk {}: not all slices arrived", stream.streamId,
+                        stream.filename);
+                stream.abandon(new IOException("Stream timed out"));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package chunkserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton record of when each stored chunk last passed verification, so chunks read over and over are not hashed
+ * on every read. A record only vouches for the exact stored bytes it was made for: it is keyed by the chunk's version
+ * and by ChunkStore.identify(), which changes whenever the chunk is rewritten or replaced, and it expires
+ * Constants.CHUNK_REVERIFY_INTERVAL after the verification. Corruption which changes neither, i.e. bit rot, is left
+ * to be found by re-verification once the record expires.
+ * An interval of 0 disables the records, verifying every read as before.
+ */
+public class ChunkVerificationState {
+
+    public static Logger log = LoggerFactory.getLogger(ChunkVerificationState.class);
+
+    private static ChunkVerificationState singletonInstance = null;
+
+    /**
+     * The stored bytes a verification was made for, and when it was made.
+     */
+    public static class Record {
+
+        public String identity;
+        public int version;
+        public long verifiedMillis;
+
+        public Record(String identity, int version, long verifiedMillis) {
+            this.identity = identity;
+            this.version = version;
+            this.verifiedMillis = verifiedMillis;
+        }
+    }
+
+    // Last successful verification by chunk file path
+    private final ConcurrentHashMap<String, Record> records;
+
+    public long reverifyIntervalMillis;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private ChunkVerificationState() {
+        this.records = new ConcurrentHashMap<>();
+        this.reverifyIntervalMillis = Constants.CHUNK_REVERIFY_INTERVAL;
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton ChunkVerificationState instance.
+     */
+    public static synchronized ChunkVerificationState getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new ChunkVerificationState();
+        }
+        return singletonInstance;
+    }
+
+    public boolean isEnabled() {
+        return this.reverifyIntervalMillis > 0;
+    }
+
+    /**
+     * Identifies the stored bytes of a chunk, for recording a verification of them. Must be called before the chunk
+     * is opened, so a chunk replaced in between is recorded under its old identity, and so not vouched for.
+     * @param filename ChunkFilename of the chunk
+     * @return The chunk's identity, see ChunkStore.identify(), or null if disabled or it cannot be identified
+     */
+    public String identify(ChunkFilename filename) {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            return Chunk.getStore().identify(filename);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param filename ChunkFilename of the chunk
+     * @param identity The chunk's identity from identify(), taken before it was opened
+     * @param version Version of the opened chunk
+     * @return True if the same stored bytes passed verification within the re-verification interval
+     */
+    public boolean isRecentlyVerified(ChunkFilename filename, String identity, int version) {
+        if (identity == null) {
+            return false;
+        }
+        Record record = this.records.get(filename.getChunkFilename());
+        return record != null && record.identity.equals(identity) && record.version == version &&
+                System.currentTimeMillis() - record.verifiedMillis < this.reverifyIntervalMillis;
+    }
+
+    /**
+     * Records that a chunk has just passed verification.
+     * @param filename ChunkFilename of the chunk
+     * @param identity The chunk's identity from identify(), taken before it was opened
+     * @param version Version of the verified chunk
+     */
+    public void recordVerified(ChunkFilename filename, String identity, int version) {
+        if (identity != null) {
+            this.records.put(filename.getChunkFilename(), new Record(identity, version, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Verifies a whole opened chunk unless it passed verification recently, recording the outcome.
+     * @param filename ChunkFilename of the chunk
+     * @param identity The chunk's identity from identify(), taken before it was opened
+     * @param storedChunk The opened chunk
+     * @return True if the chunk is valid, or passed verification recently
+     */
+    public boolean verify(ChunkFilename filename, String identity, StoredChunk storedChunk) {
+        int version = storedChunk.metadata.getVersion();
+        if (isRecentlyVerified(filename, identity, version)) {
+            log.debug("Chunk {} was verified recently; skipping verification", filename);
+            return true;
+        }
+        return hash(filename, identity, storedChunk);
+    }
+
+    /**
+     * Verifies a whole opened chunk, or a copy of it, by hashing it whether or not it passed verification recently,
+     * recording the outcome.
+     * @param filename ChunkFilename of the chunk
+     * @param identity The chunk's identity from identify(), taken before it was opened
+     * @param storedChunk The opened chunk, or a copy of it
+     * @return True if the chunk is valid
+     */
+    public boolean hash(ChunkFilename filename, String identity, StoredChunk storedChunk) {
+        if (storedChunk.isValid()) {
+            recordVerified(filename, identity, storedChunk.metadata.getVersion());
+            return true;
+        }
+        invalidate(filename);
+        return false;
+    }
+
+    /**
+     * Forgets a chunk's verification, because it has been saved anew or found corrupted.
+     * @param filename ChunkFilename of the chunk
+     */
+    public void invalidate(ChunkFilename filename) {
+        this.records.remove(filename.getChunkFilename());
+    }
+
+    /**
+     * @return Number of chunks with a verification recorded
+     */
+    public int size() {
+        return this.records.size();
+    }
+
+    /**
+     * Forgets every verification.
+     */
+    public void clear() {
+        this.records.clear();
+    }
+}
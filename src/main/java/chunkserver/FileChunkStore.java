@@ -0,0 +1,154 @@
+package chunkserver;
+
+import messaging.FileRegion;
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original ChunkStore: each chunk is stored in its own file, named by ChunkFilename after the client's path,
+ * under the chunk directory.
+ */
+public class FileChunkStore extends ChunkStore {
+
+    public static Logger log = LoggerFactory.getLogger(FileChunkStore.class);
+
+    public String chunkDir;
+
+    public FileChunkStore(String chunkDir) {
+        this.chunkDir = chunkDir;
+    }
+
+    /**
+     * Writes the chunk to a temporary file next to the chunk file, then moves it over the chunk file, so the chunk
+     * file is never seen part written, and existing mappings of it keep the previous version intact.
+     */
+    @Override
+    public void write(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity, ByteBuffer data)
+            throws IOException {
+        Path tempPath = createStreamFile(filename);
+        try {
+            // Initialize output streams for writing to file
+            FileOutputStream fileOutputStream = new FileOutputStream(tempPath.toFile());
+            DataOutputStream dataOutStream = new DataOutputStream(fileOutputStream);
+
+            // Write chunk metadata, integrity information, and raw data to disk
+            Message.writeChunk(dataOutStream, metadata, integrity, data);
+
+            // Clean up output streams
+            dataOutStream.flush();
+            dataOutStream.close();
+            fileOutputStream.close();
+            commitStreamFile(filename, tempPath);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the temporary file next to the chunk file, so committing it is an atomic rename.
+     */
+    @Override
+    public Path createStreamFile(ChunkFilename filename) throws IOException {
+        Chunk.makeParentDirsIfNotExist(filename);
+        return Files.createTempFile(Paths.get(filename.getChunkBase()), ".stream", ".tmp");
+    }
+
+    @Override
+    public void commitStreamFile(ChunkFilename filename, Path streamFile) throws IOException {
+        Files.move(streamFile, Paths.get(filename.getChunkFilename()), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public FileRegion locate(ChunkFilename filename) throws IOException {
+        FileChannel fileChannel = FileChannel.open(Paths.get(filename.getChunkFilename()), StandardOpenOption.READ);
+        return new FileRegion(fileChannel, 0, fileChannel.size());
+    }
+
+    @Override
+    public boolean exists(ChunkFilename filename) {
+        return new File(filename.getChunkFilename()).exists();
+    }
+
+    @Override
+    public long lastModifiedMillis(ChunkFilename filename) throws IOException {
+        return Files.getLastModifiedTime(Paths.get(filename.getChunkFilename())).toMillis();
+    }
+
+    /**
+     * Identifies a chunk file by its file key (i.e. device and inode), modification time, and size, so replacing it
+     * with a new file, or writing to it in place, changes its identity.
+     */
+    @Override
+    public String identify(ChunkFilename filename) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(Paths.get(filename.getChunkFilename()),
+                BasicFileAttributes.class);
+        return String.format("%s:%s:%d", attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+    }
+
+    /**
+     * Recursively walks the chunk storage directory for chunk files.
+     */
+    @Override
+    public List<String> list() {
+        List<String> chunkFilenames = new ArrayList<>();
+
+        // Apparently this is how you have to implement a walker that skips directories it can't read
+        try {
+            Files.walkFileTree(Paths.get(this.chunkDir), new SimpleFileVisitor<>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        String filename = file.toString();
+                        if (filename.contains("_chunk")) {
+                            chunkFilenames.add(file.toString());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (attrs.isDirectory() && !Files.isReadable(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    } else {
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    if (e == null) {
+                        return FileVisitResult.CONTINUE;
+                    } else {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path dir, IOException e) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            });
+
+        } catch (IOException e) {
+            log.error("Caught IOException while walking directory tree! {}", e.getMessage());
+            e.printStackTrace();
+        }
+        return chunkFilenames;
+    }
+}
@@ -9,7 +9,6 @@ import util.Constants;
 import util.Host;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.List;
 import java.util.TimerTask;
 
@@ -31,18 +30,22 @@ public class HeartbeatMajorTask extends TimerTask {
     @Override
     public void run() {
         log.info("Iteration {} of HeartbeatMajorTask", this.iteration);
+        if (VerifiedChunkCache.getInstance().isEnabled()) {
+            log.info("Verified chunk cache: {}", VerifiedChunkCache.getInstance());
+        }
+        if (getChunkServer().getScrubber() != null) {
+            log.info("Chunk scrubber: {}", getChunkServer().getScrubber());
+        }
 
         try {
             HeartbeatMajor message = constructHeartbeatMajorMessage();
 
             try {
-                Socket clientSocket = Client.sendMessage(
+                Client.sendMessage(
                         getChunkServer().getControllerHostname(),
                         getChunkServer().getControllerPort(),
                         message
                 );
-
-                clientSocket.close();
             } catch (IOException e) {
                 log.error("Caught IOException while trying to send HeartbeatMajor Message: {}", e.getMessage());
             }
@@ -62,7 +65,7 @@ public class HeartbeatMajorTask extends TimerTask {
      */
     public HeartbeatMajor constructHeartbeatMajorMessage() throws IOException {
         long freeSpaceAvailable = getChunkServer().discoverFreeSpaceAvailable();
-        List<ChunkMetadata> chunkMetadataList = getChunkServer().discoverChunksMetadata();
+        List<ChunkMetadata> chunkMetadataList = getChunkServer().getChunksMetadata();
         int totalChunksMaintained = chunkMetadataList.size();
 
         return new HeartbeatMajor(Host.getHostname(), Host.getIpAddress(), Constants.CHUNK_SERVER_PORT,
@@ -10,7 +10,6 @@ import util.Constants;
 import util.Host;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TimerTask;
@@ -39,12 +38,11 @@ public class HeartbeatMinorTask extends TimerTask {
                 HeartbeatMinor message = constructHeartbeatMinorMessage();
 
                 try {
-                    Socket clientSocket = Client.sendMessage(
+                    Client.sendMessage(
                             getChunkServer().getControllerHostname(),
                             getChunkServer().getControllerPort(),
                             message
                     );
-                    clientSocket.close();
                 } catch (IOException e) {
                     log.error("Caught IOException while trying to send HeartbeatMinor Message: {}", e.getMessage());
                 }
@@ -67,7 +65,7 @@ public class HeartbeatMinorTask extends TimerTask {
      */
     public HeartbeatMinor constructHeartbeatMinorMessage() throws IOException {
         long freeSpaceAvailable = getChunkServer().discoverFreeSpaceAvailable();
-        int totalChunksMaintained = getChunkServer().discoverChunks().size();
+        int totalChunksMaintained = getChunkServer().getTotalChunksMaintained();
         List<ChunkMetadata> newChunks = new ArrayList<>();
         getChunkServer().getNewlyAddedChunks().drainTo(newChunks); // consume all newly added chunks
 
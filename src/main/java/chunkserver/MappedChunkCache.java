@@ -0,0 +1,132 @@
+package chunkserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Singleton, bounded cache of stored chunks kept mapped into memory, for Constants.CHUNK_READ_MODE "mapped".
+ * Cached StoredChunks hold no open file channel, only their read-only mapping, so reads of hot chunks are served
+ * from the page cache without opening, parsing, or copying anything. Least recently used chunks are dropped once the
+ * mappings add up to more than Constants.MAPPED_CHUNK_CACHE_SIZE bytes.
+ * Chunk files are replaced by an atomic move, and segments are never overwritten, so a mapping otherwise holds a
+ * complete stored chunk; but the ChunkPatcher writes slices in place, through to the shared mapping, so a mapping
+ * is only read under the chunk's read lock, or while pinned by a response sending it, see ChunkLocks.pin(). Saving
+ * a chunk invalidates its entry, so the next read maps the new version.
+ */
+public class MappedChunkCache {
+
+    public static Logger log = LoggerFactory.getLogger(MappedChunkCache.class);
+
+    private static MappedChunkCache singletonInstance = null;
+
+    // Mapped chunks by chunk file path, in least to most recently used order
+    private final LinkedHashMap<String, StoredChunk> mappedChunks;
+    private long mappedBytes;
+
+    // Bumped by every invalidation, so a chunk mapped while it was being saved is not cached
+    private long invalidations;
+
+    public long maxMappedBytes;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private MappedChunkCache() {
+        this.mappedChunks = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxMappedBytes = Constants.MAPPED_CHUNK_CACHE_SIZE;
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton MappedChunkCache instance.
+     */
+    public static synchronized MappedChunkCache getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new MappedChunkCache();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * Gets a stored chunk's mapping from the cache, mapping and caching it if need be.
+     * @param filename ChunkFilename of the chunk
+     * @return StoredChunk shared with other readers, holding no file channel; closing it does nothing
+     * @throws IOException If unable to open or map the chunk, or it is malformed
+     */
+    public StoredChunk get(ChunkFilename filename) throws IOException {
+        String key = filename.getChunkFilename();
+        long invalidationsBefore;
+        synchronized (this) {
+            StoredChunk cached = this.mappedChunks.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            invalidationsBefore = this.invalidations;
+        }
+
+        StoredChunk storedChunk = StoredChunk.open(filename);
+        storedChunk.close(); // the mapping outlives the channel
+
+        synchronized (this) {
+            if (this.invalidations == invalidationsBefore && !this.mappedChunks.containsKey(key)) {
+                this.mappedChunks.put(key, storedChunk);
+                this.mappedBytes += storedChunk.getFileSize();
+                evict();
+            }
+        }
+        return storedChunk;
+    }
+
+    /**
+     * Drops least recently used mappings until the cache is back within its size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, StoredChunk>> eldest = this.mappedChunks.entrySet().iterator();
+        while (this.mappedBytes > this.maxMappedBytes && eldest.hasNext()) {
+            this.mappedBytes -= eldest.next().getValue().getFileSize();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops a chunk's mapping, if cached, because the chunk has been saved anew.
+     * @param filename ChunkFilename of the chunk
+     */
+    public synchronized void invalidate(ChunkFilename filename) {
+        this.invalidations++;
+        StoredChunk removed = this.mappedChunks.remove(filename.getChunkFilename());
+        if (removed != null) {
+            this.mappedBytes -= removed.getFileSize();
+        }
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return True if the chunk's mapping is cached
+     */
+    public synchronized boolean contains(ChunkFilename filename) {
+        return this.mappedChunks.containsKey(filename.getChunkFilename());
+    }
+
+    /**
+     * @return Total size of the cached mappings, in bytes
+     */
+    public synchronized long getMappedBytes() {
+        return this.mappedBytes;
+    }
+
+    /**
+     * Drops every cached mapping.
+     */
+    public synchronized void clear() {
+        this.invalidations++;
+        this.mappedChunks.clear();
+        this.mappedBytes = 0;
+    }
+}
@@ -0,0 +1,556 @@
+package chunkserver;
+
+import messaging.FileRegion;
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A log-structured ChunkStore: chunks are appended to large segment files, and found through an in-memory index of
+ * chunk file path to segment, offset and length, rather than each living in its own file and directory.
+ * Writes are sequential appends to the active segment, which is sealed once it reaches its maximum size, and a new
+ * one started. Each record in a segment is framed as [string chunk file path][int length][stored chunk][long CRC32
+ * of what precedes it in the record], where the stored chunk is exactly what a chunk file would hold, so it is served
+ * straight out of the segment as a FileRegion. Records written by ChunkStore.write() and commitStreamFile() are
+ * forced to disk before the call returns, so a chunk is durable once its store is acknowledged.
+ * The index is rebuilt on startup by reading the records in order and checking their CRC32s, later records
+ * superseding earlier ones; a segment is indexed up to its first torn or corrupted record, and a torn record at the
+ * end of the last segment, from a crash part way through an append, is truncated away.
+ * Updating a chunk appends its new version, leaving the old one dead in its segment. Every
+ * Constants.CHUNK_SEGMENT_COMPACTION_INTERVAL, sealed segments which are mostly dead are compacted: their live
+ * chunks are copied to the active segment, and the segment is deleted.
+ */
+public class SegmentChunkStore extends ChunkStore {
+
+    public static Logger log = LoggerFactory.getLogger(SegmentChunkStore.class);
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Where a chunk is stored: its segment, and the offset and length of the stored chunk within the segment.
+     */
+    public static class Location {
+
+        public long segmentId;
+        public long offset;
+        public int length;
+
+        // Length of the chunk's whole record, including its prefix
+        public int recordLength;
+
+        public Location(long segmentId, long offset, int length, int recordLength) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+
+        public long getSegmentId() {
+            return segmentId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * A segment file, and how many of its bytes belong to records which have not been superseded.
+     */
+    private static class Segment {
+
+        final long id;
+        final Path path;
+        final AtomicLong liveBytes;
+        volatile long size;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+            this.liveBytes = new AtomicLong();
+        }
+    }
+
+    public Path segmentDir;
+    public long maxSegmentSize;
+
+    private final ConcurrentHashMap<String, Location> index;
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+
+    // Segment being appended to, and a channel open for writing to it; appends are serialized on this store
+    private Segment active;
+    private FileChannel activeChannel;
+
+    private Timer compactionDaemon;
+
+    private SegmentChunkStore(Path segmentDir, long maxSegmentSize) {
+        this.segmentDir = segmentDir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.index = new ConcurrentHashMap<>();
+        this.segments = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Opens a segment store, creating its directory if need be, rebuilding its index from the segments there, and
+     * starting its compaction daemon.
+     * @param segmentDir Directory holding the segment files
+     * @param maxSegmentSize Size past which the active segment is sealed and a new one started
+     * @return Open SegmentChunkStore
+     * @throws IOException If unable to read the segments
+     */
+    public static SegmentChunkStore open(Path segmentDir, long maxSegmentSize) throws IOException {
+        Files.createDirectories(segmentDir);
+        SegmentChunkStore store = new SegmentChunkStore(segmentDir, maxSegmentSize);
+        store.recover();
+        store.startCompactionTask();
+        return store;
+    }
+
+    private Path getSegmentPath(long segmentId) {
+        return this.segmentDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Rebuilds the index from every segment in order, and reopens the last segment for appending. Temporary files
+     * left behind by interrupted ChunkStreams are deleted.
+     */
+    private synchronized void recover() throws IOException {
+        List<Long> segmentIds = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.segmentDir)) {
+            for (Path file: (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".stream") && name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segmentIds.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+
+        for (int i = 0; i < segmentIds.size(); i++) {
+            Segment segment = new Segment(segmentIds.get(i), getSegmentPath(segmentIds.get(i)));
+            this.segments.put(segment.id, segment);
+            scan(segment, i == segmentIds.size() - 1);
+        }
+
+        if (this.segments.isEmpty()) {
+            roll();
+        } else {
+            this.active = this.segments.lastEntry().getValue();
+            this.activeChannel = FileChannel.open(this.active.path, StandardOpenOption.WRITE);
+            if (this.active.size >= this.maxSegmentSize) {
+                roll();
+            }
+        }
+        log.info("Opened segment store {}: {} chunks in {} segments", this.segmentDir, this.index.size(),
+                this.segments.size());
+    }
+
+    /**
+     * Indexes every intact record in a segment, checking each one's CRC32.
+     * @param segment Segment to scan
+     * @param last Whether this is the last segment, in which case a torn record at its end is truncated away
+     */
+    private void scan(Segment segment, boolean last) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            long position = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (position + Integer.BYTES <= fileSize) {
+                int keyLength = readInt(channel, position);
+                long lengthPosition = position + Integer.BYTES + keyLength;
+                if (keyLength <= 0 || lengthPosition + Integer.BYTES > fileSize) {
+                    break;
+                }
+                int length = readInt(channel, lengthPosition);
+                long offset = lengthPosition + Integer.BYTES;
+                // A stored chunk always has a header
+                if (length <= 0 || offset + length + Long.BYTES > fileSize) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                for (long read = position; read < offset + length; read += buffer.limit()) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), offset + length - read));
+                    readFully(channel, buffer, read);
+                    crc.update(buffer.flip());
+                }
+                if (crc.getValue() != readLong(channel, offset + length)) {
+                    break;
+                }
+                ByteBuffer key = ByteBuffer.allocate(keyLength);
+                readFully(channel, key, position + Integer.BYTES);
+
+                long end = offset + length + Long.BYTES;
+                Location location = new Location(segment.id, offset, length, (int) (end - position));
+                segment.liveBytes.addAndGet(location.recordLength);
+                release(this.index.put(new String(key.array(), StandardCharsets.UTF_8), location));
+                position = end;
+            }
+
+            if (position < fileSize) {
+                log.warn("Discarding {} bytes of torn or corrupted records at the end of segment {}",
+                        fileSize - position, segment.path);
+                if (last) {
+                    channel.truncate(position);
+                    channel.force(true);
+                }
+            }
+            segment.size = position;
+        }
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    /**
+     * Marks a superseded record's bytes as dead in its segment.
+     * @param location Location of the superseded record, or null if nothing was superseded
+     */
+    private void release(Location location) {
+        if (location != null) {
+            Segment segment = this.segments.get(location.segmentId);
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-location.recordLength);
+            }
+        }
+    }
+
+    /**
+     * Seals the active segment, forcing it to disk, and starts a new one.
+     */
+    private synchronized void roll() throws IOException {
+        if (this.activeChannel != null) {
+            this.activeChannel.force(true);
+            this.activeChannel.close();
+        }
+        long segmentId = this.segments.isEmpty() ? 1 : this.segments.lastKey() + 1;
+        Segment segment = new Segment(segmentId, getSegmentPath(segmentId));
+        this.activeChannel = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.segments.put(segmentId, segment);
+        this.active = segment;
+        log.info("Started segment {}", segment.path);
+    }
+
+    /**
+     * Writes a record's prefix at the end of the active segment, first rolling to a new segment if the record would
+     * take the active one past its maximum size.
+     * @param crc CRC32 of the record, which the prefix is added to
+     * @return Offset within the active segment at which the stored chunk's bytes must be written
+     */
+    private long beginRecord(String key, int length, CRC32 crc) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int prefixLength = Integer.BYTES + keyBytes.length + Integer.BYTES;
+        if (this.active.size > 0 && this.active.size + prefixLength + length + Long.BYTES > this.maxSegmentSize) {
+            roll();
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(prefixLength).putInt(keyBytes.length).put(keyBytes).putInt(length);
+        crc.update(prefix.array());
+        writeFully(this.activeChannel, prefix.flip(), this.active.size);
+        return this.active.size + prefixLength;
+    }
+
+    /**
+     * Completes a record whose stored chunk's bytes have been written by writing its CRC32, pointing the index at it.
+     * @param force Whether to force the record to disk first
+     */
+    private void endRecord(String key, long offset, int length, long checksum, boolean force) throws IOException {
+        writeFully(this.activeChannel, ByteBuffer.allocate(Long.BYTES).putLong(0, checksum), offset + length);
+        if (force) {
+            this.activeChannel.force(false);
+        }
+        long end = offset + length + Long.BYTES;
+        Location location = new Location(this.active.id, offset, length, (int) (end - this.active.size));
+        this.active.size = end;
+        this.active.liveBytes.addAndGet(location.recordLength);
+        release(this.index.put(key, location));
+    }
+
+    /**
+     * Discards whatever part of a failed record was written, so the next record overwrites it.
+     */
+    private void abortRecord() {
+        try {
+            this.activeChannel.truncate(this.active.size);
+        } catch (IOException e) {
+            log.error("Unable to truncate segment {}: {}", this.active.path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void write(ChunkFilename filename, ChunkMetadata metadata, ChunkIntegrity integrity, ByteBuffer data)
+            throws IOException {
+        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+        Message.writeChunkHeader(dataOutStream, metadata, integrity);
+        dataOutStream.flush();
+        byte[] header = byteOutStream.toByteArray();
+
+        String key = filename.getChunkFilename();
+        int length = header.length + data.remaining();
+        synchronized (this) {
+            try {
+                CRC32 crc = new CRC32();
+                long offset = beginRecord(key, length, crc);
+                crc.update(header);
+                crc.update(data.duplicate());
+                writeFully(this.activeChannel, ByteBuffer.wrap(header), offset);
+                writeFully(this.activeChannel, data.duplicate(), offset + header.length);
+                endRecord(key, offset, length, crc.getValue(), true);
+            } catch (IOException e) {
+                abortRecord();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Creates the temporary file in the segment directory; it is appended to the active segment on commit.
+     */
+    @Override
+    public Path createStreamFile(ChunkFilename filename) throws IOException {
+        return Files.createTempFile(this.segmentDir, ".stream", ".tmp");
+    }
+
+    @Override
+    public void commitStreamFile(ChunkFilename filename, Path streamFile) throws IOException {
+        String key = filename.getChunkFilename();
+        try (FileChannel streamChannel = FileChannel.open(streamFile, StandardOpenOption.READ)) {
+            int length = (int) streamChannel.size();
+            synchronized (this) {
+                try {
+                    CRC32 crc = new CRC32();
+                    long offset = beginRecord(key, length, crc);
+                    crc.update(streamChannel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+                    transferFully(streamChannel, 0, offset, length);
+                    endRecord(key, offset, length, crc.getValue(), true);
+                } catch (IOException e) {
+                    abortRecord();
+                    throw e;
+                }
+            }
+        }
+        Files.delete(streamFile);
+    }
+
+    /**
+     * Copies bytes from another file into the active segment, without bringing them into the heap.
+     */
+    private void transferFully(FileChannel source, long sourcePosition, long offset, int length) throws IOException {
+        source.position(sourcePosition);
+        long transferred = 0;
+        while (transferred < length) {
+            long count = this.activeChannel.transferFrom(source, offset + transferred, length - transferred);
+            if (count == 0) {
+                throw new EOFException("Source file was truncated while being copied into a segment");
+            }
+            transferred += count;
+        }
+    }
+
+    /**
+     * Opens the chunk's segment for reading. Should compaction delete the segment before it is opened, the index is
+     * consulted again for where the chunk was copied to.
+     */
+    @Override
+    public FileRegion locate(ChunkFilename filename) throws IOException {
+        String key = filename.getChunkFilename();
+        while (true) {
+            Location location = this.index.get(key);
+            if (location == null) {
+                throw new NoSuchFileException(key);
+            }
+            try {
+                FileChannel fileChannel = FileChannel.open(getSegmentPath(location.segmentId),
+                        StandardOpenOption.READ);
+                return new FileRegion(fileChannel, location.offset, location.length);
+            } catch (NoSuchFileException e) {
+                if (this.index.get(key) == location) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(ChunkFilename filename) {
+        return this.index.containsKey(filename.getChunkFilename());
+    }
+
+    @Override
+    public long lastModifiedMillis(ChunkFilename filename) throws IOException {
+        Location location = getLocation(filename);
+        if (location == null) {
+            throw new NoSuchFileException(filename.getChunkFilename());
+        }
+        return Files.getLastModifiedTime(getSegmentPath(location.segmentId)).toMillis();
+    }
+
+    /**
+     * Identifies a chunk by where its record is: segments are only ever appended to, so a chunk's bytes are
+     * rewritten only by storing it at a new location.
+     */
+    @Override
+    public String identify(ChunkFilename filename) throws IOException {
+        Location location = getLocation(filename);
+        if (location == null) {
+            throw new NoSuchFileException(filename.getChunkFilename());
+        }
+        return String.format("%d:%d:%d", location.segmentId, location.offset, location.length);
+    }
+
+    @Override
+    public List<String> list() {
+        return new ArrayList<>(this.index.keySet());
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return Where the chunk is stored, or null if it is not
+     */
+    public Location getLocation(ChunkFilename filename) {
+        return this.index.get(filename.getChunkFilename());
+    }
+
+    /**
+     * @return Number of segment files, including the active one
+     */
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    private synchronized long getActiveSegmentId() {
+        return this.active.id;
+    }
+
+    /**
+     * Compacts every sealed segment at most Constants.CHUNK_SEGMENT_COMPACTION_THRESHOLD live.
+     */
+    public void compact() {
+        for (Segment segment: this.segments.values()) {
+            if (segment.id != getActiveSegmentId() &&
+                    segment.liveBytes.get() <= segment.size * Constants.CHUNK_SEGMENT_COMPACTION_THRESHOLD) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    log.error("Unable to compact segment {}: {}", segment.path, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a sealed segment's live chunks to the active segment, one at a time so writers are held off only
+     * briefly, then deletes it. A copied record keeps its CRC32, and the copies are forced to disk together before the
+     * segment is deleted.
+     */
+    private void compact(Segment segment) throws IOException {
+        int copied = 0;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            for (Map.Entry<String, Location> entry: this.index.entrySet()) {
+                if (entry.getValue().segmentId != segment.id) {
+                    continue;
+                }
+                synchronized (this) {
+                    Location location = this.index.get(entry.getKey());
+                    if (location == null || location.segmentId != segment.id) {
+                        continue; // superseded in the meantime
+                    }
+                    try {
+                        long offset = beginRecord(entry.getKey(), location.length, new CRC32());
+                        transferFully(channel, location.offset, offset, location.length);
+                        endRecord(entry.getKey(), offset, location.length,
+                                readLong(channel, location.offset + location.length), false);
+                    } catch (IOException e) {
+                        abortRecord();
+                        throw e;
+                    }
+                }
+                copied++;
+            }
+        }
+        synchronized (this) {
+            this.activeChannel.force(true);
+        }
+        this.segments.remove(segment.id);
+        Files.delete(segment.path);
+        log.info("Compacted segment {}: copied {} live chunks", segment.path, copied);
+    }
+
+    private void startCompactionTask() {
+        this.compactionDaemon = new Timer("SegmentCompaction", true);
+        this.compactionDaemon.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, Constants.CHUNK_SEGMENT_COMPACTION_INTERVAL, Constants.CHUNK_SEGMENT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Stops compaction, and forces and closes the active segment.
+     */
+    public synchronized void close() {
+        this.compactionDaemon.cancel();
+        try {
+            this.activeChannel.force(true);
+            this.activeChannel.close();
+        } catch (IOException e) {
+            log.error("Unable to close segment {}: {}", this.active.path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package chunkserver;
+
+import messaging.FileRegion;
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.ByteBufferInputStream;
+import util.Constants;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A chunk file opened for serving straight from disk, as opposed to a Chunk loaded into the heap.
+ * The stored chunk, a whole chunk file or a region of a segment, is mapped read-only: its metadata and integrity
+ * information are parsed, and its slices hashed, directly out of the mapping. It can then be streamed to the network
+ * as a FileRegion, since a stored chunk is exactly the bytes Message.writeChunk() puts on the wire.
+ */
+public class StoredChunk {
+
+    public static Logger log = LoggerFactory.getLogger(StoredChunk.class);
+
+    // Chunk metadata
+    public ChunkMetadata metadata;
+
+    // Chunk integrity checksums for each of the slices
+    public ChunkIntegrity integrity;
+
+    // Open channel to the file holding the chunk, owned by this StoredChunk until handed off with toFileRegion()
+    public FileChannel fileChannel;
+
+    // Offset of the stored chunk within that file: 0 for a chunk file, or wherever a segment holds it
+    public long fileOffset;
+
+    // Read-only mapping of the whole stored chunk
+    public ByteBuffer mappedFile;
+
+    // Offset of the raw chunk data within the file, following the metadata and integrity information
+    public int dataOffset;
+
+    // Version of the chunk format it is stored in, see Message.CHUNK_FORMAT_VERSION
+    public int formatVersion;
+
+    private StoredChunk(ChunkMetadata metadata, ChunkIntegrity integrity, FileChannel fileChannel, long fileOffset,
+                        ByteBuffer mappedFile, int dataOffset, int formatVersion) {
+        this.metadata = metadata;
+        this.integrity = integrity;
+        this.fileChannel = fileChannel;
+        this.fileOffset = fileOffset;
+        this.mappedFile = mappedFile;
+        this.dataOffset = dataOffset;
+        this.formatVersion = formatVersion;
+    }
+
+    /**
+     * Opens and maps a stored chunk, wherever the ChunkStore keeps it, parsing its metadata and integrity information.
+     * @param filename ChunkFilename of the chunk file we are opening
+     * @return An open StoredChunk, which must be closed or handed off with toFileRegion()
+     * @throws IOException If unable to open or map the file, or it is malformed
+     */
+    public static StoredChunk open(ChunkFilename filename) throws IOException {
+        String chunkPath = filename.getChunkFilename();
+        log.info("Opening chunk file \"{}\"", chunkPath);
+
+        FileRegion storedRegion = Chunk.getStore().locate(filename);
+        FileChannel fileChannel = storedRegion.fileChannel;
+        try {
+            long fileSize = storedRegion.getCount();
+            ByteBuffer mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, storedRegion.position, fileSize);
+
+            // Parse the metadata and integrity information in place, leaving the position at the raw chunk data
+            DataInputStream dataInputStream = new DataInputStream(new ByteBufferInputStream(mappedFile.duplicate()));
+            ChunkHeader header = Message.readChunkHeader(dataInputStream);
+            ChunkMetadata metadata = header.getMetadata();
+            ChunkIntegrity integrity = header.getIntegrity();
+            int dataOffset = (int) fileSize - dataInputStream.available();
+
+            if (dataOffset + metadata.getSizeBytes() != fileSize) {
+                throw new IOException(String.format("Chunk file %s is %d bytes, expected %d", chunkPath, fileSize,
+                        dataOffset + metadata.getSizeBytes()));
+            }
+            return new StoredChunk(metadata, integrity, fileChannel, storedRegion.position, mappedFile, dataOffset,
+                    header.getFormatVersion());
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets a stored chunk for reading, as Constants.CHUNK_READ_MODE says: in "mapped" mode, a shared mapping from the
+     * MappedChunkCache, which holds no file channel; otherwise, freshly opened with a channel to stream it from.
+     * @param filename ChunkFilename of the chunk file we are reading
+     * @return A StoredChunk, which must be closed or handed off with toFileRegion() if it has a file channel
+     * @throws IOException If unable to open or map the file, or it is malformed
+     */
+    public static StoredChunk read(ChunkFilename filename) throws IOException {
+        if (Constants.CHUNK_READ_MODE.equalsIgnoreCase("mapped")) {
+            return MappedChunkCache.getInstance().get(filename);
+        }
+        return open(filename);
+    }
+
+    /**
+     * @return A view of the raw chunk data within the mapped file
+     */
+    public ByteBuffer getData() {
+        return this.mappedFile.slice(this.dataOffset, this.metadata.getSizeBytes());
+    }
+
+    /**
+     * @param offset Offset of a range within the chunk data
+     * @param length Length of the range, in bytes
+     * @return A view of the range within the mapped file
+     */
+    public ByteBuffer getData(int offset, int length) {
+        return this.mappedFile.slice(this.dataOffset + offset, length);
+    }
+
+    /**
+     * @return The boolean validity of the chunk data, hashed in place within the mapped file
+     */
+    public boolean isValid() {
+        return this.integrity.isChunkValid(getData());
+    }
+
+    /**
+     * @param offset Offset of a range within the chunk data
+     * @param length Length of the range, in bytes
+     * @return The boolean validity of just the slices overlapping the range, hashed in place within the mapped file
+     */
+    public boolean isRangeValid(int offset, int length) {
+        return this.integrity.isRangeValid(getData(), offset, length);
+    }
+
+    /**
+     * @return The size of the whole stored chunk, in bytes
+     */
+    public long getFileSize() {
+        return this.mappedFile.capacity();
+    }
+
+    /**
+     * @return A read-only view of the whole stored chunk within the mapped file, i.e. exactly the bytes
+     * Message.writeChunk() puts on the wire
+     */
+    public ByteBuffer getStoredBytes() {
+        return this.mappedFile.duplicate();
+    }
+
+    /**
+     * @return True if this StoredChunk still owns an open file channel, which toFileRegion() can hand off
+     */
+    public boolean hasFileChannel() {
+        return this.fileChannel != null;
+    }
+
+    /**
+     * Hands the open file off as a FileRegion spanning the whole stored chunk, to be streamed to the network.
+     * The FileRegion takes ownership of the file channel; the mapping remains readable afterwards.
+     * @return FileRegion of the whole stored chunk
+     */
+    public FileRegion toFileRegion() {
+        FileRegion region = new FileRegion(this.fileChannel, this.fileOffset, getFileSize());
+        this.fileChannel = null;
+        return region;
+    }
+
+    /**
+     * Hands the open file off as a FileRegion spanning just a range of the chunk data, to be streamed to the network.
+     * The FileRegion takes ownership of the file channel; the mapping remains readable afterwards.
+     * @param offset Offset of the range within the chunk data
+     * @param length Length of the range, in bytes
+     * @return FileRegion of the range
+     */
+    public FileRegion toFileRegion(int offset, int length) {
+        FileRegion region = new FileRegion(this.fileChannel, this.fileOffset + this.dataOffset + offset, length);
+        this.fileChannel = null;
+        return region;
+    }
+
+    /**
+     * Copies the whole stored chunk out of the mapping into a buffer of its own, for keeping in memory once the
+     * chunk file may have changed.
+     * @param offHeap True to copy into a direct buffer, outside the heap
+     * @return A StoredChunk backed by the read-only copy, holding no file channel
+     */
+    public StoredChunk copy(boolean offHeap) {
+        int size = (int) getFileSize();
+        ByteBuffer copy = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        copy.put(this.mappedFile.duplicate().clear()).flip();
+        return new StoredChunk(this.metadata, this.integrity, null, 0, copy.asReadOnlyBuffer(), this.dataOffset,
+                this.formatVersion);
+    }
+
+    /**
+     * Copies the chunk out of the mapping into an in-memory Chunk, for callers which need one.
+     * @return A fully-populated Chunk in-memory, along with its metadata and integrity information
+     */
+    public Chunk toChunk() {
+        byte[] data = new byte[this.metadata.getSizeBytes()];
+        this.mappedFile.get(this.dataOffset, data);
+        return new Chunk(this.metadata, this.integrity, data);
+    }
+
+    /**
+     * Closes the file channel, if it has not been handed off. The mapping remains readable afterwards.
+     */
+    public void close() {
+        if (this.fileChannel != null) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {
+                log.error("Unable to close chunk file: {}", e.getMessage());
+            }
+            this.fileChannel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.metadata.toString() + this.integrity.toString();
+    }
+}
@@ -0,0 +1,271 @@
+package chunkserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Singleton cache of hot chunks which have passed verification, bounded by Constants.VERIFIED_CHUNK_CACHE_SIZE bytes.
+ * Each entry is a private copy of the whole stored chunk, on the heap or, with Constants.VERIFIED_CHUNK_CACHE_OFF_HEAP,
+ * in a direct buffer. Only a copy which has itself been hashed is admitted: if ChunkVerificationState skipped
+ * verifying the stored chunk, the copy is hashed before it is admitted. A hit is thus served without touching the
+ * disk and without hashing it again; corruption of the chunk file after it was copied cannot reach the copy.
+ * Eviction is a segmented LRU: chunks enter a probationary segment, and are promoted to a protected segment, holding
+ * at most Constants.VERIFIED_CHUNK_CACHE_PROTECTED_RATIO of the bytes, if they are read again while there. A burst of
+ * one-off reads thus only churns the probationary segment, leaving the popular chunks cached.
+ * Saving a chunk invalidates its entry.
+ */
+public class VerifiedChunkCache {
+
+    public static Logger log = LoggerFactory.getLogger(VerifiedChunkCache.class);
+
+    private static VerifiedChunkCache singletonInstance = null;
+
+    // Cached chunks by chunk file path, each segment in least to most recently used order
+    private final LinkedHashMap<String, StoredChunk> probationary;
+    private final LinkedHashMap<String, StoredChunk> protectedChunks;
+    private long probationaryBytes;
+    private long protectedBytes;
+
+    // Bumped by every invalidation, so a chunk verified while it was being saved is not cached
+    private long invalidations;
+
+    // Statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public long maxCachedBytes;
+    public boolean offHeap;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private VerifiedChunkCache() {
+        this.probationary = new LinkedHashMap<>(16, 0.75f, true);
+        this.protectedChunks = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxCachedBytes = Constants.VERIFIED_CHUNK_CACHE_SIZE;
+        this.offHeap = Constants.VERIFIED_CHUNK_CACHE_OFF_HEAP;
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton VerifiedChunkCache instance.
+     */
+    public static synchronized VerifiedChunkCache getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new VerifiedChunkCache();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * @return True if the cache has any room to hold chunks
+     */
+    public boolean isEnabled() {
+        return this.maxCachedBytes > 0;
+    }
+
+    /**
+     * Looks up a verified chunk, counting a hit or a miss. A hit in the probationary segment promotes the chunk.
+     * @param filename ChunkFilename of the chunk
+     * @return The cached StoredChunk, holding no file channel, or null if it is not cached
+     */
+    public synchronized StoredChunk get(ChunkFilename filename) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = filename.getChunkFilename();
+        StoredChunk cached = this.protectedChunks.get(key);
+        if (cached == null) {
+            cached = this.probationary.remove(key);
+            if (cached != null) {
+                this.probationaryBytes -= cached.getFileSize();
+                this.protectedChunks.put(key, cached);
+                this.protectedBytes += cached.getFileSize();
+                demote();
+            }
+        }
+        if (cached != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+        return cached;
+    }
+
+    /**
+     * Gets a verified chunk for reading: from the cache if it is there, otherwise read with StoredChunk.read() and
+     * verified, unless ChunkVerificationState has it verified recently, then copied into the cache; a copy of a chunk
+     * whose verification was skipped is hashed before it is admitted.
+     * @param filename ChunkFilename of the chunk
+     * @return A verified StoredChunk, which must be closed or handed off with toFileRegion() if it has a file
+     * channel; or null if the stored chunk failed verification
+     * @throws IOException If unable to open or map the chunk, or it is malformed
+     */
+    public StoredChunk readVerified(ChunkFilename filename) throws IOException {
+        StoredChunk cached = get(filename);
+        if (cached != null) {
+            return cached;
+        }
+
+        long invalidationsBefore;
+        synchronized (this) {
+            invalidationsBefore = this.invalidations;
+        }
+        // Verified under the chunk's read lock, so a chunk being patched in place is not taken for a corrupted one
+        Lock lock = ChunkLocks.getInstance().readLock(filename);
+        lock.lock();
+        try {
+            ChunkVerificationState verificationState = ChunkVerificationState.getInstance();
+            String identity = verificationState.identify(filename);
+            StoredChunk storedChunk = StoredChunk.read(filename);
+            boolean skipped = verificationState.isRecentlyVerified(filename, identity,
+                    storedChunk.metadata.getVersion());
+            if (!skipped && !verificationState.hash(filename, identity, storedChunk)) {
+                storedChunk.close();
+                return null;
+            }
+            if (isEnabled() && storedChunk.getFileSize() <= this.maxCachedBytes) {
+                StoredChunk copy = storedChunk.copy(this.offHeap);
+                // A chunk whose verification was skipped has not been hashed since it was last verified, so hash the
+                // copy before it is served from memory for good
+                if (skipped && !verificationState.hash(filename, identity, copy)) {
+                    storedChunk.close();
+                    return null;
+                }
+                admit(filename.getChunkFilename(), copy, invalidationsBefore);
+            }
+            return storedChunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private synchronized void admit(String key, StoredChunk copy, long invalidationsBefore) {
+        if (this.invalidations != invalidationsBefore || this.probationary.containsKey(key) ||
+                this.protectedChunks.containsKey(key)) {
+            return;
+        }
+        this.probationary.put(key, copy);
+        this.probationaryBytes += copy.getFileSize();
+        evict();
+    }
+
+    /**
+     * Moves least recently used protected chunks back to the probationary segment until the protected segment is
+     * within its share of the cache.
+     */
+    private void demote() {
+        long maxProtectedBytes = (long) (this.maxCachedBytes * Constants.VERIFIED_CHUNK_CACHE_PROTECTED_RATIO);
+        Iterator<Map.Entry<String, StoredChunk>> eldest = this.protectedChunks.entrySet().iterator();
+        while (this.protectedBytes > maxProtectedBytes && eldest.hasNext()) {
+            Map.Entry<String, StoredChunk> demoted = eldest.next();
+            eldest.remove();
+            this.protectedBytes -= demoted.getValue().getFileSize();
+            this.probationary.put(demoted.getKey(), demoted.getValue());
+            this.probationaryBytes += demoted.getValue().getFileSize();
+        }
+        evict();
+    }
+
+    /**
+     * Drops least recently used probationary chunks until the cache is back within its size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, StoredChunk>> eldest = this.probationary.entrySet().iterator();
+        while (this.probationaryBytes + this.protectedBytes > this.maxCachedBytes && eldest.hasNext()) {
+            this.probationaryBytes -= eldest.next().getValue().getFileSize();
+            eldest.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Drops a chunk, if cached, because the chunk has been saved anew or found corrupted.
+     * @param filename ChunkFilename of the chunk
+     */
+    public synchronized void invalidate(ChunkFilename filename) {
+        this.invalidations++;
+        String key = filename.getChunkFilename();
+        StoredChunk removed = this.probationary.remove(key);
+        if (removed != null) {
+            this.probationaryBytes -= removed.getFileSize();
+        }
+        removed = this.protectedChunks.remove(key);
+        if (removed != null) {
+            this.protectedBytes -= removed.getFileSize();
+        }
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return True if the chunk is cached, without counting a hit or miss
+     */
+    public synchronized boolean contains(ChunkFilename filename) {
+        String key = filename.getChunkFilename();
+        return this.probationary.containsKey(key) || this.protectedChunks.containsKey(key);
+    }
+
+    /**
+     * @param filename ChunkFilename of a chunk
+     * @return True if the chunk is cached in the protected segment
+     */
+    public synchronized boolean isProtected(ChunkFilename filename) {
+        return this.protectedChunks.containsKey(filename.getChunkFilename());
+    }
+
+    /**
+     * @return Total size of the cached chunks, in bytes
+     */
+    public synchronized long getCachedBytes() {
+        return this.probationaryBytes + this.protectedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Fraction of lookups which were hits, or 0 if there have been none
+     */
+    public synchronized double getHitRatio() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * Drops every cached chunk and resets the statistics.
+     */
+    public synchronized void clear() {
+        this.invalidations++;
+        this.probationary.clear();
+        this.protectedChunks.clear();
+        this.probationaryBytes = 0;
+        this.protectedBytes = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d chunks, %d/%d bytes (%d protected), %d hits, %d misses (%.1f%% hit ratio), " +
+                        "%d evictions", this.probationary.size() + this.protectedChunks.size(), getCachedBytes(),
+                this.maxCachedBytes, this.protectedBytes, this.hits, this.misses, 100 * getHitRatio(), this.evictions);
+    }
+}
@@ -0,0 +1,32 @@
+package client;
+
+import util.Constants;
+
+/**
+ * How many of a chunk's replicas (W of R) must acknowledge a write before the Client considers the chunk stored.
+ * Replicas which have not yet answered by then carry on storing the chunk in the background; the Controller is told
+ * about them, and has any whose write fails repaired. Only ALL can be satisfied by a CHAIN write, so writes with any
+ * other policy are written FAN_OUT.
+ */
+public enum AckPolicy {
+    ALL, MAJORITY, ONE;
+
+    /**
+     * @param replicas Number of replicas the chunk is being written to
+     * @return Number of successful ChunkStoreResponses required
+     */
+    public int getRequiredAcks(int replicas) {
+        switch (this) {
+            case ONE: return Math.min(1, replicas);
+            case MAJORITY: return replicas / 2 + 1;
+            default: return replicas;
+        }
+    }
+
+    /**
+     * @return The cluster-wide default, given by Constants.REPLICATION_ACK_POLICY
+     */
+    public static AckPolicy getDefault() {
+        return valueOf(Constants.REPLICATION_ACK_POLICY.toUpperCase());
+    }
+}
@@ -1,5 +1,8 @@
 package client;
 
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.Chunk;
+import chunkserver.ChunkIntegrity;
 import messaging.*;
 import networking.Client;
 import org.slf4j.Logger;
@@ -7,10 +10,18 @@ import org.slf4j.LoggerFactory;
 import util.Constants;
 import util.Host;
 
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileClient extends Client {
 
@@ -19,20 +30,29 @@ public class FileClient extends Client {
     public String controllerHostname;
     public Integer controllerPort;
 
+    // Topology and acknowledgement policy for writes which do not choose their own
+    public ReplicationMode replicationMode;
+    public AckPolicy ackPolicy;
+
+    // Whether overwrites only send the chunks which changed, see Constants.CLIENT_WRITE_MODE
+    public boolean deltaWrites;
+
+    // Lagging replicas of quorum writes still being watched, to report to the Controller should their writes fail
+    public List<CompletableFuture<Void>> laggingReplicaReports;
+
     public FileClient(String controllerHostname, Integer controllerPort) {
         this.controllerHostname = controllerHostname;
         this.controllerPort = controllerPort;
+        this.replicationMode = ReplicationMode.getDefault();
+        this.ackPolicy = AckPolicy.getDefault();
+        this.deltaWrites = Constants.CLIENT_WRITE_MODE.equalsIgnoreCase("delta");
+        this.laggingReplicaReports = new CopyOnWriteArrayList<>();
     }
 
     public void getSystemReport() throws IOException {
         SystemReportRequest reportRequest = new SystemReportRequest(Host.getHostname(), Host.getIpAddress(), 0);
-        Socket clientSocket = sendMessage(this.controllerHostname, this.controllerPort, reportRequest);
-
-        // Wait for response and process it
-        DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-        Message response = MessageFactory.getInstance().createMessage(dataInputStream);
+        Message response = sendRequest(this.controllerHostname, this.controllerPort, reportRequest);
         log.info("Received {} Message: {}", response.getType(), response);
-        clientSocket.close(); // done talking to Controller
     }
 
     /**
@@ -46,29 +66,140 @@ public class FileClient extends Client {
      */
     public void readFile(String absolutePath, String outputFile) throws IOException {
         ClientReadRequest readRequest = new ClientReadRequest(Host.getHostname(), Host.getIpAddress(), 0, absolutePath);
-        Socket clientSocket = sendMessage(this.controllerHostname, this.controllerPort, readRequest);
-
-        // Wait for response and process it
-        DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-        Message response = MessageFactory.getInstance().createMessage(dataInputStream);
+        Message response = sendRequest(this.controllerHostname, this.controllerPort, readRequest);
         log.info("Received {} Message: {}", response.getType(), response);
 
         processClientReadResponse((ClientReadResponse) response, outputFile);
     }
 
+    /**
+     * Retrieves a byte range of a file from the distributed file system, fetching only the chunks which overlap it,
+     * and only the overlapping bytes of each:
+     * 1. Reaches out to the Controller server to retrieve which Chunk Servers hold each of the file's chunks.
+     * 2. Sends a ChunkRangeReadRequest for each overlapping chunk, keeping up to Constants.READ_PIPELINE_WINDOW in
+     *    flight at once. The Chunk Server verifies just the slices the range overlaps.
+     * 3. Falls back to reading a whole chunk with a ChunkReadRequest if its range could not be verified, so the
+     *    Chunk Server replaces its corrupted copy.
+     * @param absolutePath Absolute path of the file, from the client's perspective, that exists on the distributed FS.
+     * @param offset Offset of the range within the file
+     * @param length Length of the range, in bytes
+     * @return The range's bytes; fewer than length if the range runs past the end of the file
+     * @throws IOException If the file does not exist, or unable to retrieve the range
+     */
+    public byte[] readRange(String absolutePath, long offset, int length) throws IOException {
+        ClientReadRequest readRequest = new ClientReadRequest(Host.getHostname(), Host.getIpAddress(), 0, absolutePath);
+        ClientReadResponse response = (ClientReadResponse) sendRequest(this.controllerHostname, this.controllerPort,
+                readRequest);
+        log.info("Received {} Message: {}", response.getType(), response);
+        if (!response.getFileExists()) {
+            throw new IOException(String.format("File %s does not exist on the filesystem!", absolutePath));
+        }
+
+        List<String> chunkServerHostnames = response.getChunkServerHostnames();
+        int firstSequence = (int) (offset / Constants.CHUNK_SIZE);
+        int endSequence = length <= 0 ? firstSequence :
+                (int) Math.min(chunkServerHostnames.size(), (offset + length - 1) / Constants.CHUNK_SIZE + 1);
+        ByteArrayOutputStream rangeData = new ByteArrayOutputStream(Math.max(0, length));
+        Deque<CompletableFuture<Message>> window = new ArrayDeque<>();
+
+        Integer firstVersion = null;
+        int requested = firstSequence;
+        for (int sequence = firstSequence; sequence < endSequence; sequence++) {
+
+            // Top up the window of outstanding requests
+            while (requested < endSequence && requested - sequence < Constants.READ_PIPELINE_WINDOW) {
+                int[] chunkRange = getChunkRange(offset, length, requested);
+                log.info("Requesting {} bytes at offset {} of chunk sequence {} from Chunk Server {}", chunkRange[1],
+                        chunkRange[0], requested, chunkServerHostnames.get(requested));
+                ChunkRangeReadRequest rangeRequest = new ChunkRangeReadRequest(Host.getHostname(),
+                        Host.getIpAddress(), 0, absolutePath, requested, chunkRange[0], chunkRange[1]);
+                window.addLast(sendRequestAsync(chunkServerHostnames.get(requested), Constants.CHUNK_SERVER_PORT,
+                        rangeRequest));
+                requested++;
+            }
+
+            int[] chunkRange = getChunkRange(offset, length, sequence);
+            ChunkRangeReadResponse rangeResponse = (ChunkRangeReadResponse) awaitResponse(window.removeFirst());
+            byte[] chunkData;
+            int version;
+            if (rangeResponse.getValid()) {
+                chunkData = rangeResponse.getData();
+                version = rangeResponse.getVersion();
+            } else {
+                log.warn("Range of chunk {} could not be verified by Chunk Server {}; reading whole chunk", sequence,
+                        rangeResponse.getHostname());
+                ChunkReadRequest chunkRequest = new ChunkReadRequest(Host.getHostname(), Host.getIpAddress(), 0,
+                        absolutePath, sequence);
+                Chunk chunk = ((ChunkReadResponse) sendRequest(chunkServerHostnames.get(sequence),
+                        Constants.CHUNK_SERVER_PORT, chunkRequest)).getChunk();
+                int from = Math.min(chunkRange[0], chunk.data.length);
+                chunkData = Arrays.copyOfRange(chunk.data, from, Math.min(from + chunkRange[1], chunk.data.length));
+                version = chunk.metadata.getVersion();
+            }
+
+            // As when reading a whole file, chunks older than the first are left over from a longer, older version
+            if (firstVersion == null) {
+                firstVersion = version;
+            } else if (version < firstVersion) {
+                log.warn("Chunk version {} is outdated; range ends at the end of the file", version);
+                break;
+            }
+            rangeData.write(chunkData);
+            if (chunkData.length < chunkRange[1]) {
+                break; // end of the file
+            }
+        }
+
+        // Abandon any requests made past the end of the file
+        for (CompletableFuture<Message> outstanding: window) {
+            outstanding.cancel(false);
+        }
+        return rangeData.toByteArray();
+    }
+
+    /**
+     * Works out which bytes of a chunk a file range overlaps, given every chunk is Constants.CHUNK_SIZE bytes except
+     * possibly the last.
+     * @param offset Offset of the range within the file
+     * @param length Length of the range, in bytes
+     * @param sequence Sequence of the chunk
+     * @return The offset of the overlap within the chunk, followed by its length
+     */
+    public static int[] getChunkRange(long offset, int length, int sequence) {
+        long chunkStart = (long) sequence * Constants.CHUNK_SIZE;
+        long from = Math.max(offset, chunkStart);
+        long to = Math.min(offset + length, chunkStart + Constants.CHUNK_SIZE);
+        return new int[]{(int) (from - chunkStart), (int) Math.max(0, to - from)};
+    }
+
     /**
      * Writes a file to the distributed file system:
      * 1. Opens a file for buffered reading, reading one chunk at a time
      * 2. For each chunk of data read, asks the Controller which Chunk Servers the chunk should be replicated on
-     * 3. Once the list of Chunk Servers has been obtained from the Controller, reaches out to the first Chunk Server
-     *    in the list with a ChunkStoreRequest, which is then forwarded by that Chunk Server to the next, and so on.
-     * 4. Waits for a ChunkStoreResponse to assert the success/failure of that chunk storage.
+     * 3. Once the list of Chunk Servers has been obtained from the Controller, streams the chunk to them, per the
+     *    client's ReplicationMode.
+     * 4. Waits for ChunkStoreResponses to assert the success/failure of that chunk storage.
      * 5. Repeat steps 2, 3, 4 for each chunk in the file.
+     * Each chunk's slice checksums are calculated once, as it is read, and sent along with it to every replica.
+     * With deltaWrites, a chunk the file already had is only streamed if it changed, see updateUnchangedChunk().
      * @param absolutePath String absolute path of the file we are writing
+     * @throws IOException If unable to send a request, or a chunk was not stored per the client's AckPolicy
      */
     public void writeFile(String absolutePath) throws IOException {
-        log.info("Writing file {}", absolutePath);
+        writeFile(absolutePath, this.replicationMode, this.ackPolicy);
+    }
+
+    /**
+     * Writes a file to the distributed file system, as above, choosing the replication topology for this file.
+     * @param absolutePath String absolute path of the file we are writing
+     * @param mode ReplicationMode to write the file's chunks with
+     * @param ackPolicy AckPolicy of the file's chunk writes
+     * @throws IOException If unable to send a request, or a chunk was not stored per the AckPolicy
+     */
+    public void writeFile(String absolutePath, ReplicationMode mode, AckPolicy ackPolicy) throws IOException {
+        log.info("Writing file {} with {} replication", absolutePath, mode);
         FileLoader loader = new FileLoader(absolutePath);
+        int storedChunks = this.deltaWrites ? getStoredChunkCount(absolutePath) : 0;
 
         byte[] chunkRead = loader.readChunk();
         int sequence = 0;
@@ -77,15 +208,17 @@ public class FileClient extends Client {
             // Construct and send ClientWriteRequest for chunk
             ClientWriteRequest writeRequest = new ClientWriteRequest(Host.getHostname(), Host.getIpAddress(), 0,
                     absolutePath, sequence);
-            Socket clientSocket = sendMessage(this.controllerHostname, this.controllerPort, writeRequest);
-
-            // Wait for response and process it
-            DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-            Message response = MessageFactory.getInstance().createMessage(dataInputStream);
+            Message response = sendRequest(this.controllerHostname, this.controllerPort, writeRequest);
             log.info("Received {} Message: {}", response.getType(), response);
-            clientSocket.close(); // done talking to Controller
 
-            processClientWriteResponse((ClientWriteResponse) response, chunkRead);
+            ClientWriteResponse writeResponse = (ClientWriteResponse) response;
+            ChunkIntegrity integrity = loader.getChunkIntegrity();
+            if ((sequence >= storedChunks || !updateUnchangedChunk(writeResponse, chunkRead, integrity))
+                    && !processClientWriteResponse(writeResponse, chunkRead, integrity, mode, ackPolicy)) {
+                loader.close();
+                throw new IOException(String.format("Chunk %d of file %s was not stored by enough Chunk Servers",
+                        sequence, absolutePath));
+            }
 
             // Read next chunk and increment chunk sequence index
             chunkRead = loader.readChunk();
@@ -94,52 +227,352 @@ public class FileClient extends Client {
 
         // Clean up file reader
         loader.close();
+
+        // Before returning, make sure any lagging replica which failed has been reported, bounded by the request
+        // timeout of its write
+        CompletableFuture.allOf(this.laggingReplicaReports.toArray(new CompletableFuture<?>[0])).join();
+        this.laggingReplicaReports.clear();
+    }
+
+    /**
+     * Asks the Controller how many chunks a file already has stored, so an overwrite only compares checksums for
+     * chunks which may be unchanged.
+     * @param absolutePath String absolute path of the file
+     * @return Number of chunks stored for the file, or 0 if it is not stored
+     * @throws IOException If unable to send request or read response
+     */
+    private int getStoredChunkCount(String absolutePath) throws IOException {
+        ClientReadRequest readRequest = new ClientReadRequest(Host.getHostname(), Host.getIpAddress(), 0,
+                absolutePath);
+        ClientReadResponse response = (ClientReadResponse) sendRequest(this.controllerHostname, this.controllerPort,
+                readRequest);
+        return response.getFileExists() ? response.getChunkServerHostnames().size() : 0;
+    }
+
+    /**
+     * Updates a chunk being overwritten without sending it, if it has not changed: asks every replica for its slice
+     * checksums with a ChunkChecksumRequest, checksums the chunk with the same ChecksumAlgorithm, and if every replica
+     * holds the same version with the same checksums, has each of them increment its version with a
+     * ChunkVersionUpdateRequest, so the chunk stays the same version as the rest of the file. Only checksums from a
+     * cryptographic ChecksumAlgorithm are trusted to tell a chunk is unchanged; CRC32C and xxHash64 chunks are sent.
+     * @param message ClientWriteResponse for the chunk
+     * @param chunk Raw chunk data
+     * @param integrity ChunkIntegrity already calculated for the chunk, used if it has the replicas' algorithm
+     * @return True if the chunk was unchanged and every replica updated its version, false if it must be sent
+     * @throws IOException If unable to send a request, or some replicas may have updated their version but not all
+     */
+    public boolean updateUnchangedChunk(ClientWriteResponse message, byte[] chunk, ChunkIntegrity integrity)
+            throws IOException {
+        List<String> chunkServers = message.getReplicationChunkServers();
+        if (chunkServers.isEmpty()) {
+            return false;
+        }
+        List<CompletableFuture<Message>> checksumResponses = new ArrayList<>();
+        for (String chunkServer: chunkServers) {
+            ChunkChecksumRequest checksumRequest = new ChunkChecksumRequest(Host.getHostname(), Host.getIpAddress(),
+                    0, message.getAbsoluteFilePath(), message.getSequence());
+            checksumResponses.add(sendRequestAsync(chunkServer, Constants.CHUNK_SERVER_PORT, checksumRequest));
+        }
+
+        // Every replica must hold the same version of the chunk, with the same checksums as ours
+        boolean compared = false;
+        int version = 0;
+        try {
+            for (CompletableFuture<Message> checksumResponse: checksumResponses) {
+                ChunkChecksumResponse response = (ChunkChecksumResponse) awaitResponse(checksumResponse);
+                if (!response.getFound() || response.getChunkSize() != chunk.length) {
+                    return false;
+                }
+                if (!compared) {
+                    ChecksumAlgorithm algorithm = ChecksumAlgorithm.fromId(response.getAlgorithmId());
+                    if (!algorithm.isCryptographic()) {
+                        return false; // a changed chunk's checksums collide all too easily
+                    }
+                    if (integrity == null || integrity.getAlgorithm() != algorithm) {
+                        integrity = new ChunkIntegrity(algorithm,
+                                ChunkIntegrity.calculateSliceChecksums(algorithm, ByteBuffer.wrap(chunk)));
+                    }
+                    version = response.getVersion();
+                    compared = true;
+                }
+                if (response.getVersion() != version || !integrity.equals(response.getIntegrity())) {
+                    return false;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.info("Unable to compare checksums of chunk {} of file {}; sending it: {}", message.getSequence(),
+                    message.getAbsoluteFilePath(), e.getMessage());
+            return false;
+        }
+
+        List<CompletableFuture<Message>> updateResponses = new ArrayList<>();
+        for (String chunkServer: chunkServers) {
+            ChunkVersionUpdateRequest updateRequest = new ChunkVersionUpdateRequest(Host.getHostname(),
+                    Host.getIpAddress(), 0, message.getAbsoluteFilePath(), message.getSequence(), version, integrity);
+            updateResponses.add(sendRequestAsync(chunkServer, Constants.CHUNK_SERVER_PORT, updateRequest));
+        }
+
+        // Sending the chunk increments the version of every replica again, so it may only be sent if none of them
+        // updated theirs; otherwise the replicas would end up on different versions of the chunk
+        int acks = 0;
+        int refusals = 0;
+        for (CompletableFuture<Message> updateResponse: updateResponses) {
+            try {
+                if (((ChunkStoreResponse) awaitResponse(updateResponse)).getSuccess()) {
+                    acks++;
+                } else {
+                    refusals++;
+                }
+            } catch (IOException e) {
+                log.error("No response to version update of chunk {} of file {}: {}", message.getSequence(),
+                        message.getAbsoluteFilePath(), e.getMessage());
+            }
+        }
+        log.info("Chunk {} of file {} unchanged; version updated by {} of {} replicas", message.getSequence(),
+                message.getAbsoluteFilePath(), acks, updateResponses.size());
+        if (acks == updateResponses.size()) {
+            return true;
+        } else if (refusals == updateResponses.size()) {
+            return false;
+        }
+        throw new IOException(String.format("Version of chunk %d of file %s updated by only %d of %d replicas",
+                message.getSequence(), message.getAbsoluteFilePath(), acks, updateResponses.size()));
     }
 
     /**
      * Processes a ClientWriteResponse from the Controller, containing
-     * a list of Chunk Servers to write the Chunk to.
+     * a list of Chunk Servers to write the Chunk to, using the client's default ReplicationMode and AckPolicy.
      * @param message ClientWriteResponse Message received from the Controller
      * @throws IOException If unable to read message or send message
      */
     public void processClientWriteResponse(ClientWriteResponse message, byte[] chunk) throws IOException {
-        List<String> chunkServers = message.getReplicationChunkServers();
-        String poppedChunkServer = chunkServers.remove(chunkServers.size() - 1);
-        ChunkStoreRequest request = new ChunkStoreRequest(Host.getHostname(), Host.getIpAddress(), 0,
-                chunkServers, message.getAbsoluteFilePath(), message.getSequence(), chunk);
-        Socket clientSocket = sendMessage(poppedChunkServer, Constants.CHUNK_SERVER_PORT, request);
-
-        // Wait for response and process it
-        DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-        Message response = MessageFactory.getInstance().createMessage(dataInputStream);
-        log.info("Received {} Message: {}", response.getType(), response);
-        clientSocket.close(); // Done talking with chunk servers
+        processClientWriteResponse(message, chunk, this.replicationMode, this.ackPolicy);
+    }
+
+    /**
+     * Processes a ClientWriteResponse from the Controller, as below, calculating the chunk's slice checksums first.
+     * @param message ClientWriteResponse Message received from the Controller
+     * @param mode ReplicationMode to write the chunk with
+     * @param ackPolicy AckPolicy of the write
+     * @return True if the chunk was stored, per the mode and policy
+     * @throws IOException If unable to read message or send message
+     */
+    public boolean processClientWriteResponse(ClientWriteResponse message, byte[] chunk, ReplicationMode mode,
+                                              AckPolicy ackPolicy) throws IOException {
+        return processClientWriteResponse(message, chunk, new ChunkIntegrity(chunk), mode, ackPolicy);
+    }
+
+    /**
+     * Processes a ClientWriteResponse from the Controller, containing a list of Chunk Servers to write the Chunk to.
+     * The chunk is streamed as a series of ChunkSlices, only the last of which is answered:
+     * - CHAIN: to the first Chunk Server, which cuts each slice through to the rest of the chain as it arrives, and
+     *   answers once the whole chain has stored the chunk.
+     * - FAN_OUT: to every Chunk Server at once, slice by slice, each answering once it alone has stored the chunk.
+     *   Returns as soon as the AckPolicy is satisfied, or can no longer be.
+     * A chain can only answer for all of its replicas at once, so a write whose AckPolicy requires fewer than all of
+     * them is written FAN_OUT. Once such a quorum write returns, the Controller is told which replicas are lagging
+     * behind, and of any lagging replica whose write goes on to fail, so it can have it repaired.
+     * Each slice carries its checksum, so the Chunk Servers need not calculate them again.
+     * @param message ClientWriteResponse Message received from the Controller
+     * @param integrity ChunkIntegrity calculated for the chunk
+     * @param mode ReplicationMode to write the chunk with
+     * @param ackPolicy AckPolicy of the write
+     * @return True if the chunk was stored, per the mode and policy
+     * @throws IOException If unable to read message or send message
+     */
+    public boolean processClientWriteResponse(ClientWriteResponse message, byte[] chunk, ChunkIntegrity integrity,
+                                              ReplicationMode mode, AckPolicy ackPolicy) throws IOException {
+        List<String> chunkServers = new ArrayList<>(message.getReplicationChunkServers());
+        int requiredAcks = ackPolicy.getRequiredAcks(chunkServers.size());
+        if (mode == ReplicationMode.CHAIN && requiredAcks < chunkServers.size()) {
+            log.info("Writing chunk {} of file {} fan-out, to be acknowledged by {} of {} replicas",
+                    message.getSequence(), message.getAbsoluteFilePath(), requiredAcks, chunkServers.size());
+            mode = ReplicationMode.FAN_OUT;
+        }
+
+        List<CompletableFuture<Message>> responses;
+        if (mode == ReplicationMode.FAN_OUT) {
+            responses = streamChunk(chunkServers, List.of(), message, chunk, integrity);
+        } else {
+            String poppedChunkServer = chunkServers.remove(chunkServers.size() - 1);
+            responses = streamChunk(List.of(poppedChunkServer), chunkServers, message, chunk, integrity);
+            requiredAcks = 1;
+        }
+
+        int acks = awaitAcks(responses, requiredAcks);
+        log.info("Chunk {} of file {} acknowledged by {} of {} required Chunk Servers", message.getSequence(),
+                message.getAbsoluteFilePath(), acks, requiredAcks);
+        if (acks < requiredAcks) {
+            return false;
+        }
+        if (mode == ReplicationMode.FAN_OUT && acks < responses.size()) {
+            reportLaggingReplicas(message, chunkServers, responses);
+        }
+        return true;
+    }
+
+    /**
+     * Streams a chunk as ChunkSlices to each of a set of Chunk Servers, one slice at a time to all of them, each
+     * stream with its own stream ID.
+     * @param targets Chunk Servers to stream the chunk to
+     * @param forwardChain Chunk Servers each target forwards the slices on to, in popping order
+     * @param message ClientWriteResponse for the chunk
+     * @param chunk Raw chunk data, which is sent without being copied
+     * @param integrity ChunkIntegrity of the chunk, each slice's checksum out of which is sent along with it
+     * @return For each target, the future ChunkStoreResponse to its last slice
+     * @throws IOException If unable to send a slice
+     */
+    private List<CompletableFuture<Message>> streamChunk(List<String> targets, List<String> forwardChain,
+                                                         ClientWriteResponse message, byte[] chunk,
+                                                         ChunkIntegrity integrity) throws IOException {
+        long[] streamIds = new long[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            streamIds[i] = ThreadLocalRandom.current().nextLong();
+        }
+
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+        int sliceCount = ChunkSlice.getSliceCount(chunk.length);
+        for (int sliceIndex = 0; sliceIndex < sliceCount; sliceIndex++) {
+            int sliceOffset = sliceIndex * Constants.SLICE_SIZE;
+            int sliceLength = Math.min(Constants.SLICE_SIZE, chunk.length - sliceOffset);
+            for (int i = 0; i < targets.size(); i++) {
+                ChunkSlice slice = new ChunkSlice(Host.getHostname(), Host.getIpAddress(), 0, forwardChain,
+                        message.getAbsoluteFilePath(), message.getSequence(), streamIds[i], chunk.length, sliceIndex,
+                        ByteBuffer.wrap(chunk, sliceOffset, sliceLength), integrity);
+                if (slice.isLastSlice()) {
+                    responses.add(sendRequestAsync(targets.get(i), Constants.CHUNK_SERVER_PORT, slice));
+                } else {
+                    sendMessage(targets.get(i), Constants.CHUNK_SERVER_PORT, slice);
+                }
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Tells the Controller about each replica of a quorum write which has not acknowledged it: immediately, so it is
+     * not used for reads until it has the chunk, and again if its write goes on to fail, so it can be repaired.
+     * Reports of failures still outstanding are tracked in laggingReplicaReports.
+     * @param message ClientWriteResponse for the chunk
+     * @param chunkServers Chunk Servers the chunk was written to
+     * @param responses Future ChunkStoreResponse of each Chunk Server, in the same order
+     */
+    private void reportLaggingReplicas(ClientWriteResponse message, List<String> chunkServers,
+                                       List<CompletableFuture<Message>> responses) {
+        List<String> acknowledged = new ArrayList<>();
+        for (int i = 0; i < responses.size(); i++) {
+            if (isAcknowledged(responses.get(i))) {
+                acknowledged.add(chunkServers.get(i));
+            }
+        }
+
+        for (int i = 0; i < responses.size(); i++) {
+            CompletableFuture<Message> response = responses.get(i);
+            String laggingChunkServer = chunkServers.get(i);
+            if (acknowledged.contains(laggingChunkServer)) {
+                continue;
+            }
+            sendLaggingReplicaNotification(message, laggingChunkServer, acknowledged, response.isDone());
+            if (!response.isDone()) {
+                this.laggingReplicaReports.add(response.handleAsync((ignored, error) -> {
+                    if (!isAcknowledged(response)) {
+                        sendLaggingReplicaNotification(message, laggingChunkServer, acknowledged, true);
+                    }
+                    return null;
+                }));
+            }
+        }
+    }
+
+    private static boolean isAcknowledged(CompletableFuture<Message> response) {
+        return response.isDone() && !response.isCompletedExceptionally() &&
+                ((ChunkStoreResponse) response.join()).getSuccess();
+    }
+
+    private void sendLaggingReplicaNotification(ClientWriteResponse message, String laggingChunkServer,
+                                                List<String> acknowledged, boolean failed) {
+        log.warn("Chunk Server {} {} chunk {} of file {}", laggingChunkServer,
+                failed ? "failed to store" : "is lagging behind on", message.getSequence(),
+                message.getAbsoluteFilePath());
+        LaggingReplicaNotification notification = new LaggingReplicaNotification(Host.getHostname(),
+                Host.getIpAddress(), 0, message.getAbsoluteFilePath(), message.getSequence(), laggingChunkServer,
+                acknowledged, failed);
+        try {
+            sendMessage(this.controllerHostname, this.controllerPort, notification);
+        } catch (IOException e) {
+            log.error("Unable to notify Controller of lagging Chunk Server {}: {}", laggingChunkServer,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Waits on ChunkStoreResponses until either requiredAcks of them have reported success, or too many have failed
+     * for that to happen. Responses still outstanding by then are left to complete in the background.
+     * @param responses Future ChunkStoreResponses
+     * @param requiredAcks Number of successes to wait for
+     * @return Number of successful responses received
+     */
+    public static int awaitAcks(List<CompletableFuture<Message>> responses, int requiredAcks) {
+        int tolerableFailures = responses.size() - requiredAcks;
+        if (requiredAcks <= 0 || tolerableFailures < 0) {
+            return 0;
+        }
+
+        AtomicInteger acks = new AtomicInteger(0);
+        AtomicInteger failures = new AtomicInteger(0);
+        CompletableFuture<Void> decided = new CompletableFuture<>();
+
+        for (CompletableFuture<Message> response: responses) {
+            response.whenComplete((message, error) -> {
+                if (error == null && ((ChunkStoreResponse) message).getSuccess()) {
+                    log.info("Received {} Message: {}", message.getType(), message);
+                    if (acks.incrementAndGet() >= requiredAcks) {
+                        decided.complete(null);
+                    }
+                } else {
+                    log.error("Chunk store failed: {}", error == null ? message : error.getMessage());
+                    if (failures.incrementAndGet() > tolerableFailures) {
+                        decided.complete(null);
+                    }
+                }
+            });
+        }
+
+        decided.join();
+        return acks.get();
     }
 
     /**
      * Processes a ClientReadResponse from the Controller, containing a list of Chunk Servers with
-     * the chunks of the file we are trying to read.
+     * the chunks of the file we are trying to read. Keeps up to Constants.READ_PIPELINE_WINDOW ChunkReadRequests
+     * in flight at once, over the pooled connections to the Chunk Servers, while saving chunks in sequence order.
      * @param message ClientReadResponse Message received from the Controller
      * @throws IOException If unable to read message or send message
      */
     public void processClientReadResponse(ClientReadResponse message, String outputFile) throws IOException {
         if (message.getFileExists()) {
             String filename = message.getAbsoluteFilePath();
+            List<String> chunkServerHostnames = message.getChunkServerHostnames();
             FileSaver fileSaver = new FileSaver(outputFile);
+            Deque<CompletableFuture<Message>> window = new ArrayDeque<>();
 
             Integer latestVersion = 0;
+            int requested = 0;
             int sequence = 0;
-            for (; sequence < message.getChunkServerHostnames().size(); sequence++) {
-                String chunkServerHostname = message.getChunkServerHostnames().get(sequence);
-                log.info("Requesting chunk sequence {} from Chunk Server {}", sequence, chunkServerHostname);
+            for (; sequence < chunkServerHostnames.size(); sequence++) {
 
-                ChunkReadRequest readRequest = new ChunkReadRequest(Host.getHostname(), Host.getIpAddress(), 0,
-                        filename, sequence);
-                Socket clientSocket = sendMessage(chunkServerHostname, Constants.CHUNK_SERVER_PORT, readRequest);
+                // Top up the window of outstanding requests
+                while (requested < chunkServerHostnames.size() &&
+                        requested - sequence < Constants.READ_PIPELINE_WINDOW) {
+                    String chunkServerHostname = chunkServerHostnames.get(requested);
+                    log.info("Requesting chunk sequence {} from Chunk Server {}", requested, chunkServerHostname);
+                    ChunkReadRequest readRequest = new ChunkReadRequest(Host.getHostname(), Host.getIpAddress(), 0,
+                            filename, requested);
+                    window.addLast(sendRequestAsync(chunkServerHostname, Constants.CHUNK_SERVER_PORT, readRequest));
+                    requested++;
+                }
 
-                // Wait for response and process it
-                DataInputStream dataInputStream = new DataInputStream(clientSocket.getInputStream());
-                ChunkReadResponse response = (ChunkReadResponse) MessageFactory.getInstance().createMessage(dataInputStream);
+                ChunkReadResponse response = (ChunkReadResponse) awaitResponse(window.removeFirst());
                 log.info("Received {} from {} for file {}, chunk {}", response.getType(), response.getHostname(),
                         response.getAbsoluteFilePath(), response.getSequence());
 
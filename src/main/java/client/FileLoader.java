@@ -1,5 +1,7 @@
 package client;
 
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
 import messaging.HeartbeatMajor;
 import util.Constants;
 import org.slf4j.Logger;
@@ -10,10 +12,12 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Loads a file from the client's filesystem, breaking it into chunks of a specific size.
  * The final chunk may be less than the specified chunk size, due to internal fragmentation.
+ * Each chunk's slice checksums are calculated as it is read, once, to be sent along with it to every replica.
  */
 public class FileLoader {
 
@@ -22,6 +26,10 @@ public class FileLoader {
     public String absolutePath;
     private final BufferedInputStream reader;
 
+    // Algorithm slice checksums are calculated with, and those of the last chunk read
+    public ChecksumAlgorithm algorithm;
+    private ChunkIntegrity chunkIntegrity;
+
     /**
      * Constructor, opens a BufferedInputStream on the specified file.
      * @param absolutePath The absolute path to the file we want to load.
@@ -33,6 +41,7 @@ public class FileLoader {
         // Create BufferedInputStream from file with buffer size same as chunk size
         FileInputStream fileInputStream = new FileInputStream(absolutePath);
         this.reader = new BufferedInputStream(fileInputStream, Constants.CHUNK_SIZE);
+        this.algorithm = ChecksumAlgorithm.getDefault();
     }
 
     /**
@@ -53,10 +62,19 @@ public class FileLoader {
             chunk = resizedChunk;
         }
 
+        this.chunkIntegrity = new ChunkIntegrity(this.algorithm,
+                ChunkIntegrity.calculateSliceChecksums(this.algorithm, ByteBuffer.wrap(chunk)));
         log.info("Read chunk of size {} bytes", chunk.length);
         return chunk;
     }
 
+    /**
+     * @return ChunkIntegrity of the last chunk read, or null if none has been
+     */
+    public ChunkIntegrity getChunkIntegrity() {
+        return chunkIntegrity;
+    }
+
     /**
      * Closes the BufferedInputStream reader, releasing the file resource back to the system.
      * @throws IOException
@@ -0,0 +1,21 @@
+package client;
+
+import util.Constants;
+
+/**
+ * Topology a FileClient writes a chunk's replicas with.
+ * CHAIN streams the chunk to the first Chunk Server only, which forwards it down the replication chain hop by hop;
+ * the Client is answered once every hop has stored it. FAN_OUT streams the chunk to every Chunk Server at once, each
+ * storing it without forwarding, and gathers their responses according to an AckPolicy; this trades the Client's
+ * upstream bandwidth for a single hop of latency.
+ */
+public enum ReplicationMode {
+    CHAIN, FAN_OUT;
+
+    /**
+     * @return The cluster-wide default, given by Constants.REPLICATION_MODE
+     */
+    public static ReplicationMode getDefault() {
+        return Constants.REPLICATION_MODE.equalsIgnoreCase("fan-out") ? FAN_OUT : CHAIN;
+    }
+}
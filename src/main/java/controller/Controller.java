@@ -75,7 +75,11 @@ public class Controller {
             old.lastRecordedHeartbeat = Timestamp.from(Instant.now()); // update heartbeat timestamp
             old.freeSpaceAvailable = freeSpaceAvailable;
             old.totalChunksMaintained = totalChunksMaintained;
-            old.chunkMetadata.addAll(chunkMetadata);
+            for (ChunkMetadata cm: chunkMetadata) {
+                if (!old.contains(cm.getAbsoluteFilePath(), cm.getSequence())) { // rewritten chunks are reported again
+                    old.chunkMetadata.add(cm);
+                }
+            }
         } else { // not yet tracking this Chunk Server; do so now
             this.trackedChunkServerMetadata.put(hostname, new ChunkServerMetadata(
                     hostname, freeSpaceAvailable, totalChunksMaintained, new Vector<>(chunkMetadata)
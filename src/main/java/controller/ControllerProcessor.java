@@ -2,13 +2,15 @@ package controller;
 
 import chunkserver.ChunkMetadata;
 import messaging.*;
+import networking.Client;
+import networking.Connection;
 import networking.Processor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Constants;
 import util.Host;
 
-import java.net.Socket;
+import java.io.IOException;
 import java.util.*;
 
 public class ControllerProcessor extends Processor {
@@ -17,9 +19,9 @@ public class ControllerProcessor extends Processor {
 
     public Controller controller;
 
-    public ControllerProcessor(Socket socket, Controller controller) {
+    public ControllerProcessor(Connection connection, Controller controller) {
         this.controller = controller;
-        this.socket = socket;
+        this.connection = connection;
     }
 
     public Controller getController() {
@@ -46,6 +48,9 @@ public class ControllerProcessor extends Processor {
             case CHUNK_CORRECTION_NOTIFICATION:
                 processChunkCorrectionNotification((ChunkCorrectionNotification) message);
                 break;
+            case LAGGING_REPLICA_NOTIFICATION:
+                processLaggingReplicaNotification((LaggingReplicaNotification) message);
+                break;
             case SYSTEM_REPORT_REQUEST:
                 processSystemReportRequest((SystemReportRequest) message);
                 break;
@@ -108,7 +113,7 @@ public class ControllerProcessor extends Processor {
                     otherReplicaServer);
             ChunkReplicationInfo response = new ChunkReplicationInfo(Host.getHostname(), Host.getIpAddress(),
                     Constants.CONTROLLER_PORT, otherReplicaServer);
-            sendResponse(this.socket, response);
+            sendResponse(this.connection, response);
         }
     }
 
@@ -174,7 +179,7 @@ public class ControllerProcessor extends Processor {
         // Construct response message and send it back to client
         ClientWriteResponse clientWriteResponse = new ClientWriteResponse(Host.getHostname(), Host.getIpAddress(),
                 Constants.CONTROLLER_PORT, new ArrayList<>(replicationChunkServers), filename, sequence);
-        sendResponse(this.socket, clientWriteResponse);
+        sendResponse(this.connection, clientWriteResponse);
     }
 
     /**
@@ -206,7 +211,7 @@ public class ControllerProcessor extends Processor {
             response = new ClientReadResponse(Host.getHostname(), Host.getIpAddress(), Constants.CONTROLLER_PORT,
                     filename, new ArrayList<>(), false);
         }
-        sendResponse(this.socket, response);
+        sendResponse(this.connection, response);
     }
 
     /**
@@ -225,6 +230,45 @@ public class ControllerProcessor extends Processor {
         log.info("{} now storing a valid copy of chunk {}, sequence {} ", message.getHostname(), filename, sequence);
     }
 
+    /**
+     * Processes a Client's notification that a Chunk Server lags behind on a chunk write acknowledged by a quorum of
+     * the other replicas. The lagging Chunk Server is removed from the chunk's hosts, so reads go to the replicas
+     * which have acknowledged the write; it is added back once it reports the chunk in a heartbeat. If its write
+     * failed outright, one of the acknowledged replicas is commanded to replicate the chunk to it, after which it
+     * sends a ChunkCorrectionNotification, as with any other repair.
+     * @param message LaggingReplicaNotification of a Client for a given chunk
+     */
+    public void processLaggingReplicaNotification(LaggingReplicaNotification message) {
+        String filename = message.getAbsoluteFilePath();
+        Integer sequence = message.getSequence();
+        String laggingChunkServer = message.getLaggingChunkServer();
+
+        FileMetadata fileMetadata = getController().getFilesMetadata().get(filename);
+        Set<String> chunkServers = fileMetadata == null ? null : fileMetadata.get(sequence);
+        if (chunkServers == null || message.getAcknowledgedChunkServers().isEmpty()) {
+            log.error("No acknowledged replicas of chunk {}, sequence {} to stand in for {}", filename, sequence,
+                    laggingChunkServer);
+            return;
+        }
+
+        log.info("Removing {} as Chunk Server host for chunk {}, sequence {} until it has stored the chunk",
+                laggingChunkServer, filename, sequence);
+        chunkServers.remove(laggingChunkServer);
+
+        if (message.getFailed()) {
+            String validReplicaHost = message.getAcknowledgedChunkServers().get(0);
+            ChunkReplicateCommand replicateCommand = new ChunkReplicateCommand(Host.getHostname(),
+                    Host.getIpAddress(), Constants.CONTROLLER_PORT, laggingChunkServer, filename, sequence);
+            try {
+                Client.sendMessage(validReplicaHost, Constants.CHUNK_SERVER_PORT, replicateCommand);
+                log.info("Commanded {} to repair chunk {}, sequence {} on {}", validReplicaHost, filename, sequence,
+                        laggingChunkServer);
+            } catch (IOException e) {
+                log.error("Unable to send ChunkReplicateCommand to {}: {}", validReplicaHost, e.getMessage());
+            }
+        }
+    }
+
     /**
      * Responds to a Client's request for system status information with a SystemReportResponse message.
      * @param message SystemReportRequest Message request
@@ -237,6 +281,6 @@ public class ControllerProcessor extends Processor {
 
         SystemReportResponse response = new SystemReportResponse(Host.getHostname(), Host.getIpAddress(),
                 Constants.CONTROLLER_PORT, fileMetadataCopy);
-        sendResponse(this.socket, response);
+        sendResponse(this.connection, response);
     }
 }
@@ -1,11 +1,10 @@
 package controller;
 
+import networking.Connection;
 import networking.Processor;
 import networking.Server;
 import util.Constants;
 
-import java.net.Socket;
-
 public class ControllerServer extends Server {
 
     public Controller controller;
@@ -20,8 +19,7 @@ public class ControllerServer extends Server {
     }
 
     @Override
-    public void processConnection(Socket clientSocket) {
-        Processor processor = new ControllerProcessor(clientSocket, getController());
-        processor.launchAsThread();
+    public Processor createProcessor(Connection connection) {
+        return new ControllerProcessor(connection, getController());
     }
 }
@@ -9,7 +9,6 @@ import util.Constants;
 import util.Host;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.Set;
 import java.util.TimerTask;
 
@@ -82,9 +81,7 @@ public class HeartbeatMonitor extends TimerTask {
 
                     // Send command to a free Chunk Server to replicate the lost chunk from the dead Chunk Server
                     try {
-                        Socket clientSocket = Client.sendMessage(validReplicaHost, Constants.CHUNK_SERVER_PORT,
-                                replicateCommand);
-                        clientSocket.close(); // done talking to valid chunk replica host
+                        Client.sendMessage(validReplicaHost, Constants.CHUNK_SERVER_PORT, replicateCommand);
                         log.info("Successfully sent ChunkReplicateCommand to {}", validReplicaHost);
                     } catch (IOException e) {
                         log.error("Unable to send ChunkReplicateCommand to {}: {}", validReplicaHost, e.getMessage());
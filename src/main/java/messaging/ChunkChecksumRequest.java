@@ -0,0 +1,55 @@
+package messaging;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Asks a Chunk Server for the version, size and slice checksums of a chunk it stores, without any of its data. The
+ * Chunk Server answers with a ChunkChecksumResponse, read straight out of the stored chunk's header. Clients use it to
+ * skip re-sending chunks which have not changed when overwriting a file; see FileClient.writeFile().
+ */
+public class ChunkChecksumRequest extends ChunkMessage {
+
+    public ChunkChecksumRequest(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                Integer sequence) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+    }
+
+    public ChunkChecksumRequest(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_CHECKSUM_REQUEST;
+    }
+
+    /**
+     * Reading a chunk's checksums leaves it as it was, so this request may be safely resent.
+     */
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof ChunkChecksumRequest)) return false;
+        ChunkChecksumRequest ccrOther = (ChunkChecksumRequest) other;
+        return this.absoluteFilePath.equals(ccrOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(ccrOther.getSequence());
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkChecksumRequest:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence);
+    }
+}
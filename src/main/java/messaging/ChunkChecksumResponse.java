@@ -0,0 +1,162 @@
+package messaging;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Answers a ChunkChecksumRequest with the version and size of a stored chunk, and its raw slice checksums along with
+ * the ChecksumAlgorithm they were calculated with, so the Client can checksum its own copy of the chunk the same way
+ * and compare. If the chunk is not stored, or its header cannot be read, the chunk is reported not found.
+ */
+public class ChunkChecksumResponse extends ChunkMessage {
+
+    // Whether the chunk is stored
+    public Boolean found;
+
+    // Version and size of the stored chunk
+    public Integer version;
+    public Integer chunkSize;
+
+    // Identifier of the ChecksumAlgorithm the slice checksums were calculated with
+    public Integer algorithmId;
+
+    // Raw slice checksums, concatenated in slice order
+    public byte[] sliceChecksums;
+
+    /**
+     * Use this constructor to report a stored chunk's checksums.
+     */
+    public ChunkChecksumResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                 Integer sequence, Integer version, Integer chunkSize, ChunkIntegrity integrity) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.found = true;
+        this.version = version;
+        this.chunkSize = chunkSize;
+        this.algorithmId = integrity.getAlgorithm().id;
+        this.sliceChecksums = integrity.getSliceChecksums();
+    }
+
+    /**
+     * Use this constructor to report that the chunk is not stored.
+     */
+    public ChunkChecksumResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                 Integer sequence) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.found = false;
+        this.version = 0;
+        this.chunkSize = 0;
+        this.algorithmId = 0;
+        this.sliceChecksums = new byte[0];
+    }
+
+    public ChunkChecksumResponse(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_CHECKSUM_RESPONSE;
+    }
+
+    public Boolean getFound() {
+        return found;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public Integer getAlgorithmId() {
+        return algorithmId;
+    }
+
+    public byte[] getSliceChecksums() {
+        return sliceChecksums;
+    }
+
+    /**
+     * @return The stored chunk's ChunkIntegrity, or null if it was not found
+     * @throws IllegalArgumentException If the checksum algorithm is unknown
+     */
+    public ChunkIntegrity getIntegrity() {
+        return this.found ? new ChunkIntegrity(ChecksumAlgorithm.fromId(this.algorithmId), this.sliceChecksums) : null;
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, writes whether the chunk was found, its version
+     * and size, and its checksum algorithm and slice checksums.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        super.marshal(dataOutputStream);
+        dataOutputStream.writeBoolean(this.found);
+        dataOutputStream.writeInt(this.version);
+        dataOutputStream.writeInt(this.chunkSize);
+        dataOutputStream.writeInt(this.algorithmId);
+        dataOutputStream.writeInt(this.sliceChecksums.length);
+        dataOutputStream.write(this.sliceChecksums);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, reads whether the chunk was found, its version
+     * and size, and its checksum algorithm and slice checksums.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        super.unmarshal(dataInputStream);
+        this.found = dataInputStream.readBoolean();
+        this.version = dataInputStream.readInt();
+        this.chunkSize = dataInputStream.readInt();
+        this.algorithmId = dataInputStream.readInt();
+        this.sliceChecksums = new byte[dataInputStream.readInt()];
+        dataInputStream.readFully(this.sliceChecksums);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof ChunkChecksumResponse)) return false;
+        ChunkChecksumResponse ccrOther = (ChunkChecksumResponse) other;
+        return (this.absoluteFilePath.equals(ccrOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(ccrOther.getSequence()) &&
+                this.found.equals(ccrOther.getFound()) &&
+                this.version.equals(ccrOther.getVersion()) &&
+                this.chunkSize.equals(ccrOther.getChunkSize()) &&
+                this.algorithmId.equals(ccrOther.getAlgorithmId()) &&
+                Arrays.equals(this.sliceChecksums, ccrOther.getSliceChecksums()));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkChecksumResponse:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  found: %b", this.found) +
+                String.format("\n  version: %d", this.version) +
+                String.format("\n  chunkSize: %d", this.chunkSize) +
+                String.format("\n  algorithmId: %d", this.algorithmId) +
+                String.format("\n  sliceChecksums: %d bytes", this.sliceChecksums.length);
+    }
+}
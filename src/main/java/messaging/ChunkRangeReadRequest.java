@@ -0,0 +1,99 @@
+package messaging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Requests a byte range of a chunk, rather than the whole chunk as a ChunkReadRequest does. The Chunk Server verifies
+ * only the slices overlapping the range, and answers with a ChunkRangeReadResponse holding just the range's bytes.
+ */
+public class ChunkRangeReadRequest extends ChunkMessage {
+
+    // Offset of the range within the chunk's data
+    public Integer offset;
+
+    // Length of the range, in bytes; clamped to the end of the chunk
+    public Integer length;
+
+    public ChunkRangeReadRequest(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                 Integer sequence, Integer offset, Integer length) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public ChunkRangeReadRequest(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_RANGE_READ_REQUEST;
+    }
+
+    /**
+     * Reading part of a chunk leaves it as it was, so this request may be safely resent.
+     */
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public Integer getLength() {
+        return length;
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, writes the offset and length of the range.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        super.marshal(dataOutputStream);
+        dataOutputStream.writeInt(this.offset);
+        dataOutputStream.writeInt(this.length);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, reads the offset and length of the range.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        super.unmarshal(dataInputStream);
+        this.offset = dataInputStream.readInt();
+        this.length = dataInputStream.readInt();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof ChunkRangeReadRequest)) return false;
+        ChunkRangeReadRequest crrrOther = (ChunkRangeReadRequest) other;
+        return (this.absoluteFilePath.equals(crrrOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(crrrOther.getSequence()) &&
+                this.offset.equals(crrrOther.getOffset()) &&
+                this.length.equals(crrrOther.getLength()));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkRangeReadRequest:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  offset: %d", this.offset) +
+                String.format("\n  length: %d", this.length);
+    }
+}
@@ -0,0 +1,222 @@
+package messaging;
+
+import chunkserver.ChunkLocks;
+import chunkserver.StoredChunk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Answers a ChunkRangeReadRequest with the requested bytes of a chunk, once the slices overlapping them have been
+ * verified. If the chunk is missing, or any of those slices fails its integrity check, the response is not valid
+ * and carries no data; the Client then falls back to a whole-chunk ChunkReadRequest, which repairs the chunk.
+ */
+public class ChunkRangeReadResponse extends ChunkMessage {
+
+    // Whether the range was read and verified
+    public Boolean valid;
+
+    // Version and total size of the chunk the range was read from
+    public Integer version;
+    public Integer chunkSize;
+
+    // Offset of the range within the chunk's data, after clamping to the end of the chunk
+    public Integer offset;
+
+    // The range's bytes; materialized on demand if being served from a StoredChunk's mapping
+    public byte[] data;
+
+    // View of the range within a StoredChunk's mapping; only set when sending
+    public ByteBuffer dataBuffer;
+
+    // Region of the stored chunk's file holding the range, streamed as the tail of this Message's frame
+    public FileRegion dataRegion;
+
+    // Pin keeping the stored chunk from being patched in place until the range has been sent; only set when sending
+    public ChunkLocks.Pin pin;
+
+    /**
+     * Use this constructor to serve a verified range straight from disk: streamed from the stored chunk's file if
+     * the StoredChunk has one open, taking ownership of it, otherwise written straight out of its mapping.
+     */
+    public ChunkRangeReadResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                  Integer sequence, StoredChunk storedChunk, int offset, int length) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.valid = true;
+        this.version = storedChunk.metadata.getVersion();
+        this.chunkSize = storedChunk.metadata.getSizeBytes();
+        this.offset = offset;
+        if (storedChunk.hasFileChannel()) {
+            this.dataRegion = storedChunk.toFileRegion(offset, length);
+        } else {
+            this.dataBuffer = storedChunk.getData(offset, length);
+        }
+    }
+
+    /**
+     * Use this constructor to report that the range could not be read and verified.
+     */
+    public ChunkRangeReadResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                  Integer sequence) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.valid = false;
+        this.version = 0;
+        this.chunkSize = 0;
+        this.offset = 0;
+        this.data = new byte[0];
+    }
+
+    public ChunkRangeReadResponse(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_RANGE_READ_RESPONSE;
+    }
+
+    public Boolean getValid() {
+        return valid;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The range's bytes, copied out of the StoredChunk's mapping the first time they are asked for, if need be
+     */
+    public byte[] getData() {
+        if (this.data == null && this.dataBuffer != null) {
+            this.data = new byte[this.dataBuffer.remaining()];
+            this.dataBuffer.get(this.dataBuffer.position(), this.data);
+        }
+        return data;
+    }
+
+    private int getDataLength() {
+        if (this.dataRegion != null) {
+            return (int) this.dataRegion.getCount();
+        }
+        return this.dataBuffer != null ? this.dataBuffer.remaining() : this.data.length;
+    }
+
+    @Override
+    public FileRegion getFileRegion() {
+        return dataRegion;
+    }
+
+    /**
+     * Closes the stored chunk's file region, if streamed from it, and releases the stored chunk's pin.
+     */
+    @Override
+    public void sendComplete() {
+        super.sendComplete();
+        if (this.pin != null) {
+            this.pin.release();
+        }
+    }
+
+    /**
+     * @return A view of the range's bytes, or null if they are streamed from the stored chunk's file instead
+     */
+    @Override
+    public ByteBuffer getPayload() {
+        if (this.dataRegion != null) {
+            return null;
+        }
+        return this.dataBuffer != null ? this.dataBuffer.duplicate() : ByteBuffer.wrap(this.data);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, writes whether the range is valid, the chunk's
+     * version and size, and the range's offset and bytes.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        marshalHeader(dataOutputStream);
+        if (this.dataRegion == null) {
+            writeByteBuffer(dataOutputStream, getPayload());
+        }
+    }
+
+    /**
+     * Writes every field preceding the range's bytes, up to and including their length.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshalHeader(DataOutputStream dataOutputStream) throws IOException {
+        super.marshal(dataOutputStream);
+        dataOutputStream.writeBoolean(this.valid);
+        dataOutputStream.writeInt(this.version);
+        dataOutputStream.writeInt(this.chunkSize);
+        dataOutputStream.writeInt(this.offset);
+        dataOutputStream.writeInt(getDataLength());
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, reads whether the range is valid, the chunk's
+     * version and size, and the range's offset and bytes.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        super.unmarshal(dataInputStream);
+        this.valid = dataInputStream.readBoolean();
+        this.version = dataInputStream.readInt();
+        this.chunkSize = dataInputStream.readInt();
+        this.offset = dataInputStream.readInt();
+        this.data = new byte[dataInputStream.readInt()];
+        dataInputStream.readFully(this.data);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof ChunkRangeReadResponse)) return false;
+        ChunkRangeReadResponse crrrOther = (ChunkRangeReadResponse) other;
+        return (this.absoluteFilePath.equals(crrrOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(crrrOther.getSequence()) &&
+                this.valid.equals(crrrOther.getValid()) &&
+                this.version.equals(crrrOther.getVersion()) &&
+                this.chunkSize.equals(crrrOther.getChunkSize()) &&
+                this.offset.equals(crrrOther.getOffset()) &&
+                Arrays.equals(getData(), crrrOther.getData()));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkRangeReadResponse:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  valid: %b", this.valid) +
+                String.format("\n  version: %d", this.version) +
+                String.format("\n  chunkSize: %d", this.chunkSize) +
+                String.format("\n  offset: %d", this.offset) +
+                String.format("\n  length: %d", getDataLength());
+    }
+}
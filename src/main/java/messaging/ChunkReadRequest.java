@@ -28,6 +28,14 @@ public class ChunkReadRequest extends ChunkMessage {
         return MessageType.CHUNK_READ_REQUEST;
     }
 
+    /**
+     * Reading a chunk leaves it as it was, so this request may be safely resent.
+     */
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null) return false;
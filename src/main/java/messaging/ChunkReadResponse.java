@@ -1,10 +1,13 @@
 package messaging;
 
 import chunkserver.Chunk;
+import chunkserver.ChunkLocks;
+import chunkserver.StoredChunk;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class ChunkReadResponse extends ChunkMessage {
@@ -15,6 +18,16 @@ public class ChunkReadResponse extends ChunkMessage {
     // List of Chunk Server hostnames a replacement/correction had to be made on due to failed integrity check
     public List<String> chunkReplacements;
 
+    // Chunk file being served straight from disk, in place of an in-memory Chunk; only set when sending
+    public StoredChunk storedChunk;
+
+    // Region of the stored chunk file streamed as the tail of this Message's frame, if the stored chunk was opened
+    // with a file channel; otherwise, the stored chunk's mapping is the payload
+    public FileRegion chunkFileRegion;
+
+    // Pin keeping the stored chunk from being patched in place until it has been sent; only set when sending
+    public ChunkLocks.Pin pin;
+
     public ChunkReadResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath, Integer sequence,
                              Chunk chunk, List<String> chunkReplacements) {
         this.hostname = hostname;
@@ -23,12 +36,26 @@ public class ChunkReadResponse extends ChunkMessage {
         this.absoluteFilePath = absoluteFilePath;
         this.sequence = sequence;
         this.chunk = chunk;
-        this.chunkReplacements = chunkReplacements;
+        this.chunkReplacements = chunkReplacements; // not marshaled up front; see getBuffers()
+    }
 
-        try {
-            marshal();
-        } catch (IOException e) {
-            log.error("Unable to self-marshal ChunkReadResponse: {}", e.getMessage());
+    /**
+     * Use this constructor to serve a chunk straight from disk: only the fields preceding the chunk are marshaled,
+     * and the stored chunk itself follows them, since it holds exactly the bytes writeChunk() would write. It is
+     * streamed from its file if the StoredChunk has one open, taking ownership of the file, which is closed once sent;
+     * otherwise it is written straight out of its mapping.
+     */
+    public ChunkReadResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath, Integer sequence,
+                             StoredChunk storedChunk, List<String> chunkReplacements) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.storedChunk = storedChunk;
+        this.chunkReplacements = chunkReplacements;
+        if (storedChunk.hasFileChannel()) {
+            this.chunkFileRegion = storedChunk.toFileRegion();
         }
     }
 
@@ -41,36 +68,90 @@ public class ChunkReadResponse extends ChunkMessage {
         return MessageType.CHUNK_READ_RESPONSE;
     }
 
+    /**
+     * @return The Chunk, copied out of the stored chunk file if this response is serving one
+     */
     public Chunk getChunk() {
+        if (this.chunk == null && this.storedChunk != null) {
+            this.chunk = this.storedChunk.toChunk();
+        }
         return chunk;
     }
 
+    @Override
+    public FileRegion getFileRegion() {
+        return chunkFileRegion;
+    }
+
+    /**
+     * Closes the stored chunk's file region, if streamed from it, and releases the stored chunk's pin.
+     */
+    @Override
+    public void sendComplete() {
+        super.sendComplete();
+        if (this.pin != null) {
+            this.pin.release();
+        }
+    }
+
+    /**
+     * @return A view of the raw chunk data, a view of the whole mapped stored chunk, or null if the chunk is streamed
+     * from its stored file instead
+     */
+    @Override
+    public ByteBuffer getPayload() {
+        if (this.chunkFileRegion != null) {
+            return null;
+        }
+        if (this.storedChunk != null) {
+            return this.storedChunk.getStoredBytes();
+        }
+        return ByteBuffer.wrap(this.chunk.data);
+    }
+
     public List<String> getChunkReplacements() {
         return chunkReplacements;
     }
 
     /**
-     * In addition to the header, chunk filename, and sequence, writes the Chunk object, and replacements made.
+     * In addition to the header, chunk filename, and sequence, writes the replacements made, and the Chunk object.
+     * The Chunk comes last so that, when serving a stored chunk file, it can be streamed from disk instead.
      * @param dataOutputStream The DataOutputStream we are writing to.
      * @throws IOException If fails to write to DataOutputStream
      */
     @Override
     public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        marshalHeader(dataOutputStream);
+        if (this.chunkFileRegion == null) {
+            writeByteBuffer(dataOutputStream, getPayload());
+        }
+    }
+
+    /**
+     * Writes every field preceding the raw chunk data: for an in-memory Chunk, that includes its metadata and
+     * integrity information; for a stored chunk, everything from its metadata onwards is sent from the stored chunk.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshalHeader(DataOutputStream dataOutputStream) throws IOException {
         super.marshal(dataOutputStream); // first marshal common Message header
-        writeChunk(dataOutputStream, this.chunk);
         writeStringList(dataOutputStream, this.chunkReplacements);
+        if (this.storedChunk == null) {
+            writeChunkHeader(dataOutputStream, this.chunk.metadata, this.chunk.integrity);
+        }
     }
 
     /**
-     * In addition to the header, chunk filename, and sequence, reads the Chunk object, and replacements made.
+     * In addition to the header, chunk filename, and sequence, reads the replacements made, and the Chunk object.
      * @param dataInputStream The DataInputStream we are reading from.
      * @throws IOException If fails to read from DataInputStream
      */
     @Override
     public void unmarshal(DataInputStream dataInputStream) throws IOException {
         super.unmarshal(dataInputStream); // first unmarshal common Message header
-        this.chunk = readChunk(dataInputStream);
         this.chunkReplacements = readStringList(dataInputStream);
+        this.chunk = readChunk(dataInputStream);
     }
 
     @Override
@@ -88,7 +169,7 @@ public class ChunkReadResponse extends ChunkMessage {
         return "> ChunkReadResponse:\n" +
                 String.format("  absoluteFilePath: %s\n", this.absoluteFilePath) +
                 String.format("  sequence: %d\n", this.sequence) +
-                String.format("  chunk: %s\n", this.chunk) +
+                String.format("  chunk: %s\n", this.chunk != null ? this.chunk : this.storedChunk) +
                 String.format("  chunkReplacements: %b\n", this.chunkReplacements);
     }
 }
@@ -1,6 +1,7 @@
 package messaging;
 
 import chunkserver.Chunk;
+import chunkserver.StoredChunk;
 
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -17,6 +18,11 @@ public class ChunkReplacementResponse extends ChunkReadResponse {
         super(hostname, ipAddress, port, absoluteFilePath, sequence, chunk, chunkReplacements);
     }
 
+    public ChunkReplacementResponse(String hostname, String ipAddress, Integer port, String absoluteFilePath, Integer sequence,
+                                    StoredChunk storedChunk, List<String> chunkReplacements) {
+        super(hostname, ipAddress, port, absoluteFilePath, sequence, storedChunk, chunkReplacements);
+    }
+
     public ChunkReplacementResponse(DataInputStream dataInputStream) throws IOException {
         super(dataInputStream);
     }
@@ -41,7 +47,7 @@ public class ChunkReplacementResponse extends ChunkReadResponse {
         return "> ChunkReplacementResponse:\n" +
                 String.format("  absoluteFilePath: %s\n", this.absoluteFilePath) +
                 String.format("  sequence: %d\n", this.sequence) +
-                String.format("  chunk: %s\n", this.chunk) +
+                String.format("  chunk: %s\n", this.chunk != null ? this.chunk : this.storedChunk) +
                 String.format("  chunkReplacements: %b\n", this.chunkReplacements);
     }
 }
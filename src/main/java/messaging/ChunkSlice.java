@@ -0,0 +1,197 @@
+package messaging;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+import util.Constants;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One slice of a chunk being written through a streaming replication pipeline. Rather than sending a whole chunk in
+ * a single ChunkStoreRequest, the Client sends each Constants.SLICE_SIZE slice of it as its own ChunkSlice, all
+ * sharing a stream ID. Each Chunk Server forwards every slice down the replication chain as soon as it arrives,
+ * while writing and checksumming it locally, so a replicated write takes little longer than a single hop.
+ * A slice may carry its own checksum, calculated by the Client as it read the file, so the Chunk Servers need not
+ * each calculate it; see Constants.CLIENT_CHECKSUM_MODE.
+ * Slices may arrive and be processed in any order. Only the last slice is a request: it is answered with a
+ * ChunkStoreResponse once the whole chunk has been stored here and by every Chunk Server downstream.
+ */
+public class ChunkSlice extends ChunkStoreRequest {
+
+    // Identifies the stream of slices making up one chunk write
+    public long streamId;
+
+    // Size in bytes of the whole chunk being streamed
+    public int chunkSize;
+
+    // Index of this slice within the chunk
+    public int sliceIndex;
+
+    // Identifier of the ChecksumAlgorithm of the Client's slice checksum, or 0 if it sent none
+    public int algorithmId;
+
+    // Raw checksum of this slice calculated by the Client; empty if it sent none. Not initialized here, as decoding
+    // fills it in from within the superclass constructor
+    public byte[] sliceChecksum;
+
+    /**
+     * Creates a slice whose data is a view of the caller's chunk data, which is not copied.
+     * @param sliceData Raw bytes of this slice, between the buffer's position and limit
+     */
+    public ChunkSlice(String hostname, String ipAddress, Integer port, List<String> replicationChunkServers,
+                      String absoluteFilePath, Integer sequence, long streamId, int chunkSize, int sliceIndex,
+                      ByteBuffer sliceData) {
+        super(hostname, ipAddress, port, replicationChunkServers, absoluteFilePath, sequence, null);
+        this.streamId = streamId;
+        this.chunkSize = chunkSize;
+        this.sliceIndex = sliceIndex;
+        this.chunkDataBuffer = sliceData;
+        this.sliceChecksum = new byte[0];
+    }
+
+    /**
+     * Creates a slice, as above, carrying its own checksum out of the slice checksums the Client calculated for the
+     * whole chunk. An empty chunk's one empty slice has no checksum.
+     * @param integrity ChunkIntegrity the Client calculated for the whole chunk
+     */
+    public ChunkSlice(String hostname, String ipAddress, Integer port, List<String> replicationChunkServers,
+                      String absoluteFilePath, Integer sequence, long streamId, int chunkSize, int sliceIndex,
+                      ByteBuffer sliceData, ChunkIntegrity integrity) {
+        this(hostname, ipAddress, port, replicationChunkServers, absoluteFilePath, sequence, streamId, chunkSize,
+                sliceIndex, sliceData);
+        int checksumLength = integrity.getAlgorithm().checksumLength;
+        this.algorithmId = integrity.getAlgorithm().id;
+        this.sliceChecksum = sliceIndex < integrity.getSliceCount() ? Arrays.copyOfRange(
+                integrity.getSliceChecksums(), sliceIndex * checksumLength, (sliceIndex + 1) * checksumLength) :
+                new byte[0];
+    }
+
+    public ChunkSlice(DataInputStream dataInputStream) throws IOException {
+        super(dataInputStream);
+    }
+
+    /**
+     * Decodes a ChunkSlice from a complete frame, without copying its slice data; see ChunkStoreRequest.
+     * @param frame Pooled heap buffer holding exactly one marshaled ChunkSlice, including its type
+     * @throws IOException If the frame does not hold a valid ChunkSlice
+     */
+    public ChunkSlice(ByteBuffer frame) throws IOException {
+        super(frame);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_SLICE;
+    }
+
+    public long getStreamId() {
+        return streamId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getSliceIndex() {
+        return sliceIndex;
+    }
+
+    /**
+     * @return True if the Client sent this slice's checksum along with it
+     */
+    public boolean hasChecksum() {
+        return this.algorithmId != 0;
+    }
+
+    /**
+     * @return ChecksumAlgorithm of the Client's slice checksum, or null if it sent none
+     * @throws IllegalArgumentException If the checksum algorithm is unknown
+     */
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return hasChecksum() ? ChecksumAlgorithm.fromId(this.algorithmId) : null;
+    }
+
+    public byte[] getSliceChecksum() {
+        return sliceChecksum;
+    }
+
+    /**
+     * @param chunkSize Size in bytes of a whole chunk
+     * @return Number of slices the chunk is streamed as; an empty chunk is still streamed as one empty slice
+     */
+    public static int getSliceCount(int chunkSize) {
+        return Math.max(1, (chunkSize + Constants.SLICE_SIZE - 1) / Constants.SLICE_SIZE);
+    }
+
+    /**
+     * @return True if this is the last slice of the chunk, which is the one answered with a ChunkStoreResponse
+     */
+    public boolean isLastSlice() {
+        return this.sliceIndex == getSliceCount(this.chunkSize) - 1;
+    }
+
+    /**
+     * Writes the stream ID, chunk size, slice index, and the Client's slice checksum, between the hop index and the
+     * slice data.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshalPayloadPrefix(DataOutputStream dataOutputStream) throws IOException {
+        dataOutputStream.writeLong(this.streamId);
+        dataOutputStream.writeInt(this.chunkSize);
+        dataOutputStream.writeInt(this.sliceIndex);
+        dataOutputStream.writeInt(this.algorithmId);
+        dataOutputStream.writeInt(this.sliceChecksum.length);
+        dataOutputStream.write(this.sliceChecksum);
+    }
+
+    /**
+     * Reads the stream ID, chunk size, slice index, and the Client's slice checksum, between the hop index and the
+     * slice data.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshalPayloadPrefix(DataInputStream dataInputStream) throws IOException {
+        this.streamId = dataInputStream.readLong();
+        this.chunkSize = dataInputStream.readInt();
+        this.sliceIndex = dataInputStream.readInt();
+        this.algorithmId = dataInputStream.readInt();
+        int checksumLength = dataInputStream.readInt();
+        if (checksumLength < 0) {
+            throw new EOFException("ChunkSlice is missing its slice checksum");
+        }
+        this.sliceChecksum = new byte[checksumLength];
+        dataInputStream.readFully(this.sliceChecksum);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ChunkSlice)) return false;
+        ChunkSlice csOther = (ChunkSlice) other;
+        return super.equals(other) &&
+                this.streamId == csOther.getStreamId() &&
+                this.chunkSize == csOther.getChunkSize() &&
+                this.sliceIndex == csOther.getSliceIndex() &&
+                this.algorithmId == csOther.algorithmId &&
+                Arrays.equals(this.sliceChecksum, csOther.getSliceChecksum());
+    }
+
+    @Override
+    public String toString() {
+        return "> ChunkSlice:" +
+                String.format("\n  replicationChunkServers: %s", getReplicationChunkServers()) +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  streamId: %d", this.streamId) +
+                String.format("\n  slice: %d of %d, %d bytes", this.sliceIndex + 1, getSliceCount(this.chunkSize),
+                        getChunkDataBuffer().remaining());
+    }
+}
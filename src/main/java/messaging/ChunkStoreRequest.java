@@ -1,6 +1,7 @@
 package messaging;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -10,12 +11,22 @@ import java.util.List;
  */
 public class ChunkStoreRequest extends ChunkMessage {
 
-    // A list of chunk server hostnames to forward this message to for chunk replication
+    // The full list of chunk server hostnames in the replication chain, as sent by the Client; recipients are
+    // taken from the end of the list, so those still to be forwarded to are the first (size - hopIndex) of them
     public List<String> replicationChunkServers;
 
-    // The raw chunk data in bytes
+    // Number of recipients this message has already been forwarded past
+    public int hopIndex;
+
+    // Byte offset of the hop index within the marshaled bytes, or within the frame this request was decoded from
+    public int hopIndexOffset = -1;
+
+    // The raw chunk data in bytes; materialized on demand if the request was decoded from a pooled frame
     public byte[] chunkData;
 
+    // View of the raw chunk data within the pooled frame this request was decoded from, if any
+    public ByteBuffer chunkDataBuffer;
+
     public ChunkStoreRequest(String hostname, String ipAddress, Integer port, List<String> replicationChunkServers,
                              String absoluteFilePath, Integer sequence, byte[] chunkData) {
         this.hostname = hostname;
@@ -24,37 +35,138 @@ public class ChunkStoreRequest extends ChunkMessage {
         this.replicationChunkServers = replicationChunkServers;
         this.absoluteFilePath = absoluteFilePath;
         this.sequence = sequence;
-        this.chunkData = chunkData;
-        try {
-            marshal();
-        } catch (IOException e) {
-            log.error("Unable to self-marshal ChunkStoreRequest: {}", e.getMessage());
-        }
+        this.chunkData = chunkData; // not marshaled up front; see getBuffers()
     }
 
     public ChunkStoreRequest(DataInputStream dataInputStream) throws IOException {
         this.unmarshal(dataInputStream);
     }
 
+    /**
+     * Decodes a ChunkStoreRequest from a complete frame, without copying its chunk data: the request keeps a view
+     * of the chunk data within the frame, and owns the frame until release() is called.
+     * @param frame Pooled heap buffer holding exactly one marshaled ChunkStoreRequest, including its type
+     * @throws IOException If the frame does not hold a valid ChunkStoreRequest
+     */
+    public ChunkStoreRequest(ByteBuffer frame) throws IOException {
+        this.frame = frame;
+        try {
+            ByteArrayInputStream byteInputStream = new ByteArrayInputStream(frame.array(),
+                    frame.arrayOffset() + frame.position(), frame.remaining());
+            DataInputStream dataInputStream = new DataInputStream(byteInputStream);
+            dataInputStream.readInt(); // skip type
+            super.unmarshal(dataInputStream);
+            this.replicationChunkServers = readStringList(dataInputStream);
+            this.hopIndexOffset = frame.limit() - byteInputStream.available();
+            this.hopIndex = dataInputStream.readInt();
+            unmarshalPayloadPrefix(dataInputStream);
+
+            int chunkSize = dataInputStream.readInt();
+            int chunkOffset = frame.limit() - byteInputStream.available();
+            if (chunkSize < 0 || chunkSize > byteInputStream.available()) {
+                throw new EOFException("ChunkStoreRequest frame is missing chunk data");
+            }
+            this.chunkDataBuffer = frame.slice(chunkOffset, chunkSize);
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+    }
+
     @Override
     public MessageType getType() {
         return MessageType.CHUNK_STORE_REQUEST;
     }
 
+    /**
+     * @return The chunk servers this message has yet to be forwarded to
+     */
     public List<String> getReplicationChunkServers() {
-        return replicationChunkServers;
+        return replicationChunkServers.subList(0, replicationChunkServers.size() - hopIndex);
     }
 
+    public int getHopIndex() {
+        return hopIndex;
+    }
+
+    /**
+     * @return The raw chunk data, copied out of the pooled frame the first time it is asked for, if need be
+     */
     public byte[] getChunkData() {
+        if (this.chunkData == null && this.chunkDataBuffer != null) {
+            this.chunkData = new byte[this.chunkDataBuffer.remaining()];
+            this.chunkDataBuffer.get(this.chunkDataBuffer.position(), this.chunkData);
+        }
         return chunkData;
     }
 
     /**
-     * Removes and returns the last chunk server host in the list of replication recipients.
+     * @return A view of the raw chunk data, which does not copy it; not to be modified
+     */
+    public ByteBuffer getChunkDataBuffer() {
+        if (this.chunkDataBuffer != null) {
+            return this.chunkDataBuffer.duplicate();
+        }
+        return ByteBuffer.wrap(this.chunkData);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        this.chunkDataBuffer = null;
+    }
+
+    /**
+     * Removes and returns the last chunk server host in the list of replication recipients, by advancing the hop
+     * index. The recipient list itself is left as is, so only the hop index needs patching in the encoded request.
      * @return The host name of a chunk server which was just removed from the end of the list.
      */
     public String popReplicationRecipient() {
-        return this.replicationChunkServers.remove(this.replicationChunkServers.size() - 1);
+        String recipient = this.replicationChunkServers.get(this.replicationChunkServers.size() - 1 - this.hopIndex);
+        this.hopIndex++;
+        if (this.hopIndexOffset >= 0) {
+            if (this.frame != null) {
+                this.frame.putInt(this.hopIndexOffset, this.hopIndex);
+            }
+            if (this.headerBytes != null) {
+                ByteBuffer.wrap(this.headerBytes).putInt(this.hopIndexOffset, this.hopIndex);
+            }
+            if (this.marshaledBytes != null) {
+                ByteBuffer.wrap(this.marshaledBytes).putInt(this.hopIndexOffset, this.hopIndex);
+            }
+        }
+        return recipient;
+    }
+
+    /**
+     * Also patches the request ID into the frame this request was decoded from, if it still holds one.
+     * @param requestId ID correlating a request with its response
+     */
+    @Override
+    public void setRequestId(long requestId) {
+        super.setRequestId(requestId);
+        if (this.frame != null) {
+            this.frame.putLong(REQUEST_ID_OFFSET, requestId);
+        }
+    }
+
+    @Override
+    public ByteBuffer getPayload() {
+        return getChunkDataBuffer();
+    }
+
+    /**
+     * A request decoded from a frame is forwarded as that same frame, byte for byte, apart from its request ID and
+     * hop index, which are patched in place; neither its header nor its chunk data is re-encoded or copied.
+     * @return Buffers which, written in order, make up the request
+     * @throws IOException If unable to marshal the request
+     */
+    @Override
+    public ByteBuffer[] getBuffers() throws IOException {
+        if (this.frame != null) {
+            return new ByteBuffer[]{this.frame.duplicate()};
+        }
+        return super.getBuffers();
     }
 
     /**
@@ -65,12 +177,39 @@ public class ChunkStoreRequest extends ChunkMessage {
      */
     @Override
     public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        marshalHeader(dataOutputStream);
+        writeByteBuffer(dataOutputStream, getChunkDataBuffer());
+    }
+
+    /**
+     * Writes every field preceding the chunk data itself, up to and including the chunk data's length.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshalHeader(DataOutputStream dataOutputStream) throws IOException {
         super.marshal(dataOutputStream); // first marshal common Message header
         writeStringList(dataOutputStream, this.replicationChunkServers);
+        this.hopIndexOffset = dataOutputStream.size(); // header is always marshaled from the start of a stream
+        dataOutputStream.writeInt(this.hopIndex);
+        marshalPayloadPrefix(dataOutputStream);
+        dataOutputStream.writeInt(getChunkDataBuffer().remaining());
+    }
 
-        // Write chunk data
-        dataOutputStream.writeInt(this.chunkData.length);
-        dataOutputStream.write(this.chunkData);
+    /**
+     * Writes any fields a subclass places between the hop index and the chunk data. None by default.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    public void marshalPayloadPrefix(DataOutputStream dataOutputStream) throws IOException {
+    }
+
+    /**
+     * Reads any fields a subclass places between the hop index and the chunk data. None by default.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    public void unmarshalPayloadPrefix(DataInputStream dataInputStream) throws IOException {
     }
 
     /**
@@ -83,6 +222,8 @@ public class ChunkStoreRequest extends ChunkMessage {
     public void unmarshal(DataInputStream dataInputStream) throws IOException {
         super.unmarshal(dataInputStream); // first unmarshal common Message header
         this.replicationChunkServers = readStringList(dataInputStream);
+        this.hopIndex = dataInputStream.readInt();
+        unmarshalPayloadPrefix(dataInputStream);
 
         // Read chunk data
         int chunkSize = dataInputStream.readInt();
@@ -96,19 +237,19 @@ public class ChunkStoreRequest extends ChunkMessage {
         if (other == this) return true;
         if (!(other instanceof ChunkStoreRequest)) return false;
         ChunkStoreRequest csrOther = (ChunkStoreRequest) other;
-        return (this.replicationChunkServers.equals(csrOther.getReplicationChunkServers()) &&
+        return (this.getReplicationChunkServers().equals(csrOther.getReplicationChunkServers()) &&
                 this.absoluteFilePath.equals(csrOther.getAbsoluteFilePath()) &&
                 this.sequence.equals(csrOther.getSequence()) &&
-                Arrays.equals(this.chunkData, csrOther.getChunkData())
+                Arrays.equals(this.getChunkData(), csrOther.getChunkData())
         );
     }
 
     @Override
     public String toString() {
         return "> ChunkStoreRequest:" +
-                String.format("\n  replicationChunkServers: %s", this.replicationChunkServers) +
+                String.format("\n  replicationChunkServers: %s", getReplicationChunkServers()) +
                 String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
                 String.format("\n  sequence: %d", this.sequence) +
-                String.format("\n  chunkData: [ --- byte array of size %d --- ]", this.chunkData.length);
+                String.format("\n  chunkData: [ --- byte array of size %d --- ]", getChunkDataBuffer().remaining());
     }
 }
@@ -0,0 +1,122 @@
+package messaging;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Asks a Chunk Server to increment the version of a chunk it stores without sending any of its data, as when a file
+ * is overwritten and the chunk has not changed, so it stays the same version as the rest of the file. The version is
+ * only incremented if the stored chunk is still the expected version and still has exactly the given slice
+ * checksums; the Chunk Server answers with a ChunkStoreResponse, which fails otherwise, and the Client then sends the
+ * whole chunk instead.
+ */
+public class ChunkVersionUpdateRequest extends ChunkMessage {
+
+    // Version the Client found the chunk stored at
+    public Integer expectedVersion;
+
+    // Identifier of the ChecksumAlgorithm the slice checksums were calculated with
+    public Integer algorithmId;
+
+    // Raw slice checksums the stored chunk must have, concatenated in slice order
+    public byte[] sliceChecksums;
+
+    public ChunkVersionUpdateRequest(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                     Integer sequence, Integer expectedVersion, ChunkIntegrity integrity) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.expectedVersion = expectedVersion;
+        this.algorithmId = integrity.getAlgorithm().id;
+        this.sliceChecksums = integrity.getSliceChecksums();
+    }
+
+    public ChunkVersionUpdateRequest(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK_VERSION_UPDATE_REQUEST;
+    }
+
+    public Integer getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public Integer getAlgorithmId() {
+        return algorithmId;
+    }
+
+    public byte[] getSliceChecksums() {
+        return sliceChecksums;
+    }
+
+    /**
+     * @return ChunkIntegrity the stored chunk must have
+     * @throws IllegalArgumentException If the checksum algorithm is unknown
+     */
+    public ChunkIntegrity getIntegrity() {
+        return new ChunkIntegrity(ChecksumAlgorithm.fromId(this.algorithmId), this.sliceChecksums);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, writes the expected version, checksum algorithm
+     * and slice checksums of the chunk.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        super.marshal(dataOutputStream);
+        dataOutputStream.writeInt(this.expectedVersion);
+        dataOutputStream.writeInt(this.algorithmId);
+        dataOutputStream.writeInt(this.sliceChecksums.length);
+        dataOutputStream.write(this.sliceChecksums);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, reads the expected version, checksum algorithm
+     * and slice checksums of the chunk.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        super.unmarshal(dataInputStream);
+        this.expectedVersion = dataInputStream.readInt();
+        this.algorithmId = dataInputStream.readInt();
+        this.sliceChecksums = new byte[dataInputStream.readInt()];
+        dataInputStream.readFully(this.sliceChecksums);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof ChunkVersionUpdateRequest)) return false;
+        ChunkVersionUpdateRequest cvurOther = (ChunkVersionUpdateRequest) other;
+        return (this.absoluteFilePath.equals(cvurOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(cvurOther.getSequence()) &&
+                this.expectedVersion.equals(cvurOther.getExpectedVersion()) &&
+                this.algorithmId.equals(cvurOther.getAlgorithmId()) &&
+                Arrays.equals(this.sliceChecksums, cvurOther.getSliceChecksums()));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkVersionUpdateRequest:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  expectedVersion: %d", this.expectedVersion) +
+                String.format("\n  algorithmId: %d", this.algorithmId) +
+                String.format("\n  sliceChecksums: %d bytes", this.sliceChecksums.length);
+    }
+}
@@ -30,6 +30,14 @@ public class ClientReadRequest extends Message {
         return MessageType.CLIENT_READ_REQUEST;
     }
 
+    /**
+     * Looking up where a file is stored changes nothing, so this request may be safely resent.
+     */
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
     public String getAbsoluteFilePath() {
         return absoluteFilePath;
     }
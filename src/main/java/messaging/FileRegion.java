@@ -0,0 +1,68 @@
+package messaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of an open file which is streamed straight from disk to the network as the tail of a Message's frame,
+ * using FileChannel.transferTo() (sendfile) rather than being copied through the heap.
+ * The region owns its FileChannel, which is closed once the region has been sent, or abandoned.
+ */
+public class FileRegion {
+
+    public static Logger log = LoggerFactory.getLogger(FileRegion.class);
+
+    public FileChannel fileChannel;
+
+    // Offset within the file of the next byte to send
+    public long position;
+
+    // Number of bytes left to send
+    public long count;
+
+    public FileRegion(FileChannel fileChannel, long position, long count) {
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean hasRemaining() {
+        return this.count > 0;
+    }
+
+    /**
+     * Transfers as many of the remaining bytes as the target will currently accept.
+     * @param target Channel we are writing to
+     * @return Number of bytes transferred, possibly 0 if the target is non-blocking and full
+     * @throws IOException If unable to transfer, or the file was truncated underneath us
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = this.fileChannel.transferTo(this.position, this.count, target);
+        if (transferred == 0 && this.position >= this.fileChannel.size()) {
+            throw new EOFException("File was truncated while being sent");
+        }
+        this.position += transferred;
+        this.count -= transferred;
+        return transferred;
+    }
+
+    /**
+     * Closes the underlying FileChannel. Closing an already-closed region does nothing.
+     */
+    public void close() {
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            log.error("Unable to close FileChannel: {}", e.getMessage());
+        }
+    }
+}
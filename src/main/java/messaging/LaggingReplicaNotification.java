@@ -0,0 +1,108 @@
+package messaging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Notifies the Controller that a chunk write was acknowledged by a quorum of its replicas, but not yet by one of them.
+ * Until the lagging Chunk Server reports the chunk in a heartbeat, it is not used to serve reads of the chunk. If its
+ * write failed outright, the Controller has one of the acknowledged replicas repair it.
+ */
+public class LaggingReplicaNotification extends ChunkMessage {
+
+    // The hostname of the Chunk Server which has not acknowledged the write
+    public String laggingChunkServer;
+
+    // The hostnames of the Chunk Servers which have acknowledged the write
+    public List<String> acknowledgedChunkServers;
+
+    // Whether the lagging Chunk Server's write failed, rather than still being outstanding
+    public Boolean failed;
+
+    public LaggingReplicaNotification(String hostname, String ipAddress, Integer port, String absoluteFilePath,
+                                      Integer sequence, String laggingChunkServer,
+                                      List<String> acknowledgedChunkServers, Boolean failed) {
+        this.hostname = hostname;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.absoluteFilePath = absoluteFilePath;
+        this.sequence = sequence;
+        this.laggingChunkServer = laggingChunkServer;
+        this.acknowledgedChunkServers = acknowledgedChunkServers;
+        this.failed = failed;
+    }
+
+    public LaggingReplicaNotification(DataInputStream dataInputStream) throws IOException {
+        this.unmarshal(dataInputStream);
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.LAGGING_REPLICA_NOTIFICATION;
+    }
+
+    public String getLaggingChunkServer() {
+        return laggingChunkServer;
+    }
+
+    public List<String> getAcknowledgedChunkServers() {
+        return acknowledgedChunkServers;
+    }
+
+    public Boolean getFailed() {
+        return failed;
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, writes the lagging Chunk Server, the
+     * acknowledged Chunk Servers, and whether the lagging write failed.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    @Override
+    public void marshal(DataOutputStream dataOutputStream) throws IOException {
+        super.marshal(dataOutputStream);
+        writeString(dataOutputStream, this.laggingChunkServer);
+        writeStringList(dataOutputStream, this.acknowledgedChunkServers);
+        dataOutputStream.writeBoolean(this.failed);
+    }
+
+    /**
+     * In addition to the header, filename, and sequence of the chunk, reads the lagging Chunk Server, the
+     * acknowledged Chunk Servers, and whether the lagging write failed.
+     * @param dataInputStream The DataInputStream we are reading from.
+     * @throws IOException If fails to read from DataInputStream
+     */
+    @Override
+    public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        super.unmarshal(dataInputStream);
+        this.laggingChunkServer = readString(dataInputStream);
+        this.acknowledgedChunkServers = readStringList(dataInputStream);
+        this.failed = dataInputStream.readBoolean();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) return false;
+        if (other == this) return true;
+        if (!(other instanceof LaggingReplicaNotification)) return false;
+        LaggingReplicaNotification lrnOther = (LaggingReplicaNotification) other;
+        return (this.absoluteFilePath.equals(lrnOther.getAbsoluteFilePath()) &&
+                this.sequence.equals(lrnOther.getSequence()) &&
+                this.laggingChunkServer.equals(lrnOther.getLaggingChunkServer()) &&
+                this.acknowledgedChunkServers.equals(lrnOther.getAcknowledgedChunkServers()) &&
+                this.failed.equals(lrnOther.getFailed()));
+    }
+
+    @Override
+    public String toString() {
+        return "LaggingReplicaNotification:" +
+                String.format("\n  absoluteFilePath: %s", this.absoluteFilePath) +
+                String.format("\n  sequence: %d", this.sequence) +
+                String.format("\n  laggingChunkServer: %s", this.laggingChunkServer) +
+                String.format("\n  acknowledgedChunkServers: %s", this.acknowledgedChunkServers) +
+                String.format("\n  failed: %b", this.failed);
+    }
+}
@@ -1,16 +1,21 @@
 package messaging;
 
+import chunkserver.ChecksumAlgorithm;
 import chunkserver.Chunk;
+import chunkserver.ChunkHeader;
 import chunkserver.ChunkIntegrity;
 import chunkserver.ChunkMetadata;
 import controller.FileMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import util.BufferPool;
+import util.Constants;
 import util.Host;
 
 import javax.xml.crypto.Data;
 import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.*;
 
@@ -22,17 +27,50 @@ public abstract class Message {
         HEARTBEAT_MINOR, HEARTBEAT_MAJOR, CHUNK_STORE_REQUEST, CHUNK_STORE_RESPONSE, CLIENT_WRITE_REQUEST, CLIENT_WRITE_RESPONSE,
          CLIENT_READ_REQUEST, CLIENT_READ_RESPONSE, CHUNK_READ_REQUEST, CHUNK_READ_RESPONSE, CHUNK_REPLACEMENT_REQUEST,
         CHUNK_REPLACEMENT_RESPONSE, CHUNK_REPLICATION_INFO, CHUNK_CORRECTION_NOTIFICATION, CHUNK_REPLICATE_COMMAND,
-        SYSTEM_REPORT_REQUEST, SYSTEM_REPORT_RESPONSE
+        SYSTEM_REPORT_REQUEST, SYSTEM_REPORT_RESPONSE, CHUNK_SLICE, LAGGING_REPLICA_NOTIFICATION,
+        CHUNK_RANGE_READ_REQUEST, CHUNK_RANGE_READ_RESPONSE, CHUNK_CHECKSUM_REQUEST, CHUNK_CHECKSUM_RESPONSE,
+        CHUNK_VERSION_UPDATE_REQUEST
     }
 
+    // Byte offset of the request ID within the marshaled header, directly following the message type
+    public static final int REQUEST_ID_OFFSET = 4;
+
+    // Opens the header of a chunk stored or sent in a versioned format, see writeChunkHeader(). Chunks in format 1,
+    // from before the format was versioned, open straight with their metadata, whose first field, the chunk's
+    // version, is never negative
+    public static final int CHUNK_HEADER_MAGIC = 0xD15F11E5;
+    public static final int CHUNK_FORMAT_VERSION = 2;
+
+    // Length of the fixed part of a chunk header, see writeChunkHeader(), and offsets of its fields
+    public static final int CHUNK_HEADER_LENGTH = 40;
+    public static final int CHUNK_HEADER_VERSION_OFFSET = 8;
+    public static final int CHUNK_HEADER_DATA_OFFSET_OFFSET = 24;
+
     public String hostname, ipAddress;
     public Integer port;
     public byte[] marshaledBytes;
 
+    // Marshaled fields preceding the payload, for Messages carrying one; see getBuffers()
+    public byte[] headerBytes;
+
+    // Correlates a response with the request it answers on a shared connection; 0 if not correlated
+    public long requestId;
+
+    // Pooled buffer holding the frame this Message was decoded from, if the Message still references it
+    public ByteBuffer frame;
+
     // --- Getters ---
 
     public abstract MessageType getType();
 
+    /**
+     * @return True if processing this Message twice has the same effect as processing it once, so it may be resent
+     * after a connection closed without answering it; false by default
+     */
+    public boolean isIdempotent() {
+        return false;
+    }
+
     public String getHostname() {
         return hostname;
     }
@@ -45,10 +83,143 @@ public abstract class Message {
         return port;
     }
 
+    /**
+     * Gets the Message marshaled into a single byte array, marshaling it first if it has not been already.
+     * Messages carrying a payload are not marshaled up front, since that copies the whole payload; they are sent
+     * with getBuffers() instead.
+     * @return Marshaled bytes of the whole Message, excluding any FileRegion
+     */
     public byte[] getMarshaledBytes() {
+        if (this.marshaledBytes == null) {
+            try {
+                marshal();
+            } catch (IOException e) {
+                log.error("Unable to marshal {}: {}", getType(), e.getMessage());
+            }
+        }
         return marshaledBytes;
     }
 
+    /**
+     * Messages carrying a large payload, such as chunk data, return a view of it here so it can be written to the
+     * network without first being copied into the marshaled bytes. Such Messages must also override
+     * marshalHeader() to marshal everything preceding the payload, which must come last.
+     * @return View of the payload ending this Message, or null if the Message has none
+     */
+    public ByteBuffer getPayload() {
+        return null;
+    }
+
+    /**
+     * Marshals every field preceding the payload returned by getPayload(). Only called for Messages which have one.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    public void marshalHeader(DataOutputStream dataOutputStream) throws IOException {
+        marshal(dataOutputStream);
+    }
+
+    /**
+     * Encodes the Message for a gathering write: a buffer of marshaled fields, followed by a view of the payload
+     * itself for Messages carrying one. Neither copies the payload.
+     * @return Buffers which, written in order, make up the Message, excluding any FileRegion
+     * @throws IOException If unable to marshal the Message
+     */
+    public ByteBuffer[] getBuffers() throws IOException {
+        ByteBuffer payload = getPayload();
+        if (payload == null) {
+            return new ByteBuffer[]{ByteBuffer.wrap(getMarshaledBytes())};
+        }
+        if (this.headerBytes == null) {
+            ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+            DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+            marshalHeader(dataOutStream);
+            dataOutStream.flush();
+            this.headerBytes = byteOutStream.toByteArray();
+        }
+        return new ByteBuffer[]{ByteBuffer.wrap(this.headerBytes), payload};
+    }
+
+    /**
+     * Messages carrying a large payload which lives on disk may stream it straight from the file as the tail of
+     * their frame, following the buffers returned by getBuffers().
+     * @return Region of a file completing this Message's frame, or null if the buffers are the whole Message
+     */
+    public FileRegion getFileRegion() {
+        return null;
+    }
+
+    /**
+     * Called by the Connection once this Message's frame has been written, or once it has given up on writing it, to
+     * let go of whatever the frame was being sent from. Closes any FileRegion.
+     */
+    public void sendComplete() {
+        FileRegion fileRegion = getFileRegion();
+        if (fileRegion != null) {
+            fileRegion.close();
+        }
+    }
+
+    /**
+     * @return Length in bytes of this Message's frame, i.e. its buffers plus any FileRegion
+     * @throws IOException If unable to marshal the Message
+     */
+    public long getFrameLength() throws IOException {
+        return getFrameLength(getBuffers(), getFileRegion());
+    }
+
+    /**
+     * @param buffers Buffers returned by getBuffers()
+     * @param fileRegion FileRegion returned by getFileRegion(), or null
+     * @return Length in bytes of the frame made up of the buffers' remaining bytes and the FileRegion
+     */
+    public static long getFrameLength(ByteBuffer[] buffers, FileRegion fileRegion) {
+        long frameLength = fileRegion == null ? 0 : fileRegion.getCount();
+        for (ByteBuffer buffer: buffers) {
+            frameLength += buffer.remaining();
+        }
+        return frameLength;
+    }
+
+    /**
+     * Discards any marshaled bytes, so they are marshaled again from the current field values when next needed.
+     * Must be called after changing a field of a Message which has already been marshaled.
+     */
+    public void invalidateMarshaledBytes() {
+        this.marshaledBytes = null;
+        this.headerBytes = null;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Sets the request ID, patching it directly into the marshaled bytes if the Message has already been marshaled,
+     * so a Message can be stamped with an ID without re-marshaling its entire body.
+     * @param requestId ID correlating a request with its response
+     */
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+        if (this.marshaledBytes != null) {
+            ByteBuffer.wrap(this.marshaledBytes).putLong(REQUEST_ID_OFFSET, requestId);
+        }
+        if (this.headerBytes != null) {
+            ByteBuffer.wrap(this.headerBytes).putLong(REQUEST_ID_OFFSET, requestId);
+        }
+    }
+
+    /**
+     * Hands the pooled frame buffer this Message was decoded from back to the BufferPool, if it still holds one.
+     * Any views the Message holds into the frame are invalid afterwards.
+     */
+    public void release() {
+        if (this.frame != null) {
+            BufferPool.getInstance().release(this.frame);
+            this.frame = null;
+        }
+    }
+
     // --- Common message utility functions ---
 
     @Override
@@ -68,6 +239,7 @@ public abstract class Message {
      * This is a partial implementation of the full marshaling process; subclasses are expected to complete this.
      * The message header is represented as follows:
      * - message type (int 4 bytes)
+     * - request id (long 8 bytes)
      * - hostname length (int 4 bytes)
      * - hostname string (char[] n bytes)
      * - ip length (int 4 bytes)
@@ -77,6 +249,7 @@ public abstract class Message {
      */
     public void marshal(DataOutputStream dataOutputStream) throws IOException {
         dataOutputStream.writeInt(integerFromType(this.getType()));
+        dataOutputStream.writeLong(this.requestId);
         writeString(dataOutputStream, this.hostname);
         writeString(dataOutputStream, this.ipAddress);
         dataOutputStream.writeInt(this.port);
@@ -98,6 +271,7 @@ public abstract class Message {
     /**
      * Unmarshals/unpacks the header fields from the message's byte array into the instance variables.
      * The message header is represented as follows:
+     * - request id (long 8 bytes)
      * - hostname length (int 4 bytes)
      * - hostname string (char[] n bytes)
      * - ip length (int 4 bytes)
@@ -106,6 +280,7 @@ public abstract class Message {
      * @throws IOException If fails to read from DataInputStream
      */
     public void unmarshal(DataInputStream dataInputStream) throws IOException {
+        this.requestId = dataInputStream.readLong();
         this.hostname = readString(dataInputStream);
         this.ipAddress = readString(dataInputStream);
         this.port = dataInputStream.readInt();
@@ -174,6 +349,22 @@ public abstract class Message {
         dataOutputStream.writeBytes(value);
     }
 
+    /**
+     * Writes the remaining bytes of a heap ByteBuffer to the output stream, without moving its position.
+     * @param dataOutputStream The DataOutputStream we are writing to.
+     * @param buffer Heap ByteBuffer we are writing from
+     * @throws IOException If fails to write to the DataOutputStream
+     */
+    public static void writeByteBuffer(DataOutputStream dataOutputStream, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            dataOutputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(buffer.position(), bytes);
+            dataOutputStream.write(bytes);
+        }
+    }
+
     /**
      * Reads a string array from the DataInputStream passed in as follows:
      * 1. Reads the array length as an integer n.
@@ -279,7 +470,10 @@ public abstract class Message {
      * @throws IOException If fails to read from DataInputStream
      */
     public static ChunkMetadata readChunkMetadata(DataInputStream dataInputStream) throws IOException {
-        int version = dataInputStream.readInt();
+        return readChunkMetadata(dataInputStream, dataInputStream.readInt());
+    }
+
+    private static ChunkMetadata readChunkMetadata(DataInputStream dataInputStream, int version) throws IOException {
         int sequence = dataInputStream.readInt();
         long tsMillis = dataInputStream.readLong(); // read timestamp as long milliseconds since January 1, 1970, GMT
         Timestamp timestamp = new Timestamp(tsMillis);
@@ -342,35 +536,144 @@ public abstract class Message {
 
     /**
      * Writes a Chunk object to the DataOutputStream as follows:
-     * 1. Writes the ChunkMetadata object
-     * 2. Writes the ChunkIntegrity's slice checksums, a List of Strings
-     * 3. Writes the raw chunk data, a byte array
+     * 1. Writes the chunk header, see writeChunkHeader()
+     * 2. Writes the raw chunk data, a byte array, starting at the header's data offset
      * @param dataOutputStream DataOutputStream we are writing the Chunk object to
      * @param chunk A Chunk object
      * @throws IOException If fails to write to DataOutputStream
      */
     public static void writeChunk(DataOutputStream dataOutputStream, Chunk chunk) throws IOException {
-        writeChunkMetadata(dataOutputStream, chunk.metadata);
-        writeStringList(dataOutputStream, chunk.integrity.getSliceChecksums());
-        dataOutputStream.write(chunk.data, 0, chunk.data.length);
+        writeChunk(dataOutputStream, chunk.metadata, chunk.integrity, ByteBuffer.wrap(chunk.data));
+    }
+
+    /**
+     * Writes a chunk in the same layout as writeChunk(DataOutputStream, Chunk), from its separate parts, with the
+     * raw chunk data written straight out of a buffer.
+     * @param dataOutputStream DataOutputStream we are writing the chunk to
+     * @param metadata ChunkMetadata of the chunk
+     * @param integrity ChunkIntegrity of the chunk
+     * @param data Raw chunk data, between the buffer's position and limit
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    public static void writeChunk(DataOutputStream dataOutputStream, ChunkMetadata metadata, ChunkIntegrity integrity,
+                                  ByteBuffer data) throws IOException {
+        writeChunkHeader(dataOutputStream, metadata, integrity);
+        writeByteBuffer(dataOutputStream, data);
+    }
+
+    /**
+     * Writes everything writeChunk() writes preceding the raw chunk data, as follows:
+     * 1. Writes the fixed-length part, CHUNK_HEADER_LENGTH bytes: the chunk header magic, format version, and the
+     *    chunk's version, sequence number, size in bytes, checksum algorithm, data offset and slice count, as ints,
+     *    then its timestamp as a long
+     * 2. Writes the ChunkIntegrity's raw slice checksums, slice count * checksum length bytes
+     * 3. Writes the file's absolute path as a string
+     * 4. Pads with zeros up to the data offset, the next multiple of Constants.CHUNK_DATA_ALIGNMENT
+     * @param dataOutputStream DataOutputStream we are writing to
+     * @param metadata ChunkMetadata of the chunk
+     * @param integrity ChunkIntegrity of the chunk
+     * @throws IOException If fails to write to DataOutputStream
+     */
+    public static void writeChunkHeader(DataOutputStream dataOutputStream, ChunkMetadata metadata,
+                                        ChunkIntegrity integrity) throws IOException {
+        byte[] sliceChecksums = integrity.getSliceChecksums();
+        String absoluteFilePath = metadata.getAbsoluteFilePath();
+        int unpaddedLength = CHUNK_HEADER_LENGTH + sliceChecksums.length + Integer.BYTES + absoluteFilePath.length();
+        int dataOffset = getChunkDataOffset(unpaddedLength);
+
+        dataOutputStream.writeInt(CHUNK_HEADER_MAGIC);
+        dataOutputStream.writeInt(CHUNK_FORMAT_VERSION);
+        dataOutputStream.writeInt(metadata.getVersion());
+        dataOutputStream.writeInt(metadata.getSequence());
+        dataOutputStream.writeInt(metadata.getSizeBytes());
+        dataOutputStream.writeInt(integrity.getAlgorithm().id);
+        dataOutputStream.writeInt(dataOffset);
+        dataOutputStream.writeInt(integrity.getSliceCount());
+        dataOutputStream.writeLong(metadata.getTimestamp().getTime());
+        dataOutputStream.write(sliceChecksums);
+        writeString(dataOutputStream, absoluteFilePath);
+        dataOutputStream.write(new byte[dataOffset - unpaddedLength]);
+    }
+
+    /**
+     * @param headerLength Length of a chunk header, before padding
+     * @return Offset of the chunk's raw data: the header's length, rounded up to Constants.CHUNK_DATA_ALIGNMENT
+     */
+    public static int getChunkDataOffset(int headerLength) {
+        int alignment = Constants.CHUNK_DATA_ALIGNMENT;
+        return (headerLength + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * Reads everything writeChunk() writes preceding the raw chunk data, in either format:
+     * 1. Reads an int; if it is the chunk header magic, reads the format version, otherwise it is the first field of
+     *    the ChunkMetadata, of a format 1 chunk, followed by its SHA-1 slice checksums as a List of hash text Strings
+     * 2. In the current format, reads the rest of the header, see writeChunkHeader(), skipping the padding
+     * @param dataInputStream DataInputStream of the chunk we are reading from
+     * @return ChunkHeader of the chunk, leaving the stream at its raw data
+     * @throws IOException If unable to read, or the format, algorithm or checksums are invalid
+     */
+    public static ChunkHeader readChunkHeader(DataInputStream dataInputStream) throws IOException {
+        int firstField = dataInputStream.readInt();
+        try {
+            if (firstField != CHUNK_HEADER_MAGIC) {
+                ChunkMetadata metadata = readChunkMetadata(dataInputStream, firstField);
+                return new ChunkHeader(1, metadata, new ChunkIntegrity(readStringList(dataInputStream)));
+            }
+
+            int formatVersion = dataInputStream.readInt();
+            if (formatVersion != CHUNK_FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported chunk format version %d", formatVersion));
+            }
+            return readFixedChunkHeader(dataInputStream);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the rest of a chunk header in the current format, following its magic and format version.
+     */
+    private static ChunkHeader readFixedChunkHeader(DataInputStream dataInputStream) throws IOException {
+        int version = dataInputStream.readInt();
+        int sequence = dataInputStream.readInt();
+        int sizeBytes = dataInputStream.readInt();
+        ChecksumAlgorithm algorithm = ChecksumAlgorithm.fromId(dataInputStream.readInt());
+        int dataOffset = dataInputStream.readInt();
+        int sliceCount = dataInputStream.readInt();
+        Timestamp timestamp = new Timestamp(dataInputStream.readLong());
+
+        if (sliceCount < 0 || sliceCount > dataOffset / algorithm.checksumLength) {
+            throw new IOException(String.format("Invalid chunk header: %d slices, data offset %d", sliceCount,
+                    dataOffset));
+        }
+        int checksumsLength = sliceCount * algorithm.checksumLength;
+        byte[] sliceChecksums = new byte[checksumsLength];
+        dataInputStream.readFully(sliceChecksums);
+        String absoluteFilePath = readString(dataInputStream);
+
+        int padding = dataOffset - (CHUNK_HEADER_LENGTH + checksumsLength + Integer.BYTES + absoluteFilePath.length());
+        if (padding < 0) {
+            throw new IOException(String.format("Invalid chunk header: data offset %d inside the header", dataOffset));
+        }
+        dataInputStream.skipNBytes(padding);
+        ChunkMetadata metadata = new ChunkMetadata(absoluteFilePath, version, sequence, timestamp, sizeBytes);
+        return new ChunkHeader(CHUNK_FORMAT_VERSION, metadata, new ChunkIntegrity(algorithm, sliceChecksums));
     }
 
     /**
      * Reads a Chunk object from the DataInputStream as follows:
-     * 1. Reads the ChunkMetadata object
-     * 2. Reads the ChunkIntegrity's slice checksums, a List of Strings
-     * 3. Reads the raw chunk data, a byte array
-     * 4. Constructs and returns a Chunk from the above information
+     * 1. Reads the chunk header, see readChunkHeader()
+     * 2. Reads the raw chunk data, a byte array
+     * 3. Constructs and returns a Chunk from the above information
      * @param dataInputStream DataInputStream of the file we are reading from
      * @return Chunk Object we read from disk
      * @throws IOException If unable to read
      */
     public static Chunk readChunk(DataInputStream dataInputStream) throws IOException {
-        ChunkMetadata metadata = Message.readChunkMetadata(dataInputStream);
-        List<String> sliceChecksums = Message.readStringList(dataInputStream);
-        ChunkIntegrity integrity = new ChunkIntegrity(sliceChecksums);
-        byte[] chunkData = dataInputStream.readNBytes(metadata.getSizeBytes());
-        return new Chunk(metadata, integrity, chunkData);
+        ChunkHeader header = readChunkHeader(dataInputStream);
+        byte[] chunkData = dataInputStream.readNBytes(header.getMetadata().getSizeBytes());
+        return new Chunk(header.getMetadata(), header.getIntegrity(), chunkData);
     }
 
     /**
@@ -458,6 +761,13 @@ public abstract class Message {
             case 14: return MessageType.CHUNK_REPLICATE_COMMAND;
             case 15: return MessageType.SYSTEM_REPORT_REQUEST;
             case 16: return MessageType.SYSTEM_REPORT_RESPONSE;
+            case 17: return MessageType.CHUNK_SLICE;
+            case 18: return MessageType.LAGGING_REPLICA_NOTIFICATION;
+            case 19: return MessageType.CHUNK_RANGE_READ_REQUEST;
+            case 20: return MessageType.CHUNK_RANGE_READ_RESPONSE;
+            case 21: return MessageType.CHUNK_CHECKSUM_REQUEST;
+            case 22: return MessageType.CHUNK_CHECKSUM_RESPONSE;
+            case 23: return MessageType.CHUNK_VERSION_UPDATE_REQUEST;
             default: return null;
         }
     }
@@ -489,6 +799,13 @@ public abstract class Message {
             case CHUNK_REPLICATE_COMMAND: return 14;
             case SYSTEM_REPORT_REQUEST: return 15;
             case SYSTEM_REPORT_RESPONSE: return 16;
+            case CHUNK_SLICE: return 17;
+            case LAGGING_REPLICA_NOTIFICATION: return 18;
+            case CHUNK_RANGE_READ_REQUEST: return 19;
+            case CHUNK_RANGE_READ_RESPONSE: return 20;
+            case CHUNK_CHECKSUM_REQUEST: return 21;
+            case CHUNK_CHECKSUM_RESPONSE: return 22;
+            case CHUNK_VERSION_UPDATE_REQUEST: return 23;
             default: return -1;
         }
     }
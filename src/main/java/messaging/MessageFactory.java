@@ -3,11 +3,13 @@ package messaging;
 import client.FileLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import util.BufferPool;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Singleton class to instantiate concrete Message instances
@@ -35,6 +37,31 @@ public class MessageFactory {
         return singletonInstance;
     }
 
+    /**
+     * Creates and returns a concrete Message subclass instance, decoded from a complete frame held in memory.
+     * Most Messages copy what they need out of the frame, which is handed straight back to the BufferPool; a
+     * ChunkStoreRequest or ChunkSlice instead keeps a view of its chunk data within the frame, and takes ownership of
+     * it until its release() is called.
+     * @param frame Pooled heap buffer holding exactly one marshaled Message between its position and limit
+     * @return A concrete Message subclass instance
+     * @throws IOException If the frame does not hold a valid Message
+     */
+    public Message createMessage(ByteBuffer frame) throws IOException {
+        Message.MessageType type = Message.typeFromInteger(frame.getInt(frame.position()));
+        if (type == Message.MessageType.CHUNK_STORE_REQUEST) {
+            return new ChunkStoreRequest(frame);
+        } else if (type == Message.MessageType.CHUNK_SLICE) {
+            return new ChunkSlice(frame);
+        }
+        try {
+            ByteArrayInputStream byteInputStream = new ByteArrayInputStream(frame.array(),
+                    frame.arrayOffset() + frame.position(), frame.remaining());
+            return createMessage(new DataInputStream(byteInputStream));
+        } finally {
+            BufferPool.getInstance().release(frame);
+        }
+    }
+
     /**
      * Creates and returns a concrete Message subclass instance from the integer type specified by the byte message.
      * @param dataInputStream DataInputStream on the Socket containing the message bytes.
@@ -65,6 +92,13 @@ public class MessageFactory {
                 case CHUNK_REPLICATE_COMMAND: return new ChunkReplicateCommand(dataInputStream);
                 case SYSTEM_REPORT_REQUEST: return new SystemReportRequest(dataInputStream);
                 case SYSTEM_REPORT_RESPONSE: return new SystemReportResponse(dataInputStream);
+                case CHUNK_SLICE: return new ChunkSlice(dataInputStream);
+                case LAGGING_REPLICA_NOTIFICATION: return new LaggingReplicaNotification(dataInputStream);
+                case CHUNK_RANGE_READ_REQUEST: return new ChunkRangeReadRequest(dataInputStream);
+                case CHUNK_RANGE_READ_RESPONSE: return new ChunkRangeReadResponse(dataInputStream);
+                case CHUNK_CHECKSUM_REQUEST: return new ChunkChecksumRequest(dataInputStream);
+                case CHUNK_CHECKSUM_RESPONSE: return new ChunkChecksumResponse(dataInputStream);
+                case CHUNK_VERSION_UPDATE_REQUEST: return new ChunkVersionUpdateRequest(dataInputStream);
                 default: return null;
             }
         } else {
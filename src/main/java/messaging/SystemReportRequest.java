@@ -29,6 +29,14 @@ public class SystemReportRequest extends Message {
         return MessageType.SYSTEM_REPORT_REQUEST;
     }
 
+    /**
+     * Reporting on the system changes nothing, so this request may be safely resent.
+     */
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null) return false;
@@ -0,0 +1,204 @@
+package networking;
+
+import messaging.FileRegion;
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.BufferPool;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Connection backed by a non-blocking SocketChannel, owned by exactly one EventLoop.
+ * Reads only ever happen on the EventLoop's Thread. Sends may come from any Thread: they are queued,
+ * and the owning EventLoop is asked to flush them once the channel becomes writable.
+ */
+public class ChannelConnection extends Connection {
+
+    public static Logger log = LoggerFactory.getLogger(ChannelConnection.class);
+
+    public SocketChannel channel;
+    public InetAddress remoteAddress;
+    public EventLoop eventLoop;
+    public SelectionKey selectionKey;
+
+    // Bytes read off the channel which have not yet been copied into a frame
+    public ByteBuffer readBuffer;
+
+    // Pooled buffer holding the frame currently being received, once its length is known
+    public ByteBuffer pendingFrame;
+
+    // Frames waiting to be written once the channel is writable
+    public final Queue<PendingWrite> pendingWrites;
+
+    // Decoded Message the saturated worker pool refused; nothing more is read until it has been accepted
+    public Message blockedMessage;
+
+    // Messages handed to the worker pool which have not finished processing yet
+    public final AtomicInteger inFlight;
+
+    // Set once the remote end has stopped sending; the connection closes once every response has been written
+    public volatile boolean inputShutdown;
+
+    /**
+     * A frame waiting to be written: its length prefix, marshaled fields and payload, followed by any FileRegion
+     * completing it.
+     */
+    public static class PendingWrite {
+        public final ByteBuffer[] buffers;
+        public final FileRegion fileRegion;
+        public final Message message;
+
+        public PendingWrite(ByteBuffer[] buffers, Message message) {
+            this.buffers = buffers;
+            this.fileRegion = message.getFileRegion();
+            this.message = message;
+        }
+
+        /**
+         * Writes as much of the frame as the channel will currently accept.
+         * @return True if the whole frame has been written, false if the channel's send buffer filled up first
+         */
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            if (hasRemaining(this.buffers)) {
+                channel.write(this.buffers);
+                if (hasRemaining(this.buffers)) {
+                    return false;
+                }
+            }
+            if (this.fileRegion != null) {
+                while (this.fileRegion.hasRemaining()) {
+                    if (this.fileRegion.transferTo(channel) == 0) {
+                        return false;
+                    }
+                }
+            }
+            this.message.sendComplete();
+            return true;
+        }
+
+        /**
+         * Abandons the frame, telling its Message it will not be sent, see Message.sendComplete().
+         */
+        public void discard() {
+            this.message.sendComplete();
+        }
+    }
+
+    public ChannelConnection(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.remoteAddress = channel.socket().getInetAddress();
+        this.eventLoop = eventLoop;
+        this.readBuffer = ByteBuffer.allocate(EventLoop.READ_BUFFER_SIZE);
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.inFlight = new AtomicInteger(0);
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        PendingWrite pendingWrite;
+        try {
+            pendingWrite = new PendingWrite(frameBuffers(message), message);
+        } catch (IOException e) {
+            message.sendComplete();
+            throw e;
+        }
+        this.pendingWrites.add(pendingWrite);
+        if (!isOpen()) { // close() may have already drained the queue
+            if (this.pendingWrites.remove(pendingWrite)) {
+                pendingWrite.discard();
+            }
+            throw new IOException("Connection to " + getRemoteHostname() + " has been closed");
+        }
+        this.eventLoop.requestWrite(this);
+    }
+
+    /**
+     * Writes as many pending bytes as the channel will currently accept, gathering each frame's length prefix,
+     * marshaled fields, and payload into a single write, and transferring any FileRegion straight from disk.
+     * Only called by the owning EventLoop.
+     * @return True if all pending writes have been flushed, false if the channel's send buffer filled up first
+     * @throws IOException If unable to write to the channel
+     */
+    public boolean flushPendingWrites() throws IOException {
+        PendingWrite next;
+        while ((next = this.pendingWrites.peek()) != null) {
+            if (!next.writeTo(this.channel)) {
+                return false;
+            }
+            this.pendingWrites.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Wakes the owning EventLoop once the last in-flight Message of a half-closed connection has been processed, so
+     * it can close the connection after flushing whatever responses remain.
+     */
+    @Override
+    public void processed() {
+        if (this.inFlight.decrementAndGet() == 0 && this.inputShutdown) {
+            this.eventLoop.requestWrite(this);
+        }
+    }
+
+    /**
+     * @return The interest set the channel should be watched with once its pending writes have been flushed
+     */
+    public int readInterest() {
+        return this.inputShutdown || this.blockedMessage != null ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * @return True if the remote end has stopped sending, and every Message it sent has been processed and answered
+     */
+    public boolean isDrained() {
+        return this.inputShutdown && this.blockedMessage == null && this.inFlight.get() == 0
+                && this.pendingWrites.isEmpty();
+    }
+
+    @Override
+    public String getRemoteHostname() {
+        return this.remoteAddress.getHostName();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (this.selectionKey != null) {
+                this.selectionKey.cancel();
+            }
+            this.channel.close();
+        } catch (IOException e) {
+            log.error("Unable to close SocketChannel: {}", e.getMessage());
+        }
+        PendingWrite abandoned;
+        while ((abandoned = this.pendingWrites.poll()) != null) {
+            abandoned.discard();
+        }
+        if (this.pendingFrame != null) {
+            BufferPool.getInstance().release(this.pendingFrame);
+            this.pendingFrame = null;
+        }
+        if (this.blockedMessage != null) {
+            this.blockedMessage.release();
+            this.blockedMessage = null;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package networking;
 
 import java.io.*;
-import java.net.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import messaging.Message;
 import org.slf4j.Logger;
@@ -13,17 +15,79 @@ public class Client {
     public static Logger log = LoggerFactory.getLogger(Client.class);
 
     /**
-     * Opens a Socket to a hostname:port destination and sends a Message
-     * @param hostname the String host name we are opening a Socket to
-     * @param port the Integer port number we are opening a Socket to
+     * Sends a request Message to a hostname:port destination over a pooled, persistent connection, and waits for
+     * the response. A request which could not be written, such as to a pooled connection the server had just dropped,
+     * is retried once. So is an idempotent request whose connection closed before its response arrived; any other
+     * request may already have been processed, so the failure is passed on rather than risk applying it twice.
+     * @param hostname the String host name we are sending to
+     * @param port the Integer port number we are sending to
+     * @param message The request Message to be sent, must have been previously marshaled
+     * @return The response Message
+     * @throws IOException If unable to send the request, or no response was received
+     */
+    public static Message sendRequest(String hostname, Integer port, Message message) throws IOException {
+        try {
+            return awaitResponse(sendRequestAsync(hostname, port, message));
+        } catch (MultiplexedConnection.UnsentRequestException e) {
+            log.info("Unable to send request to {}:{} ({}), retrying", hostname, port, e.getMessage());
+            return awaitResponse(sendRequestAsync(hostname, port, message));
+        } catch (EOFException e) {
+            if (!message.isIdempotent()) {
+                throw e;
+            }
+            log.info("Connection to {}:{} closed before a response ({}), retrying", hostname, port, e.getMessage());
+            return awaitResponse(sendRequestAsync(hostname, port, message));
+        }
+    }
+
+    /**
+     * Sends a request Message to a hostname:port destination over a pooled, persistent connection, without waiting
+     * for the response. Many requests may be outstanding on the same connection at once.
+     * @param hostname the String host name we are sending to
+     * @param port the Integer port number we are sending to
+     * @param message The request Message to be sent, must have been previously marshaled
+     * @return Future response Message
+     * @throws IOException If unable to send the request
+     */
+    public static CompletableFuture<Message> sendRequestAsync(String hostname, Integer port, Message message)
+            throws IOException {
+        log.info("Sending {} request", message.getType());
+        return ConnectionPool.getInstance().sendRequest(hostname, port, message);
+    }
+
+    /**
+     * Waits for a future response Message, unwrapping any failure into an IOException.
+     * @param response Future response, as returned by sendRequestAsync()
+     * @return The response Message
+     * @throws IOException If the request failed, or timed out waiting for the response
+     */
+    public static Message awaitResponse(CompletableFuture<Message> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof TimeoutException) {
+                throw new IOException("Timed out waiting for response");
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a Message to a hostname:port destination over a pooled, persistent connection, without waiting for
+     * any response. Only to be used for Messages the recipient never responds to.
+     * @param hostname the String host name we are sending to
+     * @param port the Integer port number we are sending to
      * @param message The Message to be sent, must have been previously marshaled
-     * @return The Socket we sent the Message on, and on which a response may be expected
+     * @throws IOException If unable to send the Message
      */
-    public static Socket sendMessage(String hostname, Integer port, Message message) throws IOException {
+    public static void sendMessage(String hostname, Integer port, Message message) throws IOException {
         log.info("Sending {} Message", message.getType());
-        Socket clientSocket = new Socket(hostname, port);
-        clientSocket.getOutputStream().write(message.getMarshaledBytes());
-        return clientSocket;
+        ConnectionPool.getInstance().send(hostname, port, message);
     }
 
 }
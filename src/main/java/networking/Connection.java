@@ -0,0 +1,72 @@
+package networking;
+
+import messaging.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An established connection on which Messages arrive, and on which responses to those Messages are sent.
+ * Abstracts over whether the connection is a blocking Socket, serviced by its own Thread, or a non-blocking
+ * SocketChannel serviced by one of a Server's EventLoops; Processors only ever deal with a Connection.
+ */
+public abstract class Connection {
+
+    /**
+     * Sends a Message on this Connection. Safe to call from multiple Threads at once.
+     * @param message The Message to send, must have been previously marshaled
+     * @throws IOException If the Connection has been closed or is unable to write
+     */
+    public abstract void send(Message message) throws IOException;
+
+    /**
+     * Called once a Message received on this Connection has been processed, whether or not a response was sent.
+     */
+    public void processed() {
+    }
+
+    /**
+     * Lays out a Message's frame for a gathering write: a length prefix, followed by the Message's buffers.
+     * Neither the Message's payload nor any FileRegion completing the frame is copied.
+     * @param message The Message to frame
+     * @return Buffers which, written in order, make up the frame, excluding any FileRegion
+     * @throws IOException If unable to marshal the Message
+     */
+    public static ByteBuffer[] frameBuffers(Message message) throws IOException {
+        ByteBuffer[] buffers = message.getBuffers();
+        long frameLength = Message.getFrameLength(buffers, message.getFileRegion());
+        ByteBuffer[] frame = new ByteBuffer[buffers.length + 1];
+        frame[0] = ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) frameLength);
+        System.arraycopy(buffers, 0, frame, 1, buffers.length);
+        return frame;
+    }
+
+    /**
+     * @param buffers Buffers being written
+     * @return True if any of the buffers still has bytes remaining to be written
+     */
+    public static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer: buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The host name of the remote end of this Connection
+     */
+    public abstract String getRemoteHostname();
+
+    /**
+     * @return True if this Connection has not yet been closed, false otherwise
+     */
+    public abstract boolean isOpen();
+
+    /**
+     * Closes this Connection, releasing its underlying resources. Closing an already-closed Connection does nothing.
+     */
+    public abstract void close();
+
+}
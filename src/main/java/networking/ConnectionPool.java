@@ -0,0 +1,206 @@
+package networking;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton pool of persistent, keep-alive client connections, kept per host:port destination.
+ * Connections are shared rather than borrowed: each is a MultiplexedConnection carrying many requests at once, and
+ * a new connection is only opened once every existing one already has Constants.CONNECTION_PIPELINE_DEPTH requests
+ * in flight, up to Constants.CONNECTION_POOL_MAX_PER_HOST connections per destination. The total number of
+ * requests in flight to a destination is bounded, and senders wait for room once it is reached.
+ * A background Timer closes connections which have sat idle for too long.
+ */
+public class ConnectionPool {
+
+    public static Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static ConnectionPool singletonInstance = null;
+
+    /**
+     * Open connections to, and in-flight request permits for, a single host:port destination.
+     */
+    private static class HostPool {
+        final List<MultiplexedConnection> connections = new CopyOnWriteArrayList<>();
+        final Semaphore permits = new Semaphore(
+                Constants.CONNECTION_POOL_MAX_PER_HOST * Constants.CONNECTION_PIPELINE_DEPTH, true);
+    }
+
+    private final ConcurrentHashMap<String, HostPool> hostPools;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private ConnectionPool() {
+        this.hostPools = new ConcurrentHashMap<>();
+        Timer evictionDaemon = new Timer("ConnectionPoolEviction", true);
+        evictionDaemon.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, Constants.CONNECTION_POOL_EVICTION_INTERVAL, Constants.CONNECTION_POOL_EVICTION_INTERVAL);
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton ConnectionPool instance.
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new ConnectionPool();
+        }
+        return singletonInstance;
+    }
+
+    private HostPool getHostPool(String destination) {
+        return this.hostPools.computeIfAbsent(destination, key -> new HostPool());
+    }
+
+    /**
+     * Sends a request to hostname:port over a pooled connection, without waiting for its response.
+     * Blocks only if the destination already has the maximum number of requests in flight.
+     * @param hostname the String host name we are sending to
+     * @param port the Integer port number we are sending to
+     * @param request The request Message
+     * @return Future response Message, see MultiplexedConnection.sendRequest()
+     * @throws IOException If unable to connect, or timed out waiting for room to send the request
+     */
+    public CompletableFuture<Message> sendRequest(String hostname, Integer port, Message request) throws IOException {
+        String destination = hostname + ":" + port;
+        HostPool hostPool = getHostPool(destination);
+        try {
+            if (!hostPool.permits.tryAcquire(Constants.CONNECTION_POOL_ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting to send a request to " + destination);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to send a request to " + destination);
+        }
+
+        MultiplexedConnection connection;
+        try {
+            connection = selectConnection(hostPool, hostname, port);
+        } catch (IOException e) {
+            hostPool.permits.release();
+            throw e;
+        }
+        CompletableFuture<Message> response = connection.sendRequest(request);
+        response.whenComplete((message, error) -> hostPool.permits.release());
+        return response;
+    }
+
+    /**
+     * Sends a Message to hostname:port over a pooled connection, expecting no response.
+     * @param hostname the String host name we are sending to
+     * @param port the Integer port number we are sending to
+     * @param message The Message to be sent
+     * @throws IOException If unable to connect or send
+     */
+    public void send(String hostname, Integer port, Message message) throws IOException {
+        MultiplexedConnection connection = selectConnection(getHostPool(hostname + ":" + port), hostname, port);
+        try {
+            connection.send(message);
+        } catch (IOException e) {
+            connection.close(); // reader Thread removes it from the pool
+            throw e;
+        }
+    }
+
+    /**
+     * Chooses the open connection with the fewest requests in flight, opening a new one if that connection's
+     * pipeline is already full and the destination has room for another connection.
+     */
+    private MultiplexedConnection selectConnection(HostPool hostPool, String hostname, Integer port)
+            throws IOException {
+        synchronized (hostPool) {
+            MultiplexedConnection leastLoaded = null;
+            for (MultiplexedConnection connection: hostPool.connections) {
+                if (connection.isOpen() && (leastLoaded == null ||
+                        connection.getInFlightCount() < leastLoaded.getInFlightCount())) {
+                    leastLoaded = connection;
+                }
+            }
+
+            boolean roomForMore = hostPool.connections.size() < Constants.CONNECTION_POOL_MAX_PER_HOST;
+            if (leastLoaded == null ||
+                    (leastLoaded.getInFlightCount() >= Constants.CONNECTION_PIPELINE_DEPTH && roomForMore)) {
+                leastLoaded = openConnection(hostname, port);
+                hostPool.connections.add(leastLoaded);
+            }
+            leastLoaded.lastUsedMillis = System.currentTimeMillis(); // keep it safe from eviction
+            return leastLoaded;
+        }
+    }
+
+    private MultiplexedConnection openConnection(String hostname, Integer port) throws IOException {
+        // Opened as a blocking channel, so Messages can be written to it with gathering writes
+        Socket socket = SocketChannel.open(new InetSocketAddress(hostname, port)).socket();
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(true);
+        MultiplexedConnection connection = new MultiplexedConnection(socket, hostname + ":" + port, this);
+        connection.launchReader();
+        log.info("Opened new pooled connection to {}:{}", hostname, port);
+        return connection;
+    }
+
+    /**
+     * Forgets a connection which has been closed. Called by the connection's reader Thread once it stops.
+     * @param connection The closed connection
+     */
+    public void remove(MultiplexedConnection connection) {
+        HostPool hostPool = this.hostPools.get(connection.destination);
+        if (hostPool != null) {
+            hostPool.connections.remove(connection);
+        }
+    }
+
+    /**
+     * Closes connections which have had no requests in flight within Constants.CONNECTION_POOL_IDLE_TIMEOUT.
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (HostPool hostPool: this.hostPools.values()) {
+            synchronized (hostPool) {
+                for (MultiplexedConnection connection: hostPool.connections) {
+                    if (connection.getInFlightCount() == 0 &&
+                            now - connection.lastUsedMillis > Constants.CONNECTION_POOL_IDLE_TIMEOUT) {
+                        log.info("Evicting idle pooled connection to {}", connection.destination);
+                        hostPool.connections.remove(connection);
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes every pooled connection, i.e. when the destinations are known to be going away.
+     * Any requests still in flight on them fail.
+     */
+    public void clear() {
+        for (HostPool hostPool: this.hostPools.values()) {
+            synchronized (hostPool) {
+                for (MultiplexedConnection connection: hostPool.connections) {
+                    connection.close();
+                }
+                hostPool.connections.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package networking;
+
+import messaging.Message;
+import messaging.MessageFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.BufferPool;
+import util.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single Thread multiplexing many non-blocking SocketChannels over one Selector. The EventLoop reads bytes off
+ * each of its channels, splits them into length-prefixed frames, decodes those into complete Messages, and hands
+ * those Messages to its Server's worker pool, so no Thread is ever parked on an idle connection. Responses queued by
+ * the workers are flushed back out by the EventLoop as the channels become writable.
+ * While the worker pool is saturated, a connection whose Message was refused stops being read, so the EventLoop
+ * never processes Messages itself and its other connections keep being serviced.
+ */
+public class EventLoop implements Runnable {
+
+    public static Logger log = LoggerFactory.getLogger(EventLoop.class);
+
+    // Size of each connection's read buffer, from which bytes are moved into pooled frame buffers
+    public static final int READ_BUFFER_SIZE = 16 * Constants.KiB;
+
+    // How long to wait, in milliseconds, before offering refused Messages to a saturated worker pool again
+    public static final long BLOCKED_RETRY_INTERVAL = 10L;
+
+    public Server server;
+    public Selector selector;
+
+    // Newly accepted connections, and connections with freshly queued writes, waiting on the EventLoop Thread
+    private final Queue<ChannelConnection> pendingRegistrations;
+    private final Queue<ChannelConnection> pendingWrites;
+
+    // Connections holding a Message the worker pool refused, only ever touched by the EventLoop Thread
+    private final List<ChannelConnection> blockedConnections;
+
+    public EventLoop(Server server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.blockedConnections = new ArrayList<>();
+    }
+
+    /**
+     * Hands a newly accepted SocketChannel over to this EventLoop. May be called from any Thread.
+     * @param channel The accepted SocketChannel
+     * @throws IOException If unable to put the channel in non-blocking mode
+     */
+    public void register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        this.pendingRegistrations.add(new ChannelConnection(channel, this));
+        this.selector.wakeup();
+    }
+
+    /**
+     * Asks the EventLoop to flush a connection's queued writes. May be called from any Thread.
+     * @param connection ChannelConnection with writes pending
+     */
+    public void requestWrite(ChannelConnection connection) {
+        this.pendingWrites.add(connection);
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (this.selector.isOpen()) {
+            try {
+                this.selector.select(this.blockedConnections.isEmpty() ? 0L : BLOCKED_RETRY_INTERVAL);
+                registerPendingConnections();
+                enablePendingWrites();
+                retryBlockedConnections();
+
+                Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        log.error("Closing connection to {}: {}", connection.getRemoteHostname(), e.getMessage());
+                        connection.close();
+                    } catch (CancelledKeyException e) {
+                        connection.close(); // closed from another Thread while we were servicing it
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break; // EventLoop was shut down
+            } catch (IOException e) {
+                log.error("EventLoop Selector failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void registerPendingConnections() throws IOException {
+        ChannelConnection connection;
+        while ((connection = this.pendingRegistrations.poll()) != null) {
+            connection.selectionKey = connection.channel.register(this.selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void enablePendingWrites() {
+        ChannelConnection connection;
+        while ((connection = this.pendingWrites.poll()) != null) {
+            SelectionKey key = connection.selectionKey;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Offers each blocked connection's refused Message to the worker pool again. Once it is accepted, the connection
+     * goes on to dispatch whatever else it had already buffered, and is read from again.
+     */
+    private void retryBlockedConnections() {
+        List<ChannelConnection> blocked = new ArrayList<>(this.blockedConnections);
+        this.blockedConnections.clear();
+        for (ChannelConnection connection: blocked) {
+            if (!connection.isOpen()) {
+                continue;
+            }
+            Message message = connection.blockedMessage;
+            connection.blockedMessage = null;
+            if (!dispatch(connection, message)) {
+                continue; // still saturated; dispatch() has blocked the connection again
+            }
+            try {
+                connection.readBuffer.flip();
+                decodeFrames(connection);
+                connection.readBuffer.compact();
+                SelectionKey key = connection.selectionKey;
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | connection.readInterest());
+                }
+            } catch (IOException | CancelledKeyException e) {
+                log.error("Closing connection to {}: {}", connection.getRemoteHostname(), e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Reads whatever is available on the connection, then dispatches every complete Message now received. Once the
+     * remote end is done sending, the connection stops being read, and is closed as soon as every Message it sent has
+     * been answered; a client that half-closes its end still receives all of its responses.
+     * @param connection The readable ChannelConnection
+     * @throws IOException If unable to read, or a malformed Message was received
+     */
+    private void read(ChannelConnection connection) throws IOException {
+        if (connection.blockedMessage != null) {
+            return; // nothing more is read until the refused Message has been accepted
+        }
+        int bytesRead = connection.channel.read(connection.readBuffer);
+        connection.readBuffer.flip();
+        decodeFrames(connection);
+        connection.readBuffer.compact();
+        if (bytesRead == -1) {
+            connection.inputShutdown = true; // remote end is done sending
+            SelectionKey key = connection.selectionKey;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (connection.isDrained()) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Moves buffered bytes into frames, each received into a pooled buffer sized by its length prefix, and dispatches
+     * the Message in every frame that completes. A frame whose bytes have not all arrived yet stays pending on the
+     * connection until the next read. Stops early if the worker pool refuses a Message, leaving the remaining bytes
+     * buffered until the connection is unblocked.
+     * @param connection ChannelConnection holding the buffered bytes
+     * @throws IOException If a frame is too large, or does not hold a valid Message
+     */
+    private void decodeFrames(ChannelConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        while (true) {
+            if (connection.pendingFrame == null) {
+                if (buffer.remaining() < Integer.BYTES) {
+                    return; // rest of the length prefix has not arrived yet
+                }
+                int frameLength = buffer.getInt();
+                SocketConnection.checkFrameLength(frameLength);
+                connection.pendingFrame = BufferPool.getInstance().acquire(frameLength);
+            }
+
+            ByteBuffer frame = connection.pendingFrame;
+            int available = Math.min(buffer.remaining(), frame.remaining());
+            frame.put(buffer.slice(buffer.position(), available));
+            buffer.position(buffer.position() + available);
+            if (frame.hasRemaining()) {
+                return; // rest of the frame has not arrived yet
+            }
+
+            connection.pendingFrame = null;
+            if (!dispatch(connection, MessageFactory.getInstance().createMessage(frame.flip()))) {
+                return; // worker pool is saturated
+            }
+        }
+    }
+
+    /**
+     * Hands a decoded Message to the Server's worker pool. If the pool refuses it, the connection holds on to the
+     * Message and stops being read until retryBlockedConnections() gets it accepted.
+     * @param connection ChannelConnection the Message arrived on
+     * @param message The decoded Message
+     * @return True if the worker pool accepted the Message, false if the connection is now blocked
+     */
+    private boolean dispatch(ChannelConnection connection, Message message) {
+        connection.inFlight.incrementAndGet();
+        if (this.server.tryDispatch(connection, message)) {
+            return true;
+        }
+        connection.inFlight.decrementAndGet();
+        if (!this.blockedConnections.contains(connection)) {
+            this.blockedConnections.add(connection);
+        }
+        connection.blockedMessage = message;
+        SelectionKey key = connection.selectionKey;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        return false;
+    }
+
+    /**
+     * Flushes the connection's queued writes, and stops watching for writability once they have all gone out. A
+     * half-closed connection is closed once it has nothing left to process or write.
+     * @param connection The writable ChannelConnection
+     * @throws IOException If unable to write
+     */
+    private void write(ChannelConnection connection) throws IOException {
+        if (connection.flushPendingWrites()) {
+            if (connection.isDrained()) {
+                connection.close();
+            } else {
+                connection.selectionKey.interestOps(connection.readInterest());
+            }
+        }
+    }
+
+    /**
+     * Helper function for launching our run() function as its own Thread.
+     * @param name Name of the EventLoop Thread
+     */
+    public void launchAsThread(String name) {
+        Thread eventLoop = new Thread(this, name);
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+    }
+
+    /**
+     * Stops the EventLoop, closing every connection it is servicing.
+     */
+    public void shutdown() {
+        try {
+            for (SelectionKey key: this.selector.keys()) {
+                ((ChannelConnection) key.attachment()).close();
+            }
+            this.selector.close();
+        } catch (IOException e) {
+            log.error("Unable to close EventLoop Selector: {}", e.getMessage());
+        }
+    }
+}
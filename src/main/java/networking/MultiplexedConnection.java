@@ -0,0 +1,135 @@
+package networking;
+
+import messaging.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Constants;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client-side SocketConnection that can have many requests outstanding at once. Each request is stamped with a
+ * unique request ID and tracked in an in-flight table; a dedicated reader Thread matches responses back to their
+ * requests by ID as they arrive, in whatever order the server answers them.
+ */
+public class MultiplexedConnection extends SocketConnection implements Runnable {
+
+    public static Logger log = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+    // Request IDs are unique per process; 0 is reserved for Messages that expect no response
+    private static final AtomicLong nextRequestId = new AtomicLong(1);
+
+    public final String destination;
+    public final ConcurrentHashMap<Long, CompletableFuture<Message>> inFlight;
+    public volatile long lastUsedMillis;
+
+    private final ConnectionPool pool;
+
+    public MultiplexedConnection(Socket socket, String destination, ConnectionPool pool) throws IOException {
+        super(socket);
+        this.destination = destination;
+        this.pool = pool;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The number of requests sent on this connection still waiting for a response
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Sends a request, without waiting for its response. The returned future completes with the response, or
+     * exceptionally with an UnsentRequestException if the request could not be written, an EOFException if the
+     * connection closed first, or a TimeoutException if no response arrived within
+     * Constants.CONNECTION_REQUEST_TIMEOUT. Futures are completed on the reader Thread, so heavy work chained onto
+     * them should use the *Async variants.
+     * @param request The request Message; it will be stamped with a fresh request ID
+     * @return Future response Message
+     */
+    public CompletableFuture<Message> sendRequest(Message request) {
+        long requestId = nextRequestId.getAndIncrement();
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        this.inFlight.put(requestId, response);
+        response.orTimeout(Constants.CONNECTION_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenComplete((message, error) -> {
+                    this.inFlight.remove(requestId);
+                    this.lastUsedMillis = System.currentTimeMillis();
+                });
+
+        try {
+            if (!isOpen()) {
+                throw new IOException("connection already closed");
+            }
+            request.setRequestId(requestId);
+            send(request);
+        } catch (IOException e) {
+            // The request never made it out whole, so nothing was processed remotely
+            response.completeExceptionally(new UnsentRequestException("Unable to send request to " + this.destination
+                    + ": " + e.getMessage()));
+            close();
+        }
+        return response;
+    }
+
+    /**
+     * Fails a request which could not be written to its connection, such as a pooled connection the server had
+     * already dropped. Unlike a connection closing before a response, the request cannot have been processed, so
+     * callers may safely retry it on another connection.
+     */
+    public static class UnsentRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsentRequestException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reader Thread: completes the in-flight request matching each response's request ID, until the connection
+     * closes. Any requests still in flight at that point are failed with an EOFException.
+     */
+    @Override
+    public void run() {
+        try {
+            Message response;
+            while ((response = receive()) != null) {
+                CompletableFuture<Message> request = this.inFlight.get(response.getRequestId());
+                if (request != null) {
+                    request.complete(response);
+                } else {
+                    log.warn("Dropping {} from {} for unknown request ID {}", response.getType(), this.destination,
+                            response.getRequestId());
+                }
+            }
+        } catch (IOException e) {
+            if (isOpen()) {
+                log.error("Failed reading from {}: {}", this.destination, e.getMessage());
+            }
+        } finally {
+            close();
+            this.pool.remove(this);
+            EOFException closed = new EOFException("Connection to " + this.destination + " closed before a response");
+            for (CompletableFuture<Message> request: this.inFlight.values()) {
+                request.completeExceptionally(closed);
+            }
+        }
+    }
+
+    /**
+     * Helper function for launching our reader as its own daemon Thread.
+     */
+    public void launchReader() {
+        Thread reader = new Thread(this, "Connection Reader " + this.destination);
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
@@ -1,73 +1,53 @@
 package networking;
 
 import messaging.Message;
-import messaging.MessageFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.Socket;
 
 /**
- * Processes Messages from a received Socket connection.
+ * Processes a single Message received over a Connection.
  * Contains common functions and abstractions, including a reference
- * to the Socket from which the Message is arriving and to which
- * we may need to respond. Runs as its own Thread, one thread per
- * current connection.
+ * to the Connection from which the Message is arriving and to which
+ * we may need to respond. A Connection may carry many requests at once, so the
+ * Server creates a Processor per Message, and runs it on one of its worker Threads.
  */
-public abstract class Processor implements Runnable {
+public abstract class Processor {
 
     public static Logger log = LoggerFactory.getLogger(Processor.class);
 
-    // The Socket connection containing the Message to process, and to which we respond
-    public Socket socket;
+    // The Connection containing the Message to process, and to which we respond
+    public Connection connection;
 
-    /**
-     * Executed by Thread.start() as its own Thread; invokes processMessage() with a fully constructed
-     * and unmarshaled Message from the MessageFactory.
-     */
-    @Override
-    public void run() {
-        try {
-            DataInputStream dataInputStream = new DataInputStream(this.socket.getInputStream());
-            Message message = MessageFactory.getInstance().createMessage(dataInputStream);
-            process(message);
-        } catch (IOException e) {
-            log.error("Caught IOException!");
-        }
-    }
+    // Request ID of the Message being processed, with which any response is stamped
+    public long requestId;
 
     /**
-     * Sends a Message response on an already-established Socket connection.
-     * @param socket The Socket that has previously been established.
+     * Sends a Message response on an already-established Connection, stamped with the request ID of the
+     * Message being processed so the client can match it to its request.
+     * @param connection The Connection that has previously been established.
      * @param message The Message containing the response.
      */
-    public static void sendResponse(Socket socket, Message message) {
+    public void sendResponse(Connection connection, Message message) {
         log.info("Sending {} response", message.getType());
-        if (socket != null && socket.isConnected()) {
+        if (connection != null && connection.isOpen()) {
             try {
-                socket.getOutputStream().write(message.getMarshaledBytes());
+                message.setRequestId(this.requestId);
+                connection.send(message);
             } catch (IOException e) {
                 log.error("Failed to send response Message {}: {}", message.getType(), e.getMessage());
             }
         } else {
-            log.warn("Socket is null or has been disconnected; aborting {} response", message.getType());
+            log.warn("Connection is null or has been disconnected; aborting {} response", message.getType());
+            message.sendComplete();
         }
     }
 
     /**
-     * Fully processes a request Message, responding to the Socket member if necessary.
+     * Fully processes a request Message, responding to the Connection member if necessary.
      * Abstract and implemented by a concrete subclass.
-     * @param message Message received over the Socket.
+     * @param message Message received over the Connection.
      */
     public abstract void process(Message message);
-
-    /**
-     * Helper function for launching our run() function as its own Thread.
-     */
-    public void launchAsThread() {
-        Thread processor = new Thread(this, "Processor Thread");
-        processor.start();
-    }
 }
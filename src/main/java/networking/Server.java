@@ -1,18 +1,32 @@
 package networking;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import chunkserver.ChunkIntegrity;
+import messaging.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Constants;
 
 /**
- * Listens on a port and accepts incoming client connections to the ServerSocket, which generates a Socket object.
- * Once a connection is received/accepted and its Socket has been captured, a Processor is spawned off as a Thread
- * to process any incoming Message from the captured Socket, and we immediately return to listening for new connections.
+ * Listens on a port and accepts incoming client connections. Runs in one of two modes, by default chosen by
+ * Constants.SERVER_MODE:
+ * - blocking: each accepted Socket gets its own reader Thread, which reads every incoming Message off the
+ *   captured Socket, and we immediately return to listening for new connections.
+ * - nio: each accepted SocketChannel is handed to one of a small, fixed number of EventLoops, which decode
+ *   incoming Messages off many connections at once.
+ * In both modes, each decoded Message gets its own Processor, run on a bounded pool of worker Threads, so requests
+ * pipelined over one connection are processed concurrently and answered in whatever order they complete.
  */
 public abstract class Server implements Runnable {
 
@@ -20,6 +34,14 @@ public abstract class Server implements Runnable {
 
     public ServerSocket serverSocket;
     public Integer port;
+    public boolean nonBlocking;
+
+    public ThreadPoolExecutor workerPool;
+    public Thread serverThread;
+
+    // Only used in nio mode
+    public ServerSocketChannel serverChannel;
+    public EventLoop[] eventLoops;
 
     public ServerSocket getServerSocket() {
         return serverSocket;
@@ -30,25 +52,86 @@ public abstract class Server implements Runnable {
     }
 
     /**
-     * Binds our ServerSocket to the specified port. If unable to bind, exits the program with error code 1.
+     * @return True if this Server multiplexes its connections over EventLoops, false if it uses a Thread per connection
+     */
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    /**
+     * Binds our ServerSocket to the specified port, in the mode given by Constants.SERVER_MODE.
      * @param port Integer port to which we are attempting to bind.
      */
     public void bindToPort(Integer port) {
+        bindToPort(port, Constants.SERVER_MODE.equalsIgnoreCase("nio"));
+    }
+
+    /**
+     * Binds our ServerSocket to the specified port. If unable to bind, exits the program with error code 1.
+     * @param port Integer port to which we are attempting to bind.
+     * @param nonBlocking True to multiplex connections over EventLoops, false for a Thread per connection
+     */
+    public void bindToPort(Integer port, boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        startWorkerPool();
         try {
-            this.serverSocket = new ServerSocket(port, 10);
+            if (nonBlocking) {
+                this.serverChannel = ServerSocketChannel.open();
+                this.serverChannel.socket().setReuseAddress(true); // rebind despite lingering persistent connections
+                this.serverChannel.bind(new InetSocketAddress(port), Constants.SERVER_BACKLOG);
+                this.serverSocket = this.serverChannel.socket();
+                startEventLoops();
+            } else {
+                // Opened as a blocking channel, so accepted Sockets have channels to transfer files straight to
+                this.serverSocket = ServerSocketChannel.open().socket();
+                this.serverSocket.setReuseAddress(true); // rebind despite lingering persistent connections
+                this.serverSocket.bind(new InetSocketAddress(port), Constants.SERVER_BACKLOG);
+            }
         } catch (IOException e) {
             log.error("Could not listen on port {}", port);
             e.printStackTrace();
         }
 
-        if (!this.serverSocket.isBound()) {
+        if (this.serverSocket == null || !this.serverSocket.isBound()) {
             log.error("ServerSocket unable to bind to port {}", port);
             System.exit(1);
         }
-        log.info("ServerSocket successfully bound to port {}", port);
+        log.info("ServerSocket successfully bound to port {} in {} mode", port, nonBlocking ? "nio" : "blocking");
         this.port = port;
     }
 
+    /**
+     * Creates the pool of worker Threads which process decoded Messages. The worker pool's queue is bounded; once it
+     * fills up, further Messages are rejected, and whoever decoded them holds off reading more off the network until
+     * the workers have caught up.
+     */
+    private void startWorkerPool() {
+        AtomicInteger workerCount = new AtomicInteger(0);
+        this.workerPool = new ThreadPoolExecutor(
+                Constants.SERVER_WORKER_THREADS, Constants.SERVER_WORKER_THREADS,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Constants.SERVER_WORKER_QUEUE_SIZE),
+                runnable -> {
+                    Thread worker = new Thread(runnable, "Worker Thread " + workerCount.getAndIncrement());
+                    worker.setDaemon(true);
+                    return worker;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Creates the EventLoops feeding the worker pool, launching each EventLoop as its own Thread.
+     * @throws IOException If unable to open a Selector
+     */
+    private void startEventLoops() throws IOException {
+        this.eventLoops = new EventLoop[Constants.SERVER_EVENT_LOOPS];
+        for (int i = 0; i < this.eventLoops.length; i++) {
+            this.eventLoops[i] = new EventLoop(this);
+            this.eventLoops[i].launchAsThread("EventLoop Thread " + i);
+        }
+    }
+
     /**
      * Accepts client connections to ServerSocket in the form of a Socket, which is then passed to a new
      * connection-handling thread. Finally, goes back to listening for more connections.
@@ -62,17 +145,91 @@ public abstract class Server implements Runnable {
 
                 this.processConnection(clientSocket); // consume/process incoming message on new thread
             } catch (IOException e) {
-                System.out.println("Client disconnected.");
+                log.info("Client disconnected.");
             }
         }
     }
 
+    /**
+     * Accepts client connections to the ServerSocketChannel, handing each accepted SocketChannel off to the
+     * EventLoops in round-robin order. Finally, goes back to listening for more connections.
+     */
+    public void acceptChannels() {
+        int next = 0;
+        while (this.serverChannel.isOpen()) {
+            try {
+                SocketChannel clientChannel = this.serverChannel.accept(); // blocking call, waits for connection
+                log.info("Received client connection from {}", clientChannel.getRemoteAddress());
+
+                clientChannel.socket().setTcpNoDelay(true);
+                this.eventLoops[next].register(clientChannel);
+                next = (next + 1) % this.eventLoops.length;
+            } catch (IOException e) {
+                log.error("Unable to accept client connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Processes a decoded Message on a Thread from the worker pool, with a Processor of its own. Used by the blocking
+     * connection readers: if the worker pool is saturated, the reader Thread processes the Message itself, which
+     * only holds up the one connection it is servicing.
+     * @param connection Connection the Message arrived on, and to which any response is sent
+     * @param message The fully decoded Message
+     */
+    public void dispatch(Connection connection, Message message) {
+        Runnable task = processingTask(connection, message);
+        try {
+            this.workerPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (this.workerPool.isShutdown()) {
+                message.release();
+                connection.processed();
+                return;
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * Processes a decoded Message on a Thread from the worker pool, unless the pool is saturated. Used by the
+     * EventLoops, which must never process a Message themselves: a rejected Message is held on to by the EventLoop,
+     * which stops reading the connection until it has been accepted.
+     * @param connection Connection the Message arrived on, and to which any response is sent
+     * @param message The fully decoded Message
+     * @return True if the Message was handed to the worker pool, false if the pool rejected it
+     */
+    public boolean tryDispatch(Connection connection, Message message) {
+        try {
+            this.workerPool.execute(processingTask(connection, message));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private Runnable processingTask(Connection connection, Message message) {
+        Processor processor = createProcessor(connection);
+        processor.requestId = message.getRequestId();
+        return () -> {
+            try {
+                processor.process(message);
+            } catch (RuntimeException e) {
+                log.error("Failed to process {} Message: {}", message.getType(), e.getMessage());
+                e.printStackTrace();
+            } finally {
+                message.release(); // hand any pooled frame back once fully processed
+                connection.processed();
+            }
+        };
+    }
+
     /**
      * Helper function for launching our run() function as its own Thread.
      */
     public void launchAsThread() {
-        Thread server = new Thread(this, "Server Thread");
-        server.start();
+        this.serverThread = new Thread(this, "Server Thread");
+        this.serverThread.start();
     }
 
     /**
@@ -80,13 +237,78 @@ public abstract class Server implements Runnable {
      */
     @Override
     public void run() {
-        acceptConnections();
+        if (isNonBlocking()) {
+            acceptChannels();
+        } else {
+            acceptConnections();
+        }
     }
 
     /**
-     * Processes a captured Socket from an incoming connection. Implemented by a concrete subclass.
+     * Stops accepting new connections, and shuts down any EventLoops and worker Threads servicing existing ones.
+     */
+    public void close() {
+        try {
+            this.serverSocket.close();
+            if (this.serverThread != null) {
+                this.serverThread.join(); // the port is only released once the accepting Thread has let go of it
+            }
+        } catch (IOException e) {
+            log.error("Unable to close ServerSocket: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.eventLoops != null) {
+            for (EventLoop eventLoop: this.eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+        this.workerPool.shutdown();
+    }
+
+    /**
+     * Processes a captured Socket from an incoming connection by launching a reader Thread for it, which services
+     * the connection until the client closes it or leaves it idle past Constants.SERVER_IDLE_TIMEOUT.
      * @param clientSocket Socket captured from the incoming connection.
      */
-    public abstract void processConnection(Socket clientSocket);
+    public void processConnection(Socket clientSocket) {
+        try {
+            clientSocket.setSoTimeout(Constants.SERVER_IDLE_TIMEOUT);
+            clientSocket.setTcpNoDelay(true);
+            SocketConnection connection = new SocketConnection(clientSocket);
+            Thread reader = new Thread(() -> serveConnection(connection), "Connection Reader Thread");
+            reader.start();
+        } catch (IOException e) {
+            log.error("Unable to open streams for client connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads Messages off a blocking SocketConnection in the order they arrive, dispatching each to the worker pool
+     * without waiting for the previous one to be processed. Loops until the remote end closes the Connection, or it
+     * sits idle for longer than the Socket's read timeout.
+     * @param connection SocketConnection of an accepted client
+     */
+    public void serveConnection(SocketConnection connection) {
+        try {
+            Message message;
+            while ((message = connection.receive()) != null) {
+                dispatch(connection, message);
+            }
+        } catch (SocketTimeoutException e) {
+            log.info("Closing idle connection from {}", connection.getRemoteHostname());
+        } catch (IOException e) {
+            log.error("Caught IOException: {}", e.getMessage());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Creates a Processor for Messages arriving on a Connection. Implemented by a concrete subclass.
+     * @param connection Connection the Messages arrive on, and to which the Processor responds.
+     * @return A concrete Processor subclass instance
+     */
+    public abstract Processor createProcessor(Connection connection);
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+package networking;
+
+import messaging.FileRegion;
+import messaging.Message;
+import messaging.MessageFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.BufferPool;
+import util.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A Connection backed by a blocking Socket. Messages are read off the Socket's InputStream by whichever
+ * Thread is servicing the Connection, and written to its OutputStream by whichever Thread is responding.
+ * Each Message travels as a frame: its length in bytes, followed by its marshaled bytes.
+ */
+public class SocketConnection extends Connection {
+
+    public static Logger log = LoggerFactory.getLogger(SocketConnection.class);
+
+    public Socket socket;
+    private final DataInputStream dataInputStream;
+    private final DataOutputStream dataOutputStream;
+
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), Constants.SOCKET_WRITE_BUFFER_SIZE));
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Blocks until a full frame has been read off the Socket into a pooled buffer, then decodes the Message in it.
+     * @return A fully constructed and unmarshaled Message, or null if the remote end closed the Connection
+     * @throws IOException If unable to read from the Socket, the frame was too large, or the Message was malformed
+     */
+    public Message receive() throws IOException {
+        int frameLength;
+        try {
+            frameLength = this.dataInputStream.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkFrameLength(frameLength);
+
+        ByteBuffer frame = BufferPool.getInstance().acquire(frameLength);
+        try {
+            this.dataInputStream.readFully(frame.array(), frame.arrayOffset(), frameLength);
+        } catch (IOException e) {
+            BufferPool.getInstance().release(frame);
+            throw e;
+        }
+        return MessageFactory.getInstance().createMessage(frame);
+    }
+
+    /**
+     * Guards against frame lengths which are negative or larger than Constants.MAX_FRAME_SIZE, before any buffer is
+     * allocated for them.
+     * @param frameLength Length prefix read off the wire
+     * @throws IOException If the frame length is out of bounds
+     */
+    public static void checkFrameLength(int frameLength) throws IOException {
+        if (frameLength < Integer.BYTES || frameLength > Constants.MAX_FRAME_SIZE) {
+            throw new IOException(String.format("Refusing frame of %d bytes; maximum is %d", frameLength,
+                    Constants.MAX_FRAME_SIZE));
+        }
+    }
+
+    /**
+     * Writes a Message's frame to the Socket. Sockets created from a SocketChannel gather the length prefix, marshaled
+     * fields, and payload into a single write without copying the payload; any FileRegion completing the frame is
+     * then transferred straight from disk. The Message is told once its frame has been sent, see sendComplete().
+     * @param message The Message to send
+     * @throws IOException If unable to write to the Socket
+     */
+    @Override
+    public void send(Message message) throws IOException {
+        FileRegion fileRegion = message.getFileRegion();
+        try {
+            ByteBuffer[] frame = frameBuffers(message);
+            synchronized (this.dataOutputStream) {
+                SocketChannel channel = this.socket.getChannel();
+                if (channel != null) {
+                    while (hasRemaining(frame)) {
+                        channel.write(frame);
+                    }
+                } else {
+                    for (ByteBuffer buffer: frame) {
+                        Message.writeByteBuffer(this.dataOutputStream, buffer);
+                    }
+                    this.dataOutputStream.flush();
+                }
+                if (fileRegion != null) {
+                    transferFileRegion(fileRegion);
+                }
+            }
+        } finally {
+            message.sendComplete();
+        }
+    }
+
+    /**
+     * Transfers a whole FileRegion to the Socket. Sockets created from a SocketChannel get a true zero-copy transfer;
+     * for any other Socket the transfer falls back to going through its OutputStream.
+     */
+    private void transferFileRegion(FileRegion fileRegion) throws IOException {
+        WritableByteChannel target = this.socket.getChannel() != null ?
+                this.socket.getChannel() : Channels.newChannel(this.dataOutputStream);
+        while (fileRegion.hasRemaining()) {
+            fileRegion.transferTo(target);
+        }
+        this.dataOutputStream.flush();
+    }
+
+    @Override
+    public String getRemoteHostname() {
+        return this.socket.getInetAddress().getHostName();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.socket.isConnected() && !this.socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            log.error("Unable to close Socket: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton pool of reusable heap ByteBuffers, used to receive Message frames off the network without allocating a
+ * fresh buffer per Message. Buffers are pooled by power-of-two size class, from Constants.BUFFER_POOL_MIN_SIZE up to
+ * Constants.BUFFER_POOL_MAX_SIZE; larger requests are allocated as needed and left for the garbage collector.
+ */
+public class BufferPool {
+
+    public static Logger log = LoggerFactory.getLogger(BufferPool.class);
+
+    private static BufferPool singletonInstance = null;
+
+    // One free list per size class, with a count of the buffers in it, since queue.size() is not constant-time
+    private final List<Queue<ByteBuffer>> freeLists;
+    private final AtomicInteger[] freeCounts;
+
+    /**
+     * Note: this constructor can only be called from within the class.
+     */
+    private BufferPool() {
+        int sizeClasses = sizeClassOf(Constants.BUFFER_POOL_MAX_SIZE) + 1;
+        this.freeLists = new ArrayList<>(sizeClasses);
+        this.freeCounts = new AtomicInteger[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            this.freeLists.add(new ConcurrentLinkedQueue<>());
+            this.freeCounts[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Gets the singleton instance, instantiating it if it has not been already.
+     * @return Singleton BufferPool instance.
+     */
+    public static synchronized BufferPool getInstance() {
+        if (singletonInstance == null) {
+            singletonInstance = new BufferPool();
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * @param size Number of bytes needed
+     * @return Index of the smallest size class that fits size bytes
+     */
+    private static int sizeClassOf(int size) {
+        int rounded = Math.max(size, Constants.BUFFER_POOL_MIN_SIZE);
+        int power = 32 - Integer.numberOfLeadingZeros(rounded - 1); // ceil(log2(rounded))
+        return power - Integer.numberOfTrailingZeros(Constants.BUFFER_POOL_MIN_SIZE);
+    }
+
+    /**
+     * Takes a buffer with room for at least size bytes, with its position at 0 and its limit at size.
+     * @param size Number of bytes needed
+     * @return A heap ByteBuffer, which should be handed back with release() once no longer referenced
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > Constants.BUFFER_POOL_MAX_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        int sizeClass = sizeClassOf(size);
+        ByteBuffer buffer = this.freeLists.get(sizeClass).poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(Constants.BUFFER_POOL_MIN_SIZE << sizeClass);
+        } else {
+            this.freeCounts[sizeClass].decrementAndGet();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back to the pool for reuse. The caller must not touch the buffer, or any view of it, afterwards.
+     * @param buffer A buffer previously returned by acquire()
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity > Constants.BUFFER_POOL_MAX_SIZE || Integer.bitCount(capacity) != 1 ||
+                capacity < Constants.BUFFER_POOL_MIN_SIZE) {
+            return; // not one of ours
+        }
+        int sizeClass = sizeClassOf(capacity);
+        if (this.freeCounts[sizeClass].incrementAndGet() <= Constants.BUFFER_POOL_MAX_PER_SIZE) {
+            this.freeLists.get(sizeClass).offer(buffer);
+        } else {
+            this.freeCounts[sizeClass].decrementAndGet(); // free list is full; let it be collected
+        }
+    }
+}
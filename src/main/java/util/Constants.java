@@ -31,6 +31,124 @@ public class Constants {
     // Period of time that, after not receiving a heartbeat at the expected interval, we consider the Chunk Server dead
     public static final int HEARTBEAT_GRACE_PERIOD = 10 * SEC;
 
+    // Networking mode of the Controller and Chunk Server servers: "blocking" spawns a Thread per connection, while
+    // "nio" multiplexes all connections over a few EventLoop Threads. Chosen at startup, i.e. -Dserver.mode=nio
+    public static final String SERVER_MODE = System.getProperty("server.mode", "blocking");
+    public static final int SERVER_BACKLOG = 128;
+    public static final int SERVER_EVENT_LOOPS = 2;
+    public static final int SERVER_WORKER_THREADS = 32;
+    public static final int SERVER_WORKER_QUEUE_SIZE = 1024;
+
+    // Every Message travels in a frame prefixed by its length in bytes; larger frames are refused outright
+    public static final int MAX_FRAME_SIZE = 64 * MiB;
+
+    // Write buffer of blocking connections; fits a whole chunk-carrying frame, so it goes out in one write
+    public static final int SOCKET_WRITE_BUFFER_SIZE = CHUNK_SIZE + 8 * KiB;
+
+    // Pooled buffers for receiving frames: power-of-two sizes between MIN and MAX, keeping at most MAX_PER_SIZE each
+    public static final int BUFFER_POOL_MIN_SIZE = KiB;
+    public static final int BUFFER_POOL_MAX_SIZE = MiB;
+    public static final int BUFFER_POOL_MAX_PER_SIZE = 64;
+
+    // Server-side connections left idle this long are closed, freeing their reader Thread in blocking mode
+    public static final int SERVER_IDLE_TIMEOUT = 5 * MIN;
+
+    // Client-side pooling of persistent connections, per host:port destination. Each connection carries up to
+    // CONNECTION_PIPELINE_DEPTH requests at once before another is opened
+    public static final int CONNECTION_POOL_MAX_PER_HOST = 4;
+    public static final int CONNECTION_PIPELINE_DEPTH = 32;
+    public static final int CONNECTION_POOL_IDLE_TIMEOUT = MIN;
+    public static final int CONNECTION_POOL_ACQUIRE_TIMEOUT = 30 * SEC;
+    public static final int CONNECTION_POOL_EVICTION_INTERVAL = 15 * SEC;
+    public static final int CONNECTION_REQUEST_TIMEOUT = MIN;
+
+    // Topology clients write chunk replicas with, by default: "chain" forwards each chunk from Chunk Server to Chunk
+    // Server, while "fan-out" has the client send it to every replica at once, waiting for as many acknowledgements
+    // as the ack policy ("all", "majority" or "one") asks for.
+    // I.e. -Dreplication.mode=fan-out -Dreplication.acks=majority
+    public static final String REPLICATION_MODE = System.getProperty("replication.mode", "chain");
+    public static final String REPLICATION_ACK_POLICY = System.getProperty("replication.acks", "all");
+
+    // How clients overwrite files: "full" sends every chunk again, while "delta" first compares each chunk's slice
+    // checksums with those of its stored replicas, and only sends the chunks which changed, updating just the version
+    // of the rest. I.e. -Dclient.write=delta
+    public static final String CLIENT_WRITE_MODE = System.getProperty("client.write", "full");
+
+    // Journal of the chunk catalog, in the chunk directory: synced every SYNC_INTERVAL, and compacted every
+    // COMPACTION_INTERVAL once it holds twice as many records as there are chunks, and at least COMPACTION_MIN_RECORDS
+    public static final String CHUNK_JOURNAL_FILENAME = "catalog.journal";
+    public static final int CHUNK_JOURNAL_SYNC_INTERVAL = 200 * MS;
+    public static final int CHUNK_JOURNAL_COMPACTION_INTERVAL = MIN;
+    public static final int CHUNK_JOURNAL_COMPACTION_MIN_RECORDS = 10000;
+
+    // Storage engine for chunks, see ChunkStore: "files" stores each chunk in its own file under the chunk directory,
+    // while "segments" appends chunks to SEGMENT_SIZE segment files in the SEGMENT_DIRNAME subdirectory, compacting
+    // sealed segments at most COMPACTION_THRESHOLD live every COMPACTION_INTERVAL. I.e. -Dchunk.store=segments
+    public static final String CHUNK_STORE_MODE = System.getProperty("chunk.store", "files");
+    public static final String CHUNK_SEGMENT_DIRNAME = "segments";
+    public static final long CHUNK_SEGMENT_SIZE = 256 * MiB;
+    public static final int CHUNK_SEGMENT_COMPACTION_INTERVAL = MIN;
+    public static final double CHUNK_SEGMENT_COMPACTION_THRESHOLD = 0.5;
+
+    // Stored chunks' raw data starts at a multiple of CHUNK_DATA_ALIGNMENT bytes into the chunk, padding its header, so
+    // it is page-aligned within a chunk file. Chunks stored in older formats are migrated to the current one in the
+    // background: "lazy" rewrites each as the ChunkScrubber finds it valid, "bulk" rewrites them all at startup, and
+    // "off" leaves them be. I.e. -Dchunk.migrate=bulk
+    public static final int CHUNK_DATA_ALIGNMENT = 4 * KiB;
+    public static final String CHUNK_MIGRATION_MODE = System.getProperty("chunk.migrate", "lazy");
+
+    // How Chunk Servers update stored chunks: "rewrite" writes the whole chunk anew, while "slices" writes only the
+    // slices which changed in place, see ChunkPatcher, unless more than CHUNK_PATCH_MAX_CHANGED of them did. In-place
+    // updates are logged to CHUNK_INTENT_LOG_FILENAME.<stripe> in the chunk directory first, and wait up to
+    // CHUNK_PATCH_PIN_TIMEOUT ms for reads still sending the chunk, else rewrite it whole. I.e. -Dchunk.update=slices
+    public static final String CHUNK_UPDATE_MODE = System.getProperty("chunk.update", "rewrite");
+    public static final double CHUNK_PATCH_MAX_CHANGED = 0.5;
+    public static final String CHUNK_INTENT_LOG_FILENAME = "chunk.intent";
+    public static final long CHUNK_PATCH_PIN_TIMEOUT = 1000;
+
+    // How Chunk Servers read stored chunks: "sendfile" opens the chunk for every read and streams it to the network
+    // straight from its file, while "mapped" keeps up to MAPPED_CHUNK_CACHE_SIZE bytes of chunks mapped into memory,
+    // and serves them straight out of the page cache. I.e. -Dchunk.read=mapped
+    public static final String CHUNK_READ_MODE = System.getProperty("chunk.read", "sendfile");
+    public static final long MAPPED_CHUNK_CACHE_SIZE = 256 * MiB;
+
+    // Chunk Servers keep copies of up to VERIFIED_CHUNK_CACHE_SIZE bytes of hot chunks which have passed verification,
+    // so reads of them skip the disk and the hashing; 0 disables the cache. Copies are kept off the heap with
+    // -Dchunk.cache.offheap=true. I.e. -Dchunk.cache.size=536870912
+    public static final long VERIFIED_CHUNK_CACHE_SIZE = Long.parseLong(System.getProperty("chunk.cache.size", "0"));
+    public static final boolean VERIFIED_CHUNK_CACHE_OFF_HEAP =
+            Boolean.parseBoolean(System.getProperty("chunk.cache.offheap", "false"));
+    public static final double VERIFIED_CHUNK_CACHE_PROTECTED_RATIO = 0.8;
+
+    // Algorithm new chunks' slice checksums are calculated with, for the whole cluster, see ChecksumAlgorithm: "sha1",
+    // "sha256", "crc32c" or "xxhash64". Chunks record their algorithm, so it can be changed at any time.
+    // I.e. -Dchunk.checksum=crc32c
+    public static final String CHECKSUM_ALGORITHM = System.getProperty("chunk.checksum", "sha1");
+
+    // What Chunk Servers do with the slice checksums clients calculate and send along with ChunkSlices: "verify" checks
+    // each slice against them before storing it, while "trust" stores them as they are without hashing the chunk,
+    // leaving the ChunkScrubber to verify it later. ChunkStoreRequests carry no client checksums, so chunks sent whole
+    // are always hashed by the Chunk Server, whichever the mode. I.e. -Dchunk.client.checksums=trust
+    public static final String CLIENT_CHECKSUM_MODE = System.getProperty("chunk.client.checksums", "verify");
+
+    // Chunk Servers skip verifying a chunk read again within CHUNK_REVERIFY_INTERVAL milliseconds of it passing
+    // verification, as long as it has not been rewritten since; 0 verifies every read.
+    // I.e. -Dchunk.reverify.interval=600000
+    public static final long CHUNK_REVERIFY_INTERVAL = Long.parseLong(System.getProperty("chunk.reverify.interval",
+            "0"));
+
+    // Background scrubbing of stored chunks, see ChunkScrubber: reads at most CHUNK_SCRUB_RATE bytes per second, and
+    // spends at most CHUNK_SCRUB_CPU_SHARE of one core verifying them, pausing CHUNK_SCRUB_INTERVAL between passes over
+    // every chunk; a rate of 0 disables scrubbing. I.e. -Dchunk.scrub.rate=33554432 -Dchunk.scrub.cpu=0.25
+    public static final long CHUNK_SCRUB_RATE = Long.parseLong(System.getProperty("chunk.scrub.rate",
+            String.valueOf(8 * MiB)));
+    public static final double CHUNK_SCRUB_CPU_SHARE = Double.parseDouble(System.getProperty("chunk.scrub.cpu", "0.1"));
+    public static final int CHUNK_SCRUB_INTERVAL = 60 * MIN;
+    public static final int CHUNK_SCRUB_PROGRESS_CHUNKS = 1000;
+
+    // Number of ChunkReadRequests a client keeps in flight at once while reading a file
+    public static final int READ_PIPELINE_WINDOW = 8;
+
     // CLI help messages
     public static String CLI_CLIENT_HELP = "Run with command line inputs to change host and port:\n -h hostname \n -p port number";
     public static String CLI_SERVER_HELP = "Run with command line inputs to change port: \n -p port number";
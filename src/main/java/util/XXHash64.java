@@ -0,0 +1,86 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure-Java implementation of the 64-bit xxHash non-cryptographic hash function, following the reference
+ * specification at https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md.
+ * Hashes straight out of a ByteBuffer, reading 8 bytes at a time, without copying it.
+ */
+public class XXHash64 {
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * Hashes the bytes between a buffer's position and limit.
+     * @param data Bytes to hash; neither the position nor the limit is moved
+     * @param seed Seed of the hash
+     * @return 64-bit hash of the bytes
+     */
+    public static long hash(ByteBuffer data, long seed) {
+        ByteBuffer input = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = input.remaining();
+        int offset = 0;
+        long hash;
+
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            for (; offset <= length - 32; offset += 32) {
+                v1 = round(v1, input.getLong(offset));
+                v2 = round(v2, input.getLong(offset + 8));
+                v3 = round(v3, input.getLong(offset + 16));
+                v4 = round(v4, input.getLong(offset + 24));
+            }
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) +
+                    Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME64_5;
+        }
+        hash += length;
+
+        for (; offset <= length - 8; offset += 8) {
+            hash ^= round(0, input.getLong(offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (offset <= length - 4) {
+            hash ^= (input.getInt(offset) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            offset += 4;
+        }
+        for (; offset < length; offset++) {
+            hash ^= (input.get(offset) & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+        }
+
+        // Avalanche
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long lane) {
+        accumulator += lane * PRIME64_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME64_1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME64_1 + PRIME64_4;
+    }
+}
@@ -0,0 +1,140 @@
+package chunkserver;
+
+import messaging.Message;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChecksumAlgorithmTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    private static ByteBuffer toBuffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testKnownChecksums() {
+        assertEquals("e3069283", ChecksumAlgorithm.CRC32C.checksumText(toBuffer("123456789")));
+        assertEquals("ef46db3751d8e999", ChecksumAlgorithm.XXHASH64.checksumText(toBuffer("")));
+        assertEquals("44bc2cf5ad770999", ChecksumAlgorithm.XXHASH64.checksumText(toBuffer("abc")));
+        assertEquals("fbcea83c8a378bf1",
+                ChecksumAlgorithm.XXHASH64.checksumText(toBuffer("Nobody inspects the spammish repetition")));
+
+        byte[] slice = "Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8);
+        assertEquals("531b07a0f5b66477a21742d2827176264f4bbfe2",
+                ChecksumAlgorithm.SHA1.checksumText(ByteBuffer.wrap(slice)));
+        for (ChecksumAlgorithm algorithm: ChecksumAlgorithm.values()) {
+            assertEquals(algorithm.checksumLength, algorithm.checksum(ByteBuffer.wrap(slice)).length);
+            assertEquals(algorithm, ChecksumAlgorithm.fromId(algorithm.id));
+            assertEquals(algorithm, ChecksumAlgorithm.fromName(algorithm.algorithmName));
+        }
+    }
+
+    @Test
+    public void testChunkRecordsItsAlgorithm() {
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 0, chunkData.length);
+            ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.CRC32C,
+                    ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.CRC32C, ByteBuffer.wrap(chunkData)));
+            ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 0);
+            Chunk.save(new Chunk(metadata, integrity, chunkData), filename);
+            try {
+                Chunk loaded = Chunk.load(filename);
+                assertEquals(ChecksumAlgorithm.CRC32C, loaded.integrity.getAlgorithm());
+                assertEquals(integrity, loaded.integrity);
+                assertTrue(loaded.integrity.isChunkValid(chunkData));
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testUnversionedChunkIsReadAsSHA1() {
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 0, chunkData.length);
+
+            // A chunk as written before the format was versioned: metadata, SHA-1 hash text checksums, then data
+            ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+            DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+            Message.writeChunkMetadata(dataOutStream, metadata);
+            List<String> sliceChecksums = new ArrayList<>();
+            for (int offset = 0; offset < chunkData.length; offset += Constants.SLICE_SIZE) {
+                sliceChecksums.add(ChecksumAlgorithm.SHA1.checksumText(ByteBuffer.wrap(chunkData, offset,
+                        Math.min(Constants.SLICE_SIZE, chunkData.length - offset))));
+            }
+            Message.writeStringList(dataOutStream, sliceChecksums);
+            dataOutStream.write(chunkData);
+            dataOutStream.close();
+
+            DataInputStream dataInStream = new DataInputStream(new ByteArrayInputStream(byteOutStream.toByteArray()));
+            Chunk chunk = Message.readChunk(dataInStream);
+            assertEquals(metadata, chunk.metadata);
+            assertEquals(ChecksumAlgorithm.SHA1, chunk.integrity.getAlgorithm());
+            assertTrue(chunk.integrity.isChunkValid(chunk.data));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testChecksumsAreStoredRaw() {
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 0, chunkData.length);
+            ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.XXHASH64,
+                    ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.XXHASH64, ByteBuffer.wrap(chunkData)));
+
+            // The current format carries each checksum as its raw 8 bytes, straight after the fixed-length header
+            ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+            DataOutputStream dataOutStream = new DataOutputStream(byteOutStream);
+            Message.writeChunkHeader(dataOutStream, metadata, integrity);
+            dataOutStream.close();
+            byte[] headerBytes = byteOutStream.toByteArray();
+            byte[] checksumTable = Arrays.copyOfRange(headerBytes, Message.CHUNK_HEADER_LENGTH,
+                    Message.CHUNK_HEADER_LENGTH + 5 * 8);
+            assertArrayEquals(integrity.getSliceChecksums(), checksumTable);
+            DataInputStream dataInStream = new DataInputStream(new ByteArrayInputStream(headerBytes));
+            ChunkHeader header = Message.readChunkHeader(dataInStream);
+            assertEquals(Message.CHUNK_FORMAT_VERSION, header.getFormatVersion());
+            assertEquals(integrity, header.getIntegrity());
+            assertEquals(5, header.getIntegrity().getSliceCount());
+
+            // A chunk in a format this Chunk Server does not know is refused
+            ByteBuffer.wrap(headerBytes).putInt(Integer.BYTES, Message.CHUNK_FORMAT_VERSION + 1);
+            assertThrows(IOException.class, () -> Message.readChunkHeader(
+                    new DataInputStream(new ByteArrayInputStream(headerBytes))));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
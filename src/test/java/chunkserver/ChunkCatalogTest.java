@@ -0,0 +1,108 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkCatalogTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    @Test
+    public void testSaveAndUpdateAreRecorded() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/catalog/input_35kb.data", getTestResourcesPath(), 2);
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/catalog/input_35kb.data", 2, chunkData.length);
+            Chunk chunk = new Chunk(metadata, new ChunkIntegrity(chunkData), chunkData);
+            try {
+                Chunk.save(chunk, filename);
+                ChunkCatalog.Entry entry = ChunkCatalog.getInstance().get(filename);
+                assertEquals(metadata, entry.getMetadata());
+                assertEquals(5, entry.getSliceCount());
+
+                Chunk.update(chunk, filename);
+                assertEquals(2, ChunkCatalog.getInstance().get(filename).getMetadata().getVersion());
+                assertArrayEquals(entry.getChecksumDigest(),
+                        ChunkCatalog.getInstance().get(filename).getChecksumDigest());
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+                assertTrue(new File(filename.getChunkBase()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testRebuildReadsChunkFiles() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/catalog/input_35kb.data", getTestResourcesPath(), 0);
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/catalog/input_35kb.data", 0, chunkData.length);
+            Chunk.save(new Chunk(metadata, new ChunkIntegrity(chunkData), chunkData), filename);
+            try {
+                ChunkServer chunkServer = new ChunkServer("localhost", 9000);
+                ChunkCatalog.getInstance().remove(filename);
+                assertNull(ChunkCatalog.getInstance().get(filename));
+
+                // The rebuilt catalog holds the real metadata read from the chunk file
+                chunkServer.rebuildCatalog();
+                List<ChunkMetadata> chunksMetadata = chunkServer.getChunksMetadata();
+                assertEquals(1, chunkServer.getTotalChunksMaintained());
+                assertEquals(metadata, chunksMetadata.get(0));
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+                assertTrue(new File(filename.getChunkBase()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testValidateKeepsLaterVersions() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/catalog/input_35kb.data", getTestResourcesPath(), 1);
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+            ChunkMetadata metadata = new ChunkMetadata("/catalog/input_35kb.data", 1, chunkData.length);
+            ChunkIntegrity integrity = new ChunkIntegrity(chunkData);
+            Chunk.save(new Chunk(metadata, integrity, chunkData), filename);
+            try {
+                // A save recorded while validation was reading the older chunk file is not overwritten by it
+                ChunkMetadata saved = new ChunkMetadata("/catalog/input_35kb.data", 1, chunkData.length);
+                saved.version = 2;
+                ChunkCatalog.getInstance().record(filename, saved, integrity);
+                ChunkCatalog.getInstance().validate(List.of(filename.getChunkFilename()), 0);
+                assertEquals(2, ChunkCatalog.getInstance().get(filename).getMetadata().getVersion());
+
+                ChunkCatalog.getInstance().remove(filename);
+                ChunkCatalog.getInstance().validate(List.of(filename.getChunkFilename()), 0);
+                assertEquals(metadata, ChunkCatalog.getInstance().get(filename).getMetadata());
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+                assertTrue(new File(filename.getChunkBase()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -41,7 +42,7 @@ public class ChunkIntegrityTest {
         String testString = "test string";
         String expected = "661295c9cbf9d6b2f6428414504a8deed3020641";
         byte[] testSliceBytes = testString.getBytes();
-        String actual = ChunkIntegrity.calculateSHA1(testSliceBytes);
+        String actual = ChecksumAlgorithm.SHA1.checksumText(ByteBuffer.wrap(testSliceBytes));
         assertEquals(expected, actual);
     }
 
@@ -50,7 +51,7 @@ public class ChunkIntegrityTest {
         String testString = "";
         String expected = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
         byte[] testSliceBytes = testString.getBytes();
-        String actual = ChunkIntegrity.calculateSHA1(testSliceBytes);
+        String actual = ChecksumAlgorithm.SHA1.checksumText(ByteBuffer.wrap(testSliceBytes));
         assertEquals(expected, actual);
     }
 
@@ -87,9 +88,11 @@ public class ChunkIntegrityTest {
             assertTrue(bytesRead != -1);
             assertEquals(35 * KB, chunk.length);
 
-            List<String> actuals = ChunkIntegrity.calculateSliceChecksums(chunk);
+            byte[] actuals = ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.SHA1, ByteBuffer.wrap(chunk));
+            assertEquals(expecteds.size() * 20, actuals.length);
             for (int i = 0; i < expecteds.size(); i++) {
-                assertEquals(expecteds.get(i), actuals.get(i));
+                assertEquals(expecteds.get(i),
+                        ChunkIntegrity.bytesToHexString(Arrays.copyOfRange(actuals, i * 20, (i + 1) * 20)));
             }
 
             reader.close();
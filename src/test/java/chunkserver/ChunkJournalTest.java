@@ -0,0 +1,149 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkJournalTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    private static Path getJournalPath() {
+        return Paths.get(getTestResourcesPath(), "test_catalog.journal");
+    }
+
+    private static ChunkCatalog.Entry newEntry(String absoluteFilePath, int sequence, int version) {
+        ChunkMetadata metadata = new ChunkMetadata(absoluteFilePath, sequence, 1024);
+        metadata.version = version;
+        byte[] checksumDigest = ChecksumAlgorithm.SHA1.checksum(ByteBuffer.wrap(new byte[]{(byte) version}));
+        return new ChunkCatalog.Entry(metadata, 1, checksumDigest);
+    }
+
+    @Test
+    public void testReplayAppliesPutsAndRemoves() {
+        ChunkJournal journal = new ChunkJournal(getJournalPath());
+        try {
+            journal.open();
+            ChunkCatalog.Entry first = newEntry("/journal/a.data", 0, 1);
+            ChunkCatalog.Entry second = newEntry("/journal/a.data", 1, 1);
+            ChunkCatalog.Entry updated = newEntry("/journal/a.data", 0, 2);
+            journal.appendPut("/chunks/a_chunk0", first);
+            journal.appendPut("/chunks/a_chunk1", second);
+            journal.appendPut("/chunks/a_chunk0", updated);
+            journal.appendRemove("/chunks/a_chunk1");
+            journal.close();
+
+            Map<String, ChunkCatalog.Entry> entries = new ChunkJournal(getJournalPath()).replay();
+            assertEquals(1, entries.size());
+            assertEquals(updated.getMetadata(), entries.get("/chunks/a_chunk0").getMetadata());
+            assertEquals(2, entries.get("/chunks/a_chunk0").getMetadata().getVersion());
+            assertArrayEquals(updated.getChecksumDigest(), entries.get("/chunks/a_chunk0").getChecksumDigest());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            assertTrue(getJournalPath().toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReplayTruncatesTornRecord() {
+        ChunkJournal journal = new ChunkJournal(getJournalPath());
+        try {
+            journal.open();
+            journal.appendPut("/chunks/b_chunk0", newEntry("/journal/b.data", 0, 1));
+            journal.close();
+            long intactLength = Files.size(getJournalPath());
+
+            journal.open();
+            journal.appendPut("/chunks/b_chunk1", newEntry("/journal/b.data", 1, 1));
+            journal.close();
+            try (RandomAccessFile file = new RandomAccessFile(getJournalPath().toFile(), "rw")) {
+                file.setLength(intactLength + 10); // crash part way through the second record
+            }
+
+            Map<String, ChunkCatalog.Entry> entries = new ChunkJournal(getJournalPath()).replay();
+            assertEquals(1, entries.size());
+            assertTrue(entries.containsKey("/chunks/b_chunk0"));
+            assertEquals(intactLength, Files.size(getJournalPath()));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            assertTrue(getJournalPath().toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReplayReportsLastSyncMarker() {
+        ChunkJournal journal = new ChunkJournal(getJournalPath());
+        try {
+            journal.open();
+            long beforeSync = System.currentTimeMillis();
+            journal.appendPut("/chunks/d_chunk0", newEntry("/journal/d.data", 0, 1));
+            journal.sync();
+            long afterSync = System.currentTimeMillis();
+            journal.close();
+
+            ChunkJournal replayed = new ChunkJournal(getJournalPath());
+            assertEquals(1, replayed.replay().size());
+            assertTrue(replayed.getSyncedUntilMillis() >= beforeSync);
+            assertTrue(replayed.getSyncedUntilMillis() <= afterSync);
+
+            // Without an intact marker, nothing is known to have been synced
+            try (RandomAccessFile file = new RandomAccessFile(getJournalPath().toFile(), "rw")) {
+                file.setLength(file.length() - 3);
+            }
+            replayed = new ChunkJournal(getJournalPath());
+            assertEquals(1, replayed.replay().size());
+            assertEquals(0, replayed.getSyncedUntilMillis());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            assertTrue(getJournalPath().toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsOnlyCatalogEntries() {
+        ChunkCatalog catalog = ChunkCatalog.getInstance();
+        Map<String, ChunkCatalog.Entry> previousEntries = catalog.getEntries();
+        ChunkJournal journal = new ChunkJournal(getJournalPath());
+        try {
+            journal.open();
+            for (int version = 1; version <= 5; version++) {
+                journal.appendPut("/chunks/c_chunk0", newEntry("/journal/c.data", 0, version));
+            }
+            catalog.load(Map.of("/chunks/c_chunk0", newEntry("/journal/c.data", 0, 5)));
+            journal.compact(catalog);
+            assertFalse(journal.needsCompaction(catalog.size()));
+            journal.appendPut("/chunks/c_chunk1", newEntry("/journal/c.data", 1, 1));
+            journal.close();
+            assertFalse(Files.exists(Paths.get(getJournalPath() + ".compact")));
+
+            Map<String, ChunkCatalog.Entry> entries = new ChunkJournal(getJournalPath()).replay();
+            assertEquals(2, entries.size());
+            assertEquals(5, entries.get("/chunks/c_chunk0").getMetadata().getVersion());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            catalog.load(previousEntries);
+            assertTrue(getJournalPath().toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package chunkserver;
+
+import messaging.Message;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkMigratorTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Writes the 35KB test input as a chunk file in format 1, from before the chunk format was versioned.
+     */
+    private static ChunkFilename saveUnversionedTestChunk(int sequence, byte[] chunkData) throws IOException {
+        ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", sequence, chunkData.length);
+        List<String> sliceChecksums = new ArrayList<>();
+        for (int offset = 0; offset < chunkData.length; offset += Constants.SLICE_SIZE) {
+            sliceChecksums.add(ChecksumAlgorithm.SHA1.checksumText(ByteBuffer.wrap(chunkData, offset,
+                    Math.min(Constants.SLICE_SIZE, chunkData.length - offset))));
+        }
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), sequence);
+        DataOutputStream dataOutStream = new DataOutputStream(new FileOutputStream(filename.getChunkFilename()));
+        Message.writeChunkMetadata(dataOutStream, metadata);
+        Message.writeStringList(dataOutStream, sliceChecksums);
+        dataOutStream.write(chunkData);
+        dataOutStream.close();
+        return filename;
+    }
+
+    @Test
+    public void testHeaderIsFixedAndDataIsAligned() {
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename filename = TestChunks.saveTestChunk(0, chunkData);
+            try {
+                ByteBuffer storedBytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename.getChunkFilename())));
+                assertEquals(Message.CHUNK_HEADER_MAGIC, storedBytes.getInt(0));
+                assertEquals(Message.CHUNK_FORMAT_VERSION, storedBytes.getInt(Integer.BYTES));
+                assertEquals(1, storedBytes.getInt(Message.CHUNK_HEADER_VERSION_OFFSET));
+                int dataOffset = storedBytes.getInt(Message.CHUNK_HEADER_DATA_OFFSET_OFFSET);
+                assertEquals(0, dataOffset % Constants.CHUNK_DATA_ALIGNMENT);
+                assertEquals(dataOffset + chunkData.length, storedBytes.capacity());
+                assertArrayEquals(chunkData, Arrays.copyOfRange(storedBytes.array(), dataOffset,
+                        storedBytes.capacity()));
+
+                assertEquals(1, Chunk.readChunkVersion(filename));
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                storedChunk.close();
+                assertEquals(dataOffset, storedChunk.dataOffset);
+                assertFalse(ChunkMigrator.needsMigration(storedChunk));
+                assertTrue(storedChunk.isValid());
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testOlderFormatChunksAreMigrated() {
+        ChunkMigrator migrator = new ChunkMigrator();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename valid = saveUnversionedTestChunk(1, chunkData);
+            ChunkFilename corrupted = saveUnversionedTestChunk(2, chunkData);
+            try {
+                Chunk unmigrated = Chunk.load(valid);
+                assertEquals(1, Chunk.readChunkVersion(valid));
+                assertTrue(migrator.migrate(valid));
+                assertFalse(migrator.migrate(valid)); // already in the current format
+
+                StoredChunk storedChunk = StoredChunk.open(valid);
+                storedChunk.close();
+                assertEquals(Message.CHUNK_FORMAT_VERSION, storedChunk.formatVersion);
+                assertEquals(unmigrated, Chunk.load(valid));
+
+                // Flip the last byte of the chunk data; a corrupted chunk keeps its old format
+                RandomAccessFile file = new RandomAccessFile(corrupted.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+                assertFalse(migrator.migrate(corrupted));
+                storedChunk = StoredChunk.open(corrupted);
+                storedChunk.close();
+                assertEquals(1, storedChunk.formatVersion);
+                assertEquals(1, migrator.getChunksMigrated());
+                assertEquals(1, migrator.getChunksSkipped());
+            } finally {
+                for (ChunkFilename filename: new ChunkFilename[]{valid, corrupted}) {
+                    ChunkCatalog.getInstance().remove(filename);
+                    assertTrue(new File(filename.getChunkFilename()).delete());
+                }
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package chunkserver;
+
+import messaging.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkPatcherTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        Chunk.setChunkDir(getTestResourcesPath());
+    }
+
+    /**
+     * Removes the intent logs the patcher leaves in the chunk directory.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path intentLogPath: ChunkPatcher.getIntentLogPaths()) {
+            Files.delete(intentLogPath);
+        }
+        Chunk.setChunkDir("/tmp");
+    }
+
+    @Test
+    public void testPatchWritesOnlyChangedSlices() {
+        ChunkPatcher patcher = ChunkPatcher.getInstance();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename filename = TestChunks.saveTestChunk(0, chunkData);
+            try {
+                // Edit one byte in the third slice
+                byte[] editedData = chunkData.clone();
+                editedData[2 * Constants.SLICE_SIZE + 100] ^= 0xFF;
+                ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 0, editedData.length);
+                ChunkIntegrity integrity = new ChunkIntegrity(editedData);
+                long slicesWritten = patcher.getSlicesWritten();
+                assertTrue(patcher.patch(filename, metadata, integrity, ByteBuffer.wrap(editedData)));
+                assertEquals(slicesWritten + 1, patcher.getSlicesWritten());
+                assertEquals(2, metadata.getVersion());
+
+                Chunk patched = Chunk.load(filename);
+                assertEquals(new Chunk(metadata, integrity, editedData), patched);
+                assertTrue(patched.isValid());
+                assertEquals(2, Chunk.readChunkVersion(filename));
+
+                // Rewriting most of the slices is left to a whole rewrite
+                byte[] rewrittenData = new byte[chunkData.length];
+                assertFalse(patcher.patch(filename, new ChunkMetadata("/input_35kb.data", 0, rewrittenData.length),
+                        new ChunkIntegrity(rewrittenData), ByteBuffer.wrap(rewrittenData)));
+                assertEquals(patched, Chunk.load(filename));
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testUnchangedChecksumIsNotTrustedUnlessCryptographic() {
+        ChunkPatcher patcher = ChunkPatcher.getInstance();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.CRC32C,
+                    ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.CRC32C, ByteBuffer.wrap(chunkData)));
+            ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 4);
+            Chunk.save(new Chunk(new ChunkMetadata("/input_35kb.data", 4, chunkData.length), integrity, chunkData),
+                    filename);
+            try {
+                // An edit whose CRC32C collides with the stored slice's is still written
+                byte[] editedData = chunkData.clone();
+                editedData[9] ^= 0xFF;
+                long slicesWritten = patcher.getSlicesWritten();
+                assertTrue(patcher.patch(filename, new ChunkMetadata("/input_35kb.data", 4, editedData.length),
+                        integrity, ByteBuffer.wrap(editedData)));
+                assertEquals(slicesWritten + 1, patcher.getSlicesWritten());
+                assertArrayEquals(editedData, Chunk.load(filename).data);
+            } finally {
+                Chunk.invalidateCached(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testReaderWaitsForPatch() throws InterruptedException {
+        ChunkPatcher patcher = ChunkPatcher.getInstance();
+        VerifiedChunkCache cache = VerifiedChunkCache.getInstance();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename filename = TestChunks.saveTestChunk(2, chunkData);
+            Lock lock = ChunkLocks.getInstance().writeLock(filename);
+            try {
+                cache.clear();
+                Chunk.invalidateCached(filename);
+                byte[] editedData = chunkData.clone();
+                editedData[Constants.SLICE_SIZE + 7] ^= 0xFF;
+                ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 2, editedData.length);
+                ChunkIntegrity integrity = new ChunkIntegrity(editedData);
+
+                // A reader arriving while the chunk is locked for a patch waits for the patch to finish
+                AtomicReference<StoredChunk> read = new AtomicReference<>();
+                Thread reader = new Thread(() -> {
+                    try {
+                        read.set(cache.readVerified(filename));
+                    } catch (IOException e) {
+                        fail("Caught IOException!");
+                    }
+                });
+                lock.lock();
+                try {
+                    reader.start();
+                    Thread.sleep(100);
+                    assertTrue(reader.isAlive());
+                    assertTrue(patcher.patch(filename, metadata, integrity, ByteBuffer.wrap(editedData)));
+                } finally {
+                    lock.unlock();
+                }
+                reader.join();
+
+                StoredChunk storedChunk = read.get();
+                assertNotNull(storedChunk);
+                assertEquals(2, storedChunk.metadata.getVersion());
+                storedChunk.close();
+            } finally {
+                cache.clear();
+                Chunk.invalidateCached(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testPatchWaitsForSends() throws InterruptedException {
+        ChunkPatcher patcher = ChunkPatcher.getInstance();
+        ChunkLocks locks = ChunkLocks.getInstance();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename filename = TestChunks.saveTestChunk(3, chunkData);
+            try {
+                byte[] editedData = chunkData.clone();
+                editedData[5] ^= 0xFF;
+                ChunkIntegrity integrity = new ChunkIntegrity(editedData);
+
+                // A chunk still being sent is not patched underneath the send
+                Lock lock = locks.readLock(filename);
+                lock.lock();
+                ChunkLocks.Pin pin = locks.pin(filename);
+                lock.unlock();
+                Thread sender = new Thread(() -> {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ignored) {
+                    }
+                    pin.release();
+                });
+                sender.start();
+                assertTrue(patcher.patch(filename, new ChunkMetadata("/input_35kb.data", 3, editedData.length),
+                        integrity, ByteBuffer.wrap(editedData)));
+                assertFalse(sender.isAlive());
+                sender.join();
+                pin.release(); // releasing twice does nothing
+                assertEquals(0, locks.getPins(filename));
+
+                // One which is never sent leaves the chunk to be rewritten whole
+                lock.lock();
+                ChunkLocks.Pin stuck = locks.pin(filename);
+                lock.unlock();
+                try {
+                    assertFalse(patcher.patch(filename, new ChunkMetadata("/input_35kb.data", 3, chunkData.length),
+                            new ChunkIntegrity(chunkData), ByteBuffer.wrap(chunkData)));
+                    assertArrayEquals(editedData, Chunk.load(filename).data);
+                } finally {
+                    stuck.release();
+                }
+            } finally {
+                Chunk.invalidateCached(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testRecoverRedoesLoggedUpdate() {
+        ChunkPatcher patcher = ChunkPatcher.getInstance();
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkFilename filename = TestChunks.saveTestChunk(1, chunkData);
+            try {
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                storedChunk.close();
+
+                // Log an update of the last slice, as a crash before it reached the chunk file would leave it
+                byte[] editedData = chunkData.clone();
+                editedData[editedData.length - 1] ^= 0xFF;
+                ChunkMetadata metadata = new ChunkMetadata("/input_35kb.data", 2, 1,
+                        storedChunk.metadata.getTimestamp(), editedData.length);
+                ChunkIntegrity integrity = new ChunkIntegrity(editedData);
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                Message.writeChunkHeader(new DataOutputStream(header), metadata, integrity);
+                int lastSlice = (editedData.length - 1) / Constants.SLICE_SIZE * Constants.SLICE_SIZE;
+                byte[] slice = new byte[editedData.length - lastSlice];
+                System.arraycopy(editedData, lastSlice, slice, 0, slice.length);
+                List<ChunkPatcher.Write> writes = new ArrayList<>();
+                writes.add(new ChunkPatcher.Write(0, header.toByteArray()));
+                writes.add(new ChunkPatcher.Write(storedChunk.dataOffset + lastSlice, slice));
+                Path intentLogPath = ChunkPatcher.getIntentLogPath(filename);
+                ChunkPatcher.logIntent(intentLogPath, filename.getChunkFilename(), writes);
+                assertTrue(Chunk.load(filename).isValid());
+                assertEquals(1, Chunk.readChunkVersion(filename));
+
+                assertTrue(patcher.recover());
+                Chunk recovered = Chunk.load(filename);
+                assertEquals(new Chunk(metadata, integrity, editedData), recovered);
+                assertTrue(recovered.isValid());
+                assertEquals(0, Files.size(intentLogPath));
+
+                // A torn update is discarded
+                Files.write(intentLogPath, new byte[]{0, 0, 1, 0, 42});
+                assertFalse(patcher.recover());
+                assertEquals(recovered, Chunk.load(filename));
+                assertEquals(0, Files.size(intentLogPath));
+            } finally {
+                Chunk.invalidateCached(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
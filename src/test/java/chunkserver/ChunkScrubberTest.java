@@ -0,0 +1,63 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkScrubberTest {
+
+    @Test
+    public void testScrubbingFindsCorruptedChunk() {
+        ChunkScrubber scrubber = new ChunkScrubber(null, 1024 * 1024, 1.0);
+        try {
+            ChunkFilename valid = TestChunks.saveTestChunk(0);
+            ChunkFilename corrupted = TestChunks.saveTestChunk(1);
+            try {
+                // Flip the last byte of the chunk data
+                RandomAccessFile file = new RandomAccessFile(corrupted.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+
+                long validBytes = scrubber.scrubChunk(valid);
+                assertEquals(new File(valid.getChunkFilename()).length(), validBytes);
+                assertEquals(0, scrubber.getCorruptionsFound());
+
+                scrubber.scrubChunk(corrupted);
+                assertEquals(1, scrubber.getCorruptionsFound());
+                assertEquals(2, scrubber.getChunksScrubbed());
+                assertEquals(0, scrubber.getChunksRepaired());
+            } finally {
+                for (ChunkFilename filename: new ChunkFilename[]{valid, corrupted}) {
+                    ChunkCatalog.getInstance().remove(filename);
+                    assertTrue(new File(filename.getChunkFilename()).delete());
+                }
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testPauseKeepsWithinBudgets() {
+        ChunkScrubber scrubber = new ChunkScrubber(null, 1024 * 1024, 0.25);
+
+        // 1 MiB at 1 MiB/s: a second in all, less the 100ms spent reading it
+        assertEquals(900, scrubber.getPauseMillis(1024 * 1024, 100_000_000L));
+
+        // 1 KiB in 100ms: the CPU budget dominates, idling three times as long as we were busy
+        assertEquals(300, scrubber.getPauseMillis(1024, 100_000_000L));
+
+        // Without a CPU budget, a slow read needs no pause at all
+        scrubber.cpuShare = 1.0;
+        assertEquals(0, scrubber.getPauseMillis(1024, 100_000_000L));
+    }
+}
@@ -0,0 +1,225 @@
+package chunkserver;
+
+import messaging.ChunkSlice;
+import messaging.ChunkStoreRequest;
+import messaging.ChunkStoreResponse;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkStreamTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Streams a whole chunk into a ChunkStream, last slice first, returning the stream.
+     */
+    private static ChunkStream streamChunk(long streamId, byte[] chunkData) throws IOException {
+        ChunkStream stream = null;
+        int sliceCount = ChunkSlice.getSliceCount(chunkData.length);
+        for (int sliceIndex = sliceCount - 1; sliceIndex >= 0; sliceIndex--) {
+            int sliceOffset = sliceIndex * Constants.SLICE_SIZE;
+            int sliceLength = Math.min(Constants.SLICE_SIZE, chunkData.length - sliceOffset);
+            ChunkSlice slice = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                    "/input_35kb.data", 0, streamId, chunkData.length, sliceIndex,
+                    ByteBuffer.wrap(chunkData, sliceOffset, sliceLength));
+            stream = ChunkStream.forSlice(slice);
+            assertFalse(stream.stored.isDone());
+            stream.writeSlice(slice.getSliceIndex(), slice.getChunkDataBuffer());
+        }
+        return stream;
+    }
+
+    @Test
+    public void testStreamedChunkMatchesSavedChunk() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 0);
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkStream stream = streamChunk(1L, chunkData);
+            try {
+                assertTrue(stream.stored.isDone());
+                assertFalse(stream.stored.isCompletedExceptionally());
+                assertFalse(Files.exists(stream.tempPath));
+
+                Chunk chunk = Chunk.load(filename);
+                assertTrue(chunk.isValid());
+                assertArrayEquals(chunkData, chunk.data);
+                assertEquals(new ChunkIntegrity(chunkData), chunk.integrity);
+                assertEquals(1, chunk.metadata.getVersion());
+
+                // We are the last in the chain, so the acknowledgement is ours
+                ChunkStoreResponse response = stream.acknowledgement("shark", "129.82.45.138").get();
+                assertTrue(response.getSuccess());
+
+                // Streaming the chunk again replaces it with the next version
+                streamChunk(2L, chunkData);
+                assertEquals(2, Chunk.readChunkMetadata(filename).getVersion());
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail("Caught Exception!");
+        }
+    }
+
+    @Test
+    public void testChunkSavedWhileStreamingIsVersionedOver() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 0);
+        try {
+            byte[] chunkData = new byte[Constants.SLICE_SIZE * 2];
+            ChunkSlice first = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                    "/input_35kb.data", 0, 9L, chunkData.length, 0, ByteBuffer.wrap(chunkData, 0,
+                    Constants.SLICE_SIZE));
+            ChunkStream stream = ChunkStream.forSlice(first);
+            stream.writeSlice(first.getSliceIndex(), first.getChunkDataBuffer());
+            try {
+                // Another write of the chunk lands before the stream commits; the stream is versioned after it
+                Chunk saved = TestChunks.newTestChunk("/input_35kb.data", 0, chunkData);
+                saved.metadata.version = 3;
+                Chunk.save(saved, filename);
+                stream.writeSlice(1, ByteBuffer.wrap(chunkData, Constants.SLICE_SIZE, Constants.SLICE_SIZE));
+                assertFalse(stream.stored.isCompletedExceptionally());
+                assertEquals(4, Chunk.readChunkVersion(filename));
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testUnexpectedSliceFailsStream() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        try {
+            byte[] chunkData = new byte[Constants.SLICE_SIZE * 2];
+            ChunkSlice slice = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                    "/input_35kb.data", 0, 3L, chunkData.length, 0, ByteBuffer.wrap(chunkData, 0, 10));
+            ChunkStream stream = ChunkStream.forSlice(slice);
+            stream.writeSlice(slice.getSliceIndex(), slice.getChunkDataBuffer());
+
+            assertTrue(stream.stored.isCompletedExceptionally());
+            assertFalse(Files.exists(stream.tempPath));
+            assertFalse(stream.acknowledgement("shark", "129.82.45.138").get().getSuccess());
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail("Caught Exception!");
+        }
+    }
+
+    @Test
+    public void testConcurrentDuplicateSliceFailsStream() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        try {
+            byte[] chunkData = new byte[Constants.SLICE_SIZE * 2];
+            for (long streamId = 100L; streamId < 120L; streamId++) {
+                ChunkSlice slice = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                        "/input_35kb.data", 0, streamId, chunkData.length, 0,
+                        ByteBuffer.wrap(chunkData, 0, Constants.SLICE_SIZE));
+                ChunkStream stream = ChunkStream.forSlice(slice);
+                Thread first = new Thread(() -> stream.writeSlice(0, slice.getChunkDataBuffer()));
+                Thread second = new Thread(() -> stream.writeSlice(0, slice.getChunkDataBuffer()));
+                first.start();
+                second.start();
+                first.join();
+                second.join();
+
+                // Only one copy of the slice may count towards the chunk, so it never commits without slice 1
+                assertTrue(stream.stored.isCompletedExceptionally());
+                assertFalse(Files.exists(stream.tempPath));
+            }
+        } catch (IOException | InterruptedException e) {
+            fail("Caught Exception!");
+        }
+    }
+
+    @Test
+    public void testClientChecksumsAreVerified() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 0);
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.CRC32C,
+                    ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.CRC32C, ByteBuffer.wrap(chunkData)));
+            try {
+                // The chunk is stored with the Client's checksums, in the Client's algorithm
+                ChunkStream stream = null;
+                for (int sliceIndex = 0; sliceIndex < ChunkSlice.getSliceCount(chunkData.length); sliceIndex++) {
+                    int sliceOffset = sliceIndex * Constants.SLICE_SIZE;
+                    ChunkSlice slice = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                            "/input_35kb.data", 0, 4L, chunkData.length, sliceIndex, ByteBuffer.wrap(chunkData,
+                            sliceOffset, Math.min(Constants.SLICE_SIZE, chunkData.length - sliceOffset)), integrity);
+                    stream = ChunkStream.forSlice(slice);
+                    stream.writeSlice(slice.getSliceIndex(), slice.getChunkDataBuffer(), slice.algorithmId,
+                            slice.getSliceChecksum());
+                }
+                assertFalse(stream.stored.isCompletedExceptionally());
+                Chunk chunk = Chunk.load(filename);
+                assertEquals(integrity, chunk.integrity);
+                assertTrue(chunk.isValid());
+
+                // A slice which does not match its checksum fails the stream
+                byte[] editedData = chunkData.clone();
+                editedData[100] ^= 0xFF;
+                ChunkSlice slice = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                        "/input_35kb.data", 0, 5L, editedData.length, 0,
+                        ByteBuffer.wrap(editedData, 0, Constants.SLICE_SIZE), integrity);
+                stream = ChunkStream.forSlice(slice);
+                stream.writeSlice(slice.getSliceIndex(), slice.getChunkDataBuffer(), slice.algorithmId,
+                        slice.getSliceChecksum());
+                assertTrue(stream.stored.isCompletedExceptionally());
+                assertEquals(chunk, Chunk.load(filename));
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testStoreRequestIsStoredInOnePass() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), 1);
+        try {
+            byte[] chunkData = TestChunks.readTestInput();
+            try {
+                ChunkStream.store(new ChunkStoreRequest("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                        "/input_35kb.data", 1, chunkData));
+                Chunk chunk = Chunk.load(filename);
+                assertArrayEquals(chunkData, chunk.data);
+                assertEquals(new ChunkIntegrity(chunkData), chunk.integrity);
+                assertEquals(1, chunk.metadata.getVersion());
+
+                // Storing it again replaces it with the next version
+                ChunkStream.store(new ChunkStoreRequest("shark", "129.82.45.138", 9001, new ArrayList<>(),
+                        "/input_35kb.data", 1, chunkData));
+                assertEquals(2, Chunk.readChunkVersion(filename));
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
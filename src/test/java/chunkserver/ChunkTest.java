@@ -9,6 +9,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -19,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static util.Constants.CHUNK_SIZE;
@@ -159,6 +162,44 @@ public class ChunkTest {
         }
     }
 
+    @Test
+    public void testUpdateVersionOfUnchangedChunk() {
+        Chunk.setChunkDir(getTestResourcesPath());
+        String testFileRelativePath = "/" + testFiles[1];
+        try {
+            byte[] chunkData = Files.readAllBytes(Paths.get(getTestResourceAbsolutePath(testFiles[1])));
+            int testSequence = 1;
+            ChunkMetadata metadata = new ChunkMetadata(testFileRelativePath, testSequence, chunkData.length);
+            ChunkIntegrity integrity = new ChunkIntegrity(chunkData);
+            ChunkFilename filename = new ChunkFilename(testFileRelativePath, getTestResourcesPath(), testSequence);
+            Chunk.save(new Chunk(metadata, integrity, chunkData), filename);
+            try {
+                // Left be if not the expected version or checksums
+                byte[] editedData = chunkData.clone();
+                editedData[0] ^= 0xFF;
+                assertNull(Chunk.updateVersion(filename, 2, integrity));
+                assertNull(Chunk.updateVersion(filename, 1, new ChunkIntegrity(editedData)));
+                assertEquals(1, Chunk.readChunkVersion(filename));
+
+                // Otherwise, the version is incremented and the data kept
+                ChunkMetadata updatedMetadata = Chunk.updateVersion(filename, 1, integrity);
+                assertEquals(2, updatedMetadata.getVersion());
+                Chunk reloadedChunk = Chunk.load(filename);
+                assertEquals(2, reloadedChunk.metadata.getVersion());
+                assertEquals(new Chunk(updatedMetadata, integrity, chunkData), reloadedChunk);
+                assertTrue(reloadedChunk.isValid());
+            } finally {
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            fail("Caught IOException!");
+        } finally {
+            Chunk.setChunkDir("/tmp");
+        }
+    }
+
     @Test
     public void testMakeParentDirsIfNotExist() {
         String absolutePathToTestResources = getTestResourcesPath();
@@ -0,0 +1,101 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkVerificationStateTest {
+
+    /**
+     * Verifies a chunk as a read would, identifying it before opening it.
+     */
+    private static boolean verify(ChunkFilename filename) throws IOException {
+        ChunkVerificationState state = ChunkVerificationState.getInstance();
+        String identity = state.identify(filename);
+        StoredChunk storedChunk = StoredChunk.open(filename);
+        try {
+            return state.verify(filename, identity, storedChunk);
+        } finally {
+            storedChunk.close();
+        }
+    }
+
+    @Test
+    public void testBitRotIsFoundOnceVerificationExpires() {
+        ChunkVerificationState state = ChunkVerificationState.getInstance();
+        long reverifyIntervalMillis = state.reverifyIntervalMillis;
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                state.reverifyIntervalMillis = 60 * 1000;
+                assertTrue(verify(filename));
+
+                // Flip the last byte of the chunk data behind the file system's back, as bit rot would
+                Path path = Paths.get(filename.getChunkFilename());
+                FileTime lastModified = Files.getLastModifiedTime(path);
+                RandomAccessFile file = new RandomAccessFile(filename.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+                Files.setLastModifiedTime(path, lastModified);
+
+                assertTrue(verify(filename)); // still vouched for
+                state.reverifyIntervalMillis = 1;
+                Thread.sleep(5);
+                assertFalse(verify(filename));
+                assertEquals(0, state.size());
+            } finally {
+                state.reverifyIntervalMillis = reverifyIntervalMillis;
+                state.clear();
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } catch (InterruptedException e) {
+            fail("Interrupted!");
+        }
+    }
+
+    @Test
+    public void testRewrittenChunkIsVerifiedAgain() {
+        ChunkVerificationState state = ChunkVerificationState.getInstance();
+        long reverifyIntervalMillis = state.reverifyIntervalMillis;
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(1);
+            try {
+                state.reverifyIntervalMillis = 60 * 1000;
+                String identity = state.identify(filename);
+                assertTrue(verify(filename));
+                assertTrue(state.isRecentlyVerified(filename, identity, 1));
+                assertFalse(state.isRecentlyVerified(filename, identity, 2));
+
+                // Saving replaces the chunk file, which both forgets the verification and changes the identity
+                Chunk.update(Chunk.load(filename), filename);
+                assertEquals(0, state.size());
+                assertNotEquals(identity, state.identify(filename));
+            } finally {
+                state.reverifyIntervalMillis = reverifyIntervalMillis;
+                state.clear();
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
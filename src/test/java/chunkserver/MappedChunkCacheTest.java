@@ -0,0 +1,103 @@
+package chunkserver;
+
+import messaging.ChunkReadResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class MappedChunkCacheTest {
+
+    @Test
+    public void testMappingIsSharedUntilChunkIsSaved() {
+        MappedChunkCache cache = MappedChunkCache.getInstance();
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                StoredChunk mapped = cache.get(filename);
+                assertFalse(mapped.hasFileChannel());
+                assertTrue(mapped.isValid());
+                assertSame(mapped, cache.get(filename));
+
+                Chunk.update(Chunk.load(filename), filename);
+                assertFalse(cache.contains(filename));
+                StoredChunk remapped = cache.get(filename);
+                assertNotSame(mapped, remapped);
+                assertEquals(2, remapped.metadata.getVersion());
+                assertEquals(1, mapped.metadata.getVersion()); // the old mapping still holds the old version intact
+                assertTrue(mapped.isValid());
+            } finally {
+                cache.invalidate(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedMappingsAreEvicted() {
+        MappedChunkCache cache = MappedChunkCache.getInstance();
+        long maxMappedBytes = cache.maxMappedBytes;
+        try {
+            ChunkFilename first = TestChunks.saveTestChunk(1);
+            ChunkFilename second = TestChunks.saveTestChunk(2);
+            ChunkFilename third = TestChunks.saveTestChunk(3);
+            try {
+                cache.clear();
+                cache.maxMappedBytes = 2 * cache.get(first).getFileSize();
+                cache.get(second);
+                cache.get(first); // second is now the least recently used
+                cache.get(third);
+                assertTrue(cache.contains(first));
+                assertFalse(cache.contains(second));
+                assertTrue(cache.contains(third));
+                assertEquals(cache.maxMappedBytes, cache.getMappedBytes());
+            } finally {
+                cache.maxMappedBytes = maxMappedBytes;
+                cache.clear();
+                for (ChunkFilename filename: new ChunkFilename[]{first, second, third}) {
+                    ChunkCatalog.getInstance().remove(filename);
+                    assertTrue(new File(filename.getChunkFilename()).delete());
+                }
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testMappedResponseMatchesMarshaledResponse() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(4);
+            try {
+                Chunk chunk = Chunk.load(filename);
+                ChunkReadResponse inMemory = new ChunkReadResponse("shark", "129.82.45.138", 9001,
+                        "/input_35kb.data", 4, chunk, new ArrayList<>());
+                ChunkReadResponse mapped = new ChunkReadResponse("shark", "129.82.45.138", 9001,
+                        "/input_35kb.data", 4, MappedChunkCache.getInstance().get(filename), new ArrayList<>());
+
+                assertNull(mapped.getFileRegion());
+                assertArrayEquals(inMemory.getMarshaledBytes(), mapped.getMarshaledBytes());
+                assertEquals(inMemory.getMarshaledBytes().length, mapped.getFrameLength());
+            } finally {
+                MappedChunkCache.getInstance().invalidate(filename);
+                ChunkCatalog.getInstance().remove(filename);
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
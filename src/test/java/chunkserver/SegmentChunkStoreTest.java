@@ -0,0 +1,199 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class SegmentChunkStoreTest {
+
+    private static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    private static Path getSegmentDir() {
+        return Paths.get(getTestResourcesPath(), "test_segments");
+    }
+
+    private static void deleteSegmentDir() throws IOException {
+        try (Stream<Path> files = Files.walk(getSegmentDir())) {
+            for (Path file: (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testChunkApiReadsAndWritesSegments() {
+        ChunkFilename filename = new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 0);
+        try {
+            SegmentChunkStore store = SegmentChunkStore.open(getSegmentDir(), 256 * 1024);
+            Chunk.setStore(store);
+            try {
+                Chunk chunk = TestChunks.newTestChunk("/segments/input_35kb.data", 0);
+                Chunk.save(chunk, filename);
+                assertTrue(Chunk.alreadyExists(filename));
+                assertFalse(new File(filename.getChunkFilename()).exists());
+                assertEquals(chunk, Chunk.load(filename));
+
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                try {
+                    assertTrue(storedChunk.isValid());
+                    assertEquals(chunk, storedChunk.toChunk());
+                    assertEquals(store.getLocation(filename).getOffset(), storedChunk.toFileRegion().position);
+                } finally {
+                    storedChunk.close();
+                }
+
+                Chunk.update(chunk, filename);
+                assertEquals(2, Chunk.readChunkMetadata(filename).getVersion());
+                assertEquals(List.of(filename.getChunkFilename()), store.list());
+            } finally {
+                store.close();
+                Chunk.setStore(null);
+                ChunkCatalog.getInstance().remove(filename);
+                deleteSegmentDir();
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testReopenRebuildsIndexAndTruncatesTornRecord() {
+        try {
+            SegmentChunkStore store = SegmentChunkStore.open(getSegmentDir(), 64 * 1024);
+            try {
+                for (int sequence = 0; sequence < 3; sequence++) {
+                    Chunk chunk = TestChunks.newTestChunk("/segments/input_35kb.data", sequence);
+                    store.write(new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), sequence),
+                            chunk.metadata, chunk.integrity, ByteBuffer.wrap(chunk.data));
+                }
+                assertEquals(3, store.getSegmentCount()); // each 35KB chunk fills most of a 64KB segment
+                store.close();
+
+                Path lastSegment;
+                try (Stream<Path> files = Files.list(getSegmentDir())) {
+                    lastSegment = files.max(Comparator.naturalOrder()).orElseThrow();
+                }
+                long intactLength = Files.size(lastSegment);
+                try (RandomAccessFile file = new RandomAccessFile(lastSegment.toFile(), "rw")) {
+                    file.setLength(intactLength + 100); // crash part way through appending another record
+                    file.seek(intactLength);
+                    file.writeInt(20);
+                }
+
+                store = SegmentChunkStore.open(getSegmentDir(), 64 * 1024);
+                assertEquals(3, store.list().size());
+                assertEquals(intactLength, Files.size(lastSegment));
+                Chunk.setStore(store);
+                for (int sequence = 0; sequence < 3; sequence++) {
+                    Chunk chunk = Chunk.load(new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(),
+                            sequence));
+                    assertEquals(sequence, chunk.metadata.getSequence());
+                    assertArrayEquals(TestChunks.newTestChunk("/segments/input_35kb.data", sequence).data, chunk.data);
+                }
+            } finally {
+                store.close();
+                Chunk.setStore(null);
+                deleteSegmentDir();
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testCompactionDropsSupersededVersions() {
+        ChunkFilename updated = new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 0);
+        ChunkFilename untouched = new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 1);
+        try {
+            SegmentChunkStore store = SegmentChunkStore.open(getSegmentDir(), 80 * 1024);
+            Chunk.setStore(store);
+            try {
+                Chunk.save(TestChunks.newTestChunk("/segments/input_35kb.data", 0), updated);
+                Chunk.save(TestChunks.newTestChunk("/segments/input_35kb.data", 1), untouched);
+                for (int i = 0; i < 4; i++) {
+                    Chunk.update(TestChunks.newTestChunk("/segments/input_35kb.data", 0), updated);
+                }
+                assertEquals(3, store.getSegmentCount());
+
+                // Every sealed segment is at most half live, including the one sealed by compaction itself
+                store.compact();
+                assertEquals(1, store.getSegmentCount());
+                assertEquals(5, Chunk.readChunkMetadata(updated).getVersion());
+                assertArrayEquals(TestChunks.newTestChunk("/segments/input_35kb.data", 1).data,
+                        Chunk.load(untouched).data);
+
+                store.close();
+                store = SegmentChunkStore.open(getSegmentDir(), 80 * 1024);
+                Chunk.setStore(store);
+                assertEquals(5, Chunk.readChunkMetadata(updated).getVersion());
+                assertEquals(2, store.list().size());
+            } finally {
+                store.close();
+                Chunk.setStore(null);
+                ChunkCatalog.getInstance().remove(updated);
+                ChunkCatalog.getInstance().remove(untouched);
+                deleteSegmentDir();
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testReopenDiscardsCorruptedRecord() {
+        try {
+            SegmentChunkStore store = SegmentChunkStore.open(getSegmentDir(), 1024 * 1024);
+            try {
+                for (int sequence = 0; sequence < 2; sequence++) {
+                    Chunk chunk = TestChunks.newTestChunk("/segments/input_35kb.data", sequence);
+                    store.write(new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), sequence),
+                            chunk.metadata, chunk.integrity, ByteBuffer.wrap(chunk.data));
+                }
+                SegmentChunkStore.Location first = store.getLocation(
+                        new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 0));
+                SegmentChunkStore.Location second = store.getLocation(
+                        new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 1));
+                store.close();
+
+                // Flip the last byte of the second stored chunk, leaving its record's framing intact
+                Path segment = getSegmentDir().resolve(String.format("segment_%06d.log", second.getSegmentId()));
+                try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                    long lastByte = second.getOffset() + second.getLength() - 1;
+                    file.seek(lastByte);
+                    int value = file.read();
+                    file.seek(lastByte);
+                    file.write(value ^ 0xFF);
+                }
+
+                store = SegmentChunkStore.open(getSegmentDir(), 1024 * 1024);
+                assertEquals(1, store.list().size());
+                assertFalse(store.exists(new ChunkFilename("/segments/input_35kb.data", getTestResourcesPath(), 1)));
+                assertEquals(first.getOffset() + first.getLength() + Long.BYTES, Files.size(segment));
+            } finally {
+                store.close();
+                deleteSegmentDir();
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
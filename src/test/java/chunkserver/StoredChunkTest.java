@@ -0,0 +1,162 @@
+package chunkserver;
+
+import messaging.ChunkRangeReadResponse;
+import messaging.ChunkReadResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class StoredChunkTest {
+
+    @Test
+    public void testOpenMatchesLoad() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            StoredChunk storedChunk = StoredChunk.open(filename);
+            try {
+                assertTrue(storedChunk.isValid());
+                assertEquals(Chunk.load(filename), storedChunk.toChunk());
+                assertEquals(new File(filename.getChunkFilename()).length(), storedChunk.getFileSize());
+            } finally {
+                storedChunk.close();
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testCorruptedChunkIsInvalid() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                // Flip the last byte of the chunk data
+                RandomAccessFile file = new RandomAccessFile(filename.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                assertFalse(storedChunk.isValid());
+                storedChunk.close();
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testStreamedResponseMatchesMarshaledResponse() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                Chunk chunk = Chunk.load(filename);
+                ChunkReadResponse inMemory = new ChunkReadResponse("shark", "129.82.45.138", 9001,
+                        "/input_35kb.data", 0, chunk, new ArrayList<>());
+
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                ChunkReadResponse streamed = new ChunkReadResponse("shark", "129.82.45.138", 9001,
+                        "/input_35kb.data", 0, storedChunk, new ArrayList<>());
+                streamed.getFileRegion().close();
+
+                // Marshaled bytes followed by the chunk file are exactly the fully marshaled response
+                ByteArrayOutputStream frame = new ByteArrayOutputStream();
+                frame.write(streamed.getMarshaledBytes());
+                frame.write(Files.readAllBytes(Paths.get(filename.getChunkFilename())));
+                assertArrayEquals(inMemory.getMarshaledBytes(), frame.toByteArray());
+                assertEquals(inMemory.getMarshaledBytes().length, streamed.getFrameLength());
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testCorruptionOutsideRangeIsIgnored() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                // Flip the last byte of the chunk data, in its last slice
+                RandomAccessFile file = new RandomAccessFile(filename.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                try {
+                    int chunkSize = storedChunk.metadata.getSizeBytes();
+                    assertTrue(storedChunk.isRangeValid(0, 1000));
+                    assertTrue(storedChunk.isRangeValid(8192, 8192));
+                    assertFalse(storedChunk.isRangeValid(chunkSize - 10, 10));
+                    assertFalse(storedChunk.isRangeValid(0, chunkSize));
+                } finally {
+                    storedChunk.close();
+                }
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testStreamedRangeResponseMatchesChunkData() {
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                Chunk chunk = Chunk.load(filename);
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                ChunkRangeReadResponse streamed = new ChunkRangeReadResponse("shark", "129.82.45.138", 9001,
+                        "/input_35kb.data", 0, storedChunk, 10000, 5000);
+
+                // Marshaled bytes followed by the streamed region unmarshal to the range of the chunk's data
+                ByteArrayOutputStream frame = new ByteArrayOutputStream();
+                frame.write(streamed.getMarshaledBytes());
+                frame.write(Arrays.copyOfRange(Files.readAllBytes(Paths.get(filename.getChunkFilename())),
+                        (int) streamed.getFileRegion().position,
+                        (int) (streamed.getFileRegion().position + streamed.getFileRegion().getCount())));
+                streamed.getFileRegion().close();
+
+                DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(
+                        new ByteArrayInputStream(frame.toByteArray())));
+                dataInputStream.readInt(); // skip type
+                ChunkRangeReadResponse received = new ChunkRangeReadResponse(dataInputStream);
+                dataInputStream.close();
+
+                assertTrue(received.getValid());
+                assertEquals(10000, received.getOffset());
+                assertArrayEquals(Arrays.copyOfRange(chunk.data, 10000, 15000), received.getData());
+            } finally {
+                assertTrue(new File(filename.getChunkFilename()).delete());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
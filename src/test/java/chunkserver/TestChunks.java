@@ -0,0 +1,56 @@
+package chunkserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Chunks of the 35KB test input, shared by the chunkserver tests, which save them in the test resources directory.
+ */
+public class TestChunks {
+
+    public static String getTestResourcesPath() {
+        String path = "src/test/resources";
+        File file = new File(path);
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * @return The 35KB test input
+     */
+    public static byte[] readTestInput() throws IOException {
+        return Files.readAllBytes(Paths.get(getTestResourcesPath() + "/input_35kb.data"));
+    }
+
+    /**
+     * Builds a chunk of a file, along with its integrity information.
+     */
+    public static Chunk newTestChunk(String absolutePath, int sequence, byte[] chunkData) {
+        ChunkMetadata metadata = new ChunkMetadata(absolutePath, sequence, chunkData.length);
+        return new Chunk(metadata, new ChunkIntegrity(chunkData), chunkData);
+    }
+
+    /**
+     * Builds a chunk of a file holding the 35KB test input.
+     */
+    public static Chunk newTestChunk(String absolutePath, int sequence) throws IOException {
+        return newTestChunk(absolutePath, sequence, readTestInput());
+    }
+
+    /**
+     * Saves the 35KB test input as a chunk, returning its filename.
+     */
+    public static ChunkFilename saveTestChunk(int sequence) throws IOException {
+        return saveTestChunk(sequence, readTestInput());
+    }
+
+    /**
+     * Saves chunk data as a chunk of the 35KB test input's file, returning its filename.
+     */
+    public static ChunkFilename saveTestChunk(int sequence, byte[] chunkData) throws IOException {
+        ChunkFilename filename = new ChunkFilename("/input_35kb.data", getTestResourcesPath(), sequence);
+        Chunk.save(newTestChunk("/input_35kb.data", sequence, chunkData), filename);
+        return filename;
+    }
+}
@@ -0,0 +1,180 @@
+package chunkserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class VerifiedChunkCacheTest {
+
+    private static void deleteTestChunk(ChunkFilename filename) {
+        ChunkCatalog.getInstance().remove(filename);
+        assertTrue(new File(filename.getChunkFilename()).delete());
+    }
+
+    @Test
+    public void testCachedCopyOutlivesCorruptionUntilSaved() {
+        VerifiedChunkCache cache = VerifiedChunkCache.getInstance();
+        long maxCachedBytes = cache.maxCachedBytes;
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(0);
+            try {
+                cache.clear();
+                cache.maxCachedBytes = 1024 * 1024;
+                StoredChunk verified = cache.readVerified(filename);
+                assertNotNull(verified);
+                verified.close();
+                assertEquals(1, cache.getMisses());
+
+                // Flip the last byte of the chunk data; the cached copy is unaffected
+                RandomAccessFile file = new RandomAccessFile(filename.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+
+                StoredChunk cached = cache.readVerified(filename);
+                assertFalse(cached.hasFileChannel());
+                assertTrue(cached.isValid());
+                assertEquals(1, cache.getHits());
+
+                // Once dropped, the corrupted chunk file fails verification
+                cache.invalidate(filename);
+                assertNull(cache.readVerified(filename));
+                assertFalse(cache.contains(filename));
+            } finally {
+                cache.maxCachedBytes = maxCachedBytes;
+                cache.clear();
+                deleteTestChunk(filename);
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testSavingChunkInvalidatesIt() {
+        VerifiedChunkCache cache = VerifiedChunkCache.getInstance();
+        long maxCachedBytes = cache.maxCachedBytes;
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(1);
+            try {
+                cache.clear();
+                cache.maxCachedBytes = 1024 * 1024;
+                cache.readVerified(filename).close();
+                assertTrue(cache.contains(filename));
+
+                Chunk.update(Chunk.load(filename), filename);
+                assertFalse(cache.contains(filename));
+                StoredChunk reread = cache.readVerified(filename);
+                reread.close();
+                assertEquals(2, reread.metadata.getVersion());
+            } finally {
+                cache.maxCachedBytes = maxCachedBytes;
+                cache.clear();
+                deleteTestChunk(filename);
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testProtectedChunksSurviveOneOffReads() {
+        VerifiedChunkCache cache = VerifiedChunkCache.getInstance();
+        long maxCachedBytes = cache.maxCachedBytes;
+        try {
+            ChunkFilename hot = TestChunks.saveTestChunk(2);
+            ChunkFilename first = TestChunks.saveTestChunk(3);
+            ChunkFilename second = TestChunks.saveTestChunk(4);
+            ChunkFilename third = TestChunks.saveTestChunk(5);
+            try {
+                cache.clear();
+                StoredChunk hotChunk = StoredChunk.open(hot);
+                hotChunk.close();
+                cache.maxCachedBytes = 3 * hotChunk.getFileSize();
+
+                // Reading the hot chunk again promotes it
+                cache.readVerified(hot).close();
+                StoredChunk promoted = cache.get(hot);
+                assertTrue(cache.isProtected(hot));
+
+                // A scan of one-off reads only churns the probationary segment
+                for (ChunkFilename filename: new ChunkFilename[]{first, second, third}) {
+                    cache.readVerified(filename).close();
+                }
+                assertSame(promoted, cache.get(hot));
+                assertFalse(cache.contains(first));
+                assertTrue(cache.contains(third));
+                assertEquals(1, cache.getEvictions());
+                assertTrue(cache.getCachedBytes() <= cache.maxCachedBytes);
+            } finally {
+                cache.maxCachedBytes = maxCachedBytes;
+                cache.clear();
+                for (ChunkFilename filename: new ChunkFilename[]{hot, first, second, third}) {
+                    deleteTestChunk(filename);
+                }
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testCopyIsHashedWhenVerificationWasSkipped() {
+        VerifiedChunkCache cache = VerifiedChunkCache.getInstance();
+        ChunkVerificationState state = ChunkVerificationState.getInstance();
+        long maxCachedBytes = cache.maxCachedBytes;
+        long reverifyIntervalMillis = state.reverifyIntervalMillis;
+        try {
+            ChunkFilename filename = TestChunks.saveTestChunk(6);
+            try {
+                cache.clear();
+                state.clear();
+                state.reverifyIntervalMillis = 60 * 1000;
+                StoredChunk storedChunk = StoredChunk.open(filename);
+                assertTrue(state.verify(filename, state.identify(filename), storedChunk));
+                storedChunk.close();
+
+                // Flip the last byte of the chunk data behind the file system's back, as bit rot would
+                Path path = Paths.get(filename.getChunkFilename());
+                FileTime lastModified = Files.getLastModifiedTime(path);
+                RandomAccessFile file = new RandomAccessFile(filename.getChunkFilename(), "rw");
+                file.seek(file.length() - 1);
+                int lastByte = file.read();
+                file.seek(file.length() - 1);
+                file.write(lastByte ^ 0xFF);
+                file.close();
+                Files.setLastModifiedTime(path, lastModified);
+
+                // The read skips verifying the stored chunk, but the copy it would cache is hashed and fails
+                cache.maxCachedBytes = 1024 * 1024;
+                assertNull(cache.readVerified(filename));
+                assertFalse(cache.contains(filename));
+                assertEquals(0, state.size());
+            } finally {
+                cache.maxCachedBytes = maxCachedBytes;
+                state.reverifyIntervalMillis = reverifyIntervalMillis;
+                cache.clear();
+                state.clear();
+                deleteTestChunk(filename);
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package client;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+import messaging.ChunkChecksumResponse;
+import messaging.ChunkStoreResponse;
+import messaging.ClientWriteResponse;
+import messaging.Message;
+import networking.Connection;
+import networking.ConnectionPool;
+import networking.Processor;
+import networking.Server;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class FileClientTest {
+
+    private static CompletableFuture<Message> response(boolean success) {
+        return CompletableFuture.completedFuture(new ChunkStoreResponse("shark", "129.82.45.138", 9000,
+                "/path/to/my/file", 0, success));
+    }
+
+    @Test
+    public void testRequiredAcks() {
+        assertEquals(3, AckPolicy.ALL.getRequiredAcks(3));
+        assertEquals(2, AckPolicy.MAJORITY.getRequiredAcks(3));
+        assertEquals(1, AckPolicy.ONE.getRequiredAcks(3));
+        assertEquals(1, AckPolicy.MAJORITY.getRequiredAcks(1));
+    }
+
+    @Test
+    public void testAwaitAcksReturnsOnceSatisfied() {
+        CompletableFuture<Message> outstanding = new CompletableFuture<>();
+        assertEquals(2, FileClient.awaitAcks(List.of(response(true), outstanding, response(true)), 2));
+    }
+
+    @Test
+    public void testAwaitAcksReturnsOnceUnsatisfiable() {
+        CompletableFuture<Message> outstanding = new CompletableFuture<>();
+        CompletableFuture<Message> failed = CompletableFuture.failedFuture(new IOException("Connection reset"));
+        assertEquals(1, FileClient.awaitAcks(List.of(response(true), outstanding, response(false), failed), 3));
+    }
+
+    @Test
+    public void testGetChunkRange() {
+        int chunkSize = Constants.CHUNK_SIZE;
+        assertArrayEquals(new int[]{100, 50}, FileClient.getChunkRange(100, 50, 0));
+        assertArrayEquals(new int[]{chunkSize - 10, 10}, FileClient.getChunkRange(chunkSize - 10, 30, 0));
+        assertArrayEquals(new int[]{0, 20}, FileClient.getChunkRange(chunkSize - 10, 30, 1));
+        assertArrayEquals(new int[]{0, chunkSize}, FileClient.getChunkRange(0, 3 * chunkSize, 1));
+    }
+
+    /**
+     * Chunk Server holding version 1 of the chunk, checksummed with the given algorithm, which accepts only the first
+     * acceptedUpdates version updates it is sent, refusing the rest.
+     */
+    private static class VersionUpdateServer extends Server {
+
+        private final byte[] chunk;
+        private final ChunkIntegrity integrity;
+        private final AtomicInteger acceptedUpdates;
+
+        VersionUpdateServer(byte[] chunk, ChecksumAlgorithm algorithm, int acceptedUpdates) {
+            this.chunk = chunk;
+            this.integrity = new ChunkIntegrity(algorithm,
+                    ChunkIntegrity.calculateSliceChecksums(algorithm, ByteBuffer.wrap(chunk)));
+            this.acceptedUpdates = new AtomicInteger(acceptedUpdates);
+        }
+
+        @Override
+        public Processor createProcessor(Connection connection) {
+            Processor processor = new Processor() {
+                @Override
+                public void process(Message message) {
+                    if (message.getType() == Message.MessageType.CHUNK_CHECKSUM_REQUEST) {
+                        sendResponse(this.connection, new ChunkChecksumResponse("shark", "129.82.45.138", 9000,
+                                "/path/to/my/file", 0, 1, chunk.length, integrity));
+                    } else {
+                        sendResponse(this.connection, new ChunkStoreResponse("shark", "129.82.45.138", 9000,
+                                "/path/to/my/file", 0, acceptedUpdates.getAndDecrement() > 0));
+                    }
+                }
+            };
+            processor.connection = connection;
+            return processor;
+        }
+    }
+
+    private boolean updateUnchangedChunk(ChecksumAlgorithm algorithm, int acceptedUpdates) throws IOException {
+        byte[] chunk = new byte[Constants.SLICE_SIZE * 2];
+        VersionUpdateServer server = new VersionUpdateServer(chunk, algorithm, acceptedUpdates);
+        server.bindToPort(Constants.CHUNK_SERVER_PORT, false);
+        server.launchAsThread();
+        try {
+            // Two replicas, both this host
+            ClientWriteResponse writeResponse = new ClientWriteResponse("shark", "129.82.45.138", 9001,
+                    List.of("localhost", "127.0.0.1"), "/path/to/my/file", 0);
+            return new FileClient("localhost", Constants.CONTROLLER_PORT).updateUnchangedChunk(writeResponse, chunk,
+                    new ChunkIntegrity(chunk));
+        } finally {
+            ConnectionPool.getInstance().clear();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUpdateUnchangedChunkRefusedByEveryReplica() {
+        try {
+            // No replica updated its version, so the chunk can be sent in full
+            assertFalse(updateUnchangedChunk(ChecksumAlgorithm.SHA1, 0));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testUpdateUnchangedChunkRefusedByOneReplica() {
+        // One replica updated its version, so sending the chunk would put the replicas on different versions
+        assertThrows(IOException.class, () -> updateUnchangedChunk(ChecksumAlgorithm.SHA1, 1));
+    }
+
+    @Test
+    public void testUpdateUnchangedChunkOnlyTrustsCryptographicChecksums() {
+        try {
+            assertTrue(updateUnchangedChunk(ChecksumAlgorithm.SHA256, 2));
+            // Matching CRC32C checksums do not show the chunk is unchanged, so it is sent instead
+            assertFalse(updateUnchangedChunk(ChecksumAlgorithm.CRC32C, 2));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
@@ -3,15 +3,19 @@ package controller;
 import messaging.ChunkStoreRequest;
 import messaging.HeartbeatMajor;
 import messaging.HeartbeatMinor;
+import messaging.LaggingReplicaNotification;
 
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 import chunkserver.ChunkMetadata;
 
 public class ControllerProcessorTest {
@@ -81,4 +85,20 @@ public class ControllerProcessorTest {
         processor.process(chunkStoreRequest);
     }
 
+    @Test
+    public void testProcessLaggingReplicaNotification() {
+        Controller controller = new Controller();
+        ControllerProcessor processor = new ControllerProcessor(null, controller);
+
+        FileMetadata fileMetadata = new FileMetadata("/path/to/my/file");
+        fileMetadata.put(new HashSet<>(Arrays.asList("shark", "tuna", "bass")), 3);
+        controller.getFilesMetadata().put("/path/to/my/file", fileMetadata);
+
+        LaggingReplicaNotification notification = new LaggingReplicaNotification("client", "129.82.45.138", 0,
+                "/path/to/my/file", 3, "bass", Arrays.asList("shark", "tuna"), false);
+        processor.process(notification);
+
+        // Reads of the chunk no longer go to the lagging replica
+        assertEquals(new HashSet<>(Arrays.asList("shark", "tuna")), fileMetadata.get(3));
+    }
 }
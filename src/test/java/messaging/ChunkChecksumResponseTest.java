@@ -0,0 +1,54 @@
+package messaging;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkChecksumResponseTest {
+
+    private static ChunkChecksumResponse marshalToUnmarshal(ChunkChecksumResponse a) throws IOException {
+        ByteArrayInputStream byteInputStream = new ByteArrayInputStream(a.getMarshaledBytes());
+        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(byteInputStream));
+        dataInputStream.readInt(); // skip type
+        ChunkChecksumResponse b = new ChunkChecksumResponse(dataInputStream);
+        dataInputStream.close();
+        byteInputStream.close();
+        return b;
+    }
+
+    @Test
+    public void testMarshalToUnmarshal() {
+        byte[] chunkData = new byte[20000];
+        for (int i = 0; i < chunkData.length; i++) {
+            chunkData[i] = (byte) i;
+        }
+        ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.CRC32C,
+                ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.CRC32C, ByteBuffer.wrap(chunkData)));
+        ChunkChecksumResponse a = new ChunkChecksumResponse("shark", "129.82.45.138", 9001, "/path/to/my/file", 3,
+                4, chunkData.length, integrity);
+
+        try {
+            ChunkChecksumResponse b = marshalToUnmarshal(a);
+            assertEquals(a, b);
+            assertEquals(integrity, b.getIntegrity());
+
+            // A chunk which is not stored carries no checksums
+            ChunkChecksumResponse notFound = marshalToUnmarshal(new ChunkChecksumResponse("shark", "129.82.45.138",
+                    9001, "/path/to/my/file", 4));
+            assertEquals(false, notFound.getFound());
+            assertNull(notFound.getIntegrity());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package messaging;
+
+import chunkserver.ChecksumAlgorithm;
+import chunkserver.ChunkIntegrity;
+import org.junit.jupiter.api.Test;
+import util.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class ChunkSliceTest {
+
+    private static ChunkSlice testSlice(int sliceIndex) {
+        byte[] chunkData = new byte[Constants.SLICE_SIZE * 2 + 100];
+        for (int i = 0; i < chunkData.length; i++) {
+            chunkData[i] = (byte) i;
+        }
+        int sliceOffset = sliceIndex * Constants.SLICE_SIZE;
+        int sliceLength = Math.min(Constants.SLICE_SIZE, chunkData.length - sliceOffset);
+        return new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(Arrays.asList("tuna", "bass")),
+                "/path/to/my/file", 3, 42L, chunkData.length, sliceIndex,
+                ByteBuffer.wrap(chunkData, sliceOffset, sliceLength));
+    }
+
+    @Test
+    public void testMarshalToUnmarshal() {
+        ChunkSlice a = testSlice(2);
+        try {
+            // Init test input stream
+            ByteArrayInputStream byteInputStream = new ByteArrayInputStream(a.getMarshaledBytes());
+            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(byteInputStream));
+            dataInputStream.readInt(); // skip type
+
+            // Create a new Message from a's marshaled bytes
+            ChunkSlice b = new ChunkSlice(dataInputStream);
+
+            // Clean up input streams
+            dataInputStream.close();
+            byteInputStream.close();
+
+            assertEquals(a, b);
+            assertEquals(100, b.getChunkData().length);
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testForwardDecodedFrame() {
+        ChunkSlice a = testSlice(0);
+        try {
+            ChunkSlice b = (ChunkSlice) MessageFactory.getInstance().createMessage(
+                    ByteBuffer.wrap(a.getMarshaledBytes()));
+            assertEquals(a, b);
+
+            // Cutting the slice through to the next recipient leaves the slice fields intact
+            assertEquals("bass", b.popReplicationRecipient());
+            ChunkSlice c = (ChunkSlice) MessageFactory.getInstance().createMessage(
+                    ByteBuffer.wrap(b.getMarshaledBytes()));
+            assertEquals(Arrays.asList("tuna"), c.getReplicationChunkServers());
+            assertEquals(42L, c.getStreamId());
+            assertEquals(0, c.getSliceIndex());
+            assertEquals(Constants.SLICE_SIZE, c.getChunkDataBuffer().remaining());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testClientChecksumSurvivesDecodedFrame() {
+        byte[] chunkData = new byte[Constants.SLICE_SIZE + 100];
+        for (int i = 0; i < chunkData.length; i++) {
+            chunkData[i] = (byte) i;
+        }
+        ChunkIntegrity integrity = new ChunkIntegrity(ChecksumAlgorithm.CRC32C,
+                ChunkIntegrity.calculateSliceChecksums(ChecksumAlgorithm.CRC32C, ByteBuffer.wrap(chunkData)));
+        ChunkSlice a = new ChunkSlice("shark", "129.82.45.138", 9001, new ArrayList<>(Arrays.asList("tuna", "bass")),
+                "/path/to/my/file", 3, 42L, chunkData.length, 1,
+                ByteBuffer.wrap(chunkData, Constants.SLICE_SIZE, 100), integrity);
+
+        try {
+            ChunkSlice received = (ChunkSlice) MessageFactory.getInstance().createMessage(
+                    ByteBuffer.wrap(a.getMarshaledBytes()));
+            assertEquals(a, received);
+            assertTrue(received.hasChecksum());
+            assertEquals(ChecksumAlgorithm.CRC32C, received.getChecksumAlgorithm());
+            assertArrayEquals(Arrays.copyOfRange(integrity.getSliceChecksums(), ChecksumAlgorithm.CRC32C.checksumLength,
+                    2 * ChecksumAlgorithm.CRC32C.checksumLength), received.getSliceChecksum());
+            assertEquals(100, received.getChunkData().length);
+
+            // A slice sent without a checksum has none
+            assertNull(testSlice(0).getChecksumAlgorithm());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testSliceCount() {
+        assertEquals(1, ChunkSlice.getSliceCount(0));
+        assertEquals(1, ChunkSlice.getSliceCount(Constants.SLICE_SIZE));
+        assertEquals(3, ChunkSlice.getSliceCount(Constants.SLICE_SIZE * 2 + 100));
+        assertFalse(testSlice(1).isLastSlice());
+        assertTrue(testSlice(2).isLastSlice());
+    }
+}
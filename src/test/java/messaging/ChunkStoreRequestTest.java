@@ -9,11 +9,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class ChunkStoreRequestTest {
@@ -49,4 +53,63 @@ public class ChunkStoreRequestTest {
             fail("Caught IOException!");
         }
     }
+
+    @Test
+    public void testBuffersReferenceChunkData() {
+        byte[] testChunkData = "test chunk data".getBytes();
+        ChunkStoreRequest a = new ChunkStoreRequest("shark", "129.82.45.138", 9001,
+                new ArrayList<>(Arrays.asList("tuna", "bass")), "/path/to/my/file", 3, testChunkData);
+        assertNull(a.marshaledBytes); // nothing copied up front
+
+        try {
+            // Header buffer followed by the chunk data itself, not a copy of it
+            ByteBuffer[] buffers = a.getBuffers();
+            assertEquals(2, buffers.length);
+            assertSame(testChunkData, buffers[1].array());
+
+            // Written out in order, the buffers are exactly the marshaled Message
+            ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+            for (ByteBuffer buffer: buffers) {
+                byteOutStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            assertArrayEquals(a.getMarshaledBytes(), byteOutStream.toByteArray());
+            assertEquals(a.getMarshaledBytes().length, a.getFrameLength());
+
+            // Popping a recipient only patches the hop index in the existing header
+            assertEquals("bass", a.popReplicationRecipient());
+            assertSame(buffers[0].array(), a.getBuffers()[0].array());
+            assertEquals(1, ByteBuffer.wrap(a.headerBytes).getInt(a.hopIndexOffset));
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
+    @Test
+    public void testForwardDecodedFrame() {
+        ChunkStoreRequest a = new ChunkStoreRequest("shark", "129.82.45.138", 9001,
+                new ArrayList<>(Arrays.asList("tuna", "bass")), "/path/to/my/file", 3, "test chunk data".getBytes());
+
+        try {
+            // Receive a's frame, as a relay would, then forward it to the next recipient
+            ByteBuffer frame = ByteBuffer.wrap(a.getMarshaledBytes());
+            ChunkStoreRequest received = new ChunkStoreRequest(frame);
+            assertEquals("bass", received.popReplicationRecipient());
+            received.setRequestId(42L);
+
+            // The forwarded request is the received frame itself, patched in place
+            ByteBuffer[] buffers = received.getBuffers();
+            assertEquals(1, buffers.length);
+            assertSame(frame.array(), buffers[0].array());
+
+            DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(buffers[0].array()));
+            dataInputStream.readInt(); // skip type
+            ChunkStoreRequest forwarded = new ChunkStoreRequest(dataInputStream);
+            assertEquals(42L, forwarded.getRequestId());
+            assertEquals(Arrays.asList("tuna"), forwarded.getReplicationChunkServers());
+            assertEquals(1, forwarded.getHopIndex());
+            assertArrayEquals(a.getChunkData(), forwarded.getChunkData());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
 }
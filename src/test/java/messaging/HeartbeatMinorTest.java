@@ -70,6 +70,7 @@ public class HeartbeatMinorTest {
 
             // Calculate expected length
             int expectedByteLength = (4 * Integer.BYTES) + (testHostname.length() + testIpAddr.length());
+            expectedByteLength += Long.BYTES; // request id
             expectedByteLength += Integer.BYTES + Long.BYTES; // Heartbeat common stuff
             expectedByteLength += Integer.BYTES; // newly added chunks list length
             expectedByteLength += Integer.BYTES; // corrupted chunks list length
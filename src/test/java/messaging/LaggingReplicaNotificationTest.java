@@ -0,0 +1,39 @@
+package messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class LaggingReplicaNotificationTest {
+
+    @Test
+    public void testMarshalToUnmarshal() {
+        LaggingReplicaNotification a = new LaggingReplicaNotification("shark", "129.82.45.138", 9001,
+                "/path/to/my/file", 3, "bass", Arrays.asList("tuna", "salmon"), true);
+
+        try {
+            // Init test input stream
+            ByteArrayInputStream byteInputStream = new ByteArrayInputStream(a.getMarshaledBytes());
+            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(byteInputStream));
+            dataInputStream.readInt(); // skip type
+
+            // Create a new Message from a's marshaled bytes
+            LaggingReplicaNotification b = new LaggingReplicaNotification(dataInputStream);
+
+            // Clean up input streams
+            dataInputStream.close();
+            byteInputStream.close();
+
+            assertEquals(a, b);
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+}
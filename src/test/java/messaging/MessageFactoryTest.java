@@ -10,11 +10,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class MessageFactoryTest {
@@ -58,4 +61,24 @@ public class MessageFactoryTest {
             fail("Caught IOException!");
         }
     }
+
+    @Test
+    public void testCreateMessageFromFrameViewsChunkData() {
+        MessageFactory messageFactory = MessageFactory.getInstance();
+        ChunkStoreRequest a = new ChunkStoreRequest("shark", "129.82.45.138", 9001,
+                new ArrayList<>(Arrays.asList("tuna", "bass")), "/path/to/my/file", 3, "test chunk data".getBytes());
+
+        try {
+            // Frame holds exactly the marshaled bytes, as received off the network
+            ByteBuffer frame = ByteBuffer.wrap(a.getMarshaledBytes());
+            Message createdMessage = messageFactory.createMessage(frame);
+
+            assertEquals(a, createdMessage);
+            // Chunk data is a view over the received frame, not a copy of it
+            ChunkStoreRequest b = (ChunkStoreRequest) createdMessage;
+            assertSame(frame.array(), b.getChunkDataBuffer().array());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
 }
@@ -49,6 +49,23 @@ public class MessageTest {
         }
     }
 
+    @Test
+    public void testSetRequestIdPatchesMarshaledBytes() {
+        ChunkReadRequest a = new ChunkReadRequest("shark", "129.82.45.138", 9001, "/path/to/my/file", 3);
+        a.setRequestId(42L);
+        try {
+            DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(a.getMarshaledBytes()));
+            dataInputStream.readInt(); // skip type
+            ChunkReadRequest b = new ChunkReadRequest(dataInputStream);
+            dataInputStream.close();
+
+            assertEquals(a, b);
+            assertEquals(42L, b.getRequestId());
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        }
+    }
+
     @Test
     public void testWriteStringByteLength() {
         String testString = "random string";
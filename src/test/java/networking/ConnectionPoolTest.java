@@ -0,0 +1,105 @@
+package networking;
+
+import messaging.ChunkReadRequest;
+import messaging.ChunkStoreResponse;
+import messaging.ClientWriteRequest;
+import messaging.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolTest {
+
+    public static Integer TESTING_PORT = 11219;
+    public static String TESTING_HOST = "localhost";
+
+    /**
+     * Server which answers every ChunkReadRequest with a successful ChunkStoreResponse, and remembers every
+     * connection it accepts. A ClientWriteRequest is counted, then its connection is dropped without a response.
+     */
+    private static class CountingServer extends Server {
+
+        final List<Socket> accepted = new CopyOnWriteArrayList<>();
+        final AtomicInteger writes = new AtomicInteger(0);
+
+        @Override
+        public void processConnection(Socket clientSocket) {
+            this.accepted.add(clientSocket);
+            super.processConnection(clientSocket);
+        }
+
+        @Override
+        public Processor createProcessor(Connection connection) {
+            Processor processor = new Processor() {
+                @Override
+                public void process(Message message) {
+                    if (message instanceof ClientWriteRequest) {
+                        writes.incrementAndGet();
+                        this.connection.close();
+                        return;
+                    }
+                    ChunkReadRequest request = (ChunkReadRequest) message;
+                    sendResponse(this.connection, new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT,
+                            request.getAbsoluteFilePath(), request.getSequence(), true));
+                }
+            };
+            processor.connection = connection;
+            return processor;
+        }
+    }
+
+    private CountingServer server;
+
+    @BeforeEach
+    public void setUp() {
+        this.server = new CountingServer();
+        this.server.bindToPort(TESTING_PORT, false);
+        this.server.launchAsThread();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ConnectionPool.getInstance().clear();
+        this.server.close();
+    }
+
+    private Message request(int sequence) throws IOException {
+        return Client.sendRequest(TESTING_HOST, TESTING_PORT,
+                new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file", sequence));
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        for (int sequence = 0; sequence < 3; sequence++) {
+            assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file",
+                    sequence, true), request(sequence));
+        }
+        assertEquals(1, this.server.accepted.size());
+    }
+
+    @Test
+    public void testRemotelyClosedConnectionIsReplaced() throws IOException, InterruptedException {
+        request(0);
+        this.server.accepted.get(0).close(); // remote end goes away while the connection sits idle
+
+        Message response = request(1);
+        assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file", 1, true),
+                response);
+        assertEquals(2, this.server.accepted.size());
+    }
+
+    @Test
+    public void testProcessedRequestIsNotRetried() {
+        ClientWriteRequest request = new ClientWriteRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file", 0);
+        assertThrows(IOException.class, () -> Client.sendRequest(TESTING_HOST, TESTING_PORT, request));
+        assertEquals(1, this.server.writes.get());
+    }
+}
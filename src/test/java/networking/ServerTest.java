@@ -1,18 +1,275 @@
 package networking;
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import chunkserver.Chunk;
+import chunkserver.ChunkFilename;
+import chunkserver.ChunkIntegrity;
+import chunkserver.ChunkMetadata;
+import chunkserver.StoredChunk;
+import messaging.ChunkReadRequest;
+import messaging.ChunkReadResponse;
+import messaging.ChunkStoreResponse;
+import messaging.Message;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
 
 public class ServerTest {
 
     public static Integer TESTING_PORT = 11218; 
     public static String TESTING_HOST = "localhost";
 
+    /**
+     * Server which answers every ChunkReadRequest with a successful ChunkStoreResponse for the same chunk.
+     */
+    private static class EchoServer extends Server {
+
+        @Override
+        public Processor createProcessor(Connection connection) {
+            Processor processor = new Processor() {
+                @Override
+                public void process(Message message) {
+                    ChunkReadRequest request = (ChunkReadRequest) message;
+                    sendResponse(this.connection, new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT,
+                            request.getAbsoluteFilePath(), request.getSequence(), true));
+                }
+            };
+            processor.connection = connection;
+            return processor;
+        }
+    }
+
+    private void assertServerResponds(boolean nonBlocking) {
+        EchoServer server = new EchoServer();
+        server.bindToPort(TESTING_PORT, nonBlocking);
+        server.launchAsThread();
+        try {
+            for (int sequence = 0; sequence < 5; sequence++) {
+                ChunkReadRequest request = new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file",
+                        sequence);
+                Message response = Client.sendRequest(TESTING_HOST, TESTING_PORT, request);
+
+                assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file",
+                        sequence, true), response);
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            ConnectionPool.getInstance().clear();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedResponsesOutOfOrder() {
+        EchoServer server = new EchoServer() {
+            @Override
+            public Processor createProcessor(Connection connection) {
+                Processor echo = super.createProcessor(connection);
+                Processor processor = new Processor() {
+                    @Override
+                    public void process(Message message) {
+                        try {
+                            // Answer later requests first
+                            Thread.sleep(50L * (5 - ((ChunkReadRequest) message).getSequence()));
+                        } catch (InterruptedException ignored) {
+                        }
+                        echo.requestId = this.requestId;
+                        echo.process(message);
+                    }
+                };
+                processor.connection = connection;
+                return processor;
+            }
+        };
+        server.bindToPort(TESTING_PORT, false);
+        server.launchAsThread();
+        try {
+            List<CompletableFuture<Message>> responses = new ArrayList<>();
+            for (int sequence = 0; sequence < 5; sequence++) {
+                ChunkReadRequest request = new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file",
+                        sequence);
+                responses.add(Client.sendRequestAsync(TESTING_HOST, TESTING_PORT, request));
+            }
+            for (int sequence = 0; sequence < 5; sequence++) {
+                assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file",
+                        sequence, true), Client.awaitResponse(responses.get(sequence)));
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            ConnectionPool.getInstance().clear();
+            server.close();
+        }
+    }
+
+    /**
+     * EchoServer which waits a while before answering each request.
+     */
+    private static class SlowEchoServer extends EchoServer {
+
+        @Override
+        public Processor createProcessor(Connection connection) {
+            Processor echo = super.createProcessor(connection);
+            Processor processor = new Processor() {
+                @Override
+                public void process(Message message) {
+                    try {
+                        Thread.sleep(50L);
+                    } catch (InterruptedException ignored) {
+                    }
+                    echo.requestId = this.requestId;
+                    echo.process(message);
+                }
+            };
+            processor.connection = connection;
+            return processor;
+        }
+    }
+
+    @Test
+    public void testSaturatedWorkerPoolNonBlocking() {
+        SlowEchoServer server = new SlowEchoServer();
+        server.bindToPort(TESTING_PORT, true);
+        server.workerPool.shutdown();
+        server.workerPool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadPoolExecutor.AbortPolicy());
+        server.launchAsThread();
+        try {
+            List<CompletableFuture<Message>> responses = new ArrayList<>();
+            for (int sequence = 0; sequence < 8; sequence++) {
+                ChunkReadRequest request = new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file",
+                        sequence);
+                responses.add(Client.sendRequestAsync(TESTING_HOST, TESTING_PORT, request));
+            }
+            for (int sequence = 0; sequence < 8; sequence++) {
+                assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file",
+                        sequence, true), Client.awaitResponse(responses.get(sequence)));
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            ConnectionPool.getInstance().clear();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testHalfClosedClientReceivesResponseNonBlocking() {
+        SlowEchoServer server = new SlowEchoServer();
+        server.bindToPort(TESTING_PORT, true);
+        server.launchAsThread();
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(TESTING_HOST, TESTING_PORT))) {
+            SocketConnection connection = new SocketConnection(channel.socket());
+            ChunkReadRequest request = new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/path/to/file", 3);
+            ByteBuffer[] frame = Connection.frameBuffers(request);
+            while (Connection.hasRemaining(frame)) {
+                channel.write(frame);
+            }
+            channel.shutdownOutput(); // done sending, still waiting on the response
+
+            assertEquals(new ChunkStoreResponse(TESTING_HOST, "127.0.0.1", TESTING_PORT, "/path/to/file", 3, true),
+                    connection.receive());
+            assertNull(connection.receive()); // server closes once the response is out
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Server which answers every ChunkReadRequest by streaming the requested chunk file straight from disk.
+     */
+    private static class ChunkFileServer extends Server {
+
+        @Override
+        public Processor createProcessor(Connection connection) {
+            Processor processor = new Processor() {
+                @Override
+                public void process(Message message) {
+                    ChunkReadRequest request = (ChunkReadRequest) message;
+                    try {
+                        StoredChunk storedChunk = StoredChunk.open(new ChunkFilename(request.getAbsoluteFilePath(),
+                                Chunk.getChunkDir(), request.getSequence()));
+                        sendResponse(this.connection, new ChunkReadResponse(TESTING_HOST, "127.0.0.1",
+                                TESTING_PORT, request.getAbsoluteFilePath(), request.getSequence(), storedChunk,
+                                new ArrayList<>()));
+                    } catch (IOException e) {
+                        fail("Caught IOException!");
+                    }
+                }
+            };
+            processor.connection = connection;
+            return processor;
+        }
+    }
+
+    private void assertServerStreamsChunkFile(boolean nonBlocking) {
+        String resourcesPath = new File("src/test/resources").getAbsolutePath();
+        ChunkFilename filename = new ChunkFilename("/input_100kb.data", resourcesPath, 0);
+        ChunkFileServer server = new ChunkFileServer();
+        try {
+            // Larger than a socket send buffer, so the transfer cannot complete in a single write
+            byte[] chunkData = Files.readAllBytes(Paths.get(resourcesPath, "input_100kb.data"));
+            Chunk chunk = new Chunk(new ChunkMetadata("/input_100kb.data", 0, chunkData.length),
+                    new ChunkIntegrity(chunkData), chunkData);
+            Chunk.save(chunk, filename);
+            Chunk.setChunkDir(resourcesPath);
+
+            server.bindToPort(TESTING_PORT, nonBlocking);
+            server.launchAsThread();
+            for (int i = 0; i < 3; i++) {
+                ChunkReadRequest request = new ChunkReadRequest(TESTING_HOST, "127.0.0.1", 0, "/input_100kb.data", 0);
+                ChunkReadResponse response = (ChunkReadResponse) Client.sendRequest(TESTING_HOST, TESTING_PORT,
+                        request);
+                assertEquals(chunk, response.getChunk());
+                assertTrue(response.getChunk().isValid());
+            }
+        } catch (IOException e) {
+            fail("Caught IOException!");
+        } finally {
+            ConnectionPool.getInstance().clear();
+            server.close();
+            Chunk.setChunkDir("/tmp");
+            assertTrue(new File(filename.getChunkFilename()).delete());
+        }
+    }
+
+    @Test
+    public void testStreamChunkFile() {
+        assertServerStreamsChunkFile(false);
+    }
+
+    @Test
+    public void testStreamChunkFileNonBlocking() {
+        assertServerStreamsChunkFile(true);
+    }
 
     @Test
     public void testRun() {
-        //TODO: implement this test
+        assertServerResponds(false);
+    }
+
+    @Test
+    public void testRunNonBlocking() {
+        assertServerResponds(true);
     }
     
 }
@@ -0,0 +1,40 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testAcquireRoundsUpToSizeClass() {
+        ByteBuffer buffer = BufferPool.getInstance().acquire(3000);
+        assertEquals(4096, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(3000, buffer.limit());
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer first = pool.acquire(100000);
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire(70000);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(70000, second.limit());
+    }
+
+    @Test
+    public void testOversizedBufferIsNotPooled() {
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer first = pool.acquire(Constants.BUFFER_POOL_MAX_SIZE + 1);
+        assertEquals(Constants.BUFFER_POOL_MAX_SIZE + 1, first.capacity());
+        pool.release(first);
+        assertNotSame(first, pool.acquire(Constants.BUFFER_POOL_MAX_SIZE + 1));
+    }
+}